@@ -0,0 +1,110 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures throughput of {@link FlushingSpanCollector#collect(Span)} with several producer threads
+ * contending with a thread that flushes. Reporting is a no-op, so this measures queueing overhead.
+ *
+ * <p>Spans dropped because the queue was full are printed after each iteration.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Group)
+public class FlushingSpanCollectorBenchmarks {
+  static final Span SPAN = newSpan();
+
+  final AtomicInteger dropped = new AtomicInteger();
+  FlushingSpanCollector collector;
+
+  @Setup
+  public void setup() {
+    collector = new FlushingSpanCollector(new EmptySpanCollectorMetricsHandler() {
+      @Override public void incrementDroppedSpans(int quantity) {
+        dropped.addAndGet(quantity);
+      }
+    }, 0) {
+      @Override protected void reportSpans(List<Span> drained) {
+      }
+    };
+  }
+
+  @TearDown
+  public void close() {
+    collector.close();
+  }
+
+  @Benchmark @Group("collect_4producers") @GroupThreads(4)
+  public void collect_4producers_collect() {
+    collector.collect(SPAN);
+  }
+
+  @Benchmark @Group("collect_4producers") @GroupThreads(1)
+  public void collect_4producers_flush() {
+    collector.flush();
+  }
+
+  @Benchmark @Group("collect_1producer") @GroupThreads(1)
+  public void collect_1producer_collect() {
+    collector.collect(SPAN);
+  }
+
+  @Benchmark @Group("collect_1producer") @GroupThreads(1)
+  public void collect_1producer_flush() {
+    collector.flush();
+  }
+
+  @TearDown(Level.Iteration)
+  public void reportDropped() {
+    int dropped = this.dropped.getAndSet(0);
+    if (dropped > 0) System.out.println("\ndropped spans: " + dropped);
+  }
+
+  static Span newSpan() {
+    Endpoint endpoint = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+    Span span = Brave.toSpan(SpanId.builder().traceId(1L).spanId(2L).parentId(1L).build());
+    span.setName("get");
+    span.setTimestamp(1472470996199000L);
+    span.setDuration(207000L);
+    span.addToAnnotations(Annotation.create(1472470996199000L, "sr", endpoint));
+    span.addToAnnotations(Annotation.create(1472470996406000L, "ss", endpoint));
+    span.addToBinary_annotations(BinaryAnnotation.create("http.path", "/api", endpoint));
+    return span;
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + FlushingSpanCollectorBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,78 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measures the cost of {@link TraceGrouping grouping} a batch of 1000 spans, whose traces finish
+ * interleaved, against copying the batch and encoding it. Each benchmark copies the batch, as
+ * grouping reorders it in place.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class TraceGrouperBenchmarks {
+  static final int SPAN_COUNT = 1000;
+
+  @Param({"1", "100", "1000"})
+  int traceCount;
+
+  List<Span> finished;
+  TraceGrouper grouper = new TraceGrouper();
+
+  @Setup(Level.Trial) public void setup() {
+    finished = new ArrayList<>(SPAN_COUNT);
+    for (int i = 0; i < SPAN_COUNT; i++) {
+      long traceId = i % traceCount + 1;
+      finished.add(Brave.toSpan(SpanId.builder().traceIdHigh(traceId).traceId(traceId)
+          .parentId(traceId).spanId(i + 1).build()).setName("get"));
+    }
+  }
+
+  @Benchmark public List<Span> copy() {
+    return new ArrayList<>(finished);
+  }
+
+  @Benchmark public List<Span> copy_group() {
+    List<Span> batch = new ArrayList<>(finished);
+    grouper.group(batch);
+    return batch;
+  }
+
+  @Benchmark public byte[] copy_writeSpans_thrift() {
+    return SpanCodec.THRIFT.writeSpans(new ArrayList<>(finished));
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + TraceGrouperBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,119 @@
+package com.github.kristofa.brave;
+
+import brave.Tracer;
+import com.twitter.zipkin.gen.Endpoint;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static brave.sampler.Sampler.NEVER_SAMPLE;
+
+/**
+ * Measures the cost of starting new traces that are not sampled. With low sample rates, this is
+ * the path nearly all requests take, so it should allocate nothing.
+ *
+ * <p>Run with the gc profiler to verify: {@code gc.alloc.rate.norm} should be zero bytes per
+ * operation. The {@code adapter_} cases start traces with a Brave 4 tracer, via {@link
+ * TracerAdapter}.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class UnsampledTracerBenchmarks {
+
+  final Brave brave = new Brave.Builder(Endpoint.create("benchmark", 127 << 24 | 1, 8080))
+      .traceSampler(Sampler.NEVER_SAMPLE)
+      .reporter(span -> {
+        throw new AssertionError("unsampled spans shouldn't be reported");
+      }).build();
+
+  final ServerRequestInterceptor serverRequestInterceptor = brave.serverRequestInterceptor();
+  final ClientTracer clientTracer = brave.clientTracer();
+  final LocalTracer localTracer = brave.localTracer();
+
+  final Brave adapter = TracerAdapter.newBrave(Tracer.newBuilder()
+      .sampler(NEVER_SAMPLE)
+      .reporter(span -> {
+        throw new AssertionError("unsampled spans shouldn't be reported");
+      }).build());
+
+  final ServerRequestInterceptor adapterServerRequestInterceptor =
+      adapter.serverRequestInterceptor();
+  final ClientTracer adapterClientTracer = adapter.clientTracer();
+  final LocalTracer adapterLocalTracer = adapter.localTracer();
+
+  /** Like an http request without B3 headers */
+  final ServerRequestAdapter noTraceHeaders = new ServerRequestAdapter() {
+    @Override public TraceData getTraceData() {
+      return TraceData.EMPTY;
+    }
+
+    @Override public String getSpanName() {
+      return "get";
+    }
+
+    @Override public Collection<KeyValueAnnotation> requestAnnotations() {
+      return Collections.emptyList();
+    }
+  };
+
+  @Benchmark
+  public ServerSpan serverRequestInterceptor_noTraceHeaders() {
+    serverRequestInterceptor.handle(noTraceHeaders);
+    return brave.serverSpanThreadBinder().getCurrentServerSpan();
+  }
+
+  @Benchmark
+  public SpanId clientTracer_startNewSpan() {
+    return clientTracer.startNewSpan("get");
+  }
+
+  @Benchmark
+  public SpanId localTracer_startNewSpan() {
+    return localTracer.startNewSpan("codec", "encode");
+  }
+
+  @Benchmark
+  public ServerSpan adapter_serverRequestInterceptor_noTraceHeaders() {
+    adapterServerRequestInterceptor.handle(noTraceHeaders);
+    return adapter.serverSpanThreadBinder().getCurrentServerSpan();
+  }
+
+  @Benchmark
+  public SpanId adapter_clientTracer_startNewSpan() {
+    return adapterClientTracer.startNewSpan("get");
+  }
+
+  @Benchmark
+  public SpanId adapter_localTracer_startNewSpan() {
+    return adapterLocalTracer.startNewSpan("codec", "encode");
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + UnsampledTracerBenchmarks.class.getSimpleName() + ".*")
+        .addProfiler("gc")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,92 @@
+package com.github.kristofa.brave.file;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.reporter.Encoding;
+
+/**
+ * Measures spans per second through {@link FileReporter}, from encoding on the calling thread to
+ * the writer thread's file write. Each invocation reports a batch, then flushes so that the
+ * writer keeps up. Files rotate at 64MiB so that the disk doesn't fill.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Thread)
+public class FileReporterBenchmarks {
+  static final int BATCH = 1000;
+  static final Span SPAN = newSpan();
+
+  @Param({"JSON", "THRIFT"})
+  public Encoding encoding;
+
+  File directory;
+  FileReporter reporter;
+
+  @Setup
+  public void setup() throws IOException {
+    directory = Files.createTempDirectory("FileReporterBenchmarks").toFile();
+    reporter = FileReporter.builder(directory)
+        .encoding(encoding)
+        .queuedMaxSpans(BATCH * 2)
+        .maxFileBytes(64 * 1024 * 1024).build();
+  }
+
+  @TearDown
+  public void close() {
+    reporter.close();
+    for (File file : directory.listFiles()) file.delete();
+    directory.delete();
+  }
+
+  @Benchmark @OperationsPerInvocation(BATCH)
+  public void reportAndFlush() {
+    for (int i = 0; i < BATCH; i++) reporter.report(SPAN);
+    reporter.flush();
+  }
+
+  static Span newSpan() {
+    Endpoint endpoint = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+    return Span.builder().traceId(1L).parentId(1L).id(2L).name("get")
+        .timestamp(1472470996199000L).duration(207000L)
+        .addAnnotation(Annotation.create(1472470996199000L, Constants.SERVER_RECV, endpoint))
+        .addAnnotation(Annotation.create(1472470996406000L, Constants.SERVER_SEND, endpoint))
+        .addBinaryAnnotation(BinaryAnnotation.create("http.path", "/api", endpoint))
+        .build();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + FileReporterBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
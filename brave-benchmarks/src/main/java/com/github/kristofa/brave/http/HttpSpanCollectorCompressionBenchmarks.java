@@ -0,0 +1,147 @@
+package com.github.kristofa.brave.http;
+
+import com.github.kristofa.brave.SpanDictionary;
+import com.github.kristofa.brave.SpanId;
+import com.github.kristofa.brave.internal.DefaultSpanCodec;
+import com.github.kristofa.brave.internal.InternalSpan;
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares gzipping a message of json spans, as {@link HttpSpanCollector} does, with deflating it
+ * using a {@link SpanDictionary}, as {@link com.github.kristofa.brave.relay.RelaySender} can.
+ *
+ * <p>Compressed sizes are printed during setup. Divide the time per operation by the json size to
+ * get CPU per MiB.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class HttpSpanCollectorCompressionBenchmarks {
+  static final String[] SERVICES = {"frontend", "backend", "auth", "inventory", "payments"};
+  static final String[] NAMES = {"get", "post", "get /api/users", "select", "publish"};
+
+  @Param({"10", "100", "1000"})
+  int spanCount;
+
+  List<Span> spans;
+  SpanDictionary builtIn, learned;
+
+  final CountingStream connection = new CountingStream();
+
+  final GzipStream gzipStream = new GzipStream(); // reused, as a collector's sending thread would
+
+  @TearDown(Level.Trial) public void endGzipStream() {
+    gzipStream.end();
+  }
+
+  @Setup(Level.Trial) public void setup() throws IOException {
+    spans = newSpans(1, spanCount);
+    builtIn = SpanDictionary.create();
+    learned = SpanDictionary.create(newSpans(1_000_000, 1000)); // sample distinct from messages
+
+    int json = SpanCodec.JSON.writeSpans(spans).length;
+    System.out.printf("%njson: %d, gzip: %d, dictionary: %d, learned dictionary: %d%n",
+        json, compressedSize(this::gzip), compressedSize(this::dictionary),
+        compressedSize(this::learnedDictionary));
+  }
+
+  @Benchmark public void gzip() throws IOException {
+    GzipStream gzip = gzipStream.open(connection);
+    DefaultSpanCodec.writeSpans(SpanCodec.JSON, spans, gzip);
+    gzip.finish();
+  }
+
+  @Benchmark public void dictionary() throws IOException {
+    connection.write(builtIn.compress(SpanCodec.JSON.writeSpans(spans)));
+  }
+
+  @Benchmark public void learnedDictionary() throws IOException {
+    connection.write(learned.compress(SpanCodec.JSON.writeSpans(spans)));
+  }
+
+  interface Compression {
+    void compress() throws IOException;
+  }
+
+  long compressedSize(Compression compression) throws IOException {
+    connection.count = 0;
+    compression.compress();
+    return connection.count;
+  }
+
+  /** Like a connection, which discards what's written */
+  static final class CountingStream extends OutputStream {
+    long count;
+
+    @Override public void write(int b) {
+      count++;
+    }
+
+    @Override public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+
+  /** Spans of a few services and operations, as typical of an application. */
+  static List<Span> newSpans(long firstId, int count) {
+    new Span(); // ensure InternalSpan.instance points to a reference
+    List<Span> spans = new ArrayList<>(count);
+    for (long id = firstId; id < firstId + count; id++) {
+      int i = (int) (id % SERVICES.length);
+      Endpoint local = Endpoint.create(SERVICES[i], 10 << 24 | i, 8080);
+      Endpoint remote = Endpoint.create(SERVICES[(i + 1) % SERVICES.length], 10 << 24 | i + 1, 80);
+      long timestamp = 1472470996199000L + id * 1000;
+      Span span = InternalSpan.instance.toSpan(
+          SpanId.builder().traceId(id / 10).parentId(id / 10).spanId(id).build());
+      span.setName(NAMES[(int) (id / 3 % NAMES.length)]);
+      span.setTimestamp(timestamp);
+      span.setDuration(207L + id % 1000);
+      span.addToAnnotations(Annotation.create(timestamp, "cs", local));
+      span.addToAnnotations(Annotation.create(timestamp + 207, "cr", local));
+      span.addToBinary_annotations(BinaryAnnotation.create("http.path", "/api/users", local));
+      span.addToBinary_annotations(BinaryAnnotation.address("sa", remote));
+      spans.add(span);
+    }
+    return spans;
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + HttpSpanCollectorCompressionBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
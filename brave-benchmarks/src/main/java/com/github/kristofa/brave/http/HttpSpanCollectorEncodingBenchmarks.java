@@ -0,0 +1,122 @@
+package com.github.kristofa.brave.http;
+
+import com.github.kristofa.brave.SpanId;
+import com.github.kristofa.brave.internal.DefaultSpanCodec;
+import com.github.kristofa.brave.internal.InternalSpan;
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares writing a message of 1MiB of json spans into a connection, either by materializing the
+ * encoded message as {@link HttpSpanCollector} used to, or by encoding spans straight into the
+ * connection.
+ *
+ * <p>Each operation is one MiB of spans, so {@code gc.alloc.rate.norm} from the gc profiler is
+ * allocation per MiB. The materialized path copies the message three times when compressing: the
+ * encoded array, the buffer of the compressed stream, then its {@code toByteArray()}. The streaming
+ * path copies no message-sized arrays.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class HttpSpanCollectorEncodingBenchmarks {
+  static final int MESSAGE_BYTES = 1024 * 1024;
+  static final List<Span> SPANS = newSpans();
+
+  /** Like a connection, which discards what's written */
+  final OutputStream connection = new OutputStream() {
+    @Override public void write(int b) {
+    }
+
+    @Override public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  final GzipStream gzipStream = new GzipStream(); // reused, as a collector's sending thread would
+
+  @TearDown(Level.Trial) public void endGzipStream() {
+    gzipStream.end();
+  }
+
+  @Benchmark public void materialized_json() throws IOException {
+    connection.write(SpanCodec.JSON.writeSpans(SPANS));
+  }
+
+  @Benchmark public void streaming_json() throws IOException {
+    DefaultSpanCodec.writeSpans(SpanCodec.JSON, SPANS, connection);
+  }
+
+  @Benchmark public void materialized_gzip() throws IOException {
+    byte[] json = SpanCodec.JSON.writeSpans(SPANS);
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+    try (GZIPOutputStream compressor = new GZIPOutputStream(gzipped)) {
+      compressor.write(json);
+    }
+    connection.write(gzipped.toByteArray());
+  }
+
+  @Benchmark public void streaming_gzip() throws IOException {
+    GzipStream gzip = gzipStream.open(connection);
+    DefaultSpanCodec.writeSpans(SpanCodec.JSON, SPANS, gzip);
+    gzip.finish();
+  }
+
+  /** Returns distinct spans whose json totals at least a MiB. */
+  static List<Span> newSpans() {
+    new Span(); // ensure InternalSpan.instance points to a reference
+    Endpoint endpoint = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+    List<Span> spans = new ArrayList<>();
+    for (long id = 1, bytes = 0; bytes < MESSAGE_BYTES; id++) {
+      Span span = InternalSpan.instance.toSpan(SpanId.builder().traceId(id).spanId(id).build());
+      span.setName("get");
+      span.setTimestamp(1472470996199000L + id);
+      span.setDuration(207000L);
+      span.addToAnnotations(Annotation.create(1472470996199000L + id, "sr", endpoint));
+      span.addToAnnotations(Annotation.create(1472470996406000L + id, "ss", endpoint));
+      span.addToBinary_annotations(BinaryAnnotation.create("http.path", "/api/" + id, endpoint));
+      spans.add(span);
+      bytes += SpanCodec.JSON.writeSpan(span).length + 1;
+    }
+    return spans;
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + HttpSpanCollectorEncodingBenchmarks.class.getSimpleName() + ".*")
+        .addProfiler("gc")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
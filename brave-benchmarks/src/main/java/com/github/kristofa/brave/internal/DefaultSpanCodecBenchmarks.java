@@ -0,0 +1,113 @@
+package com.github.kristofa.brave.internal;
+
+import com.github.kristofa.brave.SpanId;
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin.Codec;
+import zipkin.Constants;
+
+/**
+ * Compares encoding Brave 3 spans directly, as {@link DefaultSpanCodec} does, with converting them
+ * to zipkin spans and encoding those, as it used to.
+ *
+ * <p>Run with the gc profiler: {@code gc.alloc.rate.norm} is allocation per span for the single
+ * span benchmarks, and per message of {@link #MESSAGE_SPANS} spans for the others.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class DefaultSpanCodecBenchmarks {
+  static final int MESSAGE_SPANS = 100;
+  static final Span CLIENT_SPAN = clientSpan(1L);
+  static final List<Span> MESSAGE = new ArrayList<>();
+
+  static {
+    for (long id = 1; id <= MESSAGE_SPANS; id++) MESSAGE.add(clientSpan(id));
+  }
+
+  @Benchmark public byte[] writeClientSpan_json_direct() {
+    return DefaultSpanCodec.JSON.writeSpan(CLIENT_SPAN);
+  }
+
+  @Benchmark public byte[] writeClientSpan_json_toZipkin() {
+    return Codec.JSON.writeSpan(DefaultSpanCodec.toZipkin(CLIENT_SPAN));
+  }
+
+  @Benchmark public byte[] writeClientSpan_thrift_direct() {
+    return DefaultSpanCodec.THRIFT.writeSpan(CLIENT_SPAN);
+  }
+
+  @Benchmark public byte[] writeClientSpan_thrift_toZipkin() {
+    return Codec.THRIFT.writeSpan(DefaultSpanCodec.toZipkin(CLIENT_SPAN));
+  }
+
+  @Benchmark public byte[] writeMessage_json_direct() {
+    return DefaultSpanCodec.JSON.writeSpans(MESSAGE);
+  }
+
+  @Benchmark public byte[] writeMessage_json_toZipkin() {
+    return Codec.JSON.writeSpans(toZipkin(MESSAGE));
+  }
+
+  @Benchmark public byte[] writeMessage_thrift_direct() {
+    return DefaultSpanCodec.THRIFT.writeSpans(MESSAGE);
+  }
+
+  @Benchmark public byte[] writeMessage_thrift_toZipkin() {
+    return Codec.THRIFT.writeSpans(toZipkin(MESSAGE));
+  }
+
+  static List<zipkin.Span> toZipkin(List<Span> spans) {
+    List<zipkin.Span> result = new ArrayList<>(spans.size());
+    for (Span span : spans) result.add(DefaultSpanCodec.toZipkin(span));
+    return result;
+  }
+
+  static Span clientSpan(long id) {
+    new Span(); // ensure InternalSpan.instance points to a reference
+    Endpoint frontend = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+    Endpoint backend = Endpoint.create("backend", 192 << 24 | 168 << 16 | 99 << 8 | 101, 9000);
+    return InternalSpan.instance.toSpan(SpanId.builder().traceId(id).parentId(id).spanId(id + 1)
+        .build())
+        .setName("get")
+        .setTimestamp(1472470996199000L)
+        .setDuration(207000L)
+        .addToAnnotations(Annotation.create(1472470996199000L, Constants.CLIENT_SEND, frontend))
+        .addToAnnotations(Annotation.create(1472470996406000L, Constants.CLIENT_RECV, frontend))
+        .addToBinary_annotations(BinaryAnnotation.create("http.path", "/api", frontend))
+        .addToBinary_annotations(BinaryAnnotation.address(Constants.SERVER_ADDR, backend));
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + DefaultSpanCodecBenchmarks.class.getSimpleName() + ".*")
+        .addProfiler("gc")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
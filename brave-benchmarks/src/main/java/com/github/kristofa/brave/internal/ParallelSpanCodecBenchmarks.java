@@ -0,0 +1,106 @@
+package com.github.kristofa.brave.internal;
+
+import com.github.kristofa.brave.SpanId;
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin.Constants;
+
+/**
+ * Compares encoding a message on the calling thread with encoding it in chunks on {@link
+ * #PARALLELISM} threads. Messages smaller than {@link ParallelSpanCodec#DEFAULT_MIN_PARALLEL_SPANS}
+ * are encoded on the calling thread either way, so the 10 span case shows the cost of the check.
+ *
+ * <p>Gains depend on spare cores: on a single core, parallel encoding only adds overhead.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class ParallelSpanCodecBenchmarks {
+  static final int PARALLELISM = 4;
+
+  @Param({"10", "1000", "50000"})
+  int spanCount;
+
+  List<Span> spans;
+  ParallelSpanCodec json, thrift;
+
+  @Setup(Level.Trial) public void setup() {
+    spans = new ArrayList<>(spanCount);
+    for (long id = 1; id <= spanCount; id++) spans.add(clientSpan(id));
+    json = ParallelSpanCodec.create(SpanCodec.JSON, PARALLELISM);
+    thrift = ParallelSpanCodec.create(SpanCodec.THRIFT, PARALLELISM);
+  }
+
+  @TearDown(Level.Trial) public void close() {
+    json.close();
+    thrift.close();
+  }
+
+  @Benchmark public byte[] writeSpans_json_serial() {
+    return SpanCodec.JSON.writeSpans(spans);
+  }
+
+  @Benchmark public byte[] writeSpans_json_parallel() {
+    return json.writeSpans(spans);
+  }
+
+  @Benchmark public byte[] writeSpans_thrift_serial() {
+    return SpanCodec.THRIFT.writeSpans(spans);
+  }
+
+  @Benchmark public byte[] writeSpans_thrift_parallel() {
+    return thrift.writeSpans(spans);
+  }
+
+  static Span clientSpan(long id) {
+    new Span(); // ensure InternalSpan.instance points to a reference
+    Endpoint frontend = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+    Endpoint backend = Endpoint.create("backend", 192 << 24 | 168 << 16 | 99 << 8 | 101, 9000);
+    return InternalSpan.instance.toSpan(SpanId.builder().traceId(id).parentId(id).spanId(id + 1)
+        .build())
+        .setName("get")
+        .setTimestamp(1472470996199000L)
+        .setDuration(207000L)
+        .addToAnnotations(Annotation.create(1472470996199000L, Constants.CLIENT_SEND, frontend))
+        .addToAnnotations(Annotation.create(1472470996406000L, Constants.CLIENT_RECV, frontend))
+        .addToBinary_annotations(BinaryAnnotation.create("http.path", "/api", frontend))
+        .addToBinary_annotations(BinaryAnnotation.address(Constants.SERVER_ADDR, backend));
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + ParallelSpanCodecBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
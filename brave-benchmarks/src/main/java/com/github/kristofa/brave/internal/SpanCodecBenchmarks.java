@@ -0,0 +1,85 @@
+package com.github.kristofa.brave.internal;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Codec;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+
+/**
+ * Compares encoding a typical client span in the v1 model, as json or thrift, with the v2 model,
+ * as json or proto3. Encoded sizes of {@link #CLIENT_SPAN} are printed when the benchmark starts.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(1)
+public class SpanCodecBenchmarks {
+  static final Endpoint FRONTEND = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+  static final Endpoint BACKEND = Endpoint.builder().serviceName("backend")
+      .ipv4(192 << 24 | 168 << 16 | 99 << 8 | 101).port(9000).build();
+
+  static final Span CLIENT_SPAN = Span.builder()
+      .traceId(-692101025335252320L).parentId(-692101025335252320L).id(3871090523923428400L)
+      .name("get").timestamp(1472470996199000L).duration(207000L)
+      .addAnnotation(Annotation.create(1472470996199000L, Constants.CLIENT_SEND, FRONTEND))
+      .addAnnotation(Annotation.create(1472470996238000L, Constants.WIRE_SEND, FRONTEND))
+      .addAnnotation(Annotation.create(1472470996403000L, Constants.WIRE_RECV, FRONTEND))
+      .addAnnotation(Annotation.create(1472470996406000L, Constants.CLIENT_RECV, FRONTEND))
+      .addBinaryAnnotation(BinaryAnnotation.create("http.path", "/api", FRONTEND))
+      .addBinaryAnnotation(BinaryAnnotation.create("clnt/finagle.version", "6.36.0", FRONTEND))
+      .addBinaryAnnotation(BinaryAnnotation.address(Constants.SERVER_ADDR, BACKEND))
+      .build();
+
+  static {
+    System.out.println("encoded sizes of the client span in bytes:"
+        + " v1 json=" + Codec.JSON.writeSpan(CLIENT_SPAN).length
+        + ", v1 thrift=" + Codec.THRIFT.writeSpan(CLIENT_SPAN).length
+        + ", v2 json=" + V2SpanCodec.JSON.encode(CLIENT_SPAN).length
+        + ", proto3=" + V2SpanCodec.PROTO3.encode(CLIENT_SPAN).length);
+  }
+
+  @Benchmark public byte[] writeClientSpan_v1_json() {
+    return Codec.JSON.writeSpan(CLIENT_SPAN);
+  }
+
+  @Benchmark public byte[] writeClientSpan_v1_thrift() {
+    return Codec.THRIFT.writeSpan(CLIENT_SPAN);
+  }
+
+  @Benchmark public byte[] writeClientSpan_v2_json() {
+    return V2SpanCodec.JSON.encode(CLIENT_SPAN);
+  }
+
+  @Benchmark public byte[] writeClientSpan_proto3() {
+    return V2SpanCodec.PROTO3.encode(CLIENT_SPAN);
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + SpanCodecBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
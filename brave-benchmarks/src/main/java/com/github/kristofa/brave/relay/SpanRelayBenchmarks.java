@@ -0,0 +1,252 @@
+package com.github.kristofa.brave.relay;
+
+import com.github.kristofa.brave.http.NioHttpSender;
+import com.github.kristofa.brave.udp.UdpSender;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.reporter.AsyncReporter;
+import zipkin.reporter.Sender;
+
+/**
+ * Compares reporting spans of many processes on a host directly to Zipkin, against reporting them
+ * through a {@link SpanRelay}. Processes are simulated by reporters in this JVM, each with its own
+ * queue and sender, as a process would have. Each invocation reports a batch of spans spread over
+ * the processes, then flushes them all the way to an in-process http server that discards them.
+ *
+ * <p>Besides the time per span, this reports host-wide costs as counters: {@code cpuNanosPerSpan}
+ * is the CPU time of this JVM's threads, which run the processes, relay and server, and {@code
+ * connections} is the count of connections the server accepted. Directly, each process holds its
+ * own connections to Zipkin, while the relay holds one, however many processes there are. JMH sums
+ * these counters over measurement iterations, so divide them by the iteration count.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class SpanRelayBenchmarks {
+  static final int BATCH = 1000;
+  static final Span SPAN = newSpan();
+
+  @Param({"DIRECT", "RELAY_UDP", "RELAY_TCP"})
+  public String transport;
+
+  @Param({"20"})
+  public int processes;
+
+  ServerSocket zipkin;
+  final AtomicInteger zipkinConnections = new AtomicInteger();
+  final AtomicLong zipkinRequests = new AtomicLong();
+  SpanRelay relay;
+  NioHttpSender relaySender;
+  AsyncReporter<Span> relayReporter;
+  List<Sender> senders = new ArrayList<>();
+  List<AsyncReporter<Span>> reporters = new ArrayList<>();
+  long relayedSpans, expectedRequests;
+
+  /** Host-wide costs of the current iteration, reported alongside the time per span. */
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class HostCosts {
+    public long cpuNanosPerSpan;
+    public long connections;
+
+    long cpuNanos, spans;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      cpuNanosPerSpan = connections = cpuNanos = spans = 0;
+    }
+
+    void record(long cpuNanos, int spans, int connections) {
+      this.cpuNanos += cpuNanos;
+      this.spans += spans;
+      this.cpuNanosPerSpan = this.cpuNanos / this.spans;
+      this.connections = connections;
+    }
+  }
+
+  @Setup
+  public void setup() throws IOException {
+    zipkin = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(this::accept, "zipkin-server");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    String zipkinUrl = "http://127.0.0.1:" + zipkin.getLocalPort();
+
+    if (!transport.equals("DIRECT")) {
+      // one connection, with large compressed messages, as the relay's main would
+      relaySender = NioHttpSender.create(zipkinUrl,
+          NioHttpSender.Config.builder().compressionEnabled(true).build());
+      relayReporter = AsyncReporter.builder(relaySender).messageTimeout(0, TimeUnit.SECONDS)
+          .build();
+      relay = SpanRelay.create(relayReporter,
+          SpanRelay.Config.builder().udpPort(0).tcpPort(0).build());
+    }
+
+    for (int i = 0; i < processes; i++) {
+      Sender sender;
+      if (transport.equals("DIRECT")) {
+        sender = NioHttpSender.create(zipkinUrl);
+      } else if (transport.equals("RELAY_UDP")) {
+        sender = UdpSender.create("127.0.0.1", relay.udpPort(),
+            UdpSender.Config.builder().maxPacketBytes(16 * 1024).build());
+      } else {
+        sender = RelaySender.create("127.0.0.1", relay.tcpPort());
+      }
+      senders.add(sender);
+      reporters.add(AsyncReporter.builder(sender).messageTimeout(0, TimeUnit.SECONDS).build());
+    }
+  }
+
+  @TearDown
+  public void close() throws IOException {
+    for (AsyncReporter<Span> reporter : reporters) reporter.close();
+    for (Sender sender : senders) sender.close();
+    if (relay != null) relay.close();
+    if (relayReporter != null) relayReporter.close();
+    if (relaySender != null) relaySender.close();
+    zipkin.close();
+  }
+
+  @Benchmark @OperationsPerInvocation(BATCH)
+  public void reportAndFlush(HostCosts costs) throws InterruptedException {
+    long startCpu = processCpuTime();
+    for (int i = 0; i < BATCH; i++) reporters.get(i % processes).report(SPAN);
+    for (int i = 0; i < processes; i++) reporters.get(i).flush();
+    if (relay != null) {
+      // wait for the relay to receive what was flushed, unless packets were lost
+      relayedSpans += BATCH;
+      await(relay.spans, relayedSpans);
+      relayedSpans = relay.spans();
+      relayReporter.flush();
+      expectedRequests++;
+    } else {
+      expectedRequests += processes;
+    }
+    // flushing doesn't wait for the response, so wait until the server handled the requests
+    await(zipkinRequests, expectedRequests);
+    expectedRequests = zipkinRequests.get();
+    costs.record(processCpuTime() - startCpu, BATCH, zipkinConnections.get());
+  }
+
+  static void await(AtomicLong counter, long value) {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+    while (counter.get() < value && System.nanoTime() < deadline) Thread.yield();
+  }
+
+  /** CPU time of live threads, which include the processes' threads, the relay and the server. */
+  static long processCpuTime() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    long result = 0;
+    for (long id : threads.getAllThreadIds()) {
+      long cpuTime = threads.getThreadCpuTime(id);
+      if (cpuTime > 0) result += cpuTime; // -1 when the thread died
+    }
+    return result;
+  }
+
+  void accept() {
+    while (!zipkin.isClosed()) {
+      try {
+        Socket socket = zipkin.accept();
+        zipkinConnections.incrementAndGet();
+        Thread connection = new Thread(() -> respond(socket, zipkinRequests), "zipkin-connection");
+        connection.setDaemon(true);
+        connection.start();
+      } catch (IOException e) {
+        return; // closed
+      }
+    }
+  }
+
+  /** Reads requests with a content length, discarding their body, and answers each with 202. */
+  static void respond(Socket socket, AtomicLong requests) {
+    byte[] response = "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n"
+        .getBytes(StandardCharsets.US_ASCII);
+    try (InputStream in = new BufferedInputStream(socket.getInputStream());
+         OutputStream out = socket.getOutputStream()) {
+      StringBuilder line = new StringBuilder();
+      long contentLength = 0;
+      for (int b; (b = in.read()) != -1; ) {
+        if (b != '\n') {
+          if (b != '\r') line.append((char) b);
+          continue;
+        }
+        if (line.length() > 0) { // a header
+          String header = line.toString();
+          if (header.regionMatches(true, 0, "Content-Length:", 0, 15)) {
+            contentLength = Long.parseLong(header.substring(15).trim());
+          }
+          line.setLength(0);
+          continue;
+        }
+        for (long skipped; contentLength > 0; contentLength -= skipped) {
+          skipped = in.skip(contentLength);
+          if (skipped <= 0) return;
+        }
+        out.write(response);
+        out.flush();
+        requests.incrementAndGet();
+      }
+    } catch (IOException ignored) {
+    }
+  }
+
+  static Span newSpan() {
+    Endpoint endpoint = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+    return Span.builder()
+        .traceId(1L).parentId(1L).id(2L).name("get")
+        .timestamp(1472470996199000L).duration(207000L)
+        .addAnnotation(Annotation.create(1472470996199000L, "sr", endpoint))
+        .addAnnotation(Annotation.create(1472470996406000L, "ss", endpoint))
+        .addBinaryAnnotation(BinaryAnnotation.create("http.path", "/api", endpoint))
+        .build();
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + SpanRelayBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
@@ -0,0 +1,151 @@
+package com.github.kristofa.brave.udp;
+
+import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
+import com.github.kristofa.brave.FlushingSpanCollector;
+import com.github.kristofa.brave.SpanId;
+import com.github.kristofa.brave.http.HttpSpanCollector;
+import com.github.kristofa.brave.internal.InternalSpan;
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the cost per span of flushing to a local agent over UDP, against flushing to a local
+ * http server with {@link HttpSpanCollector}. Each invocation collects a batch of spans, then
+ * flushes them on the benchmark thread, so the score is the time the flushing thread spends per
+ * span, including the wait for the http response.
+ *
+ * <p>Both servers run in process, and discard what they receive. The http server is minimal, as
+ * it only needs to accept the chunked requests {@link HttpSpanCollector} sends.
+ */
+@Measurement(iterations = 5, time = 1)
+@Warmup(iterations = 10, time = 1)
+@Fork(3)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class UdpSpanCollectorBenchmarks {
+  static final int BATCH = 100;
+  static final Span SPAN = newSpan();
+
+  @Param({"UDP", "HTTP"})
+  public String transport;
+
+  UdpReceiver receiver;
+  ServerSocket server;
+  FlushingSpanCollector collector;
+
+  @Setup
+  public void setup() throws IOException {
+    if (transport.equals("UDP")) {
+      receiver = UdpReceiver.create();
+      collector = UdpSpanCollector.create("127.0.0.1", receiver.port(),
+          UdpSpanCollector.Config.builder().flushInterval(0).build(),
+          new EmptySpanCollectorMetricsHandler());
+    } else {
+      server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+      Thread acceptor = new Thread(this::accept, "http-server");
+      acceptor.setDaemon(true);
+      acceptor.start();
+      collector = HttpSpanCollector.create("http://127.0.0.1:" + server.getLocalPort(),
+          HttpSpanCollector.Config.builder().flushInterval(0).build(),
+          new EmptySpanCollectorMetricsHandler());
+    }
+  }
+
+  @TearDown
+  public void close() throws IOException {
+    collector.close();
+    if (receiver != null) receiver.close();
+    if (server != null) server.close();
+  }
+
+  void accept() {
+    while (!server.isClosed()) {
+      try {
+        Socket socket = server.accept();
+        Thread connection = new Thread(() -> respond(socket), "http-connection");
+        connection.setDaemon(true);
+        connection.start();
+      } catch (IOException e) {
+        return; // closed
+      }
+    }
+  }
+
+  /** Reads chunked requests until their last chunk, answering each with 202. */
+  static void respond(Socket socket) {
+    byte[] lastChunk = "\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    byte[] response = "HTTP/1.1 202 Accepted\r\nContent-Length: 0\r\n\r\n"
+        .getBytes(StandardCharsets.US_ASCII);
+    try (InputStream in = socket.getInputStream(); OutputStream out = socket.getOutputStream()) {
+      byte[] buffer = new byte[8192];
+      int matched = 0; // json doesn't contain raw line breaks, so only the last chunk matches
+      for (int read; (read = in.read(buffer)) != -1; ) {
+        for (int i = 0; i < read; i++) {
+          matched = buffer[i] == lastChunk[matched] ? matched + 1 : buffer[i] == '\r' ? 1 : 0;
+          if (matched == lastChunk.length) {
+            out.write(response);
+            matched = 0;
+          }
+        }
+      }
+    } catch (IOException ignored) {
+    }
+  }
+
+  @Benchmark @OperationsPerInvocation(BATCH)
+  public void collectAndFlush() {
+    for (int i = 0; i < BATCH; i++) collector.collect(SPAN);
+    collector.flush();
+  }
+
+  static Span newSpan() {
+    new Span(); // ensure InternalSpan.instance points to a reference
+    Endpoint endpoint = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+    Span span = InternalSpan.instance.toSpan(
+        SpanId.builder().traceId(1L).spanId(2L).parentId(1L).build());
+    span.setName("get");
+    span.setTimestamp(1472470996199000L);
+    span.setDuration(207000L);
+    span.addToAnnotations(Annotation.create(1472470996199000L, "sr", endpoint));
+    span.addToAnnotations(Annotation.create(1472470996406000L, "ss", endpoint));
+    span.addToBinary_annotations(BinaryAnnotation.create("http.path", "/api", endpoint));
+    return span;
+  }
+
+  // Convenience main entry-point
+  public static void main(String[] args) throws RunnerException {
+    Options opt = new OptionsBuilder()
+        .include(".*" + UdpSpanCollectorBenchmarks.class.getSimpleName() + ".*")
+        .build();
+
+    new Runner(opt).run();
+  }
+}
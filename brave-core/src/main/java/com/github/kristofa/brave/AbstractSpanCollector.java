@@ -1,12 +1,37 @@
 package com.github.kristofa.brave;
 
+import com.github.kristofa.brave.internal.Nullable;
+import com.github.kristofa.brave.internal.ParallelSpanCodec;
 import com.twitter.zipkin.gen.Span;
 import com.twitter.zipkin.gen.SpanCodec;
 import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
- * Implemented {@link #sendSpans} to transport a encoded list of spans to Zipkin.
+ * Implemented {@link #sendSpans(byte[])} to transport a encoded list of spans to Zipkin.
+ *
+ * <p>By default, messages are sent one at a time on the thread that flushes. When more sends are
+ * allowed in flight, messages are sent on a pool of that many threads, so that one slow request
+ * doesn't stall delivery of the rest. Flushing blocks while all are busy, which leaves spans in the
+ * queue, where they are subject to its limits.
+ *
+ * <p>When a {@link SpilloverBuffer} is configured, messages that fail to send, spans that don't fit
+ * in the queue and spans pending on close are spilled to it instead of dropped. Its messages are
+ * replayed through {@link #sendSpans(byte[])} once the collector first flushes, so they must be
+ * sent synchronously.
+ *
+ * <p>When there are encoding threads, large messages are encoded in chunks on those threads, which
+ * helps drain a backlog after an outage or burst.
  *
  * @deprecated replaced by {@link zipkin.reporter.AsyncReporter}
  */
@@ -14,20 +39,139 @@ import java.util.List;
 public abstract class AbstractSpanCollector extends FlushingSpanCollector {
 
   private final SpanCodec codec;
+  private final DetailedSpanCollectorMetricsHandler detailedMetrics;
+  @Nullable // when sends are synchronous
+  private final Sends sends;
+  @Nullable // when spans are dropped instead
+  private final SpilloverBuffer spillover;
+  private final AtomicBoolean replayStarted = new AtomicBoolean();
 
   /**
    * @param flushInterval in seconds. 0 implies spans are {@link #flush() flushed externally.
    */
   public AbstractSpanCollector(SpanCodec codec, SpanCollectorMetricsHandler metrics,
       int flushInterval) {
-    super(metrics, flushInterval);
-    this.codec = codec;
+    this(codec, metrics, SpanCollectorOptions.builder()
+        .messageTimeout(flushInterval, SECONDS).build());
+  }
+
+  /**
+   * @param options limits of the queue, when its spans are reported, and how messages are sent.
+   */
+  protected AbstractSpanCollector(SpanCodec codec, SpanCollectorMetricsHandler metrics,
+      SpanCollectorOptions options) {
+    super(metrics, options);
+    int maxInFlightSends = options.maxInFlightSends(), encodingThreads = options.encodingThreads();
+    if (maxInFlightSends <= 0) throw new IllegalArgumentException("maxInFlightSends <= 0");
+    if (encodingThreads <= 0) throw new IllegalArgumentException("encodingThreads <= 0");
+    this.codec = encodingThreads > 1 ? ParallelSpanCodec.create(codec, encodingThreads) : codec;
+    this.detailedMetrics = detailedMetrics();
+    this.sends = maxInFlightSends > 1
+        ? new Sends(this, metrics, maxInFlightSends, getClass().getSimpleName())
+        : null;
+    this.spillover = options.spillover();
+  }
+
+  /**
+   * Starts replaying spilled messages on the first flush, rather than in the constructor, as replay
+   * calls {@link #sendSpans(byte[])}, which needs the subclass to be constructed.
+   */
+  @Override
+  public void flush() {
+    if (spillover != null && !replayStarted.get() && replayStarted.compareAndSet(false, true)) {
+      spillover.startReplay(new SpilloverBuffer.Replayer() {
+        @Override public void replay(byte[] message, int spanCount) throws IOException {
+          sendSpans(message);
+        }
+      });
+    }
+    super.flush();
   }
 
   @Override
   protected void reportSpans(List<Span> drained) throws IOException {
-    byte[] encoded = codec.writeSpans(drained);
-    sendSpans(encoded);
+    if (sends != null) {
+      sends.submit(drained);
+    } else if (spillover == null) {
+      timedSend(drained); // failures are accounted by flush
+    } else if (send(drained)) {
+      spillover.wake();
+    } else {
+      overflow(drained);
+    }
+  }
+
+  /** Returns false instead of throwing when the spans couldn't be sent. */
+  boolean send(List<Span> spans) {
+    try {
+      timedSend(spans);
+      return true;
+    } catch (IOException e) {
+      detailedMetrics.incrementFailedMessages(e);
+      return false;
+    } catch (RuntimeException e) {
+      detailedMetrics.incrementFailedMessages(e);
+      return false;
+    }
+  }
+
+  void timedSend(List<Span> spans) throws IOException {
+    long start = System.nanoTime();
+    sendSpans(spans);
+    detailedMetrics.recordSendNanos(System.nanoTime() - start);
+  }
+
+  /** Spills the spans if a buffer is configured and has room, otherwise drops them. */
+  @Override
+  void overflow(List<Span> spans) {
+    if (spillover == null) {
+      super.overflow(spans);
+      return;
+    }
+    byte[] message;
+    try {
+      message = encode(spans);
+    } catch (RuntimeException e) {
+      super.overflow(spans);
+      return;
+    }
+    if (!spillover.spill(message, spans.size())) super.overflow(spans);
+  }
+
+  /**
+   * Drops any pending spans, or spills them if a buffer is configured. When sends are in flight,
+   * each sender thread finishes at most the message it is sending, and no further messages are
+   * accepted.
+   */
+  @Override
+  public void close() {
+    super.close();
+    if (sends != null) sends.close();
+    if (spillover != null) spillover.close();
+    if (codec instanceof ParallelSpanCodec) ((ParallelSpanCodec) codec).close();
+  }
+
+  /** The codec messages are encoded with, which is parallel when there are encoding threads. */
+  protected final SpanCodec codec() {
+    return codec;
+  }
+
+  /** Encodes the spans with the {@link #codec()}, recording the time taken and size. */
+  protected final byte[] encode(List<Span> spans) {
+    long start = System.nanoTime();
+    byte[] message = codec.writeSpans(spans);
+    detailedMetrics.recordEncodeNanos(System.nanoTime() - start, message.length);
+    return message;
+  }
+
+  /**
+   * Encodes the spans and {@link #sendSpans(byte[]) sends} them. Override to encode spans directly
+   * into the transport, instead of into an intermediate array.
+   *
+   * @throws IOException when thrown, drop metrics will increment accordingly
+   */
+  protected void sendSpans(List<Span> spans) throws IOException {
+    sendSpans(encode(spans));
   }
 
   /**
@@ -36,4 +180,107 @@ public abstract class AbstractSpanCollector extends FlushingSpanCollector {
    * @throws IOException when thrown, drop metrics will increment accordingly
    */
   protected abstract void sendSpans(byte[] encoded) throws IOException;
+
+  /**
+   * Runs sends on a bounded pool of threads. Results are accounted in the order messages were
+   * submitted, regardless of the order sends complete, so metrics handlers see drops in a serial
+   * and repeatable order.
+   */
+  static final class Sends {
+    final AbstractSpanCollector collector;
+    final SpanCollectorMetricsHandler metrics;
+    final Semaphore permits;
+    final ThreadPoolExecutor executor;
+    final ArrayDeque<Send> inFlight = new ArrayDeque<Send>(); // guarded by this
+
+    Sends(AbstractSpanCollector collector, SpanCollectorMetricsHandler metrics,
+        int maxInFlightSends, final String threadName) {
+      this.collector = collector;
+      this.metrics = metrics;
+      this.permits = new Semaphore(maxInFlightSends);
+      // permits ensure there's never more tasks than threads, so the work queue stays empty
+      this.executor = new ThreadPoolExecutor(maxInFlightSends, maxInFlightSends, 60, SECONDS,
+          new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, threadName + "-sender-" + threadCount.incrementAndGet());
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /** Blocks until a send is available, which applies backpressure to the flushing thread. */
+    void submit(List<Span> spans) {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        metrics.incrementDroppedSpans(spans.size());
+        return;
+      }
+      Send send = new Send(this, spans);
+      synchronized (this) {
+        inFlight.add(send);
+      }
+      try {
+        executor.execute(send);
+      } catch (RejectedExecutionException e) { // closed
+        send.complete(false);
+      }
+    }
+
+    /** Accounts for completed sends in submission order, stopping at the first in flight. */
+    void completed() {
+      synchronized (this) {
+        for (Send head; (head = inFlight.peek()) != null && head.done; ) {
+          inFlight.poll();
+          if (!head.succeeded) metrics.incrementDroppedSpans(head.spans.size());
+        }
+      }
+      permits.release();
+    }
+
+    void close() {
+      executor.shutdown(); // running sends finish, but new ones are rejected
+    }
+  }
+
+  static final class Send implements Runnable {
+    final Sends sends;
+    final List<Span> spans;
+    boolean done, succeeded; // guarded by sends
+
+    Send(Sends sends, List<Span> spans) {
+      this.sends = sends;
+      this.spans = spans;
+    }
+
+    @Override public void run() {
+      AbstractSpanCollector collector = sends.collector;
+      boolean succeeded = false;
+      try {
+        succeeded = collector.send(spans);
+        if (collector.spillover == null) return;
+        if (succeeded) {
+          collector.spillover.wake();
+        } else {
+          collector.overflow(spans);
+          succeeded = true; // accounted by overflow
+        }
+      } finally {
+        complete(succeeded);
+      }
+    }
+
+    void complete(boolean succeeded) {
+      synchronized (sends) {
+        this.succeeded = succeeded;
+        this.done = true;
+      }
+      sends.completed();
+    }
+  }
 }
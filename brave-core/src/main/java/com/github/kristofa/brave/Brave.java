@@ -54,6 +54,8 @@ public class Brave {
         private Recorder recorder;
         private SpanFactory spanFactory;
         private Reporter<zipkin.Span> reporter;
+        private SpanMetrics spanMetrics;
+        private DependencyLinks dependencyLinks;
 
         /**
          * Builder which initializes with serviceName = "unknown".
@@ -185,6 +187,24 @@ public class Brave {
             return this;
         }
 
+        /**
+         * Aggregates the rate, errors and duration of requests handled by this instance's
+         * interceptors, whether or not they are sampled. Defaults to none.
+         */
+        public Builder spanMetrics(SpanMetrics spanMetrics) {
+            this.spanMetrics = checkNotNull(spanMetrics, "spanMetrics");
+            return this;
+        }
+
+        /**
+         * Counts calls made by this instance's client interceptors to each remote service, whether
+         * or not they are sampled, and reports them as dependency links. Defaults to none.
+         */
+        public Builder dependencyLinks(DependencyLinks dependencyLinks) {
+            this.dependencyLinks = checkNotNull(dependencyLinks, "dependencyLinks");
+            return this;
+        }
+
         public Brave build() {
             if (spanFactory == null) {
                 spanFactory = spanFactoryBuilder.build();
@@ -338,10 +358,13 @@ public class Brave {
             builder.recorder
         );
 
-        serverRequestInterceptor = new ServerRequestInterceptor(serverTracer);
-        serverResponseInterceptor = new ServerResponseInterceptor(serverTracer);
-        clientRequestInterceptor = new ClientRequestInterceptor(clientTracer);
-        clientResponseInterceptor = new ClientResponseInterceptor(clientTracer);
+        serverRequestInterceptor = new ServerRequestInterceptor(serverTracer, builder.spanMetrics);
+        serverResponseInterceptor =
+            new ServerResponseInterceptor(serverTracer, builder.spanMetrics);
+        clientRequestInterceptor = new ClientRequestInterceptor(clientTracer, builder.spanMetrics,
+            builder.dependencyLinks);
+        clientResponseInterceptor = new ClientResponseInterceptor(clientTracer,
+            builder.spanMetrics, builder.dependencyLinks);
     }
 
     static {
@@ -1,5 +1,6 @@
 package com.github.kristofa.brave;
 
+import com.github.kristofa.brave.internal.Nullable;
 import com.twitter.zipkin.gen.Endpoint;
 
 import static com.github.kristofa.brave.internal.Util.checkNotNull;
@@ -21,9 +22,22 @@ import static com.github.kristofa.brave.internal.Util.checkNotNull;
 public class ClientRequestInterceptor {
 
     private final ClientTracer clientTracer;
+    @Nullable private final SpanMetrics spanMetrics;
+    @Nullable private final DependencyLinks dependencyLinks;
 
     public ClientRequestInterceptor(ClientTracer clientTracer) {
+        this(clientTracer, null);
+    }
+
+    ClientRequestInterceptor(ClientTracer clientTracer, @Nullable SpanMetrics spanMetrics) {
+        this(clientTracer, spanMetrics, null);
+    }
+
+    ClientRequestInterceptor(ClientTracer clientTracer, @Nullable SpanMetrics spanMetrics,
+        @Nullable DependencyLinks dependencyLinks) {
         this.clientTracer = checkNotNull(clientTracer, "Null clientTracer");
+        this.spanMetrics = spanMetrics;
+        this.dependencyLinks = dependencyLinks;
     }
 
     /**
@@ -33,16 +47,25 @@ public class ClientRequestInterceptor {
      */
     public void handle(ClientRequestAdapter adapter) {
 
-        SpanId context = clientTracer.startNewSpan(adapter.getSpanName());
+        String spanName = adapter.getSpanName();
+        SpanId context = clientTracer.startNewSpan(spanName);
         if (context == null) {
             // We will not trace this request.
             adapter.addSpanIdToRequest(null);
+            if (spanMetrics != null || dependencyLinks != null) {
+                Endpoint serverAddress = adapter.serverAddress();
+                if (spanMetrics != null) spanMetrics.startClient(spanName, serverAddress);
+                if (dependencyLinks != null) dependencyLinks.startClient(serverAddress);
+            }
         } else {
             adapter.addSpanIdToRequest(context);
             for (KeyValueAnnotation annotation : adapter.requestAnnotations()) {
                 clientTracer.submitBinaryAnnotation(annotation.getKey(), annotation.getValue());
             }
-            recordClientSentAnnotations(adapter.serverAddress());
+            Endpoint serverAddress = adapter.serverAddress();
+            if (spanMetrics != null) spanMetrics.startClient(spanName, serverAddress);
+            if (dependencyLinks != null) dependencyLinks.startClient(serverAddress);
+            recordClientSentAnnotations(serverAddress);
         }
     }
 
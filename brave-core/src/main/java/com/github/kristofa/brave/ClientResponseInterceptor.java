@@ -1,5 +1,7 @@
 package com.github.kristofa.brave;
 
+import com.github.kristofa.brave.internal.Nullable;
+
 import static com.github.kristofa.brave.internal.Util.checkNotNull;
 
 /**
@@ -16,9 +18,22 @@ import static com.github.kristofa.brave.internal.Util.checkNotNull;
 public class ClientResponseInterceptor {
 
     private final ClientTracer clientTracer;
+    @Nullable private final SpanMetrics spanMetrics;
+    @Nullable private final DependencyLinks dependencyLinks;
 
     public ClientResponseInterceptor(ClientTracer clientTracer) {
+        this(clientTracer, null);
+    }
+
+    ClientResponseInterceptor(ClientTracer clientTracer, @Nullable SpanMetrics spanMetrics) {
+        this(clientTracer, spanMetrics, null);
+    }
+
+    ClientResponseInterceptor(ClientTracer clientTracer, @Nullable SpanMetrics spanMetrics,
+        @Nullable DependencyLinks dependencyLinks) {
         this.clientTracer = checkNotNull(clientTracer, "Null clientTracer");
+        this.spanMetrics = spanMetrics;
+        this.dependencyLinks = dependencyLinks;
     }
 
     /**
@@ -27,14 +42,19 @@ public class ClientResponseInterceptor {
      * @param adapter Adapter that hides implementation details.
      */
     public void handle(ClientResponseAdapter adapter) {
+        boolean countErrors = spanMetrics != null || dependencyLinks != null;
+        boolean error = false;
         try {
             for (KeyValueAnnotation annotation : adapter.responseAnnotations()) {
                 clientTracer.submitBinaryAnnotation(annotation.getKey(), annotation.getValue());
+                if (countErrors && !error) error = SpanMetrics.isError(annotation);
             }
         }
         finally
         {
             clientTracer.setClientReceived();
+            if (spanMetrics != null) spanMetrics.finishClient(error);
+            if (dependencyLinks != null) dependencyLinks.finishClient(error);
         }
     }
 }
@@ -159,16 +159,15 @@ public abstract class ClientTracer extends AnnotationSubmitter {
             return null;
         }
 
-        Span newSpan = spanFactory().nextSpan(maybeParent());
-        SpanId nextContext = Brave.context(newSpan);
-        if (Boolean.FALSE.equals(nextContext.sampled())) {
+        Span newSpan = spanFactory().nextSampledSpan(maybeParent());
+        if (newSpan == null) {
             currentSpan().setCurrentSpan(null);
             return null;
         }
 
         recorder().name(newSpan, requestName);
         currentSpan().setCurrentSpan(newSpan);
-        return nextContext;
+        return Brave.context(newSpan);
     }
 
     @Nullable SpanId maybeParent() {
@@ -0,0 +1,482 @@
+package com.github.kristofa.brave;
+
+import com.github.kristofa.brave.internal.Nullable;
+import com.twitter.zipkin.gen.Endpoint;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.github.kristofa.brave.internal.Util.checkNotBlank;
+import static com.github.kristofa.brave.internal.Util.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Counts calls from this service to each service it calls, per interval, for all requests rather
+ * than only sampled ones. At the end of each interval, the counts are reported as {@link Link
+ * links}, so that a dependency graph includes rare calls without a batch job over stored spans.
+ *
+ * <p>Calls are counted by the client interceptors of a {@link
+ * Brave.Builder#dependencyLinks(DependencyLinks) configured} Brave instance, as they are sent to
+ * a {@link ClientRequestAdapter#serverAddress() known service}. Calls whose response has an
+ * "error" annotation or a 5xx http status code are also counted as errors, when the response is
+ * handled on the thread that sent the request.
+ *
+ * <p>A call is counted when it is sent, and its error when the response is handled, which can be
+ * in the next interval. So that a link never has more errors than calls, errors beyond an
+ * interval's calls are carried over to the next interval of the same child.
+ *
+ * <p>Counting a call looks up its child service and increments a counter, so costs about as much
+ * as a map lookup. Once there are {@code maxLinks} children, calls to others are counted under the
+ * child {@value #OVERFLOW_NAME}, so memory is bounded.
+ */
+public final class DependencyLinks implements Flushable, Closeable {
+  static final Logger logger = Logger.getLogger(DependencyLinks.class.getName());
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  /** Default interval between reports of links: 1 minute */
+  public static final long DEFAULT_INTERVAL_MILLIS = 60 * 1000;
+  /** Default limit on distinct child services */
+  public static final int DEFAULT_MAX_LINKS = 256;
+  /** Child of calls counted after the limit is reached */
+  public static final String OVERFLOW_NAME = "other";
+
+  /**
+   * @param serviceName name of the local service, the parent of each link.
+   * @param reporter receives links once a minute.
+   */
+  public static DependencyLinks create(String serviceName, LinkReporter reporter) {
+    return create(serviceName, reporter, DEFAULT_INTERVAL_MILLIS, DEFAULT_MAX_LINKS);
+  }
+
+  /**
+   * @param serviceName name of the local service, the parent of each link.
+   * @param reporter receives links at the end of each interval.
+   * @param intervalMillis time between reports. 0 implies links are {@link #flush() flushed
+   * externally}.
+   * @param maxLinks maximum distinct child services.
+   */
+  public static DependencyLinks create(String serviceName, LinkReporter reporter,
+      long intervalMillis, int maxLinks) {
+    return new DependencyLinks(serviceName, reporter, intervalMillis, maxLinks);
+  }
+
+  final String serviceName;
+  final LinkReporter reporter;
+  final int maxLinks;
+  final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+  final Counter overflow = new Counter(OVERFLOW_NAME);
+  final ThreadLocal<Counter> clientCounter = new ThreadLocal<Counter>();
+  long intervalStartMicros; // guarded by this
+  @Nullable final Flusher flusher;
+
+  DependencyLinks(String serviceName, LinkReporter reporter, long intervalMillis, int maxLinks) {
+    this.serviceName = checkNotBlank(serviceName, "Null or blank serviceName");
+    this.reporter = checkNotNull(reporter, "Null reporter");
+    if (intervalMillis < 0) throw new IllegalArgumentException("intervalMillis < 0");
+    if (maxLinks <= 0) throw new IllegalArgumentException("maxLinks <= 0");
+    this.maxLinks = maxLinks;
+    this.intervalStartMicros = currentTimeMicros();
+    this.flusher = intervalMillis > 0 ? new Flusher(this, intervalMillis) : null;
+  }
+
+  /**
+   * Reports links with calls since the last flush, and begins a new interval. Counters of child
+   * services are kept, so don't allocate again in the next interval.
+   */
+  @Override public void flush() {
+    List<Link> links = new ArrayList<Link>();
+    synchronized (this) {
+      long endMicros = currentTimeMicros();
+      for (Counter counter : counters.values()) counter.drainTo(links, this, endMicros);
+      overflow.drainTo(links, this, endMicros);
+      intervalStartMicros = endMicros;
+    }
+    if (!links.isEmpty()) reporter.report(links);
+  }
+
+  /** Stops flushing at the interval, and reports the links of the current interval. */
+  @Override public void close() {
+    if (flusher != null) flusher.close();
+    flush();
+  }
+
+  /**
+   * Counts a call to the server on the current thread, so that an error can be counted. Any call
+   * started earlier on this thread, but not finished on it, is forgotten, so that its error isn't
+   * charged to the wrong child.
+   */
+  void startClient(@Nullable Endpoint serverAddress) {
+    clientCounter.remove();
+    String child = serverAddress != null ? serverAddress.service_name : null;
+    if (child == null || child.isEmpty() || child.equals(SpanMetrics.UNKNOWN)) return; // not a link
+    Counter counter = counter(child);
+    counter.calls.incrementAndGet();
+    clientCounter.set(counter);
+  }
+
+  /** Finishes the call started on the current thread, if any. */
+  void finishClient(boolean error) {
+    Counter counter = clientCounter.get();
+    if (counter == null) return;
+    clientCounter.remove();
+    if (error) counter.errors.incrementAndGet();
+  }
+
+  Counter counter(String child) {
+    Counter result = counters.get(child);
+    if (result != null) return result;
+    if (counters.size() >= maxLinks) return overflow;
+    Counter newCounter = new Counter(child);
+    result = counters.putIfAbsent(child, newCounter);
+    return result != null ? result : newCounter;
+  }
+
+  static long currentTimeMicros() {
+    return System.currentTimeMillis() * 1000;
+  }
+
+  static final class Counter {
+    final String child;
+    final AtomicLong calls = new AtomicLong(), errors = new AtomicLong();
+
+    Counter(String child) {
+      this.child = child;
+    }
+
+    /** Adds a link unless there were no calls. Errors exceeding the calls are carried over. */
+    void drainTo(List<Link> links, DependencyLinks parent, long endMicros) {
+      long calls = this.calls.getAndSet(0);
+      long errors = this.errors.getAndSet(0);
+      if (errors > calls) {
+        this.errors.addAndGet(errors - calls);
+        errors = calls;
+      }
+      if (calls == 0) return;
+      long durationMicros = endMicros - parent.intervalStartMicros;
+      links.add(new Link(parent.serviceName, child, calls, errors, parent.intervalStartMicros,
+          durationMicros));
+    }
+  }
+
+  /** Flushes at each interval, until closed. */
+  static final class Flusher implements Runnable {
+    final DependencyLinks links;
+    final long intervalNanos;
+    final Thread thread;
+    volatile boolean closed;
+
+    Flusher(DependencyLinks links, long intervalMillis) {
+      this.links = links;
+      this.intervalNanos = MILLISECONDS.toNanos(intervalMillis);
+      this.thread = new Thread(this, "DependencyLinks");
+      this.thread.setDaemon(true);
+      this.thread.start();
+    }
+
+    @Override public void run() {
+      long deadline = System.nanoTime() + intervalNanos;
+      while (!closed) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0) {
+          LockSupport.parkNanos(this, remaining);
+          continue; // timed out, closed or spurious: re-check
+        }
+        deadline += intervalNanos;
+        try {
+          links.flush();
+        } catch (RuntimeException e) {
+          logger.log(Level.WARNING, "Error reporting dependency links", e);
+        }
+      }
+    }
+
+    void close() {
+      closed = true;
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * Calls from a parent to a child service during an interval. Unlike links derived from stored
+   * spans, these include unsampled calls, as well as the count of calls that failed.
+   */
+  public static final class Link {
+    public final String parent;
+    public final String child;
+    public final long callCount;
+    /** Calls that failed, included in {@link #callCount}. */
+    public final long errorCount;
+    /** Start of the interval, in epoch microseconds. */
+    public final long timestamp;
+    /** Length of the interval, in microseconds. */
+    public final long duration;
+
+    public Link(String parent, String child, long callCount, long errorCount, long timestamp,
+        long duration) {
+      this.parent = parent;
+      this.child = child;
+      this.callCount = callCount;
+      this.errorCount = errorCount;
+      this.timestamp = timestamp;
+      this.duration = duration;
+    }
+
+    /** Converts to a link of Zipkin's dependency graph, which has no error count or interval. */
+    public zipkin.DependencyLink toZipkin() {
+      return zipkin.DependencyLink.create(parent, child, callCount);
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof Link)) return false;
+      Link that = (Link) o;
+      return parent.equals(that.parent)
+          && child.equals(that.child)
+          && callCount == that.callCount
+          && errorCount == that.errorCount
+          && timestamp == that.timestamp
+          && duration == that.duration;
+    }
+
+    @Override public int hashCode() {
+      int h = 1;
+      h *= 1000003;
+      h ^= parent.hashCode();
+      h *= 1000003;
+      h ^= child.hashCode();
+      h *= 1000003;
+      h ^= (int) ((callCount >>> 32) ^ callCount);
+      h *= 1000003;
+      h ^= (int) ((errorCount >>> 32) ^ errorCount);
+      h *= 1000003;
+      h ^= (int) ((timestamp >>> 32) ^ timestamp);
+      h *= 1000003;
+      h ^= (int) ((duration >>> 32) ^ duration);
+      return h;
+    }
+
+    @Override public String toString() {
+      return new String(writeJson(this), UTF_8);
+    }
+  }
+
+  /**
+   * Encodes links as a json list, in the format of Zipkin's dependency links with the fields
+   * "errorCount", "timestamp" and "duration" added.
+   */
+  public static byte[] writeJson(List<Link> links) {
+    StringBuilder json = new StringBuilder(links.size() * 128).append('[');
+    for (int i = 0, length = links.size(); i < length; i++) {
+      if (i > 0) json.append(',');
+      writeJson(links.get(i), json);
+    }
+    return json.append(']').toString().getBytes(UTF_8);
+  }
+
+  /**
+   * Decodes links written by {@link #writeJson(List)}. Unknown fields are skipped, and missing
+   * counts read as zero.
+   *
+   * @throws IllegalArgumentException if the json is malformed, or a link has no parent or child.
+   */
+  public static List<Link> readJson(byte[] json) {
+    return new LinkReader(new String(json, UTF_8)).readLinks();
+  }
+
+  /** Reads the json written by this class, which is a list of objects with flat fields. */
+  static final class LinkReader {
+    final String json;
+    int pos;
+
+    LinkReader(String json) {
+      this.json = json;
+    }
+
+    List<Link> readLinks() {
+      List<Link> result = new ArrayList<Link>();
+      expect('[');
+      if (!consume(']')) {
+        do {
+          result.add(readLink());
+        } while (consume(','));
+        expect(']');
+      }
+      skipWhitespace();
+      if (pos != json.length()) throw error("unexpected data");
+      return result;
+    }
+
+    Link readLink() {
+      String parent = null, child = null;
+      long callCount = 0, errorCount = 0, timestamp = 0, duration = 0;
+      expect('{');
+      if (!consume('}')) {
+        do {
+          String name = readString();
+          expect(':');
+          if (name.equals("parent")) {
+            parent = readString();
+          } else if (name.equals("child")) {
+            child = readString();
+          } else if (name.equals("callCount")) {
+            callCount = readLong();
+          } else if (name.equals("errorCount")) {
+            errorCount = readLong();
+          } else if (name.equals("timestamp")) {
+            timestamp = readLong();
+          } else if (name.equals("duration")) {
+            duration = readLong();
+          } else {
+            skipValue();
+          }
+        } while (consume(','));
+        expect('}');
+      }
+      if (parent == null || child == null) throw error("link without parent or child");
+      return new Link(parent, child, callCount, errorCount, timestamp, duration);
+    }
+
+    String readString() {
+      expect('"');
+      StringBuilder result = new StringBuilder();
+      while (true) {
+        if (pos >= json.length()) throw error("unterminated string");
+        char c = json.charAt(pos++);
+        if (c == '"') return result.toString();
+        if (c != '\\') {
+          result.append(c);
+          continue;
+        }
+        if (pos >= json.length()) throw error("unterminated string");
+        c = json.charAt(pos++);
+        switch (c) {
+          case 'u':
+            if (pos + 4 > json.length()) throw error("invalid escape");
+            try {
+              result.append((char) Integer.parseInt(json.substring(pos, pos + 4), 16));
+            } catch (NumberFormatException e) {
+              throw error("invalid escape");
+            }
+            pos += 4;
+            break;
+          case 'b':
+            result.append('\b');
+            break;
+          case 'f':
+            result.append('\f');
+            break;
+          case 'n':
+            result.append('\n');
+            break;
+          case 'r':
+            result.append('\r');
+            break;
+          case 't':
+            result.append('\t');
+            break;
+          default:
+            result.append(c); // quote, backslash or slash
+        }
+      }
+    }
+
+    long readLong() {
+      skipWhitespace();
+      int start = pos;
+      if (pos < json.length() && json.charAt(pos) == '-') pos++;
+      while (pos < json.length() && Character.isDigit(json.charAt(pos))) pos++;
+      try {
+        return Long.parseLong(json.substring(start, pos));
+      } catch (NumberFormatException e) {
+        throw error("expected a number");
+      }
+    }
+
+    void skipValue() {
+      skipWhitespace();
+      if (pos >= json.length()) throw error("expected a value");
+      char c = json.charAt(pos);
+      if (c == '"') {
+        readString();
+      } else if (c == '{' || c == '[') {
+        char close = c == '{' ? '}' : ']';
+        pos++;
+        if (consume(close)) return;
+        do {
+          if (c == '{') {
+            readString();
+            expect(':');
+          }
+          skipValue();
+        } while (consume(','));
+        expect(close);
+      } else { // number, true, false or null
+        int start = pos;
+        while (pos < json.length() && ",}] \t\r\n".indexOf(json.charAt(pos)) == -1) pos++;
+        if (pos == start) throw error("expected a value");
+      }
+    }
+
+    boolean consume(char c) {
+      skipWhitespace();
+      if (pos < json.length() && json.charAt(pos) == c) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    void expect(char c) {
+      if (!consume(c)) throw error("expected '" + c + "'");
+    }
+
+    void skipWhitespace() {
+      while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) pos++;
+    }
+
+    IllegalArgumentException error(String message) {
+      return new IllegalArgumentException(message + " at offset " + pos + " of links json");
+    }
+  }
+
+  static byte[] writeJson(Link link) {
+    StringBuilder json = new StringBuilder(128);
+    writeJson(link, json);
+    return json.toString().getBytes(UTF_8);
+  }
+
+  static void writeJson(Link link, StringBuilder json) {
+    json.append("{\"parent\":");
+    writeString(link.parent, json);
+    json.append(",\"child\":");
+    writeString(link.child, json);
+    json.append(",\"callCount\":").append(link.callCount);
+    json.append(",\"errorCount\":").append(link.errorCount);
+    json.append(",\"timestamp\":").append(link.timestamp);
+    json.append(",\"duration\":").append(link.duration);
+    json.append('}');
+  }
+
+  static void writeString(String value, StringBuilder json) {
+    json.append('"');
+    for (int i = 0, length = value.length(); i < length; i++) {
+      char c = value.charAt(i);
+      if (c == '"' || c == '\\') {
+        json.append('\\').append(c);
+      } else if (c < 0x20) {
+        json.append(String.format("\\u%04x", (int) c));
+      } else {
+        json.append(c);
+      }
+    }
+    json.append('"');
+  }
+}
@@ -0,0 +1,57 @@
+package com.github.kristofa.brave;
+
+/**
+ * Optional events of the reporting pipeline, beyond accepted and dropped spans. Collectors check
+ * whether their {@link SpanCollectorMetricsHandler} implements this, so existing handlers needn't.
+ *
+ * See {@link HistogramSpanCollectorMetricsHandler} for an implementation.
+ */
+public interface DetailedSpanCollectorMetricsHandler extends SpanCollectorMetricsHandler {
+
+    /**
+     * Called by collectors which queue spans, with the count of spans pending before each flush.
+     *
+     * @param update the count of spans pending.
+     */
+    void updateQueuedSpans(int update);
+
+    /**
+     * Called by collectors which queue spans, with the estimated encoded size of spans pending
+     * before each flush. Compare this to the queue's byte limit to see how full it gets.
+     *
+     * @param update the estimated size of spans pending, in bytes.
+     */
+    void updateQueuedBytes(int update);
+
+    /**
+     * Called by collectors which batch spans, with the count of spans in each message reported.
+     *
+     * @param spanCount the count of spans in the message.
+     */
+    void recordMessageSpans(int spanCount);
+
+    /**
+     * Called when a message is encoded separately from sending it. Collectors which encode spans
+     * directly into the transport include encoding in {@link #recordSendNanos(long)} instead.
+     *
+     * @param nanos time spent encoding the message.
+     * @param bytes the encoded size of the message.
+     */
+    void recordEncodeNanos(long nanos, int bytes);
+
+    /**
+     * Called when a message is sent successfully.
+     *
+     * @param nanos time spent sending the message, including encoding if that's part of sending.
+     */
+    void recordSendNanos(long nanos);
+
+    /**
+     * Called when a message fails to send, before its spans are dropped or spilled. Compare causes
+     * to see whether failures are, for example, timeouts or rejected requests.
+     *
+     * @param cause why the message failed.
+     */
+    void incrementFailedMessages(Throwable cause);
+
+}
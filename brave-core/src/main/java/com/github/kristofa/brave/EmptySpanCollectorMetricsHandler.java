@@ -4,7 +4,7 @@ package com.github.kristofa.brave;
 /**
  * Empty implementation ignoring all events.
  */
-public class EmptySpanCollectorMetricsHandler implements SpanCollectorMetricsHandler {
+public class EmptySpanCollectorMetricsHandler implements DetailedSpanCollectorMetricsHandler {
 
     @Override
     public void incrementAcceptedSpans(int quantity) {
@@ -15,4 +15,34 @@ public class EmptySpanCollectorMetricsHandler implements SpanCollectorMetricsHan
     public void incrementDroppedSpans(int quantity) {
 
     }
+
+    @Override
+    public void updateQueuedSpans(int update) {
+
+    }
+
+    @Override
+    public void updateQueuedBytes(int update) {
+
+    }
+
+    @Override
+    public void recordMessageSpans(int spanCount) {
+
+    }
+
+    @Override
+    public void recordEncodeNanos(long nanos, int bytes) {
+
+    }
+
+    @Override
+    public void recordSendNanos(long nanos) {
+
+    }
+
+    @Override
+    public void incrementFailedMessages(Throwable cause) {
+
+    }
 }
@@ -1,19 +1,18 @@
 package com.github.kristofa.brave;
 
+import com.github.kristofa.brave.internal.InternalSpan;
 import com.github.kristofa.brave.internal.Nullable;
 import com.twitter.zipkin.gen.Span;
 import java.io.Closeable;
 import java.io.Flushable;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Executors;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 /**
@@ -24,9 +23,29 @@ import static java.util.concurrent.TimeUnit.SECONDS;
  */
 @Deprecated
 public abstract class FlushingSpanCollector implements SpanCollector, Flushable, Closeable {
+  /** Default limit on pending spans */
+  public static final int DEFAULT_QUEUED_MAX_SPANS = 1000;
+  /** Default limit on the estimated encoded size of pending spans: 1% of the heap */
+  public static final int DEFAULT_QUEUED_MAX_BYTES =
+      (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().totalMemory() / 100);
+  /** Default estimated size of a message, after which pending spans are flushed: 5MiB */
+  public static final int DEFAULT_MESSAGE_MAX_BYTES = 5 * 1024 * 1024;
+  /** Default limit on pending debug or error spans, which are queued apart from others */
+  public static final int DEFAULT_PRIORITY_QUEUED_MAX_SPANS = 100;
+
+  static final DetailedSpanCollectorMetricsHandler NOOP_DETAILED_METRICS =
+      new EmptySpanCollectorMetricsHandler();
 
   private final SpanCollectorMetricsHandler metrics;
-  private final BlockingQueue<Span> pending = new LinkedBlockingQueue<Span>(1000);
+  private final DetailedSpanCollectorMetricsHandler detailedMetrics;
+  private final LoadShedding loadShedding;
+  private final SpanQueue pending;
+  @Nullable // when debug and error spans are queued with others
+  private final SpanQueue priority;
+  private final int messageMaxBytes;
+  @Nullable // when spans are reported in the order they finished
+  private final TraceGrouper grouper;
+  private final long localRootWaitNanos;
   @Nullable // for testing
   private final Flusher flusher;
 
@@ -34,62 +53,223 @@ public abstract class FlushingSpanCollector implements SpanCollector, Flushable,
    * @param flushInterval in seconds. 0 implies spans are {@link #flush() flushed externally.
    */
   protected FlushingSpanCollector(SpanCollectorMetricsHandler metrics, int flushInterval) {
+    this(metrics, SpanCollectorOptions.builder().messageTimeout(flushInterval, SECONDS).build());
+  }
+
+  /**
+   * @param options limits of the queue, and when its spans are reported. Options about sending
+   * messages are ignored.
+   */
+  protected FlushingSpanCollector(SpanCollectorMetricsHandler metrics,
+      SpanCollectorOptions options) {
+    if (options.messageMaxBytes() <= 0) {
+      throw new IllegalArgumentException("messageMaxBytes <= 0");
+    }
+    if (options.messageTimeoutMillis() < 0) {
+      throw new IllegalArgumentException("messageTimeoutMillis < 0");
+    }
+    if (options.priorityQueuedMaxSpans() < 0) {
+      throw new IllegalArgumentException("priorityQueuedMaxSpans < 0");
+    }
     this.metrics = metrics;
-    this.flusher = flushInterval > 0 ? new Flusher(this, flushInterval, getClass().getSimpleName()) : null;
+    this.detailedMetrics = detailedMetrics(metrics);
+    this.loadShedding = options.loadShedding();
+    this.pending = new SpanQueue(options.queuedMaxSpans(), options.queuedMaxBytes());
+    this.priority = options.priorityQueuedMaxSpans() > 0
+        ? new SpanQueue(options.priorityQueuedMaxSpans(), priorityQueuedMaxBytes(
+        options.priorityQueuedMaxSpans(), options.queuedMaxSpans(), options.queuedMaxBytes()))
+        : null;
+    this.messageMaxBytes = options.messageMaxBytes();
+    this.grouper = options.traceGrouping().enabled ? new TraceGrouper() : null;
+    this.localRootWaitNanos = options.traceGrouping().localRootWaitNanos;
+    this.flusher = options.messageTimeoutMillis() > 0
+        ? new Flusher(this, options.messageTimeoutMillis(), getClass().getSimpleName())
+        : null;
+  }
+
+  /** Returns the handler if it opted into detailed events, otherwise one that ignores them. */
+  static DetailedSpanCollectorMetricsHandler detailedMetrics(SpanCollectorMetricsHandler metrics) {
+    return metrics instanceof DetailedSpanCollectorMetricsHandler
+        ? (DetailedSpanCollectorMetricsHandler) metrics
+        : NOOP_DETAILED_METRICS;
+  }
+
+  /**
+   * The handler passed to the constructor if it implements {@link
+   * DetailedSpanCollectorMetricsHandler}, otherwise one that ignores detailed events.
+   */
+  protected final DetailedSpanCollectorMetricsHandler detailedMetrics() {
+    return detailedMetrics;
+  }
+
+  /** Bytes for priority spans, in the same proportion to their count as other spans. */
+  static int priorityQueuedMaxBytes(int prioritySpans, int queuedMaxSpans, int queuedMaxBytes) {
+    long maxBytes = (long) queuedMaxBytes * prioritySpans / Math.max(1, queuedMaxSpans);
+    return (int) Math.max(1, Math.min(queuedMaxBytes, maxBytes));
   }
 
   /**
-   * Queues the span for collection, or drops it if the queue is full.
+   * Queues the span for collection, or drops it if the queue is full or its trace is being
+   * {@link LoadShedding shed}. The queue is full when either its span count or the estimated
+   * encoded size of its spans reaches the limit.
+   *
+   * <p>Debug or error spans are first offered to a separate, smaller queue which isn't shed. If
+   * that is also full, they are treated like other spans.
    *
    * @param span Span, should not be <code>null</code>.
    */
   @Override
   public void collect(Span span) {
     metrics.incrementAcceptedSpans(1);
-    if (!pending.offer(span)) {
-      metrics.incrementDroppedSpans(1);
+    int sizeInBytes = SpanQueue.sizeInBytes(span);
+    if (priority == null || !isPriority(span) || !priority.offer(span, sizeInBytes)) {
+      long traceId = span.getTrace_id();
+      if (loadShedding.isShed(traceId, pending.size(), pending.maxSpans)
+          || loadShedding.isShed(traceId, pending.sizeInBytes(), pending.maxBytes)) {
+        metrics.incrementDroppedSpans(1);
+        return;
+      } else if (!pending.offer(span, sizeInBytes)) {
+        overflow(Collections.singletonList(span));
+        return;
+      }
     }
+    if (flusher != null && messageReady()) {
+      flusher.wake(); // a message is ready, so don't wait for the timeout
+    }
+  }
+
+  /** Debug and error spans are flagged when recorded, so this needn't search annotations. */
+  static boolean isPriority(Span span) {
+    return Boolean.TRUE.equals(span.isDebug()) || InternalSpan.instance.hasError(span);
   }
 
   /**
-   * Calling this will flush any pending spans to the transport on the current thread.
+   * Calling this will flush any pending spans to the transport on the current thread. Spans are
+   * reported in batches no larger than the message size.
    */
   @Override
   public void flush() {
-    if (pending.isEmpty()) return;
-    List<Span> drained = new ArrayList<Span>(pending.size());
-    pending.drainTo(drained);
-    if (drained.isEmpty()) return;
-
-    int spanCount = drained.size();
-    try {
-      reportSpans(drained);
-    } catch (IOException e) {
-      metrics.incrementDroppedSpans(spanCount);
-    } catch (RuntimeException e) {
-      metrics.incrementDroppedSpans(spanCount);
+    int queuedSpans = pending.size(), queuedBytes = pending.sizeInBytes();
+    if (priority != null) {
+      queuedSpans += priority.size();
+      queuedBytes += priority.sizeInBytes();
+    }
+    detailedMetrics.updateQueuedSpans(queuedSpans);
+    detailedMetrics.updateQueuedBytes(queuedBytes);
+    // waiting holds spans in the queue, so only wait once, and while the queue is under half full
+    boolean mayWait = localRootWaitNanos > 0
+        && queuedSpans < pending.maxSpans / 2 && queuedBytes < pending.maxBytes / 2;
+    // only drain spans present on entry, so that constant load can't keep the caller here forever
+    while (queuedSpans > 0) {
+      List<Span> drained = new ArrayList<Span>();
+      int spanCount = drainTo(drained);
+      if (spanCount == 0) return;
+      if (grouper != null && grouper.group(drained) && mayWait) {
+        mayWait = false;
+        spanCount += awaitLocalRoots(drained);
+      }
+      queuedSpans -= spanCount;
+      detailedMetrics.recordMessageSpans(spanCount);
+      try {
+        reportSpans(drained);
+      } catch (IOException e) {
+        detailedMetrics.incrementFailedMessages(e);
+        metrics.incrementDroppedSpans(spanCount);
+      } catch (RuntimeException e) {
+        detailedMetrics.incrementFailedMessages(e);
+        metrics.incrementDroppedSpans(spanCount);
+      }
+    }
+  }
+
+  /**
+   * Called when a batch holds spans of a trace without its local root. Waits briefly for the root,
+   * then tops up the batch if it has room. Returns the count of spans added.
+   */
+  int awaitLocalRoots(List<Span> drained) {
+    int batchBytes = sizeInBytes(drained);
+    if (batchBytes >= messageMaxBytes) return 0;
+    LockSupport.parkNanos(this, localRootWaitNanos);
+    int added = pending.drainTo(drained, messageMaxBytes, batchBytes);
+    if (added > 0) grouper.group(drained);
+    return added;
+  }
+
+  /** Drains priority spans first, then tops up the batch with others. */
+  int drainTo(List<Span> drained) {
+    if (priority == null) return pending.drainTo(drained, messageMaxBytes);
+    int spanCount = priority.drainTo(drained, messageMaxBytes);
+    return spanCount + pending.drainTo(drained, messageMaxBytes, sizeInBytes(drained));
+  }
+
+  static int sizeInBytes(List<Span> spans) {
+    int sizeInBytes = 0;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      sizeInBytes += SpanQueue.sizeInBytes(spans.get(i));
     }
+    return sizeInBytes;
+  }
+
+  /**
+   * Called with spans that didn't fit in the queue, or were pending on close. By default, they are
+   * dropped.
+   */
+  void overflow(List<Span> spans) {
+    metrics.incrementDroppedSpans(spans.size());
+  }
+
+  /** Returns true when pending spans fill a message. */
+  boolean messageReady() {
+    int sizeInBytes = pending.sizeInBytes();
+    if (priority != null) sizeInBytes += priority.sizeInBytes();
+    return sizeInBytes >= messageMaxBytes;
   }
 
-  /** Calls flush on a fixed interval */
+  /**
+   * Flushes when a message is ready or the oldest span may have waited the message timeout,
+   * whichever comes first.
+   */
   static final class Flusher implements Runnable {
-    final Flushable flushable;
-    final ScheduledExecutorService scheduler;
-
-    Flusher(Flushable flushable, int flushInterval, final String threadPoolName) {
-      this.flushable = flushable;
-      this.scheduler = Executors.newSingleThreadScheduledExecutor(
-          r -> new Thread(r, threadPoolName));
-      this.scheduler.scheduleWithFixedDelay(this, 0, flushInterval, SECONDS);
+    final FlushingSpanCollector collector;
+    final long timeoutNanos;
+    final Thread thread;
+    final AtomicBoolean woken = new AtomicBoolean();
+    volatile boolean closed;
+
+    Flusher(FlushingSpanCollector collector, long timeoutMillis, String threadName) {
+      this.collector = collector;
+      this.timeoutNanos = MILLISECONDS.toNanos(timeoutMillis);
+      this.thread = new Thread(this, threadName);
+      this.thread.start();
+    }
+
+    /** Called by producers. Only the first call after each flush unparks the thread. */
+    void wake() {
+      if (!woken.get() && woken.compareAndSet(false, true)) LockSupport.unpark(thread);
     }
 
     @Override
     public void run() {
-      try {
-        flushable.flush();
-      } catch (IOException ignored) {
+      long deadline = System.nanoTime() + timeoutNanos;
+      while (!closed) {
+        long remaining = deadline - System.nanoTime();
+        if (remaining > 0 && !collector.messageReady()) {
+          LockSupport.parkNanos(this, remaining);
+          continue; // woken, timed out or spurious: re-check
+        }
+        woken.set(false);
+        deadline = System.nanoTime() + timeoutNanos;
+        try {
+          collector.flush();
+        } catch (RuntimeException ignored) {
+        }
       }
     }
+
+    void close() {
+      closed = true;
+      LockSupport.unpark(thread);
+    }
   }
 
   /**
@@ -109,9 +289,11 @@ public abstract class FlushingSpanCollector implements SpanCollector, Flushable,
    */
   @Override
   public void close() {
-    if (flusher != null) flusher.scheduler.shutdown();
-    // throw any outstanding spans on the floor
-    int dropped = pending.drainTo(new LinkedList<Span>());
-    metrics.incrementDroppedSpans(dropped);
+    if (flusher != null) flusher.close();
+    // throw any outstanding spans on the floor, unless they can overflow elsewhere
+    List<Span> outstanding = new ArrayList<Span>(pending.size());
+    if (priority != null) priority.drainTo(outstanding);
+    pending.drainTo(outstanding);
+    if (!outstanding.isEmpty()) overflow(outstanding);
   }
 }
@@ -0,0 +1,163 @@
+package com.github.kristofa.brave;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import zipkin.reporter.ReporterMetrics;
+
+/**
+ * Keeps counts, gauges and {@link LogLinearHistogram histograms} of the reporting pipeline, so that
+ * when spans lag you can tell whether encoding, the queue or the transport is the bottleneck.
+ *
+ * <p>This is also {@link ReporterMetrics}, so it can be passed to {@code AsyncReporter} when using
+ * Brave 4. That reporter doesn't time encoding or sending, so those histograms stay empty, but
+ * message sizes, queue depth and failures are recorded.
+ *
+ * <p>Recording is lock-free and allocates nothing, except on the first failure of each type. Read
+ * the values periodically to export them to your metrics system.
+ */
+public final class HistogramSpanCollectorMetricsHandler
+    implements DetailedSpanCollectorMetricsHandler, ReporterMetrics {
+
+  final AtomicLong acceptedSpans = new AtomicLong();
+  final AtomicLong droppedSpans = new AtomicLong();
+  final AtomicLong messages = new AtomicLong();
+  volatile int queuedSpans, queuedBytes;
+  final LogLinearHistogram messageSpans = new LogLinearHistogram();
+  final LogLinearHistogram messageBytes = new LogLinearHistogram();
+  final LogLinearHistogram encodeNanos = new LogLinearHistogram();
+  final LogLinearHistogram sendNanos = new LogLinearHistogram();
+  final ConcurrentMap<Class<?>, AtomicLong> failedMessages =
+      new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+  @Override public void incrementAcceptedSpans(int quantity) {
+    acceptedSpans.addAndGet(quantity);
+  }
+
+  @Override public void incrementDroppedSpans(int quantity) {
+    droppedSpans.addAndGet(quantity);
+  }
+
+  @Override public void updateQueuedSpans(int update) {
+    queuedSpans = update;
+  }
+
+  @Override public void updateQueuedBytes(int update) {
+    queuedBytes = update;
+  }
+
+  @Override public void recordMessageSpans(int spanCount) {
+    messages.incrementAndGet();
+    messageSpans.record(spanCount);
+  }
+
+  @Override public void recordEncodeNanos(long nanos, int bytes) {
+    encodeNanos.record(nanos);
+    messageBytes.record(bytes);
+  }
+
+  @Override public void recordSendNanos(long nanos) {
+    sendNanos.record(nanos);
+  }
+
+  @Override public void incrementFailedMessages(Throwable cause) {
+    AtomicLong count = failedMessages.get(cause.getClass());
+    if (count == null) {
+      AtomicLong newCount = new AtomicLong();
+      count = failedMessages.putIfAbsent(cause.getClass(), newCount);
+      if (count == null) count = newCount;
+    }
+    count.incrementAndGet();
+  }
+
+  // ReporterMetrics, which AsyncReporter calls per span or message
+
+  @Override public void incrementMessages() {
+    messages.incrementAndGet();
+  }
+
+  @Override public void incrementMessagesDropped(Throwable cause) {
+    incrementFailedMessages(cause);
+  }
+
+  @Override public void incrementSpans(int quantity) {
+    incrementAcceptedSpans(quantity);
+  }
+
+  @Override public void incrementSpanBytes(int quantity) {
+    // message sizes are recorded instead
+  }
+
+  @Override public void incrementMessageBytes(int quantity) {
+    messageBytes.record(quantity);
+  }
+
+  @Override public void incrementSpansDropped(int quantity) {
+    incrementDroppedSpans(quantity);
+  }
+
+  /** Spans accepted for reporting. */
+  public long acceptedSpans() {
+    return acceptedSpans.get();
+  }
+
+  /** Spans that won't be delivered, whether dropped by the queue or in failed messages. */
+  public long droppedSpans() {
+    return droppedSpans.get();
+  }
+
+  /** Messages reported, whether or not they were sent successfully. */
+  public long messages() {
+    return messages.get();
+  }
+
+  /** Spans pending at the last flush. */
+  public int queuedSpans() {
+    return queuedSpans;
+  }
+
+  /** Estimated encoded size of spans pending at the last flush. */
+  public int queuedBytes() {
+    return queuedBytes;
+  }
+
+  /** Spans per message. */
+  public LogLinearHistogram messageSpans() {
+    return messageSpans;
+  }
+
+  /** Encoded size of messages, in bytes. */
+  public LogLinearHistogram messageBytes() {
+    return messageBytes;
+  }
+
+  /** Time spent encoding messages, when encoded separately from sending. */
+  public LogLinearHistogram encodeNanos() {
+    return encodeNanos;
+  }
+
+  /** Time spent sending messages that succeeded. */
+  public LogLinearHistogram sendNanos() {
+    return sendNanos;
+  }
+
+  /** Counts of failed messages by the type of their cause. */
+  public Map<Class<?>, Long> failedMessages() {
+    Map<Class<?>, Long> result = new LinkedHashMap<Class<?>, Long>();
+    for (Map.Entry<Class<?>, AtomicLong> entry : failedMessages.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().get());
+    }
+    return result;
+  }
+
+  @Override public String toString() {
+    return "HistogramSpanCollectorMetricsHandler(acceptedSpans=" + acceptedSpans()
+        + ", droppedSpans=" + droppedSpans() + ", messages=" + messages()
+        + ", queuedSpans=" + queuedSpans() + ", queuedBytes=" + queuedBytes()
+        + ", messageSpans=" + messageSpans + ", messageBytes=" + messageBytes
+        + ", encodeNanos=" + encodeNanos + ", sendNanos=" + sendNanos
+        + ", failedMessages=" + failedMessages() + ")";
+  }
+}
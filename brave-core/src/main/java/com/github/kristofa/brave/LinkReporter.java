@@ -0,0 +1,16 @@
+package com.github.kristofa.brave;
+
+import java.util.List;
+
+/**
+ * Receives the dependency links {@link DependencyLinks aggregated} in-process at the end of each
+ * interval.
+ */
+public interface LinkReporter {
+
+  /**
+   * Invoked on the thread that flushes links, with one link per child service called during the
+   * interval. Never invoked with an empty list.
+   */
+  void report(List<DependencyLinks.Link> links);
+}
@@ -114,9 +114,8 @@ public abstract class LocalTracer extends AnnotationSubmitter {
             return null;
         }
 
-        Span span = spanFactory().nextSpan(maybeParent());
-        SpanId context = Brave.context(span);
-        if (Boolean.FALSE.equals(context.sampled())) {
+        Span span = spanFactory().nextSampledSpan(maybeParent());
+        if (span == null) {
             currentSpan().setCurrentSpan(null);
             return null;
         }
@@ -126,7 +125,7 @@ public abstract class LocalTracer extends AnnotationSubmitter {
         recorder().tag(span, LOCAL_COMPONENT, component);
 
         currentSpan().setCurrentSpan(span);
-        return context;
+        return Brave.context(span);
     }
 
     /**
@@ -0,0 +1,110 @@
+package com.github.kristofa.brave;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts non-negative values, such as latencies in nanoseconds or message sizes, in buckets whose
+ * width grows with the value. Each power of two is split into {@value #SUB_BUCKETS} equal buckets,
+ * so a percentile is within about 6% of the true value, and the whole range of a long fits in
+ * under a thousand buckets.
+ *
+ * <p>Recording is lock-free and allocates nothing: it increments one bucket, the count and sum,
+ * and raises the maximum if needed. Reads aren't atomic with respect to recording, so a percentile
+ * read while values are recorded may not include all of them.
+ */
+public final class LogLinearHistogram {
+  static final int SUB_BUCKET_BITS = 4;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  /** Values below {@link #SUB_BUCKETS} are counted exactly, then each power of two up to 2^62. */
+  static final int BUCKET_COUNT = index(Long.MAX_VALUE) + 1;
+
+  final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  final AtomicLong count = new AtomicLong();
+  final AtomicLong sum = new AtomicLong();
+  final AtomicLong max = new AtomicLong();
+
+  /** Records a value. Negative values are recorded as zero. */
+  public void record(long value) {
+    if (value < 0) value = 0;
+    counts.incrementAndGet(index(value));
+    count.incrementAndGet();
+    sum.addAndGet(value);
+    for (long current; value > (current = max.get()); ) {
+      if (max.compareAndSet(current, value)) break;
+    }
+  }
+
+  /** Count of values recorded. */
+  public long count() {
+    return count.get();
+  }
+
+  /** Sum of values recorded, which may overflow. */
+  public long sum() {
+    return sum.get();
+  }
+
+  /** Largest value recorded, or zero. */
+  public long max() {
+    return max.get();
+  }
+
+  /** Mean of values recorded, or zero. */
+  public double mean() {
+    long count = this.count.get();
+    return count == 0 ? 0 : (double) sum.get() / count;
+  }
+
+  /**
+   * Returns the value at the percentile, as the highest value of its bucket, but no higher than
+   * the maximum. Returns zero when nothing is recorded.
+   *
+   * @param percentile between 0 and 100, such as 99.9
+   */
+  public long percentile(double percentile) {
+    return percentile(percentile, this);
+  }
+
+  /** Like {@link #percentile(double)}, except over the values of all histograms, e.g. stripes. */
+  static long percentile(double percentile, LogLinearHistogram... histograms) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+    }
+    long total = 0, max = 0;
+    for (LogLinearHistogram histogram : histograms) {
+      for (int i = 0; i < BUCKET_COUNT; i++) total += histogram.counts.get(i);
+      max = Math.max(max, histogram.max.get());
+    }
+    if (total == 0) return 0;
+    long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+    long seen = 0;
+    int i = 0;
+    for (; i < BUCKET_COUNT - 1; i++) {
+      for (LogLinearHistogram histogram : histograms) seen += histogram.counts.get(i);
+      if (seen >= rank) break;
+    }
+    return Math.min(highestValue(i), max);
+  }
+
+  @Override public String toString() {
+    return "LogLinearHistogram(count=" + count() + ", mean=" + (long) mean()
+        + ", p50=" + percentile(50) + ", p99=" + percentile(99) + ", max=" + max() + ")";
+  }
+
+  static int index(long value) {
+    if (value < SUB_BUCKETS) return (int) value;
+    int exponent = 63 - Long.numberOfLeadingZeros(value); // at least SUB_BUCKET_BITS
+    int shift = exponent - SUB_BUCKET_BITS;
+    int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return (shift + 1) * SUB_BUCKETS + subBucket;
+  }
+
+  /** The highest value counted in the bucket at this index. */
+  static long highestValue(int index) {
+    if (index < SUB_BUCKETS) return index;
+    int shift = index / SUB_BUCKETS - 1;
+    long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowest + ((1L << shift) - 1);
+  }
+}
@@ -109,7 +109,13 @@ abstract class Recorder implements AnnotationSubmitter.Clock {
           }
         }
       }
-      reporter().report(toZipkin(span));
+      Reporter<zipkin.Span> reporter = reporter();
+      if (reporter instanceof SpanCollectorReporterAdapter) {
+        // Brave 3 collectors encode spans directly, so skip converting to zipkin and back.
+        ((SpanCollectorReporterAdapter) reporter).collect(span);
+      } else {
+        reporter.report(toZipkin(span));
+      }
     }
   }
 }
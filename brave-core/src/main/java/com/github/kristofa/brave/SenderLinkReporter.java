@@ -0,0 +1,95 @@
+package com.github.kristofa.brave;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.ReporterMetrics;
+import zipkin.reporter.Sender;
+
+import static com.github.kristofa.brave.internal.Util.checkNotNull;
+
+/**
+ * Reports dependency links through the same {@link Sender} as spans, so that links share its
+ * connection, and its spillover when the sender is a {@link SpilloverSender}. Each link is sent as
+ * a json element of the message, in place of a span, so the sender must encode json:
+ *
+ * <pre>{@code
+ * sender = RelaySender.create("127.0.0.1", SpanRelay.DEFAULT_PORT,
+ *     RelaySender.Config.builder().encoding(Encoding.JSON).build());
+ * links = DependencyLinks.create("frontend", SenderLinkReporter.create(sender));
+ * }</pre>
+ *
+ * <p>Zipkin's http api doesn't accept links, so send them to a {@code SpanRelay} configured with a
+ * {@link LinkReporter}, which decodes them with {@link DependencyLinks#readJson(byte[])}.
+ *
+ * <p>Messages are sent asynchronously, so failures are counted as dropped messages in {@link
+ * ReporterMetrics}, rather than thrown.
+ */
+public final class SenderLinkReporter implements LinkReporter {
+  static final Logger logger = Logger.getLogger(SenderLinkReporter.class.getName());
+
+  public static SenderLinkReporter create(Sender sender) {
+    return create(sender, ReporterMetrics.NOOP_METRICS);
+  }
+
+  public static SenderLinkReporter create(Sender sender, ReporterMetrics metrics) {
+    return new SenderLinkReporter(sender, metrics);
+  }
+
+  final Sender sender;
+  final ReporterMetrics metrics;
+
+  SenderLinkReporter(Sender sender, ReporterMetrics metrics) {
+    this.sender = checkNotNull(sender, "Null sender");
+    this.metrics = checkNotNull(metrics, "Null metrics");
+    if (sender.encoding() != Encoding.JSON) {
+      throw new IllegalArgumentException("links are encoded as json, but " + sender
+          + " encodes " + sender.encoding());
+    }
+  }
+
+  /** Encodes the links, sending as many per message as fit in the sender's limit. */
+  @Override public void report(List<DependencyLinks.Link> links) {
+    List<byte[]> message = new ArrayList<byte[]>();
+    for (DependencyLinks.Link link : links) {
+      byte[] encoded = DependencyLinks.writeJson(link);
+      message.add(encoded);
+      if (message.size() > 1 && sender.messageSizeInBytes(message) > sender.messageMaxBytes()) {
+        message.remove(message.size() - 1);
+        send(message);
+        message = new ArrayList<byte[]>();
+        message.add(encoded);
+      }
+    }
+    send(message);
+  }
+
+  void send(final List<byte[]> message) {
+    final int count = message.size();
+    metrics.incrementMessages();
+    metrics.incrementMessageBytes(sender.messageSizeInBytes(message));
+    Callback callback = new Callback() {
+      @Override public void onComplete() {
+      }
+
+      @Override public void onError(Throwable t) {
+        metrics.incrementMessagesDropped(t);
+        if (logger.isLoggable(Level.FINE)) {
+          logger.log(Level.FINE, "Dropped " + count + " links", t);
+        }
+      }
+    };
+    try {
+      sender.sendSpans(message, callback);
+    } catch (RuntimeException e) {
+      callback.onError(e);
+    }
+  }
+
+  @Override public String toString() {
+    return "SenderLinkReporter(" + sender + ")";
+  }
+}
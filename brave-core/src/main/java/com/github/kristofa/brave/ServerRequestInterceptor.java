@@ -1,5 +1,6 @@
 package com.github.kristofa.brave;
 
+import com.github.kristofa.brave.internal.Nullable;
 import com.twitter.zipkin.gen.Span;
 import java.util.logging.Logger;
 
@@ -19,9 +20,15 @@ public class ServerRequestInterceptor {
     private final static Logger LOGGER = Logger.getLogger(ServerRequestInterceptor.class.getName());
 
     private final ServerTracer serverTracer;
+    @Nullable private final SpanMetrics spanMetrics;
 
     public ServerRequestInterceptor(ServerTracer serverTracer) {
+        this(serverTracer, null);
+    }
+
+    ServerRequestInterceptor(ServerTracer serverTracer, @Nullable SpanMetrics spanMetrics) {
         this.serverTracer = checkNotNull(serverTracer, "Null serverTracer");
+        this.spanMetrics = spanMetrics;
     }
 
     /**
@@ -35,7 +42,7 @@ public class ServerRequestInterceptor {
 
         Boolean sample = traceData.getSample();
         if (Boolean.FALSE.equals(sample)) {
-            serverTracer.setStateNoTracing();
+            setStateNoTracing(adapter);
             LOGGER.fine("Received indication that we should NOT trace.");
             return;
         }
@@ -47,18 +54,20 @@ public class ServerRequestInterceptor {
             span = serverTracer.spanFactory().joinSpan(traceData.getSpanId());
         } else {
             LOGGER.fine("Received no span state.");
-            span = serverTracer.spanFactory().nextSpan(null);
+            // Most new traces are unsampled, so decide before allocating a span
+            span = serverTracer.spanFactory().nextSampledSpan(null);
         }
-        SpanId context = Brave.context(span);
 
         // At this point, we have inherited a sampling decision or made one explicitly via join
-        if (!context.sampled()) {
+        if (span == null || !Brave.context(span).sampled()) {
             LOGGER.fine("Trace is unsampled.");
-            serverTracer.setStateNoTracing();
+            setStateNoTracing(adapter);
             return;
         }
         // Associate the span with the thread context as all serverTracer methods look that up
-        serverTracer.setStateCurrentTrace(span,  adapter.getSpanName());
+        String spanName = adapter.getSpanName();
+        SpanMetrics.Timer timer = spanMetrics != null ? spanMetrics.startServer(spanName) : null;
+        serverTracer.setStateCurrentTrace(span, spanName, timer);
 
         serverTracer.setServerReceived();
         for(KeyValueAnnotation annotation : adapter.requestAnnotations())
@@ -66,4 +75,14 @@ public class ServerRequestInterceptor {
             serverTracer.submitBinaryAnnotation(annotation.getKey(), annotation.getValue());
         }
     }
+
+    /** Unsampled requests are still timed when metrics are enabled. */
+    void setStateNoTracing(ServerRequestAdapter adapter) {
+        if (spanMetrics == null) {
+            serverTracer.setStateNoTracing();
+            return;
+        }
+        SpanMetrics.Timer timer = spanMetrics.startServer(adapter.getSpanName());
+        serverTracer.currentSpan().setCurrentSpan(ServerSpan.notSampled(timer));
+    }
 }
@@ -1,5 +1,6 @@
 package com.github.kristofa.brave;
 
+import com.github.kristofa.brave.internal.Nullable;
 import java.util.logging.Logger;
 
 import static com.github.kristofa.brave.internal.Util.checkNotNull;
@@ -16,21 +17,35 @@ public class ServerResponseInterceptor {
     private final static Logger LOGGER = Logger.getLogger(ServerResponseInterceptor.class.getName());
 
     private final ServerTracer serverTracer;
+    @Nullable private final SpanMetrics spanMetrics;
 
     public ServerResponseInterceptor(ServerTracer serverTracer) {
+        this(serverTracer, null);
+    }
+
+    ServerResponseInterceptor(ServerTracer serverTracer, @Nullable SpanMetrics spanMetrics) {
         this.serverTracer = checkNotNull(serverTracer, "Null serverTracer");
+        this.spanMetrics = spanMetrics;
     }
 
     public void handle(ServerResponseAdapter adapter) {
         // We can submit this in any case. When server state is not set or
         // we should not trace this request nothing will happen.
         LOGGER.fine("Sending server send.");
+        SpanMetrics.Timer timer = null;
+        if (spanMetrics != null) {
+            ServerSpan serverSpan = serverTracer.currentSpan().getCurrentServerSpan();
+            if (serverSpan != null) timer = serverSpan.timer();
+        }
         try {
+            boolean error = false;
             for(KeyValueAnnotation annotation : adapter.responseAnnotations())
             {
                 serverTracer.submitBinaryAnnotation(annotation.getKey(), annotation.getValue());
+                if (timer != null && !error) error = SpanMetrics.isError(annotation);
             }
             serverTracer.setServerSend();
+            if (timer != null) timer.finish(error);
         } finally {
             serverTracer.clearCurrentSpan();
         }
@@ -13,8 +13,8 @@ import com.twitter.zipkin.gen.Span;
 @AutoValue
 public abstract class ServerSpan {
 
-    public static final ServerSpan EMPTY = new AutoValue_ServerSpan(null, null, null);
-    static final ServerSpan NOT_SAMPLED = new AutoValue_ServerSpan(null, null, false);
+    public static final ServerSpan EMPTY = new AutoValue_ServerSpan(null, null, null, null);
+    static final ServerSpan NOT_SAMPLED = new AutoValue_ServerSpan(null, null, false, null);
 
     @Nullable
     abstract SpanId spanId();
@@ -37,13 +37,30 @@ public abstract class ServerSpan {
     @Nullable
     public abstract Boolean getSample();
 
+    /**
+     * Times the request when {@link SpanMetrics} are enabled. Timers are only equal to themselves,
+     * so server spans of different requests aren't equal when timed.
+     */
+    @Nullable
+    abstract SpanMetrics.Timer timer();
+
     /** Converts the input into a new server span or {@linkplain ServerSpan#NOT_SAMPLED}. */
     static ServerSpan create(Span span) {
+        return create(span, null);
+    }
+
+    /** Like {@link #create(Span)}, except the request is timed by the input. */
+    static ServerSpan create(Span span, @Nullable SpanMetrics.Timer timer) {
         SpanId context = Brave.context(span);
         if (Boolean.FALSE.equals(context.sampled())) {
-            return ServerSpan.NOT_SAMPLED;
+            return timer == null ? ServerSpan.NOT_SAMPLED : notSampled(timer);
         }
-        return new AutoValue_ServerSpan(context, span, context.sampled());
+        return new AutoValue_ServerSpan(context, span, context.sampled(), timer);
+    }
+
+    /** Like {@linkplain ServerSpan#NOT_SAMPLED}, except the request is timed by the input. */
+    static ServerSpan notSampled(SpanMetrics.Timer timer) {
+        return new AutoValue_ServerSpan(null, null, false, timer);
     }
 
     ServerSpan(){
@@ -121,9 +121,13 @@ public abstract class ServerTracer extends AnnotationSubmitter {
     }
 
     void setStateCurrentTrace(Span span, String spanName) {
+        setStateCurrentTrace(span, spanName, null);
+    }
+
+    void setStateCurrentTrace(Span span, String spanName, @Nullable SpanMetrics.Timer timer) {
         checkNotBlank(spanName, "Null or blank span name");
         recorder().name(span, spanName);
-        currentSpan().setCurrentSpan(ServerSpan.create(span));
+        currentSpan().setCurrentSpan(ServerSpan.create(span, timer));
     }
     /**
      * Sets the current Trace/Span state. Using this method indicates that a parent request has decided that we should not
@@ -144,7 +148,12 @@ public abstract class ServerTracer extends AnnotationSubmitter {
      * @param spanName The name of our current request/span.
      */
     public void setStateUnknown(String spanName) {
-        Span span = spanFactory().nextSpan(null);
+        checkNotBlank(spanName, "Null or blank span name");
+        Span span = spanFactory().nextSampledSpan(null);
+        if (span == null) {
+            setStateNoTracing();
+            return;
+        }
         setStateCurrentTrace(span, spanName);
     }
 
@@ -0,0 +1,112 @@
+package com.github.kristofa.brave;
+
+import com.github.kristofa.brave.internal.Nullable;
+import com.github.kristofa.brave.internal.ParallelSpanCodec;
+import com.google.auto.value.AutoValue;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.kristofa.brave.FlushingSpanCollector.DEFAULT_MESSAGE_MAX_BYTES;
+import static com.github.kristofa.brave.FlushingSpanCollector.DEFAULT_PRIORITY_QUEUED_MAX_SPANS;
+import static com.github.kristofa.brave.FlushingSpanCollector.DEFAULT_QUEUED_MAX_BYTES;
+import static com.github.kristofa.brave.FlushingSpanCollector.DEFAULT_QUEUED_MAX_SPANS;
+
+/**
+ * Queueing and sending options of a {@link FlushingSpanCollector}. Options about sending messages
+ * only apply to an {@link AbstractSpanCollector}, as other collectors report spans themselves.
+ *
+ * @deprecated replaced by {@link zipkin.reporter.AsyncReporter}
+ */
+@Deprecated
+@AutoValue
+public abstract class SpanCollectorOptions {
+  public static Builder builder() {
+    return new AutoValue_SpanCollectorOptions.Builder()
+        .loadShedding(LoadShedding.NONE)
+        .queuedMaxSpans(DEFAULT_QUEUED_MAX_SPANS)
+        .queuedMaxBytes(DEFAULT_QUEUED_MAX_BYTES)
+        .priorityQueuedMaxSpans(DEFAULT_PRIORITY_QUEUED_MAX_SPANS)
+        .messageMaxBytes(DEFAULT_MESSAGE_MAX_BYTES)
+        .messageTimeout(1, TimeUnit.SECONDS)
+        .traceGrouping(TraceGrouping.NONE)
+        .maxInFlightSends(1)
+        .encodingThreads(1);
+  }
+
+  abstract LoadShedding loadShedding();
+
+  abstract int queuedMaxSpans();
+
+  abstract int queuedMaxBytes();
+
+  abstract int priorityQueuedMaxSpans();
+
+  abstract int messageMaxBytes();
+
+  abstract long messageTimeoutMillis();
+
+  abstract TraceGrouping traceGrouping();
+
+  abstract int maxInFlightSends();
+
+  @Nullable abstract SpilloverBuffer spillover();
+
+  abstract int encodingThreads();
+
+  @AutoValue.Builder
+  public static abstract class Builder {
+    /** Default {@link LoadShedding#NONE}. Decides which traces to drop as the queue fills. */
+    public abstract Builder loadShedding(LoadShedding loadShedding);
+
+    /** Default 1000. Maximum pending spans. */
+    public abstract Builder queuedMaxSpans(int queuedMaxSpans);
+
+    /** Default 1% of the heap. Maximum estimated encoded size of pending spans. */
+    public abstract Builder queuedMaxBytes(int queuedMaxBytes);
+
+    /**
+     * Default 100. Maximum pending debug or error spans, which are queued apart from others, so
+     * that they aren't dropped or shed when other spans fill the queue. They are reported first.
+     * Their byte limit is proportional to that of other spans. 0 queues them with others.
+     */
+    public abstract Builder priorityQueuedMaxSpans(int priorityQueuedMaxSpans);
+
+    /**
+     * Default 5MiB. Pending spans are flushed as soon as their estimated encoded size reaches this.
+     * Spans are reported in batches no larger than this, unless a span is larger.
+     */
+    public abstract Builder messageMaxBytes(int messageMaxBytes);
+
+    /**
+     * Default 1 second. Maximum time a span waits before it is flushed. This has millisecond
+     * granularity. 0 implies spans are {@link FlushingSpanCollector#flush() flushed externally}.
+     */
+    public final Builder messageTimeout(long timeout, TimeUnit unit) {
+      return messageTimeoutMillis(unit.toMillis(timeout));
+    }
+
+    abstract Builder messageTimeoutMillis(long messageTimeoutMillis);
+
+    /** Default {@link TraceGrouping#NONE}, which reports spans in the order they finished. */
+    public abstract Builder traceGrouping(TraceGrouping traceGrouping);
+
+    /**
+     * Default 1, which sends messages on the thread that flushes. Otherwise, the maximum concurrent
+     * calls to {@link AbstractSpanCollector#sendSpans(byte[])}.
+     */
+    public abstract Builder maxInFlightSends(int maxInFlightSends);
+
+    /**
+     * Default none, which drops spans that fail to send or don't fit in the queue. Otherwise, holds
+     * them, and is closed with the collector.
+     */
+    public abstract Builder spillover(@Nullable SpilloverBuffer spillover);
+
+    /**
+     * Default 1, which encodes messages on the thread that sends them. Otherwise, threads that
+     * encode chunks of large messages in parallel. See {@link ParallelSpanCodec}.
+     */
+    public abstract Builder encodingThreads(int encodingThreads);
+
+    public abstract SpanCollectorOptions build();
+  }
+}
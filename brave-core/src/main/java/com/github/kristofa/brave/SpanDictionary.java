@@ -0,0 +1,221 @@
+package com.github.kristofa.brave;
+
+import com.github.kristofa.brave.internal.Util;
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.AnnotationType;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.zipkinCoreConstants;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A preset dictionary for deflating messages of spans. Span messages are dominated by strings that
+ * repeat across messages: json field names, annotation values, tag keys, service and span names.
+ * Gzip relearns these in each message. Primed with a dictionary, deflate can refer back to them
+ * from the first span, which matters most for the small messages a collector usually sends.
+ *
+ * <p>Messages are in zlib format, whose header carries the {@link #id()} of the dictionary. Only a
+ * decoder holding the same dictionary can read them, such as the relay in brave-relay: zipkin
+ * servers can't. Share the dictionary with {@link #toByteArray()} and {@link
+ * #fromByteArray(byte[])}.
+ *
+ * <p>The dictionary holds json field names, and the constants in {@link zipkinCoreConstants} and
+ * {@link TraceKeys}. {@link #create(Iterable)} adds strings that repeat in sample spans. Thrift
+ * messages benefit from the strings, but not the field names.
+ */
+public final class SpanDictionary {
+  /** Deflate looks back at most 32KiB, less what it reserves at the end of the window. */
+  static final int MAX_SIZE = 32 * 1024 - 262;
+  /** Longer strings are unlikely to repeat, and crowd out ones that do. */
+  static final int MAX_LEARNED_LENGTH = 64;
+
+  /**
+   * Ordered least to most frequent: deflate encodes nearer matches with fewer bits, and the end of
+   * the dictionary is nearest to the message.
+   */
+  static final String[] CONSTANTS = {
+      TraceKeys.HTTP_HOST, TraceKeys.HTTP_METHOD, TraceKeys.HTTP_PATH, TraceKeys.HTTP_URL,
+      TraceKeys.HTTP_STATUS_CODE, TraceKeys.HTTP_REQUEST_SIZE, TraceKeys.HTTP_RESPONSE_SIZE,
+      zipkinCoreConstants.WIRE_SEND, zipkinCoreConstants.WIRE_RECV,
+      zipkinCoreConstants.CLIENT_SEND_FRAGMENT, zipkinCoreConstants.CLIENT_RECV_FRAGMENT,
+      zipkinCoreConstants.SERVER_SEND_FRAGMENT, zipkinCoreConstants.SERVER_RECV_FRAGMENT,
+      zipkinCoreConstants.LOCAL_COMPONENT, "error", "GET", "POST",
+      zipkinCoreConstants.CLIENT_ADDR, zipkinCoreConstants.SERVER_ADDR,
+      zipkinCoreConstants.CLIENT_SEND, zipkinCoreConstants.CLIENT_RECV,
+      zipkinCoreConstants.SERVER_SEND, zipkinCoreConstants.SERVER_RECV
+  };
+
+  /** Json field names, which appear in every span, so go last. Thrift encodes fields by number. */
+  static final String[] FIELD_NAMES = {
+      "\"debug\":true", "\"type\":\"I64\"", "\"ipv6\":\"",
+      "\"binaryAnnotations\":[{\"key\":\"", "\"annotations\":[{\"timestamp\":",
+      "\"parentId\":\"", "\"duration\":", "\"timestamp\":", "\"endpoint\":{\"serviceName\":\"",
+      "\"ipv4\":\"", "\"port\":", "\"value\":\"", "\"name\":\"", "\"id\":\"", "{\"traceId\":\""
+  };
+
+  /** Built-in strings only. */
+  public static SpanDictionary create() {
+    return create(Collections.<Span>emptyList());
+  }
+
+  /**
+   * Built-in strings, followed by strings that repeat in the sample spans, such as service names,
+   * span names, annotation values, tag keys and values. Use a sample typical of what's reported.
+   */
+  public static SpanDictionary create(Iterable<Span> samples) {
+    Map<String, int[]> counts = new HashMap<String, int[]>();
+    for (Span span : samples) {
+      count(counts, span.getName());
+      for (Annotation a : span.getAnnotations()) {
+        count(counts, a.value);
+        count(counts, a.host);
+      }
+      for (BinaryAnnotation b : span.getBinary_annotations()) {
+        count(counts, b.key);
+        if (b.type == AnnotationType.STRING) count(counts, new String(b.value, Util.UTF_8));
+        count(counts, b.host);
+      }
+    }
+
+    List<Map.Entry<String, int[]>> learned = new ArrayList<Map.Entry<String, int[]>>();
+    for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+      if (entry.getValue()[0] > 1) learned.add(entry);
+    }
+    Collections.sort(learned, new Comparator<Map.Entry<String, int[]>>() {
+      @Override public int compare(Map.Entry<String, int[]> left, Map.Entry<String, int[]> right) {
+        int l = left.getValue()[0], r = right.getValue()[0];
+        return l < r ? -1 : l == r ? left.getKey().compareTo(right.getKey()) : 1;
+      }
+    });
+
+    // learned strings repeat in practice, so go nearer the end than constants which may not
+    Set<String> strings = new LinkedHashSet<String>(Arrays.asList(CONSTANTS));
+    for (Map.Entry<String, int[]> entry : learned) strings.add('"' + entry.getKey() + '"');
+    strings.addAll(Arrays.asList(FIELD_NAMES));
+
+    ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+    for (String string : strings) {
+      byte[] bytes = string.getBytes(Util.UTF_8);
+      dictionary.write(bytes, 0, bytes.length);
+    }
+    return new SpanDictionary(tail(dictionary.toByteArray()));
+  }
+
+  /** Reads a dictionary written by {@link #toByteArray()}. */
+  public static SpanDictionary fromByteArray(byte[] dictionary) {
+    Util.checkNotNull(dictionary, "dictionary");
+    if (dictionary.length > MAX_SIZE) throw new IllegalArgumentException("dictionary too large");
+    return new SpanDictionary(dictionary.clone());
+  }
+
+  final byte[] dictionary;
+  final int id;
+
+  SpanDictionary(byte[] dictionary) {
+    this.dictionary = dictionary;
+    Adler32 adler = new Adler32();
+    adler.update(dictionary);
+    this.id = (int) adler.getValue();
+  }
+
+  /** The zlib dictionary ID: the Adler-32 checksum of the dictionary. */
+  public int id() {
+    return id;
+  }
+
+  public byte[] toByteArray() {
+    return dictionary.clone();
+  }
+
+  /** Sets this as the dictionary of a deflater, which must be reset, or new. */
+  public void prime(Deflater deflater) {
+    deflater.setDictionary(dictionary);
+  }
+
+  /** Compresses a message into zlib format, using this dictionary. */
+  public byte[] compress(byte[] message) {
+    Deflater deflater = new Deflater();
+    try {
+      prime(deflater);
+      deflater.setInput(message);
+      deflater.finish();
+      ByteArrayOutputStream result = new ByteArrayOutputStream(message.length / 4 + 16);
+      byte[] buffer = new byte[8192];
+      while (!deflater.finished()) {
+        result.write(buffer, 0, deflater.deflate(buffer));
+      }
+      return result.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  /**
+   * Decompresses a message written with this dictionary.
+   *
+   * @throws ZipException if the message is malformed, or uses a different dictionary.
+   */
+  public byte[] decompress(byte[] compressed) throws ZipException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(compressed);
+      ByteArrayOutputStream result = new ByteArrayOutputStream(compressed.length * 4);
+      byte[] buffer = new byte[8192];
+      while (!inflater.finished()) {
+        int length = inflater.inflate(buffer);
+        if (length > 0) {
+          result.write(buffer, 0, length);
+        } else if (inflater.needsDictionary()) {
+          int requested = (int) inflater.getAdler(); // some JDKs sign-extend
+          if (requested != id) {
+            throw new ZipException("unknown dictionary: " + Integer.toHexString(requested));
+          }
+          inflater.setDictionary(dictionary);
+        } else if (inflater.needsInput()) {
+          throw new ZipException("truncated message");
+        }
+      }
+      return result.toByteArray();
+    } catch (DataFormatException e) {
+      throw new ZipException(e.getMessage());
+    } finally {
+      inflater.end();
+    }
+  }
+
+  @Override public String toString() {
+    return "SpanDictionary(id=" + Integer.toHexString(id) + ", size=" + dictionary.length + ")";
+  }
+
+  static void count(Map<String, int[]> counts, Endpoint endpoint) {
+    if (endpoint != null) count(counts, endpoint.service_name);
+  }
+
+  static void count(Map<String, int[]> counts, String string) {
+    if (string == null || string.isEmpty() || string.length() > MAX_LEARNED_LENGTH) return;
+    int[] count = counts.get(string);
+    if (count == null) counts.put(string, count = new int[1]);
+    count[0]++;
+  }
+
+  /** Drops the least frequent strings, at the start, when the dictionary is too large. */
+  static byte[] tail(byte[] dictionary) {
+    if (dictionary.length <= MAX_SIZE) return dictionary;
+    return Arrays.copyOfRange(dictionary, dictionary.length - MAX_SIZE, dictionary.length);
+  }
+}
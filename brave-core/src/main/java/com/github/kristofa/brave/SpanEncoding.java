@@ -0,0 +1,39 @@
+package com.github.kristofa.brave;
+
+import com.github.kristofa.brave.internal.V2SpanCodec;
+import com.twitter.zipkin.gen.SpanCodec;
+
+/**
+ * Formats of a message of spans that Zipkin's http endpoints accept. The v2 formats drop the
+ * annotations and endpoints v1 repeats in each span, so are smaller, but need a server that
+ * accepts {@code POST /api/v2/spans}.
+ */
+public enum SpanEncoding {
+  /** A json list of v1 spans, accepted by all Zipkin servers at {@code POST /api/v1/spans}. */
+  V1_JSON("application/json", SpanCodec.JSON),
+  /** A json list of v2 spans, accepted at {@code POST /api/v2/spans}. */
+  V2_JSON("application/json", V2SpanCodec.JSON),
+  /** A proto3 {@code ListOfSpans} of v2 spans, accepted at {@code POST /api/v2/spans}. */
+  PROTO3("application/x-protobuf", V2SpanCodec.PROTO3);
+
+  final String mediaType;
+  final SpanCodec codec;
+
+  SpanEncoding(String mediaType, SpanCodec codec) {
+    this.mediaType = mediaType;
+    this.codec = codec;
+  }
+
+  /** The Content-Type of a message. */
+  public String mediaType() {
+    return mediaType;
+  }
+
+  /**
+   * Writes Brave 3 spans in this format, for example to pass to an {@link AbstractSpanCollector}.
+   * v2 spans can't be read back into the v1 model, so the codec of a v2 format only writes.
+   */
+  public SpanCodec codec() {
+    return codec;
+  }
+}
@@ -10,6 +10,15 @@ abstract class SpanFactory {
   /** Returns the next span ID derived from the input, or a new trace if null. */
   abstract Span nextSpan(@Nullable SpanId maybeParent);
 
+  /**
+   * Like {@link #nextSpan(SpanId)}, except returns null when the span isn't sampled. This allows
+   * implementations to make the sampling decision of a new trace before allocating a span.
+   */
+  @Nullable Span nextSampledSpan(@Nullable SpanId maybeParent) {
+    Span span = nextSpan(maybeParent);
+    return Boolean.FALSE.equals(Brave.context(span).sampled()) ? null : span;
+  }
+
   /**
    * Joining is re-using the same trace and span ids extracted from an incoming request. Here, we
    * ensure a sampling decision has been made. If the span passed sampling, we assume this is a
@@ -49,12 +58,7 @@ abstract class SpanFactory {
     @Override Span nextSpan(@Nullable SpanId maybeParent) {
       long newSpanId = randomGenerator().nextLong();
       if (maybeParent == null) { // new trace
-        return Brave.toSpan(SpanId.builder()
-            .traceIdHigh(traceId128Bit() ? randomGenerator().nextLong() : 0L)
-            .traceId(newSpanId)
-            .spanId(newSpanId)
-            .sampled(sampler().isSampled(newSpanId))
-            .build());
+        return newTrace(newSpanId, sampler().isSampled(newSpanId));
       }
       return Brave.toSpan(maybeParent.toBuilder()
           .parentId(maybeParent.spanId)
@@ -63,6 +67,28 @@ abstract class SpanFactory {
           .build());
     }
 
+    /**
+     * Most new traces are unsampled, so this consults the sampler with only the trace ID. Nothing
+     * is allocated unless the trace is sampled.
+     */
+    @Override Span nextSampledSpan(@Nullable SpanId maybeParent) {
+      if (maybeParent != null) {
+        return Boolean.FALSE.equals(maybeParent.sampled()) ? null : nextSpan(maybeParent);
+      }
+      long newSpanId = randomGenerator().nextLong();
+      if (!sampler().isSampled(newSpanId)) return null;
+      return newTrace(newSpanId, true);
+    }
+
+    Span newTrace(long newSpanId, boolean sampled) {
+      return Brave.toSpan(SpanId.builder()
+          .traceIdHigh(traceId128Bit() ? randomGenerator().nextLong() : 0L)
+          .traceId(newSpanId)
+          .spanId(newSpanId)
+          .sampled(sampled)
+          .build());
+    }
+
     @Override Span joinSpan(SpanId context) {
       // If the sampled flag was left unset, we need to make the decision here
       if (context.sampled() == null) {
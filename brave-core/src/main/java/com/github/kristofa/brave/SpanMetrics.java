@@ -0,0 +1,371 @@
+package com.github.kristofa.brave;
+
+import com.github.kristofa.brave.internal.Nullable;
+import com.twitter.zipkin.gen.Endpoint;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import static com.github.kristofa.brave.internal.Util.checkNotBlank;
+
+/**
+ * Aggregates the rate, errors and duration of server and client requests, whether or not they are
+ * sampled. This gives exact request metrics per endpoint even when few traces are reported.
+ *
+ * <p>Requests are timed by the interceptors of a {@link Brave.Builder#spanMetrics(SpanMetrics)
+ * configured} Brave instance, including one {@link TracerAdapter adapting} a Brave 4 tracer. They
+ * are grouped by kind, span name and remote service. Once there are {@code maxKeys} groups, further
+ * requests are counted under the span name and remote service {@value #OVERFLOW_NAME}, so that
+ * unexpected names can't exhaust memory.
+ *
+ * <p>A request is an error when its response has an "error" annotation or a 5xx http status code.
+ * Durations are histograms in microseconds, striped by thread so that concurrent requests to the
+ * same endpoint don't contend. Recording is lock-free.
+ *
+ * <p>Read the metrics periodically with {@link #getEntries()}, or over JMX once {@link
+ * #registerMBean() registered}. Counts only increase, so derive rates from successive reads.
+ *
+ * <p>Client requests are timed on the thread that sends them, so a client response handled on
+ * another thread isn't counted. Server requests are timed with their {@link ServerSpan}, so are
+ * counted when it is {@link ServerSpanThreadBinder bound} to the thread handling the response.
+ */
+public final class SpanMetrics implements SpanMetricsMXBean {
+  /** Default limit on distinct groups of kind, span name and remote service */
+  public static final int DEFAULT_MAX_KEYS = 256;
+  /** Span name and remote service of requests counted after the limit is reached */
+  public static final String OVERFLOW_NAME = "other";
+
+  static final String SERVER = "server", CLIENT = "client";
+  static final String UNKNOWN = "unknown";
+  // a power of two, so that a thread's stripe is its ID masked
+  static final int STRIPES = Math.min(8,
+      Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+  /** @param serviceName name of the local service, reported with metrics. */
+  public static SpanMetrics create(String serviceName) {
+    return create(serviceName, DEFAULT_MAX_KEYS);
+  }
+
+  /**
+   * @param serviceName name of the local service, reported with metrics.
+   * @param maxKeys maximum distinct groups of kind, span name and remote service.
+   */
+  public static SpanMetrics create(String serviceName, int maxKeys) {
+    return new SpanMetrics(serviceName, maxKeys);
+  }
+
+  final String serviceName;
+  final int maxKeys;
+  /** Reused per thread, so that looking up existing stats doesn't allocate. */
+  static final ThreadLocal<LookupKey> LOOKUP_KEY = new ThreadLocal<LookupKey>() {
+    @Override protected LookupKey initialValue() {
+      return new LookupKey();
+    }
+  };
+
+  // Eventhough we only put by Key, we allow get by LookupKey
+  final ConcurrentMap<Object, Stats> stats = new ConcurrentHashMap<Object, Stats>();
+  final Stats serverOverflow, clientOverflow;
+  /** Reused per thread, as a thread sends one client request at a time. */
+  final ThreadLocal<ClientCall> clientCall = new ThreadLocal<ClientCall>() {
+    @Override protected ClientCall initialValue() {
+      return new ClientCall();
+    }
+  };
+
+  SpanMetrics(String serviceName, int maxKeys) {
+    this.serviceName = checkNotBlank(serviceName, "Null or blank serviceName");
+    if (maxKeys <= 0) throw new IllegalArgumentException("maxKeys <= 0");
+    this.maxKeys = maxKeys;
+    this.serverOverflow = new Stats(new Key(SERVER, OVERFLOW_NAME, OVERFLOW_NAME));
+    this.clientOverflow = new Stats(new Key(CLIENT, OVERFLOW_NAME, OVERFLOW_NAME));
+  }
+
+  /**
+   * Registers this with the platform MBean server, named {@code
+   * io.zipkin.brave:type=SpanMetrics,service=<serviceName>}.
+   *
+   * @return the name, which you can use to unregister this.
+   */
+  public ObjectName registerMBean() throws JMException {
+    ObjectName name = new ObjectName(
+        "io.zipkin.brave:type=SpanMetrics,service=" + ObjectName.quote(serviceName));
+    ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+    return name;
+  }
+
+  @Override public String getServiceName() {
+    return serviceName;
+  }
+
+  @Override public List<Entry> getEntries() {
+    List<Stats> all = new ArrayList<Stats>(stats.values());
+    all.add(serverOverflow);
+    all.add(clientOverflow);
+    List<Entry> result = new ArrayList<Entry>(all.size());
+    for (Stats s : all) {
+      Entry entry = s.snapshot(serviceName);
+      if (entry.getRequests() > 0) result.add(entry); // skip unused or only in flight
+    }
+    return result;
+  }
+
+  /** Starts timing a server request, whose remote service isn't known. */
+  Timer startServer(@Nullable String spanName) {
+    return new Timer(stats(SERVER, spanName, null), System.nanoTime());
+  }
+
+  /** Starts timing a client request on the current thread. */
+  void startClient(@Nullable String spanName, @Nullable Endpoint serverAddress) {
+    String remoteServiceName = serverAddress != null ? serverAddress.service_name : null;
+    ClientCall call = clientCall.get();
+    call.stats = stats(CLIENT, spanName, remoteServiceName);
+    call.startNanos = System.nanoTime();
+  }
+
+  /** Finishes the client request started on the current thread, if any. */
+  void finishClient(boolean error) {
+    ClientCall call = clientCall.get();
+    Stats stats = call.stats;
+    if (stats == null) return;
+    call.stats = null;
+    stats.record((System.nanoTime() - call.startNanos) / 1000, error);
+  }
+
+  /** Returns true when a response annotation indicates the request failed. */
+  static boolean isError(KeyValueAnnotation annotation) {
+    String key = annotation.getKey();
+    if (key.equals(zipkin.Constants.ERROR)) return true;
+    if (!key.equals(TraceKeys.HTTP_STATUS_CODE)) return false;
+    String value = annotation.getValue();
+    return value.length() == 3 && value.charAt(0) == '5';
+  }
+
+  /** Returns the stats of the group, only allocating when it is new. */
+  Stats stats(String kind, @Nullable String spanName, @Nullable String remoteServiceName) {
+    if (spanName == null) spanName = "";
+    if (remoteServiceName == null) remoteServiceName = UNKNOWN;
+    LookupKey lookupKey = LOOKUP_KEY.get();
+    lookupKey.set(kind, spanName, remoteServiceName);
+    Stats result = stats.get(lookupKey);
+    lookupKey.set(null, null, null); // don't retain names
+    if (result != null) return result;
+    if (stats.size() >= maxKeys) return kind.equals(SERVER) ? serverOverflow : clientOverflow;
+    Key key = new Key(kind, spanName, remoteServiceName);
+    Stats newStats = new Stats(key);
+    result = stats.putIfAbsent(key, newStats);
+    return result != null ? result : newStats;
+  }
+
+  /** Times one request, from when it was received or sent until its response. */
+  static final class Timer {
+    final Stats stats;
+    final long startNanos;
+
+    Timer(Stats stats, long startNanos) {
+      this.stats = stats;
+      this.startNanos = startNanos;
+    }
+
+    void finish(boolean error) {
+      stats.record((System.nanoTime() - startNanos) / 1000, error);
+    }
+  }
+
+  /** The client request in progress on a thread, if {@link #stats} isn't null. */
+  static final class ClientCall {
+    Stats stats;
+    long startNanos;
+  }
+
+  static final class Key {
+    final String kind, spanName, remoteServiceName;
+
+    Key(String kind, String spanName, String remoteServiceName) {
+      this.kind = kind;
+      this.spanName = spanName;
+      this.remoteServiceName = remoteServiceName;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof Key)) return false;
+      Key that = (Key) o;
+      return kind.equals(that.kind)
+          && spanName.equals(that.spanName)
+          && remoteServiceName.equals(that.remoteServiceName);
+    }
+
+    @Override public int hashCode() {
+      return hashCode(kind, spanName, remoteServiceName);
+    }
+
+    static int hashCode(String kind, String spanName, String remoteServiceName) {
+      int h = kind.hashCode();
+      h = h * 1000003 ^ spanName.hashCode();
+      h = h * 1000003 ^ remoteServiceName.hashCode();
+      return h;
+    }
+  }
+
+  /**
+   * Mutable key, only used to look up keys. It's never put into the map, so mutating it doesn't
+   * corrupt the map.
+   */
+  static final class LookupKey {
+    String kind, spanName, remoteServiceName;
+
+    void set(String kind, String spanName, String remoteServiceName) {
+      this.kind = kind;
+      this.spanName = spanName;
+      this.remoteServiceName = remoteServiceName;
+    }
+
+    @Override public int hashCode() {
+      return Key.hashCode(kind, spanName, remoteServiceName);
+    }
+
+    /** Resolves hash code collisions */
+    @Override public boolean equals(Object other) {
+      Key that = (Key) other;
+      return kind.equals(that.kind)
+          && spanName.equals(that.spanName)
+          && remoteServiceName.equals(that.remoteServiceName);
+    }
+  }
+
+  /** Durations and errors of one group, striped by thread. Stripes are allocated on first use. */
+  static final class Stats {
+    final Key key;
+    final AtomicReferenceArray<Stripe> stripes = new AtomicReferenceArray<Stripe>(STRIPES);
+
+    Stats(Key key) {
+      this.key = key;
+    }
+
+    void record(long durationMicros, boolean error) {
+      int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+      Stripe stripe = stripes.get(index);
+      if (stripe == null) {
+        Stripe newStripe = new Stripe();
+        stripe = stripes.compareAndSet(index, null, newStripe) ? newStripe : stripes.get(index);
+      }
+      stripe.durations.record(durationMicros);
+      if (error) stripe.errors.incrementAndGet();
+    }
+
+    Entry snapshot(String serviceName) {
+      List<LogLinearHistogram> durations = new ArrayList<LogLinearHistogram>(STRIPES);
+      long requests = 0, errors = 0, sum = 0, max = 0;
+      for (int i = 0; i < STRIPES; i++) {
+        Stripe stripe = stripes.get(i);
+        if (stripe == null) continue;
+        durations.add(stripe.durations);
+        requests += stripe.durations.count();
+        errors += stripe.errors.get();
+        sum += stripe.durations.sum();
+        max = Math.max(max, stripe.durations.max());
+      }
+      LogLinearHistogram[] histograms = durations.toArray(new LogLinearHistogram[0]);
+      return new Entry(key.kind, serviceName, key.spanName, key.remoteServiceName, requests,
+          errors, requests == 0 ? 0 : (double) sum / requests,
+          LogLinearHistogram.percentile(50, histograms),
+          LogLinearHistogram.percentile(90, histograms),
+          LogLinearHistogram.percentile(99, histograms), max);
+    }
+  }
+
+  static final class Stripe {
+    final LogLinearHistogram durations = new LogLinearHistogram();
+    final AtomicLong errors = new AtomicLong();
+  }
+
+  /**
+   * Metrics of requests of one kind, span name and remote service, read at one point in time.
+   * Percentiles are within about 6% of the true value.
+   */
+  public static final class Entry {
+    final String kind, serviceName, spanName, remoteServiceName;
+    final long requests, errors;
+    final double meanMicros;
+    final long p50Micros, p90Micros, p99Micros, maxMicros;
+
+    Entry(String kind, String serviceName, String spanName, String remoteServiceName,
+        long requests, long errors, double meanMicros, long p50Micros, long p90Micros,
+        long p99Micros, long maxMicros) {
+      this.kind = kind;
+      this.serviceName = serviceName;
+      this.spanName = spanName;
+      this.remoteServiceName = remoteServiceName;
+      this.requests = requests;
+      this.errors = errors;
+      this.meanMicros = meanMicros;
+      this.p50Micros = p50Micros;
+      this.p90Micros = p90Micros;
+      this.p99Micros = p99Micros;
+      this.maxMicros = maxMicros;
+    }
+
+    /** "server" or "client" */
+    public String getKind() {
+      return kind;
+    }
+
+    public String getServiceName() {
+      return serviceName;
+    }
+
+    public String getSpanName() {
+      return spanName;
+    }
+
+    /** The service called by a client, or "unknown". Servers don't know their callers. */
+    public String getRemoteServiceName() {
+      return remoteServiceName;
+    }
+
+    /** Requests finished since metrics began. */
+    public long getRequests() {
+      return requests;
+    }
+
+    /** Requests that failed, included in {@link #getRequests()}. */
+    public long getErrors() {
+      return errors;
+    }
+
+    public double getMeanMicros() {
+      return meanMicros;
+    }
+
+    public long getP50Micros() {
+      return p50Micros;
+    }
+
+    public long getP90Micros() {
+      return p90Micros;
+    }
+
+    public long getP99Micros() {
+      return p99Micros;
+    }
+
+    public long getMaxMicros() {
+      return maxMicros;
+    }
+
+    @Override public String toString() {
+      return "Entry(kind=" + kind + ", serviceName=" + serviceName + ", spanName=" + spanName
+          + ", remoteServiceName=" + remoteServiceName + ", requests=" + requests
+          + ", errors=" + errors + ", meanMicros=" + (long) meanMicros + ", p50Micros=" + p50Micros
+          + ", p90Micros=" + p90Micros + ", p99Micros=" + p99Micros + ", maxMicros=" + maxMicros
+          + ")";
+    }
+  }
+}
@@ -0,0 +1,15 @@
+package com.github.kristofa.brave;
+
+import java.util.List;
+
+/**
+ * Management interface of {@link SpanMetrics}, registered by {@link SpanMetrics#registerMBean()}.
+ */
+public interface SpanMetricsMXBean {
+
+  /** Name of the local service whose requests are aggregated. */
+  String getServiceName();
+
+  /** Returns one entry per kind, span name and remote service, in no particular order. */
+  List<SpanMetrics.Entry> getEntries();
+}
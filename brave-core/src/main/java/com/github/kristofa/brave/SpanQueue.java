@@ -0,0 +1,159 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Multi-producer, single-consumer ring buffer of spans, bounded by both count and the estimated
+ * encoded size of its spans.
+ *
+ * <p>Producers claim a slot by incrementing the tail with compare-and-set, so offering a span
+ * neither locks nor allocates. The consumer takes spans in order until it reaches a slot whose
+ * producer hasn't yet published its span; that span is taken on the next drain. Draining is
+ * synchronized, as both the flush thread and callers of flush or close can drain.
+ */
+final class SpanQueue {
+  final AtomicReferenceArray<Span> slots;
+  final int[] sizes; // written before the corresponding slot is published
+  final int mask;
+  final int maxSpans, maxBytes;
+  final AtomicLong tail = new AtomicLong();
+  final AtomicLong bytes = new AtomicLong();
+  volatile long head; // only written while draining
+
+  SpanQueue(int maxSpans, int maxBytes) {
+    if (maxSpans <= 0) throw new IllegalArgumentException("maxSpans <= 0");
+    if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+    // slots are a power of two, so that indexing is a mask, not a division
+    int capacity = Integer.highestOneBit(maxSpans);
+    if (capacity < maxSpans) capacity <<= 1;
+    this.slots = new AtomicReferenceArray<Span>(capacity);
+    this.sizes = new int[capacity];
+    this.mask = capacity - 1;
+    this.maxSpans = maxSpans;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Returns false if the queue doesn't have room for the span's count or bytes. */
+  boolean offer(Span span, int sizeInBytes) {
+    long reserved;
+    do { // reserve bytes first, so that a claimed slot is always within budget
+      reserved = bytes.get();
+      if (reserved + sizeInBytes > maxBytes) return false;
+    } while (!bytes.compareAndSet(reserved, reserved + sizeInBytes));
+
+    long claimed;
+    do {
+      claimed = tail.get();
+      if (claimed - head >= maxSpans) { // full
+        bytes.addAndGet(-sizeInBytes);
+        return false;
+      }
+    } while (!tail.compareAndSet(claimed, claimed + 1));
+
+    int index = (int) claimed & mask;
+    sizes[index] = sizeInBytes;
+    slots.lazySet(index, span);
+    return true;
+  }
+
+  /** Moves published spans to the collection, returning how many. */
+  int drainTo(Collection<Span> drained) {
+    return drainTo(drained, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Like {@link #drainTo(Collection)}, except stops before exceeding the estimated size. At least
+   * one span is drained, if present, even if it is larger than the limit.
+   */
+  int drainTo(Collection<Span> drained, int maxBytes) {
+    return drainTo(drained, maxBytes, 0);
+  }
+
+  /**
+   * Like {@link #drainTo(Collection, int)}, except tops up a batch already holding {@code
+   * batchBytes}, so drains nothing if the next span doesn't fit.
+   */
+  synchronized int drainTo(Collection<Span> drained, int maxBytes, int batchBytes) {
+    long next = head, end = tail.get();
+    long drainedBytes = batchBytes;
+    for (; next < end; next++) {
+      int index = (int) next & mask;
+      Span span = slots.get(index);
+      if (span == null) break; // claimed, but not yet published
+      if (drainedBytes > 0 && drainedBytes + sizes[index] > maxBytes) break;
+      drainedBytes += sizes[index];
+      slots.lazySet(index, null);
+      drained.add(span);
+    }
+    int count = (int) (next - head);
+    bytes.addAndGet(batchBytes - drainedBytes);
+    head = next; // volatile write publishes the cleared slots to producers
+    return count;
+  }
+
+  /** Approximate number of spans, as producers may be mid-offer. */
+  int size() {
+    return (int) Math.max(0, tail.get() - head);
+  }
+
+  /** Approximate bytes, including those reserved by producers mid-offer. */
+  int sizeInBytes() {
+    return (int) bytes.get();
+  }
+
+  /**
+   * Returns the approximate size of the span in TBinaryProtocol, which is what Thrift collectors
+   * send. JSON is larger, but proportionally so. Strings are assumed to be ASCII.
+   */
+  static int sizeInBytes(Span span) {
+    int sizeInBytes = 3 + 8; // trace_id
+    if (span.getTrace_id_high() != 0) sizeInBytes += 3 + 8;
+    sizeInBytes += 3 + 4 + length(span.getName());
+    sizeInBytes += 3 + 8; // id
+    if (span.getParent_id() != null) sizeInBytes += 3 + 8;
+    sizeInBytes += 3 + 5; // annotations list header
+    List<Annotation> annotations = span.getAnnotations();
+    for (int i = 0, length = annotations.size(); i < length; i++) {
+      Annotation a = annotations.get(i);
+      sizeInBytes += 3 + 8; // timestamp
+      sizeInBytes += 3 + 4 + length(a.value);
+      sizeInBytes += sizeInBytes(a.host);
+      sizeInBytes++; // stop
+    }
+    sizeInBytes += 3 + 5; // binary_annotations list header
+    List<BinaryAnnotation> binaryAnnotations = span.getBinary_annotations();
+    for (int i = 0, length = binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation b = binaryAnnotations.get(i);
+      sizeInBytes += 3 + 4 + length(b.key);
+      sizeInBytes += 3 + 4 + (b.value != null ? b.value.length : 0);
+      sizeInBytes += 3 + 4; // type
+      sizeInBytes += sizeInBytes(b.host);
+      sizeInBytes++; // stop
+    }
+    if (span.isDebug() != null) sizeInBytes += 3 + 1;
+    if (span.getTimestamp() != null) sizeInBytes += 3 + 8;
+    if (span.getDuration() != null) sizeInBytes += 3 + 8;
+    return sizeInBytes + 1; // stop
+  }
+
+  static int sizeInBytes(Endpoint endpoint) {
+    if (endpoint == null) return 0;
+    int sizeInBytes = 3; // field header
+    sizeInBytes += 3 + 4; // ipv4
+    sizeInBytes += 3 + 2; // port
+    sizeInBytes += 3 + 4 + length(endpoint.service_name);
+    if (endpoint.ipv6 != null) sizeInBytes += 3 + 4 + 16;
+    return sizeInBytes + 1; // stop
+  }
+
+  static int length(String string) {
+    return string != null ? string.length() : 0;
+  }
+}
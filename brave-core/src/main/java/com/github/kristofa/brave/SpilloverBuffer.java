@@ -0,0 +1,529 @@
+package com.github.kristofa.brave;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import static com.github.kristofa.brave.internal.Util.checkNotNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Holds encoded messages of spans on disk while their transport is unavailable, and replays them
+ * at a bounded rate once it recovers.
+ *
+ * <p>Messages are appended to a ring of memory-mapped segment files, which are allocated up front,
+ * so disk usage never exceeds the {@link Builder#maxBytes(long) quota}. When the ring is full, the
+ * oldest segment is recycled and its spans are counted as {@link #droppedSpans() dropped}.
+ *
+ * <p>Each segment starts with a header holding its sequence and how far it has been replayed, and
+ * each record is checksummed with the sequence of the segment it was written to. On {@link
+ * Builder#build() open}, records written before a crash are recovered, stopping at the first torn
+ * or stale one. A torn replay position is treated as nothing replayed, so delivery is at least
+ * once. Writes survive a crash of the process, but are only forced to the device when a segment
+ * fills and on {@link #close()}.
+ *
+ * <p>A buffer locks its directory until closed, so opening another buffer on the same directory,
+ * in this or another process, fails instead of overwriting its segments.
+ *
+ * <p>A buffer replays to a single {@link Replayer}, which is usually the collector or sender that
+ * spills to it. Replay backs off while it fails, until the owner calls {@link #wake()}.
+ */
+public final class SpilloverBuffer implements Closeable {
+  private static final Logger logger = Logger.getLogger(SpilloverBuffer.class.getName());
+
+  /** Default size of one segment file: 4MiB */
+  public static final int DEFAULT_SEGMENT_BYTES = 4 * 1024 * 1024;
+  /** Default limit on all segment files: 64MiB */
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+  /** Default replay rate: 1MiB per second */
+  public static final long DEFAULT_REPLAY_BYTES_PER_SECOND = 1024 * 1024;
+
+  static final int MAGIC = 0x42535031; // BSP1
+  // magic, sequence, crc(magic, sequence), read position, crc(sequence, read position)
+  static final int HEADER_SIZE = 24;
+  // length, span count, crc(sequence, span count, message)
+  static final int RECORD_OVERHEAD = 12;
+  /** Each segment is a memory mapping, which are limited per process. */
+  static final int MAX_SEGMENTS = 1024;
+  static final long MIN_BACKOFF_NANOS = MILLISECONDS.toNanos(100);
+  static final long MAX_BACKOFF_NANOS = SECONDS.toNanos(30);
+  static final String LOCK_FILE = "spill.lock";
+
+  /** Sends a message that was previously spilled. */
+  public interface Replayer {
+    /**
+     * @param message as passed to {@link #spill(byte[], int)}
+     * @param spanCount count of spans in the message
+     * @throws IOException (or RuntimeException) when thrown, the message is retried after a backoff
+     */
+    void replay(byte[] message, int spanCount) throws IOException;
+  }
+
+  public static Builder builder(File directory) {
+    return new Builder(directory);
+  }
+
+  public static final class Builder {
+    final File directory;
+    int segmentBytes = DEFAULT_SEGMENT_BYTES;
+    long maxBytes = DEFAULT_MAX_BYTES;
+    long replayBytesPerSecond = DEFAULT_REPLAY_BYTES_PER_SECOND;
+
+    Builder(File directory) {
+      this.directory = checkNotNull(directory, "Null directory");
+    }
+
+    /**
+     * Default 4MiB. Size of each segment file, which limits the size of a message. Changing this
+     * discards messages spilled with a different size.
+     */
+    public Builder segmentBytes(int segmentBytes) {
+      if (segmentBytes <= HEADER_SIZE + RECORD_OVERHEAD) {
+        throw new IllegalArgumentException("segmentBytes <= " + (HEADER_SIZE + RECORD_OVERHEAD));
+      }
+      this.segmentBytes = segmentBytes;
+      return this;
+    }
+
+    /**
+     * Default 64MiB. Disk quota, rounded down to whole segments, but no less than two. It can hold
+     * at most 1024 segments.
+     */
+    public Builder maxBytes(long maxBytes) {
+      if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+      this.maxBytes = maxBytes;
+      return this;
+    }
+
+    /** Default 1MiB. Limits the rate of replay, so that a recovering transport isn't flooded. */
+    public Builder replayBytesPerSecond(long replayBytesPerSecond) {
+      if (replayBytesPerSecond <= 0) {
+        throw new IllegalArgumentException("replayBytesPerSecond <= 0");
+      }
+      this.replayBytesPerSecond = replayBytesPerSecond;
+      return this;
+    }
+
+    /** Opens the segment files, recovering any messages that weren't replayed. */
+    public SpilloverBuffer build() throws IOException {
+      return new SpilloverBuffer(this);
+    }
+  }
+
+  final FileLock lock; // held until closed, so that segments have one writer
+  final int segmentBytes;
+  final long replayBytesPerSecond;
+  final Segment[] segments;
+  final ArrayDeque<Segment> used = new ArrayDeque<Segment>(); // oldest first, guarded by this
+  final ArrayDeque<Segment> free = new ArrayDeque<Segment>(); // guarded by this
+  final CRC32 crc = new CRC32(); // guarded by this
+  long sequence; // guarded by this
+  long spilledSpans, replayedSpans, droppedSpans; // guarded by this
+  long backoffNanos; // guarded by this
+  boolean woken, closed; // guarded by this
+  Thread replay; // guarded by this
+
+  SpilloverBuffer(Builder builder) throws IOException {
+    File directory = builder.directory;
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("couldn't create " + directory);
+    }
+    lock = lock(new File(directory, LOCK_FILE));
+    try {
+      segments = openSegments(builder);
+    } catch (IOException e) {
+      lock.channel().close();
+      throw e;
+    } catch (RuntimeException e) {
+      lock.channel().close();
+      throw e;
+    }
+    segmentBytes = builder.segmentBytes;
+    replayBytesPerSecond = builder.replayBytesPerSecond;
+    recover();
+  }
+
+  /** Fails if another buffer, in this or another process, holds the directory. */
+  static FileLock lock(File file) throws IOException {
+    FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+    FileLock lock;
+    try {
+      lock = channel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null; // held by another buffer in this process
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    if (lock == null) {
+      channel.close();
+      throw new IOException(file.getParentFile() + " is in use by another spillover buffer");
+    }
+    return lock;
+  }
+
+  static Segment[] openSegments(Builder builder) throws IOException {
+    File directory = builder.directory;
+    int segmentBytes = builder.segmentBytes;
+    long segmentCount = Math.max(2, builder.maxBytes / segmentBytes);
+    if (segmentCount > MAX_SEGMENTS) {
+      throw new IllegalArgumentException("maxBytes / segmentBytes > " + MAX_SEGMENTS);
+    }
+    Segment[] segments = new Segment[(int) segmentCount];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = open(new File(directory, "spill-" + i + ".seg"), segmentBytes);
+    }
+    // files beyond the quota are from a larger configuration
+    for (int i = segments.length; ; i++) {
+      File file = new File(directory, "spill-" + i + ".seg");
+      if (!file.exists()) break;
+      if (!file.delete()) logger.warning("couldn't delete " + file);
+    }
+    return segments;
+  }
+
+  static Segment open(File file, int segmentBytes) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    try {
+      boolean resized = raf.length() != segmentBytes;
+      if (resized) raf.setLength(segmentBytes); // newly allocated bytes read as zero
+      MappedByteBuffer buffer =
+          raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+      Segment segment = new Segment(buffer);
+      if (resized) buffer.putInt(0, 0); // invalidate a header from a different configuration
+      return segment;
+    } finally {
+      raf.close(); // the mapping remains valid
+    }
+  }
+
+  /** Reads segment headers and scans their records, ordering segments that have any by sequence. */
+  synchronized void recover() {
+    List<Segment> recovered = new ArrayList<Segment>();
+    for (Segment segment : segments) {
+      ByteBuffer buffer = segment.buffer;
+      if (buffer.getInt(0) != MAGIC || buffer.getInt(12) != headerChecksum(buffer.getLong(4))) {
+        free.add(segment);
+        continue;
+      }
+      segment.sequence = buffer.getLong(4);
+      sequence = Math.max(sequence, segment.sequence);
+      int readPosition = buffer.getInt(16);
+      if (readPosition < HEADER_SIZE || readPosition > segmentBytes
+          || buffer.getInt(20) != readPositionChecksum(segment.sequence, readPosition)) {
+        readPosition = HEADER_SIZE; // torn: replay the whole segment
+      }
+      segment.readPosition = segment.writePosition = readPosition;
+      while (true) {
+        int position = segment.writePosition;
+        if (position + RECORD_OVERHEAD > segmentBytes) break;
+        int length = buffer.getInt(position);
+        if (length <= 0 || length > segmentBytes - position - RECORD_OVERHEAD) break;
+        int spanCount = buffer.getInt(position + 4);
+        byte[] message = new byte[length];
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + RECORD_OVERHEAD);
+        record.get(message);
+        if (buffer.getInt(position + 8) != recordChecksum(segment.sequence, spanCount, message)) {
+          break; // torn, or left over from when the segment had an older sequence
+        }
+        segment.writePosition += RECORD_OVERHEAD + length;
+        segment.pendingSpans += spanCount;
+      }
+      if (segment.writePosition > segment.readPosition) {
+        recovered.add(segment);
+      } else {
+        free.add(segment);
+      }
+    }
+    Collections.sort(recovered, new Comparator<Segment>() {
+      @Override public int compare(Segment left, Segment right) {
+        return left.sequence < right.sequence ? -1 : left.sequence == right.sequence ? 0 : 1;
+      }
+    });
+    used.addAll(recovered);
+  }
+
+  /**
+   * Appends a message, recycling the oldest segment when the ring is full.
+   *
+   * @return false if the message is larger than a segment, or the buffer is closed.
+   */
+  public synchronized boolean spill(byte[] message, int spanCount) {
+    checkNotNull(message, "Null message");
+    int recordSize = RECORD_OVERHEAD + message.length;
+    if (closed || message.length == 0 || recordSize > segmentBytes - HEADER_SIZE) {
+      droppedSpans += spanCount;
+      return false;
+    }
+    Segment segment = used.peekLast();
+    if (segment == null || segment.writePosition + recordSize > segmentBytes) {
+      if (segment != null) segment.buffer.force(); // it won't be written again until recycled
+      segment = nextSegment();
+    }
+    ByteBuffer buffer = segment.buffer;
+    int position = segment.writePosition;
+    buffer.putInt(position + 4, spanCount);
+    buffer.putInt(position + 8, recordChecksum(segment.sequence, spanCount, message));
+    ByteBuffer record = buffer.duplicate();
+    record.position(position + RECORD_OVERHEAD);
+    record.put(message);
+    buffer.putInt(position, message.length); // written last, as it makes the record visible
+    segment.writePosition += recordSize;
+    segment.pendingSpans += spanCount;
+    spilledSpans += spanCount;
+    notifyAll();
+    return true;
+  }
+
+  Segment nextSegment() {
+    Segment last = used.peekLast();
+    if (last != null && last.readPosition == last.writePosition) { // fully replayed
+      used.pollLast();
+      free.add(last);
+    }
+    Segment segment = free.poll();
+    if (segment == null) {
+      segment = used.poll(); // the ring is full: recycle the oldest
+      droppedSpans += segment.pendingSpans;
+    }
+    segment.sequence = ++sequence;
+    segment.readPosition = segment.writePosition = HEADER_SIZE;
+    segment.pendingSpans = 0;
+    ByteBuffer buffer = segment.buffer;
+    buffer.putInt(HEADER_SIZE, 0);
+    buffer.putLong(4, segment.sequence);
+    buffer.putInt(12, headerChecksum(segment.sequence));
+    writeReadPosition(segment);
+    buffer.putInt(0, MAGIC);
+    used.add(segment);
+    return segment;
+  }
+
+  /**
+   * Starts a daemon thread which replays messages in the order they were spilled.
+   *
+   * @throws IllegalStateException if replay was already started
+   */
+  public synchronized void startReplay(final Replayer replayer) {
+    checkNotNull(replayer, "Null replayer");
+    if (replay != null) throw new IllegalStateException("replay already started");
+    if (closed) return;
+    replay = new Thread(new Runnable() {
+      @Override public void run() {
+        replayLoop(replayer);
+      }
+    }, "SpilloverBuffer-replay");
+    replay.setDaemon(true);
+    replay.start();
+  }
+
+  /** Call when a send succeeds, so that replay resumes without waiting out its backoff. */
+  public void wake() {
+    synchronized (this) {
+      if (backoffNanos == 0) return;
+      backoffNanos = 0;
+      woken = true;
+      notifyAll();
+    }
+  }
+
+  void replayLoop(Replayer replayer) {
+    while (true) {
+      Segment segment;
+      long sequence;
+      int position, spanCount;
+      byte[] message;
+      synchronized (this) {
+        while (!closed && pendingBytes() == 0) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        if (closed) return;
+        segment = used.peek(); // only the newest segment is kept once fully replayed
+        sequence = segment.sequence;
+        position = segment.readPosition;
+        ByteBuffer buffer = segment.buffer;
+        spanCount = buffer.getInt(position + 4);
+        message = new byte[buffer.getInt(position)];
+        ByteBuffer record = buffer.duplicate();
+        record.position(position + RECORD_OVERHEAD);
+        record.get(message);
+      }
+
+      boolean replayed = false;
+      try {
+        replayer.replay(message, spanCount);
+        replayed = true;
+      } catch (IOException e) {
+        logger.log(Level.FINE, "replay failed; backing off", e);
+      } catch (RuntimeException e) {
+        logger.log(Level.FINE, "replay failed; backing off", e);
+      }
+
+      synchronized (this) {
+        long pauseNanos;
+        if (replayed) {
+          acknowledge(segment, sequence, position, spanCount, message.length);
+          backoffNanos = 0;
+          pauseNanos = SECONDS.toNanos(message.length + RECORD_OVERHEAD) / replayBytesPerSecond;
+        } else {
+          backoffNanos = backoffNanos == 0
+              ? MIN_BACKOFF_NANOS
+              : Math.min(backoffNanos * 2, MAX_BACKOFF_NANOS);
+          pauseNanos = backoffNanos;
+        }
+        woken = false;
+        long deadline = System.nanoTime() + pauseNanos;
+        for (long remaining = pauseNanos; !closed && !woken && remaining > 0;
+            remaining = deadline - System.nanoTime()) {
+          try {
+            NANOSECONDS.timedWait(this, remaining);
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+      }
+    }
+  }
+
+  /** Advances the read position, unless the segment was recycled while the message was replayed. */
+  void acknowledge(Segment segment, long sequence, int position, int spanCount, int length) {
+    replayedSpans += spanCount;
+    if (segment.sequence != sequence || segment.readPosition != position) return;
+    segment.readPosition += RECORD_OVERHEAD + length;
+    segment.pendingSpans -= spanCount;
+    writeReadPosition(segment);
+    if (segment.readPosition == segment.writePosition && segment != used.peekLast()) {
+      used.remove(segment);
+      free.add(segment);
+    }
+  }
+
+  void writeReadPosition(Segment segment) {
+    segment.buffer.putInt(16, segment.readPosition);
+    segment.buffer.putInt(20, readPositionChecksum(segment.sequence, segment.readPosition));
+  }
+
+  /** Spans spilled and not yet replayed or dropped. */
+  public synchronized int pendingSpans() {
+    int result = 0;
+    for (Segment segment : used) result += segment.pendingSpans;
+    return result;
+  }
+
+  /** Size of records not yet replayed, including their overhead. */
+  public synchronized long pendingBytes() {
+    long result = 0;
+    for (Segment segment : used) result += segment.writePosition - segment.readPosition;
+    return result;
+  }
+
+  /** Spans accepted by {@link #spill(byte[], int)} since this buffer was opened. */
+  public synchronized long spilledSpans() {
+    return spilledSpans;
+  }
+
+  /** Spans successfully replayed since this buffer was opened. */
+  public synchronized long replayedSpans() {
+    return replayedSpans;
+  }
+
+  /** Spans rejected, or lost when their segment was recycled, since this buffer was opened. */
+  public synchronized long droppedSpans() {
+    return droppedSpans;
+  }
+
+  /**
+   * Stops replay and forces segments to the device. Pending messages are replayed after the buffer
+   * is opened again. A message being replayed during close may be replayed again.
+   */
+  @Override
+  public void close() {
+    Thread replay;
+    synchronized (this) {
+      if (closed) return;
+      closed = true;
+      notifyAll();
+      replay = this.replay;
+    }
+    if (replay != null && replay != Thread.currentThread()) {
+      try {
+        replay.join(SECONDS.toMillis(1));
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized (this) {
+      for (Segment segment : segments) segment.buffer.force();
+    }
+    try {
+      lock.channel().close(); // releases the lock
+    } catch (IOException e) {
+      logger.log(Level.FINE, "couldn't release " + LOCK_FILE, e);
+    }
+  }
+
+  int headerChecksum(long sequence) {
+    crc.reset();
+    updateInt(MAGIC);
+    updateLong(sequence);
+    return (int) crc.getValue();
+  }
+
+  int readPositionChecksum(long sequence, int readPosition) {
+    crc.reset();
+    updateLong(sequence);
+    updateInt(readPosition);
+    return (int) crc.getValue();
+  }
+
+  int recordChecksum(long sequence, int spanCount, byte[] message) {
+    crc.reset();
+    updateLong(sequence);
+    updateInt(spanCount);
+    crc.update(message, 0, message.length);
+    return (int) crc.getValue();
+  }
+
+  void updateLong(long value) {
+    updateInt((int) (value >>> 32));
+    updateInt((int) value);
+  }
+
+  void updateInt(int value) {
+    crc.update(value >>> 24);
+    crc.update(value >>> 16);
+    crc.update(value >>> 8);
+    crc.update(value);
+  }
+
+  static final class Segment {
+    final MappedByteBuffer buffer;
+    long sequence;
+    int readPosition, writePosition, pendingSpans;
+
+    Segment(MappedByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+  }
+}
@@ -0,0 +1,149 @@
+package com.github.kristofa.brave;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.Sender;
+
+import static com.github.kristofa.brave.internal.Util.checkNotNull;
+
+/**
+ * Decorates a sender so that messages which fail to send are spilled to disk, and replayed from
+ * there once sends succeed again. Use it as the sender of an {@link zipkin.reporter.AsyncReporter},
+ * which is the reporter Brave 4 tracers are usually configured with:
+ *
+ * <pre>{@code
+ * spillover = SpilloverBuffer.builder(new File("/var/spool/zipkin")).build();
+ * reporter = AsyncReporter.builder(SpilloverSender.create(sender, spillover)).build();
+ * }</pre>
+ *
+ * <p>A spilled message is reported to the caller as sent, so it isn't counted as dropped. The
+ * buffer is closed with this sender.
+ */
+public final class SpilloverSender implements Sender, SpilloverBuffer.Replayer {
+
+  public static SpilloverSender create(Sender delegate, SpilloverBuffer spillover) {
+    return new SpilloverSender(delegate, spillover);
+  }
+
+  final Sender delegate;
+  final SpilloverBuffer spillover;
+
+  SpilloverSender(Sender delegate, SpilloverBuffer spillover) {
+    this.delegate = checkNotNull(delegate, "Null delegate");
+    this.spillover = checkNotNull(spillover, "Null spillover");
+    spillover.startReplay(this);
+  }
+
+  @Override public Encoding encoding() {
+    return delegate.encoding();
+  }
+
+  @Override public int messageMaxBytes() {
+    return delegate.messageMaxBytes();
+  }
+
+  @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+    return delegate.messageSizeInBytes(encodedSpans);
+  }
+
+  @Override public void sendSpans(final List<byte[]> encodedSpans, final Callback callback) {
+    Callback spillOnError = new Callback() {
+      @Override public void onComplete() {
+        spillover.wake();
+        callback.onComplete();
+      }
+
+      @Override public void onError(Throwable t) {
+        if (spillover.spill(frame(encodedSpans), encodedSpans.size())) {
+          callback.onComplete();
+        } else {
+          callback.onError(t);
+        }
+      }
+    };
+    try {
+      delegate.sendSpans(encodedSpans, spillOnError);
+    } catch (RuntimeException e) {
+      spillOnError.onError(e);
+    }
+  }
+
+  /** Sends a spilled message, waiting for the result. */
+  @Override public void replay(byte[] message, int spanCount) throws IOException {
+    ReplayCallback callback = new ReplayCallback();
+    delegate.sendSpans(unframe(message, spanCount), callback);
+    callback.await();
+  }
+
+  @Override public CheckResult check() {
+    return delegate.check();
+  }
+
+  @Override public void close() throws IOException {
+    spillover.close();
+    delegate.close();
+  }
+
+  @Override public String toString() {
+    return "SpilloverSender(" + delegate + ")";
+  }
+
+  /** Concatenates the encoded spans, each prefixed by its length. */
+  static byte[] frame(List<byte[]> encodedSpans) {
+    int length = 0;
+    for (int i = 0, count = encodedSpans.size(); i < count; i++) {
+      length += 4 + encodedSpans.get(i).length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (int i = 0, count = encodedSpans.size(); i < count; i++) {
+      byte[] encodedSpan = encodedSpans.get(i);
+      buffer.putInt(encodedSpan.length);
+      buffer.put(encodedSpan);
+    }
+    return buffer.array();
+  }
+
+  static List<byte[]> unframe(byte[] message, int spanCount) {
+    ByteBuffer buffer = ByteBuffer.wrap(message);
+    List<byte[]> result = new ArrayList<byte[]>(spanCount);
+    while (buffer.hasRemaining()) {
+      byte[] encodedSpan = new byte[buffer.getInt()];
+      buffer.get(encodedSpan);
+      result.add(encodedSpan);
+    }
+    return result;
+  }
+
+  static final class ReplayCallback implements Callback {
+    final CountDownLatch latch = new CountDownLatch(1);
+    volatile Throwable error;
+
+    @Override public void onComplete() {
+      latch.countDown();
+    }
+
+    @Override public void onError(Throwable t) {
+      error = t;
+      latch.countDown();
+    }
+
+    void await() throws IOException {
+      try {
+        latch.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("interrupted replaying spans", e);
+      }
+      Throwable error = this.error;
+      if (error instanceof IOException) throw (IOException) error;
+      if (error instanceof RuntimeException) throw (RuntimeException) error;
+      if (error instanceof Error) throw (Error) error;
+      if (error != null) throw new IOException(error);
+    }
+  }
+}
@@ -0,0 +1,114 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.Span;
+import java.util.Arrays;
+import java.util.List;
+import zipkin.Constants;
+
+/**
+ * Groups a batch of spans by trace ID in place. See {@link TraceGrouping} for the approach.
+ *
+ * <p>Arrays are kept between batches, and grouping is synchronized, as both the flush thread and
+ * callers of flush can report batches.
+ */
+final class TraceGrouper {
+  // open-addressing table: a slot holds a trace ID and its group number plus one; 0 is empty
+  long[] traceIdHighs = new long[0], traceIds = new long[0];
+  int[] slotGroups = new int[0];
+  // per span and per group
+  int[] spanGroups = new int[0], groupStarts = new int[0];
+  boolean[] groupHasLocalRoot = new boolean[0];
+  Span[] sorted = new Span[0];
+
+  /**
+   * Reorders the spans so that those of the same trace are adjacent. Returns true if any trace in
+   * the batch is missing its local root.
+   */
+  synchronized boolean group(List<Span> spans) {
+    int spanCount = spans.size();
+    ensureCapacity(spanCount);
+    int mask = slotGroups.length - 1;
+
+    int groupCount = 0;
+    for (int i = 0; i < spanCount; i++) {
+      Span span = spans.get(i);
+      long traceIdHigh = span.getTrace_id_high(), traceId = span.getTrace_id();
+      int slot = hash(traceIdHigh, traceId) & mask;
+      int group;
+      while (true) {
+        int slotGroup = slotGroups[slot];
+        if (slotGroup == 0) { // first span of this trace
+          group = groupCount++;
+          slotGroups[slot] = group + 1;
+          traceIdHighs[slot] = traceIdHigh;
+          traceIds[slot] = traceId;
+          groupStarts[group] = 0;
+          groupHasLocalRoot[group] = false;
+          break;
+        }
+        if (traceIds[slot] == traceId && traceIdHighs[slot] == traceIdHigh) {
+          group = slotGroup - 1;
+          break;
+        }
+        slot = (slot + 1) & mask;
+      }
+      spanGroups[i] = group;
+      groupStarts[group]++; // a count until converted below
+      if (!groupHasLocalRoot[group] && isLocalRoot(span)) groupHasLocalRoot[group] = true;
+    }
+    Arrays.fill(slotGroups, 0);
+
+    boolean missingLocalRoot = false;
+    for (int group = 0, start = 0; group < groupCount; group++) {
+      int count = groupStarts[group];
+      groupStarts[group] = start;
+      start += count;
+      if (!groupHasLocalRoot[group]) missingLocalRoot = true;
+    }
+
+    // when every span is its own trace, or all are one trace, they are already in order
+    if (groupCount == spanCount || groupCount == 1) return missingLocalRoot;
+    for (int i = 0; i < spanCount; i++) {
+      sorted[groupStarts[spanGroups[i]]++] = spans.get(i);
+    }
+    for (int i = 0; i < spanCount; i++) {
+      spans.set(i, sorted[i]);
+      sorted[i] = null; // don't retain spans between batches
+    }
+    return missingLocalRoot;
+  }
+
+  void ensureCapacity(int spanCount) {
+    if (spanGroups.length >= spanCount) return;
+    int capacity = Math.max(16, Integer.highestOneBit(spanCount - 1) << 1);
+    int slots = capacity * 2; // at most half full, so probes are short
+    traceIdHighs = new long[slots];
+    traceIds = new long[slots];
+    slotGroups = new int[slots];
+    spanGroups = new int[capacity];
+    groupStarts = new int[capacity];
+    groupHasLocalRoot = new boolean[capacity];
+    sorted = new Span[capacity];
+  }
+
+  /**
+   * A local root is the first span of a trace in this process: a root span, or a span started by
+   * a request or message from another process. These finish after the spans they enclose.
+   */
+  static boolean isLocalRoot(Span span) {
+    if (span.getParent_id() == null) return true;
+    List<Annotation> annotations = span.getAnnotations();
+    for (int i = 0, length = annotations.size(); i < length; i++) {
+      String value = annotations.get(i).value;
+      if (value.equals(Constants.SERVER_RECV) || value.equals("mr")) return true;
+    }
+    return false;
+  }
+
+  static int hash(long traceIdHigh, long traceId) {
+    long h = traceId ^ traceIdHigh * 0x9E3779B97F4A7C15L;
+    h *= 0x9E3779B97F4A7C15L; // trace IDs are usually random, but mix in case they are sequential
+    return (int) (h ^ (h >>> 32));
+  }
+}
@@ -0,0 +1,53 @@
+package com.github.kristofa.brave;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Orders each batch of spans so that spans of the same trace are adjacent, as opposed to in the
+ * order they finished. Storage that clusters by trace ID, such as Cassandra or Elasticsearch,
+ * writes adjacent spans of a trace together.
+ *
+ * <p>A process finishes a trace's local root, usually its server span, after the spans it
+ * encloses. When a batch holds spans of a trace but not its local root, flushing can wait briefly
+ * for the root, so that the trace is written in one message instead of two. Waiting only happens
+ * while the queue is less than half full and the batch has room.
+ *
+ * <h3>Implementation</h3>
+ *
+ * <p>Spans are grouped with an open-addressing table keyed by the 128-bit trace ID, then moved into
+ * place with a counting sort. Groups are in order of their first span, and spans within a group
+ * keep their order. This is linear in the batch size and allocates nothing once warm.
+ */
+public final class TraceGrouping {
+
+  /** Leaves spans in the order they finished. */
+  public static final TraceGrouping NONE = new TraceGrouping(false, 0);
+
+  /** Groups spans by trace, without waiting for local roots. */
+  public static TraceGrouping create() {
+    return new TraceGrouping(true, 0);
+  }
+
+  /**
+   * Groups spans by trace, waiting up to {@code localRootWait} for local roots missing from a batch.
+   * A few milliseconds is usually enough.
+   */
+  public static TraceGrouping create(long localRootWait, TimeUnit unit) {
+    if (localRootWait < 0) throw new IllegalArgumentException("localRootWait < 0");
+    return new TraceGrouping(true, unit.toNanos(localRootWait));
+  }
+
+  final boolean enabled;
+  final long localRootWaitNanos;
+
+  TraceGrouping(boolean enabled, long localRootWaitNanos) {
+    this.enabled = enabled;
+    this.localRootWaitNanos = localRootWaitNanos;
+  }
+
+  @Override
+  public String toString() {
+    if (!enabled) return "TraceGrouping.NONE";
+    return "TraceGrouping(localRootWait=" + localRootWaitNanos + "ns)";
+  }
+}
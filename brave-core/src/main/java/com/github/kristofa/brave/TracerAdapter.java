@@ -32,12 +32,45 @@ public final class TracerAdapter {
    * @param state for in-process propagation. Note {@link CommonSpanState#endpoint()} is ignored.
    */
   public static Brave newBrave(Tracer tracer, ServerClientAndLocalSpanState state) {
+    return newBuilder(tracer, state).build();
+  }
+
+  /**
+   * Like {@link #newBrave(Tracer, ServerClientAndLocalSpanState)}, except requests handled by the
+   * interceptors are also aggregated into the span metrics.
+   */
+  public static Brave newBrave(Tracer tracer, ServerClientAndLocalSpanState state,
+      SpanMetrics spanMetrics) {
+    return newBuilder(tracer, state).spanMetrics(spanMetrics).build();
+  }
+
+  /**
+   * Like {@link #newBrave(Tracer, ServerClientAndLocalSpanState)}, except calls made by the client
+   * interceptors are also aggregated into dependency links.
+   */
+  public static Brave newBrave(Tracer tracer, ServerClientAndLocalSpanState state,
+      DependencyLinks dependencyLinks) {
+    return newBuilder(tracer, state).dependencyLinks(dependencyLinks).build();
+  }
+
+  /**
+   * Like {@link #newBrave(Tracer, ServerClientAndLocalSpanState)}, except requests handled by the
+   * interceptors are also aggregated into span metrics and dependency links.
+   */
+  public static Brave newBrave(Tracer tracer, ServerClientAndLocalSpanState state,
+      SpanMetrics spanMetrics, DependencyLinks dependencyLinks) {
+    return newBuilder(tracer, state)
+        .spanMetrics(spanMetrics)
+        .dependencyLinks(dependencyLinks).build();
+  }
+
+  static Brave.Builder newBuilder(Tracer tracer, ServerClientAndLocalSpanState state) {
     if (tracer == null) throw new NullPointerException("tracer == null");
     if (state == null) throw new NullPointerException("state == null");
     return new Brave.Builder(state)
         .clock(tracer.clock()::currentTimeMicroseconds)
         .spanFactory(new Brave4SpanFactory(tracer))
-        .recorder(new Brave4Recorder(tracer)).build();
+        .recorder(new Brave4Recorder(tracer));
   }
 
   public static brave.Span toSpan(Tracer tracer, Span span) {
@@ -103,6 +136,18 @@ public final class TracerAdapter {
       return Brave.toSpan(toSpanId(span.context()));
     }
 
+    /**
+     * Like {@link SpanFactory.Default#nextSampledSpan(SpanId)}, new traces are decided by the
+     * tracer's sampler with only the trace ID, so unsampled ones allocate nothing.
+     */
+    @Override Span nextSampledSpan(@Nullable SpanId maybeParent) {
+      if (maybeParent != null) {
+        return Boolean.FALSE.equals(maybeParent.sampled()) ? null : nextSpan(maybeParent);
+      }
+      TraceContext context = Internal.instance.nextSampledContext(delegate);
+      return context != null ? Brave.toSpan(toSpanId(context)) : null;
+    }
+
     @Override Span joinSpan(SpanId spanId) {
       TraceContext context = toTraceContext(spanId);
       return Brave.toSpan(toSpanId(delegate.joinSpan(context).context()));
@@ -0,0 +1,40 @@
+package com.github.kristofa.brave;
+
+import com.github.kristofa.brave.internal.V2SpanCodec;
+import zipkin.Span;
+import zipkin.reporter.Encoder;
+import zipkin.reporter.Encoding;
+
+/**
+ * Encodes spans in the Zipkin v2 json model, for {@link zipkin.reporter.AsyncReporter} in Brave 4.
+ * Senders must post to a v2 endpoint, such as {@code /api/v2/spans}, which {@code NioHttpSender}
+ * does when configured with {@link SpanEncoding#V2_JSON}.
+ *
+ * <pre>{@code
+ * sender = NioHttpSender.create(url, NioHttpSender.Config.builder()
+ *     .encoding(SpanEncoding.V2_JSON).build());
+ * reporter = AsyncReporter.builder(sender).build(V2SpanEncoder.JSON);
+ * }</pre>
+ *
+ * <p>There's no proto3 encoder here, as {@link Encoding} only defines how json and thrift spans are
+ * combined into messages. Brave 3 collectors that send over http can use {@link
+ * SpanEncoding#PROTO3} instead.
+ */
+public final class V2SpanEncoder implements Encoder<Span> {
+  public static final Encoder<Span> JSON = new V2SpanEncoder();
+
+  V2SpanEncoder() {
+  }
+
+  @Override public Encoding encoding() {
+    return Encoding.JSON;
+  }
+
+  @Override public byte[] encode(Span span) {
+    return V2SpanCodec.JSON.encode(span);
+  }
+
+  @Override public String toString() {
+    return "V2SpanEncoder.JSON";
+  }
+}
@@ -7,13 +7,49 @@ import com.twitter.zipkin.gen.BinaryAnnotation;
 import com.twitter.zipkin.gen.Endpoint;
 import com.twitter.zipkin.gen.Span;
 import com.twitter.zipkin.gen.SpanCodec;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import zipkin.Codec;
 
-public final class DefaultSpanCodec implements SpanCodec {
-  public static final SpanCodec JSON = new DefaultSpanCodec(Codec.JSON);
-  public static final SpanCodec THRIFT = new DefaultSpanCodec(Codec.THRIFT);
+/**
+ * Writes Brave 3 spans directly from their fields, as opposed to converting them to zipkin spans
+ * first. Reading delegates to zipkin's codecs.
+ */
+public abstract class DefaultSpanCodec implements SpanCodec, SpanListWriter {
+  public static final SpanCodec JSON = new DefaultSpanCodec(Codec.JSON) {
+    @Override public void writeListBegin(int spanCount, WriteBuffer buffer) {
+      buffer.writeByte('[');
+    }
+
+    @Override public void writeElement(Span span, WriteBuffer buffer) {
+      V1SpanWriter.writeJson(span, buffer);
+    }
+
+    @Override public void writeDelimiter(WriteBuffer buffer) {
+      buffer.writeByte(',');
+    }
+
+    @Override public void writeListEnd(WriteBuffer buffer) {
+      buffer.writeByte(']');
+    }
+  };
+
+  public static final SpanCodec THRIFT = new DefaultSpanCodec(Codec.THRIFT) {
+    @Override public void writeListBegin(int spanCount, WriteBuffer buffer) {
+      V1SpanWriter.writeListBegin(spanCount, buffer);
+    }
+
+    @Override public void writeElement(Span span, WriteBuffer buffer) {
+      V1SpanWriter.writeThrift(span, buffer);
+    }
+
+    @Override public void writeDelimiter(WriteBuffer buffer) {
+    }
+
+    @Override public void writeListEnd(WriteBuffer buffer) {
+    }
+  };
 
   private final Codec codec;
 
@@ -23,16 +59,51 @@ public final class DefaultSpanCodec implements SpanCodec {
 
   @Override
   public byte[] writeSpan(Span span) {
-    return codec.writeSpan(toZipkin(span));
+    WriteBuffer buffer = WriteBuffer.current();
+    writeElement(span, buffer);
+    return buffer.finish();
   }
 
   @Override
   public byte[] writeSpans(List<Span> spans) {
-    List<zipkin.Span> out = new ArrayList<zipkin.Span>(spans.size());
-    for (Span span : spans) {
-      out.add(toZipkin(span));
+    WriteBuffer buffer = WriteBuffer.current();
+    int length = spans.size();
+    writeListBegin(length, buffer);
+    for (int i = 0; i < length; i++) {
+      if (i > 0) writeDelimiter(buffer);
+      writeElement(spans.get(i), buffer);
+    }
+    writeListEnd(buffer);
+    return buffer.finish();
+  }
+
+  /**
+   * Writes the same message as {@link SpanCodec#writeSpans(List)}, but to a stream, one span at a
+   * time. For codecs written by hand, such as {@link #JSON} or {@link V2SpanCodec#PROTO3}, this
+   * doesn't materialize the message or any span as an array, so suits a stream that compresses or
+   * sends as it is written. Other codecs write the whole message.
+   */
+  public static void writeSpans(SpanCodec codec, List<Span> spans, OutputStream out)
+      throws IOException {
+    if (!(codec instanceof SpanListWriter)) {
+      out.write(codec.writeSpans(spans));
+      return;
+    }
+    SpanListWriter writer = (SpanListWriter) codec;
+    WriteBuffer buffer = WriteBuffer.current();
+    try {
+      int length = spans.size();
+      writer.writeListBegin(length, buffer);
+      for (int i = 0; i < length; i++) {
+        if (i > 0) writer.writeDelimiter(buffer);
+        writer.writeElement(spans.get(i), buffer);
+        buffer.writeTo(out);
+      }
+      writer.writeListEnd(buffer);
+      buffer.writeTo(out);
+    } finally {
+      buffer.release();
     }
-    return codec.writeSpans(out);
   }
 
   @Override
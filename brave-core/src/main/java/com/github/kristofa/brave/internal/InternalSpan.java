@@ -25,5 +25,8 @@ public abstract class InternalSpan {
    */
   public abstract @Nullable SpanId context(Span span);
 
+  /** Returns true if the span has an "error" binary annotation, without searching for it. */
+  public abstract boolean hasError(Span span);
+
   public static InternalSpan instance;
 }
@@ -0,0 +1,188 @@
+package com.github.kristofa.brave.internal;
+
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Encodes large messages of spans on a pool of threads. Spans are split into contiguous chunks,
+ * each encoded into its own buffer, then the chunks are joined into a message framed the same as
+ * the delegate frames it, such as a json array or a thrift list header.
+ *
+ * <p>The calling thread encodes chunks alongside the pool, each thread taking the next chunk until
+ * none are left. This balances work when some chunks hold larger spans than others.
+ *
+ * <p>Messages smaller than {@code minParallelSpans} are encoded on the calling thread, as handing
+ * them to the pool costs more than it saves. Only codecs defined in {@link SpanCodec} can be split;
+ * other codecs are always encoded on the calling thread.
+ */
+public final class ParallelSpanCodec implements SpanCodec, Closeable {
+  /** Messages with fewer spans than this are encoded on the calling thread. */
+  public static final int DEFAULT_MIN_PARALLEL_SPANS = 1000;
+  /** Smaller chunks spend more time scheduling than encoding. */
+  static final int MIN_CHUNK_SPANS = 128;
+
+  /**
+   * @param parallelism threads that encode chunks of large messages, including the calling thread.
+   */
+  public static ParallelSpanCodec create(SpanCodec delegate, int parallelism) {
+    return create(delegate, parallelism, DEFAULT_MIN_PARALLEL_SPANS);
+  }
+
+  /**
+   * @param parallelism threads that encode chunks of large messages, including the calling thread.
+   * @param minParallelSpans messages with fewer spans are encoded on the calling thread.
+   */
+  public static ParallelSpanCodec create(SpanCodec delegate, int parallelism,
+      int minParallelSpans) {
+    return new ParallelSpanCodec(delegate, parallelism, minParallelSpans);
+  }
+
+  final SpanCodec delegate;
+  @Nullable // when the delegate can't be split
+  final SpanListWriter listWriter;
+  final int parallelism;
+  final int minParallelSpans;
+  @Nullable // when parallelism is 1
+  final ThreadPoolExecutor pool;
+
+  ParallelSpanCodec(SpanCodec delegate, int parallelism, int minParallelSpans) {
+    this.delegate = Util.checkNotNull(delegate, "delegate");
+    if (parallelism <= 0) throw new IllegalArgumentException("parallelism <= 0");
+    if (minParallelSpans <= 0) throw new IllegalArgumentException("minParallelSpans <= 0");
+    this.listWriter = delegate instanceof SpanListWriter ? (SpanListWriter) delegate : null;
+    this.parallelism = parallelism;
+    this.minParallelSpans = minParallelSpans;
+    if (listWriter == null || parallelism == 1) {
+      this.pool = null;
+      return;
+    }
+    this.pool = new ThreadPoolExecutor(parallelism - 1, parallelism - 1, 60, SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      final AtomicInteger threadCount = new AtomicInteger();
+
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "ParallelSpanCodec-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.pool.allowCoreThreadTimeOut(true);
+  }
+
+  @Override public byte[] writeSpan(Span span) {
+    return delegate.writeSpan(span);
+  }
+
+  @Override public byte[] writeSpans(List<Span> spans) {
+    int spanCount = spans.size();
+    if (pool == null || spanCount < minParallelSpans) return delegate.writeSpans(spans);
+    // a few chunks per thread, so that a thread slowed by larger spans doesn't hold up the rest
+    int chunkSpans = Math.max(MIN_CHUNK_SPANS, ceilDiv(spanCount, parallelism * 4));
+    EncodeChunks task = new EncodeChunks(listWriter, spans, chunkSpans,
+        delegate.writeSpan(spans.get(0)).length);
+
+    int helpers = Math.min(parallelism, task.chunks.length) - 1;
+    List<Future<?>> futures = new ArrayList<Future<?>>(helpers);
+    try {
+      for (int i = 0; i < helpers; i++) futures.add(pool.submit(task));
+    } catch (RejectedExecutionException e) {
+      // closed: encode the remaining chunks on this thread
+    }
+    task.run();
+    awaitAll(futures);
+
+    WriteBuffer message = WriteBuffer.current();
+    listWriter.writeListBegin(spanCount, message);
+    for (int i = 0; i < task.chunks.length; i++) {
+      if (i > 0) listWriter.writeDelimiter(message);
+      message.write(task.chunks[i].bytes, 0, task.chunks[i].pos);
+    }
+    listWriter.writeListEnd(message);
+    return message.finish();
+  }
+
+  static void awaitAll(List<Future<?>> futures) {
+    boolean interrupted = false;
+    try {
+      for (int i = 0; i < futures.size(); i++) {
+        try {
+          futures.get(i).get();
+        } catch (InterruptedException e) {
+          interrupted = true; // chunks are short: finish the message, then restore the interrupt
+          i--;
+        } catch (ExecutionException e) {
+          Throwable cause = e.getCause();
+          if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+          if (cause instanceof Error) throw (Error) cause;
+          throw new IllegalStateException(cause);
+        }
+      }
+    } finally {
+      if (interrupted) Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override public Span readSpan(byte[] bytes) {
+    return delegate.readSpan(bytes);
+  }
+
+  /** Stops the encoding threads. Later messages are encoded on the calling thread. */
+  @Override public void close() {
+    if (pool != null) pool.shutdown();
+  }
+
+  @Override public String toString() {
+    return "ParallelSpanCodec(" + delegate + ", parallelism=" + parallelism + ")";
+  }
+
+  /** Run by each encoding thread: encodes the next chunk of spans until none are left. */
+  static final class EncodeChunks implements Runnable {
+    final SpanListWriter listWriter;
+    final List<Span> spans;
+    final int chunkSpans;
+    final int spanSizeHint;
+    final WriteBuffer[] chunks;
+    final AtomicInteger nextChunk = new AtomicInteger();
+
+    EncodeChunks(SpanListWriter listWriter, List<Span> spans, int chunkSpans, int spanSizeHint) {
+      this.listWriter = listWriter;
+      this.spans = spans;
+      this.chunkSpans = chunkSpans;
+      this.spanSizeHint = spanSizeHint;
+      this.chunks = new WriteBuffer[ceilDiv(spans.size(), chunkSpans)];
+    }
+
+    @Override public void run() {
+      for (int chunk; (chunk = nextChunk.getAndIncrement()) < chunks.length; ) {
+        encodeChunk(chunk);
+      }
+    }
+
+    void encodeChunk(int chunk) {
+      int from = chunk * chunkSpans, to = Math.min(spans.size(), from + chunkSpans);
+      // sized for spans like the first, plus delimiters, so the buffer rarely grows
+      WriteBuffer buffer = new WriteBuffer((spanSizeHint + 1) * (to - from));
+      for (int i = from; i < to; i++) {
+        if (i > from) listWriter.writeDelimiter(buffer);
+        listWriter.writeElement(spans.get(i), buffer);
+      }
+      chunks[chunk] = buffer;
+    }
+  }
+
+  static int ceilDiv(int dividend, int divisor) {
+    return (dividend + divisor - 1) / divisor;
+  }
+}
@@ -0,0 +1,19 @@
+package com.github.kristofa.brave.internal;
+
+import com.twitter.zipkin.gen.Span;
+
+/**
+ * Writes a message of spans in parts: the list framing, and each span as an element. Elements can
+ * be written into separate buffers, then joined, which is how {@link ParallelSpanCodec} encodes
+ * large messages.
+ */
+interface SpanListWriter {
+  void writeListBegin(int spanCount, WriteBuffer buffer);
+
+  void writeElement(Span span, WriteBuffer buffer);
+
+  /** Writes what separates consecutive elements, if anything. */
+  void writeDelimiter(WriteBuffer buffer);
+
+  void writeListEnd(WriteBuffer buffer);
+}
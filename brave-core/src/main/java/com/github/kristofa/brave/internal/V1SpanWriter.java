@@ -0,0 +1,245 @@
+package com.github.kristofa.brave.internal;
+
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.AnnotationType;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import java.util.List;
+import java.util.Locale;
+
+import static com.github.kristofa.brave.internal.V2SpanWriter.bigEndian;
+
+/**
+ * Writes Brave 3 spans in the Zipkin v1 model, as json or thrift, straight from their fields.
+ * Output matches zipkin's codecs after {@link DefaultSpanCodec#toZipkin(Span)}, except annotations
+ * are written in the order they were added, as opposed to sorted: zipkin sorts them on read.
+ */
+final class V1SpanWriter {
+
+  static void writeJson(Span span, WriteBuffer b) {
+    b.writeAscii("{\"traceId\":\"");
+    if (span.getTrace_id_high() != 0) b.writeLowerHex(span.getTrace_id_high());
+    b.writeLowerHex(span.getTrace_id());
+    b.writeAscii("\",\"id\":\"");
+    b.writeLowerHex(span.getId());
+    b.writeAscii("\",\"name\":");
+    b.writeJsonString(lowerCase(span.getName()));
+    if (span.getParent_id() != null) {
+      b.writeAscii(",\"parentId\":\"");
+      b.writeLowerHex(span.getParent_id());
+      b.writeByte('"');
+    }
+    Long timestamp = span.getTimestamp();
+    if (timestamp != null && timestamp != 0L) {
+      b.writeAscii(",\"timestamp\":");
+      b.writeDecimal(timestamp);
+    }
+    Long duration = span.getDuration();
+    if (duration != null && duration != 0L) {
+      b.writeAscii(",\"duration\":");
+      b.writeDecimal(duration);
+    }
+
+    List<Annotation> annotations = span.getAnnotations();
+    for (int i = 0, length = annotations.size(); i < length; i++) {
+      Annotation a = annotations.get(i);
+      b.writeAscii(i == 0 ? ",\"annotations\":[{\"timestamp\":" : ",{\"timestamp\":");
+      b.writeDecimal(a.timestamp);
+      b.writeAscii(",\"value\":");
+      b.writeJsonString(a.value);
+      if (a.host != null) {
+        b.writeAscii(",\"endpoint\":");
+        writeJson(a.host, b);
+      }
+      b.writeByte('}');
+      if (i == length - 1) b.writeByte(']');
+    }
+
+    List<BinaryAnnotation> binaryAnnotations = span.getBinary_annotations();
+    for (int i = 0, length = binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation a = binaryAnnotations.get(i);
+      b.writeAscii(i == 0 ? ",\"binaryAnnotations\":[{\"key\":" : ",{\"key\":");
+      b.writeJsonString(a.key);
+      b.writeAscii(",\"value\":");
+      writeJsonValue(a.type, a.value, b);
+      if (a.type != AnnotationType.STRING && a.type != AnnotationType.BOOL) {
+        b.writeAscii(",\"type\":\"");
+        b.writeAscii(a.type.name());
+        b.writeByte('"');
+      }
+      if (a.host != null) {
+        b.writeAscii(",\"endpoint\":");
+        writeJson(a.host, b);
+      }
+      b.writeByte('}');
+      if (i == length - 1) b.writeByte(']');
+    }
+    if (Boolean.TRUE.equals(span.isDebug())) b.writeAscii(",\"debug\":true");
+    b.writeByte('}');
+  }
+
+  static final long MAX_SAFE_INTEGER = 9007199254740991L; // 2^53 - 1
+
+  static void writeJsonValue(AnnotationType type, byte[] v, WriteBuffer b) {
+    switch (type) {
+      case BOOL:
+        b.writeAscii(v.length == 1 && v[0] == 1 ? "true" : "false");
+        break;
+      case BYTES:
+        b.writeByte('"');
+        b.writeBase64Url(v);
+        b.writeByte('"');
+        break;
+      case I16:
+        b.writeDecimal((short) bigEndian(v, 2));
+        break;
+      case I32:
+        b.writeDecimal((int) bigEndian(v, 4));
+        break;
+      case I64:
+        long number = bigEndian(v, 8);
+        // quoted when javascript can't represent it, as zipkin does
+        boolean quote = number > MAX_SAFE_INTEGER || number < -MAX_SAFE_INTEGER;
+        if (quote) b.writeByte('"');
+        b.writeDecimal(number);
+        if (quote) b.writeByte('"');
+        break;
+      case DOUBLE:
+        b.writeAscii(Double.toString(Double.longBitsToDouble(bigEndian(v, 8))));
+        break;
+      default:
+        b.writeJsonString(v);
+    }
+  }
+
+  static void writeJson(Endpoint endpoint, WriteBuffer b) {
+    b.writeAscii("{\"serviceName\":");
+    b.writeJsonString(lowerCase(endpoint.service_name));
+    if (endpoint.ipv4 != 0) {
+      b.writeAscii(",\"ipv4\":\"");
+      b.writeIpv4(endpoint.ipv4);
+      b.writeByte('"');
+    }
+    if (endpoint.port != null && endpoint.port != 0) {
+      b.writeAscii(",\"port\":");
+      b.writeDecimal(endpoint.port & 0xffff);
+    }
+    if (endpoint.ipv6 != null) {
+      b.writeAscii(",\"ipv6\":\"");
+      b.writeIpv6(endpoint.ipv6);
+      b.writeByte('"');
+    }
+    b.writeByte('}');
+  }
+
+  // TType values
+  static final int BOOL = 2, I16 = 6, I32 = 8, I64 = 10, STRING = 11, STRUCT = 12, LIST = 15;
+
+  /** Field order matches that of zipkin's thrift codec */
+  static void writeThrift(Span span, WriteBuffer b) {
+    writeFieldBegin(I64, 1, b);
+    b.writeLongBigEndian(span.getTrace_id());
+    writeFieldBegin(STRING, 3, b);
+    writeThriftString(lowerCase(span.getName()), b);
+    writeFieldBegin(I64, 4, b);
+    b.writeLongBigEndian(span.getId());
+    if (span.getParent_id() != null) {
+      writeFieldBegin(I64, 5, b);
+      b.writeLongBigEndian(span.getParent_id());
+    }
+
+    List<Annotation> annotations = span.getAnnotations();
+    writeFieldBegin(LIST, 6, b);
+    writeListBegin(annotations.size(), b);
+    for (int i = 0, length = annotations.size(); i < length; i++) {
+      Annotation a = annotations.get(i);
+      writeFieldBegin(I64, 1, b);
+      b.writeLongBigEndian(a.timestamp);
+      writeFieldBegin(STRING, 2, b);
+      writeThriftString(a.value, b);
+      if (a.host != null) {
+        writeFieldBegin(STRUCT, 3, b);
+        writeThrift(a.host, b);
+      }
+      b.writeByte(0); // stop
+    }
+
+    List<BinaryAnnotation> binaryAnnotations = span.getBinary_annotations();
+    writeFieldBegin(LIST, 8, b);
+    writeListBegin(binaryAnnotations.size(), b);
+    for (int i = 0, length = binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation a = binaryAnnotations.get(i);
+      writeFieldBegin(STRING, 1, b);
+      writeThriftString(a.key, b);
+      writeFieldBegin(STRING, 2, b);
+      b.writeIntBigEndian(a.value.length);
+      b.write(a.value);
+      writeFieldBegin(I32, 3, b);
+      b.writeIntBigEndian(a.type.getValue());
+      if (a.host != null) {
+        writeFieldBegin(STRUCT, 4, b);
+        writeThrift(a.host, b);
+      }
+      b.writeByte(0); // stop
+    }
+
+    if (Boolean.TRUE.equals(span.isDebug())) {
+      writeFieldBegin(BOOL, 9, b);
+      b.writeByte(1);
+    }
+    Long timestamp = span.getTimestamp();
+    if (timestamp != null && timestamp != 0L) {
+      writeFieldBegin(I64, 10, b);
+      b.writeLongBigEndian(timestamp);
+    }
+    Long duration = span.getDuration();
+    if (duration != null && duration != 0L) {
+      writeFieldBegin(I64, 11, b);
+      b.writeLongBigEndian(duration);
+    }
+    if (span.getTrace_id_high() != 0) {
+      writeFieldBegin(I64, 12, b);
+      b.writeLongBigEndian(span.getTrace_id_high());
+    }
+    b.writeByte(0); // stop
+  }
+
+  static void writeThrift(Endpoint endpoint, WriteBuffer b) {
+    writeFieldBegin(I32, 1, b);
+    b.writeIntBigEndian(endpoint.ipv4);
+    writeFieldBegin(I16, 2, b);
+    int port = endpoint.port != null ? endpoint.port : 0;
+    b.writeByte(port >>> 8);
+    b.writeByte(port);
+    writeFieldBegin(STRING, 3, b);
+    writeThriftString(lowerCase(endpoint.service_name), b);
+    if (endpoint.ipv6 != null) {
+      writeFieldBegin(STRING, 4, b);
+      b.writeIntBigEndian(endpoint.ipv6.length);
+      b.write(endpoint.ipv6);
+    }
+    b.writeByte(0); // stop
+  }
+
+  static void writeFieldBegin(int type, int id, WriteBuffer b) {
+    b.writeByte(type);
+    b.writeByte(id >>> 8);
+    b.writeByte(id);
+  }
+
+  static void writeListBegin(int size, WriteBuffer b) {
+    b.writeByte(STRUCT);
+    b.writeIntBigEndian(size);
+  }
+
+  static void writeThriftString(String s, WriteBuffer b) {
+    b.writeIntBigEndian(WriteBuffer.utf8Length(s));
+    b.writeUtf8(s);
+  }
+
+  /** Zipkin lowercases names. This only allocates when a name has upper-case characters. */
+  static String lowerCase(String name) {
+    return name != null ? name.toLowerCase(Locale.ROOT) : "";
+  }
+}
@@ -0,0 +1,138 @@
+package com.github.kristofa.brave.internal;
+
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.util.List;
+
+/**
+ * Writes spans in the Zipkin v2 model, as json or proto3. Messages are lists of spans: a json
+ * array, or a proto3 {@code ListOfSpans}, which is each span as repeated field 1.
+ *
+ * <p>Spans are written by hand into a buffer reused by the calling thread. v2 spans can't be read
+ * back into the v1 model, so this only writes: {@link #readSpan} is unsupported. Collectors select
+ * this with {@link com.github.kristofa.brave.SpanEncoding}.
+ */
+public abstract class V2SpanCodec implements SpanCodec, SpanListWriter {
+  public static final V2SpanCodec JSON = new V2SpanCodec() {
+    @Override void write(V2SpanWriter writer, zipkin.Span span, WriteBuffer buffer) {
+      writer.parse(span);
+      writer.writeJson(span, buffer);
+    }
+
+    @Override void writeList(V2SpanWriter writer, List<zipkin.Span> spans, WriteBuffer buffer) {
+      buffer.writeByte('[');
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        if (i > 0) buffer.writeByte(',');
+        write(writer, spans.get(i), buffer);
+      }
+      buffer.writeByte(']');
+    }
+
+    @Override public void writeListBegin(int spanCount, WriteBuffer buffer) {
+      buffer.writeByte('[');
+    }
+
+    @Override public void writeElement(Span span, WriteBuffer buffer) {
+      write(WRITER.get(), DefaultSpanCodec.toZipkin(span), buffer);
+    }
+
+    @Override public void writeDelimiter(WriteBuffer buffer) {
+      buffer.writeByte(',');
+    }
+
+    @Override public void writeListEnd(WriteBuffer buffer) {
+      buffer.writeByte(']');
+    }
+
+    @Override public String toString() {
+      return "V2SpanCodec.JSON";
+    }
+  };
+
+  public static final V2SpanCodec PROTO3 = new V2SpanCodec() {
+    @Override void write(V2SpanWriter writer, zipkin.Span span, WriteBuffer buffer) {
+      writer.parse(span);
+      writer.writeProto3(span, buffer);
+    }
+
+    @Override void writeList(V2SpanWriter writer, List<zipkin.Span> spans, WriteBuffer buffer) {
+      for (int i = 0, length = spans.size(); i < length; i++) {
+        writeListElement(writer, spans.get(i), buffer);
+      }
+    }
+
+    void writeListElement(V2SpanWriter writer, zipkin.Span span, WriteBuffer buffer) {
+      writer.parse(span);
+      buffer.writeByte(V2SpanWriter.TRACE_ID); // ListOfSpans.spans is field 1, like trace ID
+      buffer.writeVarint(writer.proto3Size(span));
+      writer.writeProto3(span, buffer);
+    }
+
+    @Override public void writeListBegin(int spanCount, WriteBuffer buffer) {
+    }
+
+    @Override public void writeElement(Span span, WriteBuffer buffer) {
+      writeListElement(WRITER.get(), DefaultSpanCodec.toZipkin(span), buffer);
+    }
+
+    @Override public void writeDelimiter(WriteBuffer buffer) {
+    }
+
+    @Override public void writeListEnd(WriteBuffer buffer) {
+    }
+
+    @Override public String toString() {
+      return "V2SpanCodec.PROTO3";
+    }
+  };
+
+  static final ThreadLocal<V2SpanWriter> WRITER = new ThreadLocal<V2SpanWriter>() {
+    @Override protected V2SpanWriter initialValue() {
+      return new V2SpanWriter();
+    }
+  };
+
+  V2SpanCodec() {
+  }
+
+  abstract void write(V2SpanWriter writer, zipkin.Span span, WriteBuffer buffer);
+
+  abstract void writeList(V2SpanWriter writer, List<zipkin.Span> spans, WriteBuffer buffer);
+
+  /** Encodes a single span. */
+  public byte[] encode(zipkin.Span span) {
+    WriteBuffer buffer = WriteBuffer.current();
+    write(WRITER.get(), span, buffer);
+    return buffer.finish();
+  }
+
+  /** Encodes a message of spans. */
+  public byte[] encodeList(List<zipkin.Span> spans) {
+    WriteBuffer buffer = WriteBuffer.current();
+    writeList(WRITER.get(), spans, buffer);
+    return buffer.finish();
+  }
+
+  /** Encodes a single Brave 3 span. */
+  @Override public byte[] writeSpan(Span span) {
+    return encode(DefaultSpanCodec.toZipkin(span));
+  }
+
+  /** Encodes a message of Brave 3 spans. */
+  @Override public byte[] writeSpans(List<Span> spans) {
+    WriteBuffer buffer = WriteBuffer.current();
+    int length = spans.size();
+    writeListBegin(length, buffer);
+    for (int i = 0; i < length; i++) {
+      if (i > 0) writeDelimiter(buffer);
+      writeElement(spans.get(i), buffer);
+    }
+    writeListEnd(buffer);
+    return buffer.finish();
+  }
+
+  /** Throws, as v2 spans can't be read back into the v1 model. */
+  @Override public Span readSpan(byte[] bytes) {
+    throw new UnsupportedOperationException(this + " can't read spans");
+  }
+}
@@ -0,0 +1,435 @@
+package com.github.kristofa.brave.internal;
+
+import java.util.List;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+
+/**
+ * Writes a v1 model span in the Zipkin v2 model, as json or proto3.
+ *
+ * <p>In the v2 model, a span has a kind instead of core annotations like "cs" and "cr", a single
+ * local endpoint instead of one per annotation, a remote endpoint instead of address annotations
+ * like "sa", and string tags instead of binary annotations. Omitting repeated endpoints is what
+ * makes v2 messages smaller.
+ *
+ * <p>When a span has core annotations of more than one kind, the first of client, server,
+ * producer, consumer is chosen, and the others are written as plain annotations. Binary
+ * annotations of type {@code BYTES} aren't written, as v2 tags are strings.
+ *
+ * <p>Instances hold state for the span being written, so aren't thread-safe.
+ */
+final class V2SpanWriter {
+  enum Kind {
+    CLIENT(Constants.CLIENT_SEND, Constants.CLIENT_RECV, Constants.SERVER_ADDR),
+    SERVER(Constants.SERVER_RECV, Constants.SERVER_SEND, Constants.CLIENT_ADDR),
+    PRODUCER("ms", null, "ma"),
+    CONSUMER("mr", null, "ma");
+
+    final String start, end, remoteAddress;
+
+    Kind(String start, String end, String remoteAddress) {
+      this.start = start;
+      this.end = end;
+      this.remoteAddress = remoteAddress;
+    }
+  }
+
+  // Fields derived from the span being written by parse
+  Kind kind;
+  int startIndex, endIndex; // of annotations written as the kind, or -1
+  int remoteIndex; // of the binary annotation written as the remote endpoint, or -1
+  Long timestamp, duration;
+  boolean shared;
+  Endpoint localEndpoint, remoteEndpoint;
+
+  void parse(Span span) {
+    kind = null;
+    startIndex = endIndex = remoteIndex = -1;
+    localEndpoint = remoteEndpoint = null;
+    List<Annotation> annotations = span.annotations;
+    for (Kind candidate : Kind.values()) {
+      for (int i = 0, length = annotations.size(); i < length; i++) {
+        String value = annotations.get(i).value;
+        if (value.equals(candidate.start)) {
+          startIndex = i;
+        } else if (value.equals(candidate.end)) {
+          endIndex = i;
+        }
+      }
+      if (startIndex != -1 || endIndex != -1) {
+        kind = candidate;
+        break;
+      }
+    }
+
+    timestamp = span.timestamp;
+    duration = span.duration;
+    // a server that didn't start the span doesn't set its timestamp: it's shared with the client
+    shared = kind == Kind.SERVER && timestamp == null && startIndex != -1;
+    if (startIndex != -1) {
+      Annotation start = annotations.get(startIndex);
+      localEndpoint = start.endpoint;
+      if (timestamp == null) timestamp = start.timestamp;
+      if (endIndex != -1) {
+        if (duration == null) {
+          duration = Math.max(1L, annotations.get(endIndex).timestamp - start.timestamp);
+        }
+      }
+    } else {
+      endIndex = -1; // without a start, the end annotation can't be represented as a duration
+    }
+
+    List<BinaryAnnotation> binaryAnnotations = span.binaryAnnotations;
+    for (int i = 0, length = binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation b = binaryAnnotations.get(i);
+      if (isAddress(b)) {
+        if (remoteIndex == -1 && (kind == null || b.key.equals(kind.remoteAddress))) {
+          remoteIndex = i;
+          remoteEndpoint = b.endpoint;
+        }
+      } else if (localEndpoint == null && b.key.equals(Constants.LOCAL_COMPONENT)) {
+        localEndpoint = b.endpoint;
+      }
+    }
+    if (localEndpoint == null && !annotations.isEmpty()) {
+      localEndpoint = annotations.get(0).endpoint;
+    }
+    if (localEndpoint == null) {
+      for (int i = 0, length = binaryAnnotations.size(); i < length; i++) {
+        if (!isAddress(binaryAnnotations.get(i))) {
+          localEndpoint = binaryAnnotations.get(i).endpoint;
+          break;
+        }
+      }
+    }
+  }
+
+  /** Address annotations are written as the remote endpoint, or not at all. */
+  static boolean isAddress(BinaryAnnotation b) {
+    return b.type == BinaryAnnotation.Type.BOOL && (b.key.equals(Constants.CLIENT_ADDR)
+        || b.key.equals(Constants.SERVER_ADDR) || b.key.equals("ma"));
+  }
+
+  boolean isAnnotation(int i) {
+    return i != startIndex && i != endIndex;
+  }
+
+  static boolean isTag(BinaryAnnotation b) {
+    return b.type != BinaryAnnotation.Type.BYTES && !isAddress(b);
+  }
+
+  /** Writes the span as a json object, after {@link #parse(Span) parsing} it. */
+  void writeJson(Span span, WriteBuffer b) {
+    b.writeAscii("{\"traceId\":\"");
+    if (span.traceIdHigh != 0L) b.writeLowerHex(span.traceIdHigh);
+    b.writeLowerHex(span.traceId);
+    b.writeByte('"');
+    if (span.parentId != null) {
+      b.writeAscii(",\"parentId\":\"");
+      b.writeLowerHex(span.parentId);
+      b.writeByte('"');
+    }
+    b.writeAscii(",\"id\":\"");
+    b.writeLowerHex(span.id);
+    b.writeByte('"');
+    if (kind != null) {
+      b.writeAscii(",\"kind\":\"");
+      b.writeAscii(kind.name());
+      b.writeByte('"');
+    }
+    if (!span.name.isEmpty()) {
+      b.writeAscii(",\"name\":");
+      b.writeJsonString(span.name);
+    }
+    if (timestamp != null) {
+      b.writeAscii(",\"timestamp\":");
+      b.writeDecimal(timestamp);
+    }
+    if (duration != null) {
+      b.writeAscii(",\"duration\":");
+      b.writeDecimal(duration);
+    }
+    if (localEndpoint != null) {
+      b.writeAscii(",\"localEndpoint\":");
+      writeJson(localEndpoint, b);
+    }
+    if (remoteEndpoint != null) {
+      b.writeAscii(",\"remoteEndpoint\":");
+      writeJson(remoteEndpoint, b);
+    }
+    boolean first = true;
+    for (int i = 0, length = span.annotations.size(); i < length; i++) {
+      if (!isAnnotation(i)) continue;
+      Annotation a = span.annotations.get(i);
+      b.writeAscii(first ? ",\"annotations\":[{\"timestamp\":" : ",{\"timestamp\":");
+      b.writeDecimal(a.timestamp);
+      b.writeAscii(",\"value\":");
+      b.writeJsonString(a.value);
+      b.writeByte('}');
+      first = false;
+    }
+    if (!first) b.writeByte(']');
+    first = true;
+    for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation a = span.binaryAnnotations.get(i);
+      if (!isTag(a)) continue;
+      b.writeAscii(first ? ",\"tags\":{" : ",");
+      b.writeJsonString(a.key);
+      b.writeByte(':');
+      if (a.type == BinaryAnnotation.Type.STRING) {
+        b.writeJsonString(a.value);
+      } else {
+        b.writeJsonString(tagValue(a));
+      }
+      first = false;
+    }
+    if (!first) b.writeByte('}');
+    if (Boolean.TRUE.equals(span.debug)) b.writeAscii(",\"debug\":true");
+    if (shared) b.writeAscii(",\"shared\":true");
+    b.writeByte('}');
+  }
+
+  static void writeJson(Endpoint endpoint, WriteBuffer b) {
+    b.writeByte('{');
+    boolean empty = true;
+    if (!endpoint.serviceName.isEmpty()) {
+      b.writeAscii("\"serviceName\":");
+      b.writeJsonString(endpoint.serviceName);
+      empty = false;
+    }
+    if (endpoint.ipv4 != 0) {
+      b.writeAscii(empty ? "\"ipv4\":\"" : ",\"ipv4\":\"");
+      b.writeIpv4(endpoint.ipv4);
+      b.writeByte('"');
+      empty = false;
+    }
+    if (endpoint.ipv6 != null) {
+      b.writeAscii(empty ? "\"ipv6\":\"" : ",\"ipv6\":\"");
+      b.writeIpv6(endpoint.ipv6);
+      b.writeByte('"');
+      empty = false;
+    }
+    int port = endpoint.port != null ? endpoint.port & 0xffff : 0;
+    if (port != 0) {
+      b.writeAscii(empty ? "\"port\":" : ",\"port\":");
+      b.writeDecimal(port);
+    }
+    b.writeByte('}');
+  }
+
+  /** Formats non-string binary annotations, which are big endian. */
+  static String tagValue(BinaryAnnotation a) {
+    byte[] v = a.value;
+    switch (a.type) {
+      case BOOL:
+        return v.length == 1 && v[0] == 1 ? "true" : "false";
+      case I16:
+        return Short.toString((short) (v[0] << 8 | v[1] & 0xff));
+      case I32:
+        return Integer.toString((int) bigEndian(v, 4));
+      case I64:
+        return Long.toString(bigEndian(v, 8));
+      case DOUBLE:
+        return Double.toString(Double.longBitsToDouble(bigEndian(v, 8)));
+      default:
+        throw new AssertionError(a.type + " isn't a tag");
+    }
+  }
+
+  static long bigEndian(byte[] v, int length) {
+    long result = 0;
+    for (int i = 0; i < length; i++) result = result << 8 | v[i] & 0xff;
+    return result;
+  }
+
+  // proto3 field keys: field number << 3 | wire type
+  static final int
+      TRACE_ID = 1 << 3 | 2,
+      PARENT_ID = 2 << 3 | 2,
+      ID = 3 << 3 | 2,
+      KIND = 4 << 3,
+      NAME = 5 << 3 | 2,
+      TIMESTAMP = 6 << 3 | 1,
+      DURATION = 7 << 3,
+      LOCAL_ENDPOINT = 8 << 3 | 2,
+      REMOTE_ENDPOINT = 9 << 3 | 2,
+      ANNOTATION = 10 << 3 | 2,
+      TAG = 11 << 3 | 2,
+      DEBUG = 12 << 3,
+      SHARED = 13 << 3,
+      // fields of endpoint, annotation and tag entry
+      SERVICE_NAME = 1 << 3 | 2,
+      IPV4 = 2 << 3 | 2,
+      IPV6 = 3 << 3 | 2,
+      PORT = 4 << 3,
+      ANNOTATION_TIMESTAMP = 1 << 3 | 1,
+      ANNOTATION_VALUE = 2 << 3 | 2,
+      TAG_KEY = 1 << 3 | 2,
+      TAG_VALUE = 2 << 3 | 2;
+
+  /** Returns the size of the span message, after {@link #parse(Span) parsing} it. */
+  int proto3Size(Span span) {
+    int result = 1 + 1 + (span.traceIdHigh != 0L ? 16 : 8);
+    if (span.parentId != null) result += 1 + 1 + 8;
+    result += 1 + 1 + 8;
+    if (kind != null) result += 1 + 1;
+    if (!span.name.isEmpty()) result += sizeOfString(1, span.name);
+    if (timestamp != null) result += 1 + 8;
+    if (duration != null) result += 1 + WriteBuffer.varintSize(duration);
+    if (localEndpoint != null) result += sizeOfMessage(1, proto3Size(localEndpoint));
+    if (remoteEndpoint != null) result += sizeOfMessage(1, proto3Size(remoteEndpoint));
+    for (int i = 0, length = span.annotations.size(); i < length; i++) {
+      if (!isAnnotation(i)) continue;
+      result += sizeOfMessage(1, proto3Size(span.annotations.get(i)));
+    }
+    for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation a = span.binaryAnnotations.get(i);
+      if (!isTag(a)) continue;
+      result += sizeOfMessage(1, proto3Size(a));
+    }
+    if (Boolean.TRUE.equals(span.debug)) result += 2;
+    if (shared) result += 2;
+    return result;
+  }
+
+  /** Writes the span message, after {@link #parse(Span) parsing} it. There's no length prefix. */
+  void writeProto3(Span span, WriteBuffer b) {
+    b.writeByte(TRACE_ID);
+    if (span.traceIdHigh != 0L) {
+      b.writeByte(16);
+      b.writeLongBigEndian(span.traceIdHigh);
+    } else {
+      b.writeByte(8);
+    }
+    b.writeLongBigEndian(span.traceId);
+    if (span.parentId != null) {
+      b.writeByte(PARENT_ID);
+      b.writeByte(8);
+      b.writeLongBigEndian(span.parentId);
+    }
+    b.writeByte(ID);
+    b.writeByte(8);
+    b.writeLongBigEndian(span.id);
+    if (kind != null) {
+      b.writeByte(KIND);
+      b.writeByte(kind.ordinal() + 1); // 0 is unspecified
+    }
+    if (!span.name.isEmpty()) {
+      b.writeByte(NAME);
+      writeProto3String(span.name, b);
+    }
+    if (timestamp != null) {
+      b.writeByte(TIMESTAMP);
+      b.writeFixed64(timestamp);
+    }
+    if (duration != null) {
+      b.writeByte(DURATION);
+      b.writeVarint(duration);
+    }
+    if (localEndpoint != null) {
+      b.writeByte(LOCAL_ENDPOINT);
+      writeProto3(localEndpoint, b);
+    }
+    if (remoteEndpoint != null) {
+      b.writeByte(REMOTE_ENDPOINT);
+      writeProto3(remoteEndpoint, b);
+    }
+    for (int i = 0, length = span.annotations.size(); i < length; i++) {
+      if (!isAnnotation(i)) continue;
+      Annotation a = span.annotations.get(i);
+      b.writeByte(ANNOTATION);
+      b.writeVarint(proto3Size(a));
+      b.writeByte(ANNOTATION_TIMESTAMP);
+      b.writeFixed64(a.timestamp);
+      b.writeByte(ANNOTATION_VALUE);
+      writeProto3String(a.value, b);
+    }
+    for (int i = 0, length = span.binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation a = span.binaryAnnotations.get(i);
+      if (!isTag(a)) continue;
+      b.writeByte(TAG);
+      b.writeVarint(proto3Size(a));
+      b.writeByte(TAG_KEY);
+      writeProto3String(a.key, b);
+      b.writeByte(TAG_VALUE);
+      if (a.type == BinaryAnnotation.Type.STRING) {
+        b.writeVarint(a.value.length);
+        b.write(a.value);
+      } else {
+        writeProto3String(tagValue(a), b);
+      }
+    }
+    if (Boolean.TRUE.equals(span.debug)) {
+      b.writeByte(DEBUG);
+      b.writeByte(1);
+    }
+    if (shared) {
+      b.writeByte(SHARED);
+      b.writeByte(1);
+    }
+  }
+
+  /** Writes the endpoint message, prefixed by its length. */
+  static void writeProto3(Endpoint endpoint, WriteBuffer b) {
+    b.writeVarint(proto3Size(endpoint));
+    if (!endpoint.serviceName.isEmpty()) {
+      b.writeByte(SERVICE_NAME);
+      writeProto3String(endpoint.serviceName, b);
+    }
+    if (endpoint.ipv4 != 0) {
+      b.writeByte(IPV4);
+      b.writeByte(4);
+      b.writeByte(endpoint.ipv4 >> 24);
+      b.writeByte(endpoint.ipv4 >> 16);
+      b.writeByte(endpoint.ipv4 >> 8);
+      b.writeByte(endpoint.ipv4);
+    }
+    if (endpoint.ipv6 != null) {
+      b.writeByte(IPV6);
+      b.writeByte(endpoint.ipv6.length);
+      b.write(endpoint.ipv6);
+    }
+    int port = endpoint.port != null ? endpoint.port & 0xffff : 0;
+    if (port != 0) {
+      b.writeByte(PORT);
+      b.writeVarint(port);
+    }
+  }
+
+  static void writeProto3String(String s, WriteBuffer b) {
+    b.writeVarint(WriteBuffer.utf8Length(s));
+    b.writeUtf8(s);
+  }
+
+  static int proto3Size(Endpoint endpoint) {
+    int result = 0;
+    if (!endpoint.serviceName.isEmpty()) result += sizeOfString(1, endpoint.serviceName);
+    if (endpoint.ipv4 != 0) result += 1 + 1 + 4;
+    if (endpoint.ipv6 != null) result += 1 + 1 + endpoint.ipv6.length;
+    int port = endpoint.port != null ? endpoint.port & 0xffff : 0;
+    if (port != 0) result += 1 + WriteBuffer.varintSize(port);
+    return result;
+  }
+
+  static int proto3Size(Annotation a) {
+    return 1 + 8 + sizeOfString(1, a.value);
+  }
+
+  static int proto3Size(BinaryAnnotation a) {
+    int valueSize = a.type == BinaryAnnotation.Type.STRING
+        ? a.value.length
+        : WriteBuffer.utf8Length(tagValue(a));
+    return sizeOfString(1, a.key) + 1 + WriteBuffer.varintSize(valueSize) + valueSize;
+  }
+
+  static int sizeOfString(int keySize, String s) {
+    return sizeOfMessage(keySize, WriteBuffer.utf8Length(s));
+  }
+
+  static int sizeOfMessage(int keySize, int length) {
+    return keySize + WriteBuffer.varintSize(length) + length;
+  }
+}
@@ -0,0 +1,343 @@
+package com.github.kristofa.brave.internal;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A growable byte array that hand-written encoders write into. Instances are reused per thread, so
+ * encoding a span allocates only the array returned by {@link #toByteArray()}, or nothing when
+ * {@link #writeTo written to a stream}.
+ */
+final class WriteBuffer {
+  static final char[] HEX_DIGITS =
+      {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+  /** Large messages grow the buffer. Past this size, it is replaced after use. */
+  static final int MAX_RETAINED_BYTES = 1024 * 1024;
+
+  static final ThreadLocal<WriteBuffer> CURRENT = new ThreadLocal<WriteBuffer>() {
+    @Override protected WriteBuffer initialValue() {
+      return new WriteBuffer(1024);
+    }
+  };
+
+  /** Returns the empty buffer of the calling thread. Call {@link #finish()} when done. */
+  static WriteBuffer current() {
+    WriteBuffer result = CURRENT.get();
+    result.reset();
+    return result;
+  }
+
+  byte[] bytes;
+  int pos;
+
+  WriteBuffer(int initialCapacity) {
+    bytes = new byte[initialCapacity];
+  }
+
+  void reset() {
+    pos = 0;
+  }
+
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, pos);
+  }
+
+  /** Returns what was written, releasing the array if it grew too large to keep. */
+  byte[] finish() {
+    byte[] result = toByteArray();
+    release();
+    return result;
+  }
+
+  /** Copies what was written to the stream, then empties this for reuse. */
+  void writeTo(OutputStream out) throws IOException {
+    out.write(bytes, 0, pos);
+    pos = 0;
+  }
+
+  /** Replaces the array if it grew too large to keep. */
+  void release() {
+    if (bytes.length > MAX_RETAINED_BYTES) bytes = new byte[1024];
+  }
+
+  void require(int length) {
+    if (pos + length <= bytes.length) return;
+    bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, pos + length));
+  }
+
+  void writeByte(int b) {
+    require(1);
+    bytes[pos++] = (byte) b;
+  }
+
+  void write(byte[] b) {
+    write(b, 0, b.length);
+  }
+
+  void write(byte[] b, int offset, int length) {
+    require(length);
+    System.arraycopy(b, offset, bytes, pos, length);
+    pos += length;
+  }
+
+  /** Writes a string known to be ascii, such as a json field name. */
+  void writeAscii(String s) {
+    int length = s.length();
+    require(length);
+    for (int i = 0; i < length; i++) {
+      bytes[pos++] = (byte) s.charAt(i);
+    }
+  }
+
+  void writeUtf8(String s) {
+    int length = s.length();
+    require(length * 3); // worst case: a surrogate pair is 4 bytes for 2 chars
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        bytes[pos++] = (byte) c;
+      } else if (c < 0x800) {
+        bytes[pos++] = (byte) (0xc0 | (c >> 6));
+        bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, s.charAt(++i));
+        bytes[pos++] = (byte) (0xf0 | (codePoint >> 18));
+        bytes[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        bytes[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        bytes[pos++] = (byte) (0x80 | (codePoint & 0x3f));
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        bytes[pos++] = '?'; // unpaired surrogate, as String.getBytes would
+      } else {
+        bytes[pos++] = (byte) (0xe0 | (c >> 12));
+        bytes[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+        bytes[pos++] = (byte) (0x80 | (c & 0x3f));
+      }
+    }
+  }
+
+  static int utf8Length(String s) {
+    int result = 0;
+    for (int i = 0, length = s.length(); i < length; i++) {
+      char c = s.charAt(i);
+      if (c < 0x80) {
+        result++;
+      } else if (c < 0x800) {
+        result += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length
+          && Character.isLowSurrogate(s.charAt(i + 1))) {
+        result += 4;
+        i++;
+      } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+        result++;
+      } else {
+        result += 3;
+      }
+    }
+    return result;
+  }
+
+  /** Writes a quoted json string, escaping as needed. */
+  void writeJsonString(String s) {
+    writeByte('"');
+    int length = s.length();
+    int start = 0;
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x20 && c != '"' && c != '\\') continue;
+      writeUtf8(s.substring(start, i));
+      writeJsonEscape(c);
+      start = i + 1;
+    }
+    writeUtf8(start == 0 ? s : s.substring(start));
+    writeByte('"');
+  }
+
+  /** Writes quoted json from utf-8 bytes, such as a binary annotation's value. */
+  void writeJsonString(byte[] utf8) {
+    require(utf8.length + 2);
+    bytes[pos++] = '"';
+    for (int i = 0, length = utf8.length; i < length; i++) {
+      byte b = utf8[i];
+      if ((b & 0xff) >= 0x20 && b != '"' && b != '\\') { // multi-byte characters are copied as-is
+        bytes[pos++] = b;
+      } else {
+        writeJsonEscape((char) b);
+        require(length - i); // the escape used space reserved for the rest
+      }
+    }
+    bytes[pos++] = '"';
+  }
+
+  void writeJsonEscape(char c) {
+    switch (c) {
+      case '"':
+        writeAscii("\\\"");
+        break;
+      case '\\':
+        writeAscii("\\\\");
+        break;
+      case '\n':
+        writeAscii("\\n");
+        break;
+      case '\r':
+        writeAscii("\\r");
+        break;
+      case '\t':
+        writeAscii("\\t");
+        break;
+      case '\b':
+        writeAscii("\\b");
+        break;
+      case '\f':
+        writeAscii("\\f");
+        break;
+      default:
+        writeAscii("\\u00");
+        writeByte(HEX_DIGITS[(c >> 4) & 0xf]);
+        writeByte(HEX_DIGITS[c & 0xf]);
+    }
+  }
+
+  /** Writes the lower-hex form of the id, padded to 16 characters. */
+  void writeLowerHex(long v) {
+    require(16);
+    for (int shift = 60; shift >= 0; shift -= 4) {
+      bytes[pos++] = (byte) HEX_DIGITS[(int) (v >>> shift) & 0xf];
+    }
+  }
+
+  void writeDecimal(long v) {
+    if (v == Long.MIN_VALUE) {
+      writeAscii("-9223372036854775808");
+      return;
+    }
+    if (v < 0) {
+      writeByte('-');
+      v = -v;
+    }
+    int digits = 1;
+    for (long i = v; i >= 10; i /= 10) digits++;
+    require(digits);
+    for (int i = pos + digits - 1; i >= pos; i--) {
+      bytes[i] = (byte) ('0' + v % 10);
+      v /= 10;
+    }
+    pos += digits;
+  }
+
+  void writeIpv4(int ipv4) {
+    writeDecimal(ipv4 >> 24 & 0xff);
+    writeByte('.');
+    writeDecimal(ipv4 >> 16 & 0xff);
+    writeByte('.');
+    writeDecimal(ipv4 >> 8 & 0xff);
+    writeByte('.');
+    writeDecimal(ipv4 & 0xff);
+  }
+
+  /** Writes the address in RFC 5952 form: the longest run of zero groups is written as "::". */
+  void writeIpv6(byte[] ipv6) {
+    int zeroStart = -1, zeroLength = 0;
+    for (int i = 0; i < 8; ) {
+      int j = i;
+      while (j < 8 && ipv6[j * 2] == 0 && ipv6[j * 2 + 1] == 0) j++;
+      if (j - i > zeroLength && j - i > 1) {
+        zeroStart = i;
+        zeroLength = j - i;
+      }
+      i = j == i ? i + 1 : j;
+    }
+    for (int i = 0; i < 8; i++) {
+      if (i == zeroStart) {
+        writeAscii("::");
+        i += zeroLength - 1;
+        continue;
+      }
+      if (i > 0 && i != zeroStart + zeroLength) writeByte(':');
+      int group = (ipv6[i * 2] & 0xff) << 8 | ipv6[i * 2 + 1] & 0xff;
+      boolean leading = true;
+      for (int shift = 12; shift >= 0; shift -= 4) {
+        int digit = group >> shift & 0xf;
+        if (leading && digit == 0 && shift > 0) continue;
+        leading = false;
+        writeByte(HEX_DIGITS[digit]);
+      }
+    }
+  }
+
+  static final byte[] BASE64_URL = ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+      + "0123456789-_").getBytes(Util.UTF_8);
+
+  /** Writes padded, url-safe base64, as zipkin's json codec does for binary values. */
+  void writeBase64Url(byte[] v) {
+    require((v.length + 2) / 3 * 4);
+    int i = 0;
+    for (int end = v.length - v.length % 3; i < end; i += 3) {
+      int chunk = (v[i] & 0xff) << 16 | (v[i + 1] & 0xff) << 8 | v[i + 2] & 0xff;
+      bytes[pos++] = BASE64_URL[chunk >> 18 & 0x3f];
+      bytes[pos++] = BASE64_URL[chunk >> 12 & 0x3f];
+      bytes[pos++] = BASE64_URL[chunk >> 6 & 0x3f];
+      bytes[pos++] = BASE64_URL[chunk & 0x3f];
+    }
+    if (v.length - i == 1) {
+      int chunk = (v[i] & 0xff) << 16;
+      bytes[pos++] = BASE64_URL[chunk >> 18 & 0x3f];
+      bytes[pos++] = BASE64_URL[chunk >> 12 & 0x3f];
+      bytes[pos++] = '=';
+      bytes[pos++] = '=';
+    } else if (v.length - i == 2) {
+      int chunk = (v[i] & 0xff) << 16 | (v[i + 1] & 0xff) << 8;
+      bytes[pos++] = BASE64_URL[chunk >> 18 & 0x3f];
+      bytes[pos++] = BASE64_URL[chunk >> 12 & 0x3f];
+      bytes[pos++] = BASE64_URL[chunk >> 6 & 0x3f];
+      bytes[pos++] = '=';
+    }
+  }
+
+  /** Writes an unsigned protobuf varint. */
+  void writeVarint(long v) {
+    require(10);
+    while ((v & ~0x7fL) != 0) {
+      bytes[pos++] = (byte) ((v & 0x7f) | 0x80);
+      v >>>= 7;
+    }
+    bytes[pos++] = (byte) v;
+  }
+
+  static int varintSize(long v) {
+    int result = 1;
+    while ((v & ~0x7fL) != 0) {
+      result++;
+      v >>>= 7;
+    }
+    return result;
+  }
+
+  /** Writes a protobuf fixed64, which is little endian. */
+  void writeFixed64(long v) {
+    require(8);
+    for (int i = 0; i < 8; i++) {
+      bytes[pos++] = (byte) (v >>> (i * 8));
+    }
+  }
+
+  /** Writes the value big endian, as thrift encodes integers. */
+  void writeIntBigEndian(int v) {
+    require(4);
+    bytes[pos++] = (byte) (v >>> 24);
+    bytes[pos++] = (byte) (v >>> 16);
+    bytes[pos++] = (byte) (v >>> 8);
+    bytes[pos++] = (byte) v;
+  }
+
+  /** Writes the value big endian, as protobuf encodes ids and thrift encodes integers. */
+  void writeLongBigEndian(long v) {
+    require(8);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      bytes[pos++] = (byte) (v >>> shift);
+    }
+  }
+}
@@ -8,6 +8,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import zipkin.Constants;
 
 import static com.github.kristofa.brave.internal.Util.equal;
 
@@ -40,6 +41,10 @@ public class Span implements Serializable {
         }
         return span.context;
       }
+
+      @Override public boolean hasError(Span span) {
+        return span.error;
+      }
     };
   }
 
@@ -56,6 +61,7 @@ public class Span implements Serializable {
   private Boolean debug; // optional
   private Long timestamp; // optional
   private Long duration; // optional
+  private boolean error; // when there's an error binary annotation, so it needn't be searched for
 
   /**
    * Span is an internal type, don't create new instances manually.
@@ -177,6 +183,7 @@ public class Span implements Serializable {
       this.binary_annotations = new ArrayList<BinaryAnnotation>();
     }
     this.binary_annotations.add(elem);
+    if (Constants.ERROR.equals(elem.key)) this.error = true;
     return this;
   }
 
@@ -186,6 +193,7 @@ public class Span implements Serializable {
 
   public Span setBinaryAnnotations(List<BinaryAnnotation> binary_annotations) {
     if (this.binary_annotations != Collections.EMPTY_LIST) this.binary_annotations.clear();
+    this.error = false;
     for (BinaryAnnotation b : binary_annotations) addToBinary_annotations(b);
     return this;
   }
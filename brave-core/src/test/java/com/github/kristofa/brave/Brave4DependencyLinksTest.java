@@ -0,0 +1,15 @@
+package com.github.kristofa.brave;
+
+import brave.Tracer;
+import brave.sampler.Sampler;
+
+public class Brave4DependencyLinksTest extends DependencyLinksTest {
+  @Override Brave newBrave() {
+    return TracerAdapter.newBrave(Tracer.newBuilder()
+        .localEndpoint(ZIPKIN_ENDPOINT)
+        .sampler(Sampler.NEVER_SAMPLE)
+        .reporter(spans::add).build(),
+        new ThreadLocalServerClientAndLocalSpanState(TracerAdapter.DUMMY_ENDPOINT),
+        dependencyLinks);
+  }
+}
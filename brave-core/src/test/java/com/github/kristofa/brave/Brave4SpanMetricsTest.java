@@ -0,0 +1,13 @@
+package com.github.kristofa.brave;
+
+import brave.Tracer;
+
+public class Brave4SpanMetricsTest extends SpanMetricsTest {
+  @Override Brave newBrave() {
+    return TracerAdapter.newBrave(Tracer.newBuilder()
+        .localEndpoint(ZIPKIN_ENDPOINT)
+        .reporter(spans::add).build(),
+        new ThreadLocalServerClientAndLocalSpanState(TracerAdapter.DUMMY_ENDPOINT),
+        spanMetrics);
+  }
+}
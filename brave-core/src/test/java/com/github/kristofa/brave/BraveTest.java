@@ -114,6 +114,50 @@ public class BraveTest {
     assertThat(Brave.context(span).sampled()).isFalse();
   }
 
+  @Test
+  public void nextSampledSpan_whenUnsampled() {
+    brave = newBrave(Sampler.NEVER_SAMPLE);
+
+    assertThat(brave.serverTracer().spanFactory().nextSampledSpan(null)).isNull();
+  }
+
+  @Test
+  public void nextSampledSpan_whenSampled() {
+    Span span = brave.serverTracer().spanFactory().nextSampledSpan(null);
+
+    assertThat(Brave.context(span).sampled()).isTrue();
+    assertThat(span.getTrace_id()).isEqualTo(span.getId());
+  }
+
+  @Test
+  public void nextSampledSpan_decidesOnTraceId() {
+    long[] sampledTraceId = new long[1];
+    brave = newBrave(new Sampler() {
+      @Override public boolean isSampled(long traceId) {
+        sampledTraceId[0] = traceId;
+        return true;
+      }
+    });
+
+    Span span = brave.serverTracer().spanFactory().nextSampledSpan(null);
+    assertThat(span.getTrace_id()).isEqualTo(sampledTraceId[0]);
+  }
+
+  @Test
+  public void nextSampledSpan_whenParentUnsampled() {
+    SpanId parentSpan = SpanId.builder().traceId(2).spanId(1).sampled(false).build();
+
+    assertThat(brave.serverTracer().spanFactory().nextSampledSpan(parentSpan)).isNull();
+  }
+
+  @Test
+  public void nextSampledSpan_rootSpanWith128bitTraceId() {
+    brave = newBraveWith128BitTraceIds();
+
+    Span span = brave.serverTracer().spanFactory().nextSampledSpan(null);
+    assertThat(span.getTrace_id_high()).isNotZero();
+  }
+
   @Test
   public void newSpan_whenParentHas128bitTraceId() {
     SpanId parentSpan = SpanId.builder().traceIdHigh(3).traceId(2).spanId(1).build();
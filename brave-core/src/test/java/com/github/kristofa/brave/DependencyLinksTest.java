@@ -0,0 +1,207 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Endpoint;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.DependencyLink;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DependencyLinksTest {
+  static final Endpoint ENDPOINT = Endpoint.create("frontend", 80);
+  static final zipkin.Endpoint ZIPKIN_ENDPOINT = zipkin.Endpoint.create("frontend", 80);
+
+  List<zipkin.Span> spans = new ArrayList<>();
+  List<DependencyLinks.Link> links = new ArrayList<>();
+  // interval of 0 so that tests flush explicitly
+  DependencyLinks dependencyLinks = DependencyLinks.create("frontend", links::addAll, 0, 2);
+  Brave brave = newBrave();
+
+  Brave newBrave() {
+    return new Brave.Builder(ENDPOINT).reporter(spans::add)
+        .traceSampler(Sampler.NEVER_SAMPLE)
+        .dependencyLinks(dependencyLinks).build();
+  }
+
+  @Before @After public void clearState() {
+    ThreadLocalServerClientAndLocalSpanState.clear();
+  }
+
+  @Test public void countsUnsampledCallsAndErrors() {
+    clientRequest("backend", "200");
+    clientRequest("backend", "500");
+    clientRequest("auth", "200");
+    dependencyLinks.flush();
+
+    assertThat(spans).isEmpty();
+    assertThat(links)
+        .extracting(l -> l.parent, l -> l.child, l -> l.callCount, l -> l.errorCount)
+        .containsOnly(tuple("frontend", "backend", 2L, 1L), tuple("frontend", "auth", 1L, 0L));
+  }
+
+  @Test public void countsCallsWhenResponseIsOnAnotherThread() throws InterruptedException {
+    ClientRequestAdapter request = mock(ClientRequestAdapter.class);
+    when(request.serverAddress()).thenReturn(Endpoint.create("backend", 80));
+    brave.clientRequestInterceptor().handle(request);
+    // no error can be counted, as the call wasn't started on this thread
+    Thread thread = new Thread(() -> brave.clientResponseInterceptor()
+        .handle(() -> statusCode("500")));
+    thread.start();
+    thread.join();
+    dependencyLinks.flush();
+
+    assertThat(links)
+        .extracting(l -> l.child, l -> l.callCount, l -> l.errorCount)
+        .containsExactly(tuple("backend", 1L, 0L));
+  }
+
+  @Test public void carriesOverErrorsOfCallsSentInPreviousInterval() {
+    dependencyLinks.startClient(Endpoint.create("backend", 80));
+    dependencyLinks.flush();
+    dependencyLinks.finishClient(true);
+    dependencyLinks.flush(); // error without a call in this interval
+    clientRequest("backend", "200");
+    dependencyLinks.flush();
+
+    assertThat(links)
+        .extracting(l -> l.callCount, l -> l.errorCount)
+        .containsExactly(tuple(1L, 0L), tuple(1L, 1L));
+  }
+
+  @Test public void forgetsCallNotFinishedOnThisThread() {
+    dependencyLinks.startClient(Endpoint.create("backend", 80)); // response handled elsewhere
+    dependencyLinks.startClient(null); // not a link
+    dependencyLinks.finishClient(true);
+    dependencyLinks.flush();
+
+    assertThat(links)
+        .extracting(l -> l.child, l -> l.callCount, l -> l.errorCount)
+        .containsExactly(tuple("backend", 1L, 0L));
+  }
+
+  @Test public void skipsUnknownServices() {
+    clientRequest(null, "200");
+    clientRequest("unknown", "200");
+    dependencyLinks.flush();
+
+    assertThat(links).isEmpty();
+  }
+
+  @Test public void flush_reportsOnlyTheInterval() {
+    clientRequest("backend", "200");
+    dependencyLinks.flush();
+    dependencyLinks.flush(); // no calls since
+    clientRequest("backend", "200");
+    dependencyLinks.flush();
+
+    assertThat(links).hasSize(2);
+    DependencyLinks.Link first = links.get(0), second = links.get(1);
+    assertThat(first.duration).isNotNegative();
+    assertThat(second.timestamp).isGreaterThanOrEqualTo(first.timestamp + first.duration);
+  }
+
+  @Test public void boundsChildren() {
+    for (int i = 0; i < 5; i++) clientRequest("backend" + i, "200");
+    dependencyLinks.flush();
+
+    assertThat(links)
+        .extracting(l -> l.child, l -> l.callCount)
+        .containsOnly(
+            tuple("backend0", 1L),
+            tuple("backend1", 1L),
+            tuple(DependencyLinks.OVERFLOW_NAME, 3L)
+        );
+  }
+
+  @Test public void flushesAtInterval() throws InterruptedException {
+    CountDownLatch reported = new CountDownLatch(1);
+    DependencyLinks scheduled = DependencyLinks.create("frontend", l -> reported.countDown(), 10,
+        DependencyLinks.DEFAULT_MAX_LINKS);
+    try {
+      scheduled.startClient(Endpoint.create("backend", 80));
+      scheduled.finishClient(false);
+
+      assertThat(reported.await(1, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      scheduled.close();
+    }
+  }
+
+  @Test public void close_reportsRemaining() {
+    clientRequest("backend", "200");
+    dependencyLinks.close();
+
+    assertThat(links).extracting(l -> l.child).containsExactly("backend");
+  }
+
+  @Test public void writeJson_readableAsZipkinLinks() {
+    List<DependencyLinks.Link> links = Arrays.asList(
+        new DependencyLinks.Link("frontend", "back\"end", 2, 1, 1472470996199000L, 60000000L),
+        new DependencyLinks.Link("frontend", "auth", 1, 0, 1472470996199000L, 60000000L)
+    );
+
+    byte[] json = DependencyLinks.writeJson(links);
+    assertThat(new String(json, Charset.forName("UTF-8"))).startsWith(
+        "[{\"parent\":\"frontend\",\"child\":\"back\\\"end\",\"callCount\":2,\"errorCount\":1,"
+            + "\"timestamp\":1472470996199000,\"duration\":60000000},");
+    assertThat(Codec.JSON.readDependencyLinks(json)).containsExactly(
+        DependencyLink.create("frontend", "back\"end", 2),
+        DependencyLink.create("frontend", "auth", 1)
+    );
+  }
+
+  @Test public void readJson_readsWhatWasWritten() {
+    List<DependencyLinks.Link> links = Arrays.asList(
+        new DependencyLinks.Link("frontend", "back\"end\u00e9", 2, 1, 1472470996199000L, 60000000L),
+        new DependencyLinks.Link("frontend", "auth", 1, 0, 1472470996199000L, 60000000L)
+    );
+
+    assertThat(DependencyLinks.readJson(DependencyLinks.writeJson(links)))
+        .containsExactlyElementsOf(links);
+  }
+
+  @Test public void readJson_skipsUnknownFields() {
+    byte[] json = ("[ {\"parent\": \"frontend\", \"extra\": {\"a\": [1, true, null]},"
+        + " \"child\": \"backend\", \"callCount\": 3} ]").getBytes(Charset.forName("UTF-8"));
+
+    assertThat(DependencyLinks.readJson(json)).containsExactly(
+        new DependencyLinks.Link("frontend", "backend", 3, 0, 0, 0));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void readJson_rejectsLinkWithoutChild() {
+    DependencyLinks.readJson("[{\"parent\":\"frontend\"}]".getBytes(Charset.forName("UTF-8")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void readJson_rejectsMalformed() {
+    DependencyLinks.readJson("[{\"parent\":\"frontend\",".getBytes(Charset.forName("UTF-8")));
+  }
+
+  void clientRequest(String remoteServiceName, String statusCode) {
+    ClientRequestAdapter request = mock(ClientRequestAdapter.class);
+    when(request.getSpanName()).thenReturn("get");
+    when(request.serverAddress()).thenReturn(
+        remoteServiceName != null ? Endpoint.create(remoteServiceName, 80) : null);
+    brave.clientRequestInterceptor().handle(request);
+    brave.clientResponseInterceptor().handle(() -> statusCode(statusCode));
+  }
+
+  static Collection<KeyValueAnnotation> statusCode(String statusCode) {
+    return Collections.singletonList(
+        KeyValueAnnotation.create(TraceKeys.HTTP_STATUS_CODE, statusCode));
+  }
+}
@@ -1,11 +1,20 @@
 package com.github.kristofa.brave;
 
 import com.codahale.metrics.MetricRegistry;
+import java.util.concurrent.TimeUnit;
 
-class DropwizardMetricsSpanCollectorMetricsHandlerExample implements SpanCollectorMetricsHandler {
+class DropwizardMetricsSpanCollectorMetricsHandlerExample
+        implements DetailedSpanCollectorMetricsHandler {
 
     static final String ACCEPTED_METER = "tracing.collector.scribe.span.accepted";
     static final String DROPPED_METER = "tracing.collector.scribe.span.dropped";
+    static final String QUEUED_SPANS_HISTOGRAM = "tracing.collector.scribe.queue.spans";
+    static final String QUEUED_BYTES_HISTOGRAM = "tracing.collector.scribe.queue.bytes";
+    static final String MESSAGE_SPANS_HISTOGRAM = "tracing.collector.scribe.message.spans";
+    static final String MESSAGE_BYTES_HISTOGRAM = "tracing.collector.scribe.message.bytes";
+    static final String ENCODE_TIMER = "tracing.collector.scribe.message.encode";
+    static final String SEND_TIMER = "tracing.collector.scribe.message.send";
+    static final String FAILED_METER = "tracing.collector.scribe.message.failed.";
 
     private final MetricRegistry registry;
 
@@ -23,4 +32,35 @@ class DropwizardMetricsSpanCollectorMetricsHandlerExample implements SpanCollect
         registry.meter(DROPPED_METER).mark(quantity);
     }
 
+    @Override
+    public void updateQueuedSpans(int update) {
+        registry.histogram(QUEUED_SPANS_HISTOGRAM).update(update);
+    }
+
+    @Override
+    public void updateQueuedBytes(int update) {
+        registry.histogram(QUEUED_BYTES_HISTOGRAM).update(update);
+    }
+
+    @Override
+    public void recordMessageSpans(int spanCount) {
+        registry.histogram(MESSAGE_SPANS_HISTOGRAM).update(spanCount);
+    }
+
+    @Override
+    public void recordEncodeNanos(long nanos, int bytes) {
+        registry.timer(ENCODE_TIMER).update(nanos, TimeUnit.NANOSECONDS);
+        registry.histogram(MESSAGE_BYTES_HISTOGRAM).update(bytes);
+    }
+
+    @Override
+    public void recordSendNanos(long nanos) {
+        registry.timer(SEND_TIMER).update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void incrementFailedMessages(Throwable cause) {
+        registry.meter(FAILED_METER + cause.getClass().getSimpleName()).mark();
+    }
+
 }
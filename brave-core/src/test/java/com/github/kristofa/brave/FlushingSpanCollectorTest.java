@@ -0,0 +1,350 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Span;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FlushingSpanCollectorTest {
+  AtomicInteger accepted = new AtomicInteger(), dropped = new AtomicInteger();
+  AtomicInteger queuedSpans = new AtomicInteger(), queuedBytes = new AtomicInteger();
+  SpanCollectorMetricsHandler metrics = new EmptySpanCollectorMetricsHandler() {
+    @Override public void incrementAcceptedSpans(int quantity) {
+      accepted.addAndGet(quantity);
+    }
+
+    @Override public void incrementDroppedSpans(int quantity) {
+      dropped.addAndGet(quantity);
+    }
+
+    @Override public void updateQueuedSpans(int update) {
+      queuedSpans.set(update);
+    }
+
+    @Override public void updateQueuedBytes(int update) {
+      queuedBytes.set(update);
+    }
+  };
+  List<Span> reported = new ArrayList<>();
+  List<List<Span>> messages = new ArrayList<>();
+
+  @Test public void dropsWhenFull() {
+    FlushingSpanCollector collector = new TestCollector(LoadShedding.NONE, 1000, Integer.MAX_VALUE);
+
+    for (long i = 0; i < 1100; i++) collector.collect(span(i));
+    collector.flush();
+
+    assertThat(accepted.get()).isEqualTo(1100);
+    assertThat(dropped.get()).isEqualTo(100);
+    assertThat(reported).hasSize(1000);
+  }
+
+  @Test public void dropsWhenBytesFull() {
+    int spanSize = SpanQueue.sizeInBytes(span(1L));
+    FlushingSpanCollector collector = new TestCollector(LoadShedding.NONE, 1000, spanSize * 10);
+
+    for (long i = 0; i < 20; i++) collector.collect(span(i));
+    collector.flush();
+
+    assertThat(dropped.get()).isEqualTo(10);
+    assertThat(reported).hasSize(10);
+  }
+
+  @Test public void bytesAreReleasedOnFlush() {
+    int spanSize = SpanQueue.sizeInBytes(span(1L));
+    FlushingSpanCollector collector = new TestCollector(LoadShedding.NONE, 1000, spanSize * 10);
+
+    for (int flush = 0; flush < 3; flush++) {
+      for (long i = 0; i < 10; i++) collector.collect(span(i));
+      collector.flush();
+    }
+
+    assertThat(dropped.get()).isZero();
+    assertThat(reported).hasSize(30);
+  }
+
+  @Test public void flushUpdatesQueueMetrics() {
+    FlushingSpanCollector collector = new TestCollector(LoadShedding.NONE, 1000, Integer.MAX_VALUE);
+
+    for (long i = 0; i < 5; i++) collector.collect(span(i));
+    collector.flush();
+
+    assertThat(queuedSpans.get()).isEqualTo(5);
+    assertThat(queuedBytes.get()).isEqualTo(5 * SpanQueue.sizeInBytes(span(1L)));
+
+    collector.flush();
+    assertThat(queuedSpans.get()).isZero();
+    assertThat(queuedBytes.get()).isZero();
+  }
+
+  /** Handlers written before detailed events were added needn't implement them. */
+  @Test public void acceptsHandlerWithoutDetailedEvents() {
+    SpanCollectorMetricsHandler metrics = new SpanCollectorMetricsHandler() {
+      @Override public void incrementAcceptedSpans(int quantity) {
+        accepted.addAndGet(quantity);
+      }
+
+      @Override public void incrementDroppedSpans(int quantity) {
+        dropped.addAndGet(quantity);
+      }
+    };
+    FlushingSpanCollector collector =
+        new TestCollector(metrics, LoadShedding.NONE, 1, Integer.MAX_VALUE, Integer.MAX_VALUE, 0);
+
+    collector.collect(span(1L));
+    collector.collect(span(2L));
+    collector.flush();
+
+    assertThat(accepted.get()).isEqualTo(2);
+    assertThat(dropped.get()).isEqualTo(1);
+    assertThat(reported).hasSize(1);
+  }
+
+  @Test public void shedsWholeTraces() {
+    FlushingSpanCollector collector =
+        new TestCollector(LoadShedding.create(0.5f), 1000, Integer.MAX_VALUE);
+
+    // fill half the queue, then add spans from a few traces in low and high bands
+    for (long i = 0; i < 500; i++) collector.collect(span(i));
+    for (int i = 0; i < 10; i++) {
+      collector.collect(span(1L));
+      collector.collect(span(9999L));
+    }
+    collector.flush();
+
+    assertThat(reported).filteredOn(s -> s.getTrace_id() == 9999L).isEmpty();
+    assertThat(reported).filteredOn(s -> s.getTrace_id() == 1L).hasSize(11);
+    assertThat(dropped.get()).isEqualTo(10);
+  }
+
+  @Test public void flushSplitsMessagesByBytes() {
+    int spanSize = SpanQueue.sizeInBytes(span(1L));
+    FlushingSpanCollector collector =
+        new TestCollector(metrics, LoadShedding.NONE, 1000, Integer.MAX_VALUE, spanSize * 3, 0);
+
+    for (long i = 0; i < 10; i++) collector.collect(span(i));
+    collector.flush();
+
+    assertThat(messages).extracting(List::size).containsExactly(3, 3, 3, 1);
+  }
+
+  @Test public void flushesWhenMessageFills() throws InterruptedException {
+    int spanSize = SpanQueue.sizeInBytes(span(1L));
+    CountDownLatch flushed = new CountDownLatch(1);
+    // the timeout is long enough that only a full message could explain a flush
+    FlushingSpanCollector collector =
+        new TestCollector(metrics, LoadShedding.NONE, 1000, Integer.MAX_VALUE, spanSize * 3,
+            TimeUnit.MINUTES.toMillis(10)) {
+          @Override protected void reportSpans(List<Span> drained) {
+            super.reportSpans(drained);
+            flushed.countDown();
+          }
+        };
+    try {
+      for (long i = 0; i < 3; i++) collector.collect(span(i));
+
+      assertThat(flushed.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(messages.get(0)).hasSize(3);
+    } finally {
+      collector.close();
+    }
+  }
+
+  @Test public void flushesAfterMessageTimeout() throws InterruptedException {
+    CountDownLatch flushed = new CountDownLatch(1);
+    FlushingSpanCollector collector =
+        new TestCollector(metrics, LoadShedding.NONE, 1000, Integer.MAX_VALUE, Integer.MAX_VALUE,
+            10) {
+          @Override protected void reportSpans(List<Span> drained) {
+            super.reportSpans(drained);
+            flushed.countDown();
+          }
+        };
+    try {
+      collector.collect(span(1L));
+
+      assertThat(flushed.await(5, TimeUnit.SECONDS)).isTrue();
+    } finally {
+      collector.close();
+    }
+  }
+
+  @Test public void groupsMessagesByTrace() {
+    FlushingSpanCollector collector = new TestCollector(metrics, LoadShedding.NONE, 1000,
+        Integer.MAX_VALUE, Integer.MAX_VALUE, 0, TraceGrouping.create());
+
+    for (int i = 0; i < 3; i++) {
+      collector.collect(span(1L));
+      collector.collect(span(2L));
+    }
+    collector.flush();
+
+    assertThat(reported).extracting(Span::getTrace_id).containsExactly(1L, 1L, 1L, 2L, 2L, 2L);
+  }
+
+  @Test public void waitsForLocalRoot() throws InterruptedException {
+    FlushingSpanCollector collector = new TestCollector(metrics, LoadShedding.NONE, 1000,
+        Integer.MAX_VALUE, Integer.MAX_VALUE, 0, TraceGrouping.create(500, TimeUnit.MILLISECONDS));
+    collector.collect(TraceGrouperTest.child(0L, 1L, 2L));
+
+    // finish the root once the flushing thread is waiting for it
+    Thread flushing = Thread.currentThread();
+    Thread root = new Thread(() -> {
+      while (LockSupport.getBlocker(flushing) != collector) Thread.yield();
+      collector.collect(TraceGrouperTest.root(1L));
+    });
+    root.start();
+    collector.flush();
+    root.join();
+
+    assertThat(messages).extracting(List::size).containsExactly(2);
+  }
+
+  @Test public void doesntWaitWhenQueueIsHalfFull() {
+    FlushingSpanCollector collector = new TestCollector(metrics, LoadShedding.NONE, 4,
+        Integer.MAX_VALUE, Integer.MAX_VALUE, 0, TraceGrouping.create(1, TimeUnit.MINUTES));
+
+    for (long spanId = 2; spanId < 4; spanId++) {
+      collector.collect(TraceGrouperTest.child(0L, 1L, spanId));
+    }
+    collector.flush();
+
+    assertThat(reported).hasSize(2);
+  }
+
+  @Test public void recordsMessagesAndFailures() {
+    HistogramSpanCollectorMetricsHandler metrics = new HistogramSpanCollectorMetricsHandler();
+    int spanSize = SpanQueue.sizeInBytes(span(1L));
+    FlushingSpanCollector collector =
+        new TestCollector(metrics, LoadShedding.NONE, 1000, Integer.MAX_VALUE, spanSize * 3, 0) {
+          @Override protected void reportSpans(List<Span> drained) {
+            if (drained.size() == 1) throw new IllegalStateException("failed");
+          }
+        };
+
+    for (long i = 0; i < 7; i++) collector.collect(span(i));
+    collector.flush();
+
+    assertThat(metrics.messages()).isEqualTo(3);
+    assertThat(metrics.messageSpans().max()).isEqualTo(3);
+    assertThat(metrics.messageSpans().percentile(0)).isEqualTo(1);
+    assertThat(metrics.failedMessages()).containsEntry(IllegalStateException.class, 1L);
+    assertThat(metrics.droppedSpans()).isEqualTo(1);
+  }
+
+  @Test public void keepsDebugAndErrorSpansWhenFull() {
+    FlushingSpanCollector collector = new TestCollector(metrics, LoadShedding.NONE, 10,
+        Integer.MAX_VALUE, Integer.MAX_VALUE, 0, TraceGrouping.NONE, 2);
+
+    for (long i = 0; i < 10; i++) collector.collect(span(i));
+    collector.collect(debugSpan(100L));
+    collector.collect(errorSpan(101L));
+    collector.collect(span(102L));
+    collector.flush();
+
+    assertThat(dropped.get()).isEqualTo(1);
+    assertThat(reported).extracting(Span::getTrace_id).contains(100L, 101L).doesNotContain(102L);
+  }
+
+  @Test public void drainsPrioritySpansFirst() {
+    int spanSize = SpanQueue.sizeInBytes(span(1L));
+    FlushingSpanCollector collector = new TestCollector(metrics, LoadShedding.NONE, 1000,
+        Integer.MAX_VALUE, spanSize * 2, 0, TraceGrouping.NONE, 10);
+
+    collector.collect(span(1L));
+    collector.collect(span(2L));
+    collector.collect(errorSpan(3L));
+    collector.flush();
+
+    assertThat(messages.get(0)).extracting(Span::getTrace_id).startsWith(3L);
+    assertThat(reported).hasSize(3);
+  }
+
+  @Test public void prioritySpansOverflowToOthers() {
+    FlushingSpanCollector collector = new TestCollector(metrics, LoadShedding.NONE, 1000,
+        Integer.MAX_VALUE, Integer.MAX_VALUE, 0, TraceGrouping.NONE, 1);
+
+    for (long i = 0; i < 3; i++) collector.collect(debugSpan(i));
+    collector.flush();
+
+    assertThat(dropped.get()).isZero();
+    assertThat(reported).hasSize(3);
+  }
+
+  @Test public void priorityNotShed() {
+    FlushingSpanCollector collector = new TestCollector(metrics, LoadShedding.create(0.5f), 1000,
+        Integer.MAX_VALUE, Integer.MAX_VALUE, 0, TraceGrouping.NONE, 10);
+
+    for (long i = 0; i < 500; i++) collector.collect(span(i));
+    for (int i = 0; i < 10; i++) {
+      collector.collect(span(9999L));
+      collector.collect(errorSpan(9999L));
+    }
+    collector.flush();
+
+    assertThat(dropped.get()).isPositive();
+    assertThat(reported).filteredOn(s -> !s.getBinary_annotations().isEmpty()).hasSize(10);
+  }
+
+  class TestCollector extends FlushingSpanCollector {
+    TestCollector(LoadShedding loadShedding, int queuedMaxSpans, int queuedMaxBytes) {
+      super(metrics, SpanCollectorOptions.builder()
+          .loadShedding(loadShedding)
+          .queuedMaxSpans(queuedMaxSpans)
+          .queuedMaxBytes(queuedMaxBytes)
+          .messageTimeout(0, TimeUnit.MILLISECONDS).build());
+    }
+
+    TestCollector(SpanCollectorMetricsHandler metrics, LoadShedding loadShedding,
+        int queuedMaxSpans, int queuedMaxBytes, int messageMaxBytes, long messageTimeoutMillis) {
+      this(metrics, loadShedding, queuedMaxSpans, queuedMaxBytes, messageMaxBytes,
+          messageTimeoutMillis, TraceGrouping.NONE);
+    }
+
+    TestCollector(SpanCollectorMetricsHandler metrics, LoadShedding loadShedding,
+        int queuedMaxSpans, int queuedMaxBytes, int messageMaxBytes, long messageTimeoutMillis,
+        TraceGrouping traceGrouping) {
+      this(metrics, loadShedding, queuedMaxSpans, queuedMaxBytes, messageMaxBytes,
+          messageTimeoutMillis, traceGrouping, DEFAULT_PRIORITY_QUEUED_MAX_SPANS);
+    }
+
+    TestCollector(SpanCollectorMetricsHandler metrics, LoadShedding loadShedding,
+        int queuedMaxSpans, int queuedMaxBytes, int messageMaxBytes, long messageTimeoutMillis,
+        TraceGrouping traceGrouping, int priorityQueuedMaxSpans) {
+      super(metrics, SpanCollectorOptions.builder()
+          .loadShedding(loadShedding)
+          .queuedMaxSpans(queuedMaxSpans)
+          .queuedMaxBytes(queuedMaxBytes)
+          .messageMaxBytes(messageMaxBytes)
+          .messageTimeout(messageTimeoutMillis, TimeUnit.MILLISECONDS)
+          .traceGrouping(traceGrouping)
+          .priorityQueuedMaxSpans(priorityQueuedMaxSpans).build());
+    }
+
+    @Override protected void reportSpans(List<Span> drained) {
+      synchronized (messages) {
+        reported.addAll(drained);
+        messages.add(new ArrayList<>(drained));
+      }
+    }
+  }
+
+  static Span span(long traceId) {
+    return Brave.toSpan(SpanId.builder().traceId(traceId).spanId(traceId).build());
+  }
+
+  static Span debugSpan(long traceId) {
+    return Brave.toSpan(SpanId.builder().traceId(traceId).spanId(traceId).debug(true).build());
+  }
+
+  static Span errorSpan(long traceId) {
+    return span(traceId).addToBinary_annotations(BinaryAnnotation.create("error", "timeout", null));
+  }
+}
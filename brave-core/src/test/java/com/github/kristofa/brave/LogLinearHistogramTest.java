@@ -0,0 +1,88 @@
+package com.github.kristofa.brave;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+import static org.assertj.core.api.Assertions.within;
+
+public class LogLinearHistogramTest {
+  LogLinearHistogram histogram = new LogLinearHistogram();
+
+  @Test public void empty() {
+    assertThat(histogram.count()).isZero();
+    assertThat(histogram.mean()).isZero();
+    assertThat(histogram.percentile(99)).isZero();
+  }
+
+  @Test public void smallValuesAreExact() {
+    for (long i = 1; i <= 10; i++) histogram.record(i);
+
+    assertThat(histogram.percentile(50)).isEqualTo(5);
+    assertThat(histogram.percentile(90)).isEqualTo(9);
+    assertThat(histogram.percentile(100)).isEqualTo(10);
+    assertThat(histogram.mean()).isEqualTo(5.5);
+  }
+
+  @Test public void percentilesAreWithinBucketWidth() {
+    for (long i = 1; i <= 100_000; i++) histogram.record(i * 1000);
+
+    assertThat((double) histogram.percentile(50)).isCloseTo(50_000_000, within(50_000_000 / 16.0));
+    assertThat((double) histogram.percentile(99)).isCloseTo(99_000_000, within(99_000_000 / 16.0));
+    assertThat(histogram.percentile(100)).isEqualTo(histogram.max()).isEqualTo(100_000_000);
+  }
+
+  @Test public void bucketsAreContiguous() {
+    for (int i = 1; i < LogLinearHistogram.BUCKET_COUNT; i++) {
+      long lowest = LogLinearHistogram.highestValue(i - 1) + 1;
+      assertThat(LogLinearHistogram.index(lowest)).isEqualTo(i);
+      assertThat(LogLinearHistogram.index(LogLinearHistogram.highestValue(i))).isEqualTo(i);
+    }
+    assertThat(LogLinearHistogram.highestValue(LogLinearHistogram.BUCKET_COUNT - 1))
+        .isEqualTo(Long.MAX_VALUE);
+  }
+
+  @Test public void percentileAcrossHistograms() {
+    LogLinearHistogram other = new LogLinearHistogram();
+    for (long i = 1; i <= 5; i++) histogram.record(i);
+    for (long i = 6; i <= 10; i++) other.record(i);
+
+    assertThat(LogLinearHistogram.percentile(50, histogram, other)).isEqualTo(5);
+    assertThat(LogLinearHistogram.percentile(90, histogram, other)).isEqualTo(9);
+    assertThat(LogLinearHistogram.percentile(100, histogram, other)).isEqualTo(10);
+    assertThat(LogLinearHistogram.percentile(100, new LogLinearHistogram[0])).isZero();
+  }
+
+  @Test public void negativeIsZero() {
+    histogram.record(-5);
+
+    assertThat(histogram.max()).isZero();
+    assertThat(histogram.percentile(100)).isZero();
+  }
+
+  @Test public void concurrentRecording() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    for (int thread = 0; thread < 4; thread++) {
+      executor.execute(() -> {
+        for (long i = 0; i < 10_000; i++) histogram.record(i);
+      });
+    }
+    executor.shutdown();
+    assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+    assertThat(histogram.count()).isEqualTo(40_000);
+    assertThat(histogram.max()).isEqualTo(9_999);
+  }
+
+  @Test public void percentileMustBeInRange() {
+    try {
+      histogram.percentile(101);
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("percentile must be between 0 and 100: 101.0");
+    }
+  }
+}
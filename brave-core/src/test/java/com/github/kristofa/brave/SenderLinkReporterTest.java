@@ -0,0 +1,130 @@
+package com.github.kristofa.brave;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.ReporterMetrics;
+import zipkin.reporter.Sender;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SenderLinkReporterTest {
+  static final DependencyLinks.Link LINK1 =
+      new DependencyLinks.Link("frontend", "backend", 2, 1, 1472470996199000L, 60000000L);
+  static final DependencyLinks.Link LINK2 =
+      new DependencyLinks.Link("frontend", "auth", 1, 0, 1472470996199000L, 60000000L);
+
+  List<List<byte[]>> messages = new ArrayList<>();
+  AtomicInteger dropped = new AtomicInteger();
+  ReporterMetrics metrics = new ReporterMetrics() {
+    @Override public void incrementMessages() {
+    }
+
+    @Override public void incrementMessagesDropped(Throwable cause) {
+      dropped.incrementAndGet();
+    }
+
+    @Override public void incrementSpans(int quantity) {
+    }
+
+    @Override public void incrementSpanBytes(int quantity) {
+    }
+
+    @Override public void incrementMessageBytes(int quantity) {
+    }
+
+    @Override public void incrementSpansDropped(int quantity) {
+    }
+
+    @Override public void updateQueuedSpans(int update) {
+    }
+
+    @Override public void updateQueuedBytes(int update) {
+    }
+  };
+
+  @Test public void sendsLinksAsAJsonList() {
+    SenderLinkReporter.create(new RecordingSender(1024, null)).report(Arrays.asList(LINK1, LINK2));
+
+    assertThat(messages).hasSize(1);
+    assertThat(DependencyLinks.readJson(join(messages.get(0)))).containsExactly(LINK1, LINK2);
+  }
+
+  @Test public void splitsLinksThatDontFitAMessage() {
+    int oneLink = Encoding.JSON.listSizeInBytes(Arrays.asList(DependencyLinks.writeJson(LINK1)));
+    SenderLinkReporter.create(new RecordingSender(oneLink, null))
+        .report(Arrays.asList(LINK1, LINK2));
+
+    assertThat(messages).hasSize(2);
+    assertThat(DependencyLinks.readJson(join(messages.get(0)))).containsExactly(LINK1);
+    assertThat(DependencyLinks.readJson(join(messages.get(1)))).containsExactly(LINK2);
+  }
+
+  @Test public void countsFailedMessagesAsDropped() {
+    SenderLinkReporter.create(new RecordingSender(1024, new IllegalStateException("closed")),
+        metrics).report(Arrays.asList(LINK1));
+
+    assertThat(dropped.get()).isEqualTo(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void requiresJson() {
+    SenderLinkReporter.create(new RecordingSender(1024, null) {
+      @Override public Encoding encoding() {
+        return Encoding.THRIFT;
+      }
+    });
+  }
+
+  /** Joins encoded elements the same way senders do for json. */
+  static byte[] join(List<byte[]> encoded) {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < encoded.size(); i++) {
+      if (i > 0) json.append(',');
+      json.append(new String(encoded.get(i), DependencyLinks.UTF_8));
+    }
+    return json.append(']').toString().getBytes(DependencyLinks.UTF_8);
+  }
+
+  class RecordingSender implements Sender {
+    final int messageMaxBytes;
+    final RuntimeException error;
+
+    RecordingSender(int messageMaxBytes, RuntimeException error) {
+      this.messageMaxBytes = messageMaxBytes;
+      this.error = error;
+    }
+
+    @Override public Encoding encoding() {
+      return Encoding.JSON;
+    }
+
+    @Override public int messageMaxBytes() {
+      return messageMaxBytes;
+    }
+
+    @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+      return Encoding.JSON.listSizeInBytes(encodedSpans);
+    }
+
+    @Override public void sendSpans(List<byte[]> encodedSpans, Callback callback) {
+      if (error != null) {
+        callback.onError(error);
+        return;
+      }
+      messages.add(encodedSpans);
+      callback.onComplete();
+    }
+
+    @Override public CheckResult check() {
+      return CheckResult.OK;
+    }
+
+    @Override public void close() {
+    }
+  }
+}
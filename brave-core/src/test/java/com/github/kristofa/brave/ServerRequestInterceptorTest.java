@@ -64,6 +64,20 @@ public class ServerRequestInterceptorTest {
             .isEqualTo(SPAN_NAME.toLowerCase());
     }
 
+    @Test
+    public void handleNoState_whenSampleFalse() {
+        brave = new Brave.Builder(ENDPOINT).reporter(spans::add)
+            .traceSampler(Sampler.NEVER_SAMPLE).build();
+        interceptor = new ServerRequestInterceptor(brave.serverTracer());
+        when(adapter.getTraceData()).thenReturn(TraceData.EMPTY);
+
+        interceptor.handle(adapter);
+
+        assertThat(brave.serverSpanThreadBinder().getCurrentServerSpan())
+            .isEqualTo(ServerSpan.NOT_SAMPLED);
+        assertThat(spans).isEmpty();
+    }
+
     @Test
     public void handleSampleRequestWithParentSpanId() {
         SpanId spanId = SpanId.builder()
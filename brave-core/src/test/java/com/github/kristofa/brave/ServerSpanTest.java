@@ -54,6 +54,26 @@ public class ServerSpanTest {
         Assert.assertEquals(serverSpan.hashCode(), equalServerSpan.hashCode());
     }
 
+    @Test
+    public void timedSpansOfDifferentRequestsArentEqual() {
+        SpanMetrics.Timer timer = new SpanMetrics.Timer(null, 0L);
+        ServerSpan timed = ServerSpan.create(Brave.toSpan(SPAN_ID), timer);
+
+        assertTrue(timed.timer() == timer);
+        assertEquals(timed, ServerSpan.create(Brave.toSpan(SPAN_ID), timer));
+        Assert.assertNotEquals(timed, serverSpan);
+    }
+
+    @Test
+    public void createUnsampled_timed() {
+        SpanMetrics.Timer timer = new SpanMetrics.Timer(null, 0L);
+        serverSpan =
+            ServerSpan.create(Brave.toSpan(SPAN_ID.toBuilder().sampled(false).build()), timer);
+
+        assertEquals(Boolean.FALSE, serverSpan.getSample());
+        assertTrue(serverSpan.timer() == timer);
+    }
+
     @Test
     public void createUnsampled() {
         serverSpan = ServerSpan.create(Brave.toSpan(SPAN_ID.toBuilder().sampled(false).build()));
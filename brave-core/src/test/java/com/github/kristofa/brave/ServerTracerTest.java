@@ -27,7 +27,7 @@ public class ServerTracerTest {
   AnnotationSubmitter.Clock clock = () -> timestamp;
 
   private Span span = Brave.toSpan(CONTEXT);
-  ServerSpan serverSpan = new AutoValue_ServerSpan(CONTEXT, span, true);
+  ServerSpan serverSpan = new AutoValue_ServerSpan(CONTEXT, span, true, null);
 
   List<zipkin.Span> spans = new ArrayList<>();
   Brave brave = newBrave();
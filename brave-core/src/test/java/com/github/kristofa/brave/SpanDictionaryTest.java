@@ -0,0 +1,109 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipException;
+import org.junit.Test;
+import zipkin.Constants;
+
+import static com.github.kristofa.brave.internal.Util.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class SpanDictionaryTest {
+  Endpoint frontend = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+
+  @Test public void roundTrip() throws IOException {
+    SpanDictionary dictionary = SpanDictionary.create(spans(10));
+    byte[] message = SpanCodec.JSON.writeSpans(spans(3));
+
+    assertThat(dictionary.decompress(dictionary.compress(message)))
+        .isEqualTo(message);
+  }
+
+  @Test public void smallerThanWithoutDictionary() throws IOException {
+    byte[] message = SpanCodec.JSON.writeSpans(spans(3));
+
+    int builtIn = SpanDictionary.create().compress(message).length;
+    int learned = SpanDictionary.create(spans(10)).compress(message).length;
+
+    assertThat(builtIn).isLessThan(deflate(message).length);
+    assertThat(learned).isLessThan(builtIn);
+  }
+
+  @Test public void learnsRepeatedStrings() {
+    String dictionary = new String(SpanDictionary.create(spans(10)).toByteArray(), UTF_8);
+
+    assertThat(dictionary)
+        .contains("\"frontend\"", "\"get /api\"", "\"/api\"")
+        .doesNotContain("\"trace-1\""); // only appears once
+  }
+
+  @Test public void fromByteArray() throws IOException {
+    SpanDictionary dictionary = SpanDictionary.create(spans(10));
+    SpanDictionary copy = SpanDictionary.fromByteArray(dictionary.toByteArray());
+    byte[] message = SpanCodec.JSON.writeSpans(spans(3));
+
+    assertThat(copy.id()).isEqualTo(dictionary.id());
+    assertThat(copy.decompress(dictionary.compress(message)))
+        .isEqualTo(message);
+  }
+
+  @Test public void rejectsOtherDictionary() throws IOException {
+    SpanDictionary dictionary = SpanDictionary.create();
+    byte[] compressed = SpanDictionary.create(spans(10)).compress(new byte[] {'[', ']'});
+
+    try {
+      dictionary.decompress(compressed);
+      failBecauseExceptionWasNotThrown(ZipException.class);
+    } catch (ZipException e) {
+      assertThat(e).hasMessageStartingWith("unknown dictionary: ");
+    }
+  }
+
+  @Test public void dropsLeastFrequentWhenTooLarge() {
+    List<Span> spans = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      // each name appears twice, so is learned
+      Span span = Brave.toSpan(SpanId.builder().traceId(1L).spanId(i).build())
+          .setName("operation-" + (i / 2));
+      spans.add(span);
+    }
+
+    byte[] dictionary = SpanDictionary.create(spans).toByteArray();
+    assertThat(dictionary).hasSize(SpanDictionary.MAX_SIZE);
+    assertThat(new String(dictionary, UTF_8)).endsWith("{\"traceId\":\"");
+  }
+
+  List<Span> spans(int count) {
+    List<Span> spans = new ArrayList<>();
+    for (long i = 1; i <= count; i++) {
+      spans.add(Brave.toSpan(SpanId.builder().traceId(i).spanId(i).build())
+          .setName("get /api")
+          .setTimestamp(1472470996199000L)
+          .setDuration(207000L)
+          .addToAnnotations(Annotation.create(1472470996199000L, Constants.SERVER_RECV, frontend))
+          .addToAnnotations(Annotation.create(1472470996406000L, Constants.SERVER_SEND, frontend))
+          .addToBinary_annotations(BinaryAnnotation.create(TraceKeys.HTTP_PATH, "/api", frontend))
+          .addToBinary_annotations(BinaryAnnotation.create("trace", "trace-" + i, frontend)));
+    }
+    return spans;
+  }
+
+  static byte[] deflate(byte[] message) throws IOException {
+    ByteArrayOutputStream result = new ByteArrayOutputStream();
+    try (DeflaterOutputStream out = new DeflaterOutputStream(result, new Deflater())) {
+      out.write(message);
+    }
+    return result.toByteArray();
+  }
+}
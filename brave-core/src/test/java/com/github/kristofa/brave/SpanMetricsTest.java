@@ -0,0 +1,180 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Endpoint;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class SpanMetricsTest {
+  static final Endpoint ENDPOINT = Endpoint.create("frontend", 80);
+  static final zipkin.Endpoint ZIPKIN_ENDPOINT = zipkin.Endpoint.create("frontend", 80);
+
+  List<zipkin.Span> spans = new ArrayList<>();
+  SpanMetrics spanMetrics = SpanMetrics.create("frontend", 4);
+  Brave brave = newBrave();
+
+  Brave newBrave() {
+    return new Brave.Builder(ENDPOINT).reporter(spans::add).spanMetrics(spanMetrics).build();
+  }
+
+  @Before @After public void clearState() {
+    ThreadLocalServerClientAndLocalSpanState.clear();
+  }
+
+  @Test public void countsSampledAndUnsampledServerRequests() {
+    serverRequest(TraceData.EMPTY, "get", "200");
+    serverRequest(TraceData.NOT_SAMPLED, "get", "200");
+    serverRequest(TraceData.NOT_SAMPLED, "get", "503");
+
+    assertThat(spans).hasSize(1);
+    assertThat(spanMetrics.getEntries())
+        .extracting(SpanMetrics.Entry::getKind, SpanMetrics.Entry::getServiceName,
+            SpanMetrics.Entry::getSpanName, SpanMetrics.Entry::getRemoteServiceName,
+            SpanMetrics.Entry::getRequests, SpanMetrics.Entry::getErrors)
+        .containsExactly(tuple("server", "frontend", "get", "unknown", 3L, 1L));
+  }
+
+  @Test public void countsClientRequestsByRemoteService() {
+    clientRequest("get", "backend", "200");
+    clientRequest("get", "backend", "500");
+    clientRequest("get", "auth", "200");
+
+    assertThat(spanMetrics.getEntries())
+        .extracting(SpanMetrics.Entry::getRemoteServiceName, SpanMetrics.Entry::getRequests,
+            SpanMetrics.Entry::getErrors)
+        .containsOnly(tuple("backend", 2L, 1L), tuple("auth", 1L, 0L));
+  }
+
+  @Test public void countsUnsampledClientRequests() {
+    brave.serverSpanThreadBinder().setCurrentSpan(ServerSpan.NOT_SAMPLED);
+    clientRequest("get", "backend", "200");
+
+    assertThat(spans).isEmpty();
+    assertThat(spanMetrics.getEntries())
+        .extracting(SpanMetrics.Entry::getKind, SpanMetrics.Entry::getRequests)
+        .containsExactly(tuple("client", 1L));
+  }
+
+  @Test public void errorAnnotation() {
+    ServerRequestAdapter request = mock(ServerRequestAdapter.class);
+    when(request.getTraceData()).thenReturn(TraceData.NOT_SAMPLED);
+    when(request.getSpanName()).thenReturn("get");
+    brave.serverRequestInterceptor().handle(request);
+    brave.serverResponseInterceptor().handle(() ->
+        Collections.singletonList(KeyValueAnnotation.create("error", "timeout")));
+
+    assertThat(spanMetrics.getEntries())
+        .extracting(SpanMetrics.Entry::getErrors)
+        .containsExactly(1L);
+  }
+
+  @Test public void recordsDurations() throws InterruptedException {
+    ServerRequestAdapter request = mock(ServerRequestAdapter.class);
+    when(request.getTraceData()).thenReturn(TraceData.NOT_SAMPLED);
+    when(request.getSpanName()).thenReturn("get");
+    brave.serverRequestInterceptor().handle(request);
+    Thread.sleep(10);
+    brave.serverResponseInterceptor().handle(Collections::emptyList);
+
+    SpanMetrics.Entry entry = spanMetrics.getEntries().get(0);
+    assertThat(entry.getMaxMicros()).isGreaterThanOrEqualTo(10_000);
+    assertThat(entry.getP99Micros()).isEqualTo(entry.getMaxMicros());
+    assertThat(entry.getMeanMicros()).isEqualTo((double) entry.getMaxMicros());
+  }
+
+  @Test public void serverTimerFollowsServerSpan() {
+    ServerRequestAdapter request = mock(ServerRequestAdapter.class);
+    when(request.getTraceData()).thenReturn(TraceData.NOT_SAMPLED);
+    when(request.getSpanName()).thenReturn("get");
+    brave.serverRequestInterceptor().handle(request);
+    ServerSpan serverSpan = brave.serverSpanThreadBinder().getCurrentServerSpan();
+    assertThat(serverSpan.getSample()).isFalse();
+    assertThat(serverSpan.timer()).isNotNull();
+
+    // as if the response were handled on another thread
+    brave.serverSpanThreadBinder().setCurrentSpan(ServerSpan.EMPTY);
+    brave.serverResponseInterceptor().handle(Collections::emptyList);
+    assertThat(spanMetrics.getEntries()).isEmpty();
+
+    brave.serverSpanThreadBinder().setCurrentSpan(serverSpan);
+    brave.serverResponseInterceptor().handle(Collections::emptyList);
+    assertThat(spanMetrics.getEntries()).extracting(SpanMetrics.Entry::getRequests)
+        .containsExactly(1L);
+  }
+
+  @Test public void stats_looksUpExistingGroupsByValue() {
+    SpanMetrics.Stats stats = spanMetrics.stats(SpanMetrics.CLIENT, "get", "backend");
+
+    assertThat(spanMetrics.stats(SpanMetrics.CLIENT, new String("get"), new String("backend")))
+        .isSameAs(stats);
+    assertThat(spanMetrics.stats(SpanMetrics.SERVER, "get", "backend"))
+        .isNotSameAs(stats);
+    assertThat(spanMetrics.stats).hasSize(2);
+  }
+
+  @Test public void boundsCardinality() {
+    for (int i = 0; i < 10; i++) serverRequest(TraceData.NOT_SAMPLED, "get /users/" + i, "200");
+
+    assertThat(spanMetrics.getEntries())
+        .extracting(SpanMetrics.Entry::getSpanName, SpanMetrics.Entry::getRequests)
+        .containsOnly(
+            tuple("get /users/0", 1L),
+            tuple("get /users/1", 1L),
+            tuple("get /users/2", 1L),
+            tuple("get /users/3", 1L),
+            tuple(SpanMetrics.OVERFLOW_NAME, 6L)
+        );
+  }
+
+  @Test public void registerMBean() throws Exception {
+    serverRequest(TraceData.NOT_SAMPLED, "get", "200");
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = spanMetrics.registerMBean();
+    try {
+      assertThat(name.getKeyProperty("service")).isEqualTo("\"frontend\"");
+      assertThat(server.getAttribute(name, "ServiceName")).isEqualTo("frontend");
+
+      CompositeData[] entries = (CompositeData[]) server.getAttribute(name, "Entries");
+      assertThat(entries).hasSize(1);
+      assertThat(entries[0].get("spanName")).isEqualTo("get");
+      assertThat(entries[0].get("requests")).isEqualTo(1L);
+    } finally {
+      server.unregisterMBean(name);
+    }
+  }
+
+  void serverRequest(TraceData traceData, String spanName, String statusCode) {
+    ServerRequestAdapter request = mock(ServerRequestAdapter.class);
+    when(request.getTraceData()).thenReturn(traceData);
+    when(request.getSpanName()).thenReturn(spanName);
+    brave.serverRequestInterceptor().handle(request);
+    brave.serverResponseInterceptor().handle(() -> statusCode(statusCode));
+  }
+
+  void clientRequest(String spanName, String remoteServiceName, String statusCode) {
+    ClientRequestAdapter request = mock(ClientRequestAdapter.class);
+    when(request.getSpanName()).thenReturn(spanName);
+    when(request.serverAddress()).thenReturn(Endpoint.create(remoteServiceName, 80));
+    brave.clientRequestInterceptor().handle(request);
+    brave.clientResponseInterceptor().handle(() -> statusCode(statusCode));
+  }
+
+  static Collection<KeyValueAnnotation> statusCode(String statusCode) {
+    return Collections.singletonList(
+        KeyValueAnnotation.create(TraceKeys.HTTP_STATUS_CODE, statusCode));
+  }
+}
@@ -0,0 +1,128 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import zipkin.Codec;
+
+import static com.github.kristofa.brave.internal.DefaultSpanCodec.toZipkin;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpanQueueTest {
+  SpanQueue queue = new SpanQueue(4, Integer.MAX_VALUE);
+
+  @Test public void slotsRoundUpToPowerOfTwo() {
+    assertThat(new SpanQueue(1000, 1).slots.length()).isEqualTo(1024);
+    assertThat(new SpanQueue(1024, 1).slots.length()).isEqualTo(1024);
+  }
+
+  @Test public void limitsCountExactly() {
+    queue = new SpanQueue(3, Integer.MAX_VALUE);
+    List<Span> drained = new ArrayList<>();
+    for (int round = 0; round < 3; round++) { // also check wrapping with unused slots
+      for (long i = 1; i <= 3; i++) assertThat(queue.offer(span(i), 1)).isTrue();
+      assertThat(queue.offer(span(4L), 1)).isFalse();
+      assertThat(queue.drainTo(drained)).isEqualTo(3);
+    }
+  }
+
+  @Test public void drainsInOrder() {
+    for (long i = 1; i <= 3; i++) queue.offer(span(i), 1);
+
+    List<Span> drained = new ArrayList<>();
+    assertThat(queue.drainTo(drained)).isEqualTo(3);
+
+    assertThat(drained).extracting(Span::getTrace_id).containsExactly(1L, 2L, 3L);
+    assertThat(queue.size()).isZero();
+    assertThat(queue.sizeInBytes()).isZero();
+  }
+
+  @Test public void drainToStopsBeforeMaxBytes() {
+    for (long i = 1; i <= 4; i++) queue.offer(span(i), 10);
+
+    List<Span> drained = new ArrayList<>();
+    assertThat(queue.drainTo(drained, 25)).isEqualTo(2);
+    assertThat(queue.sizeInBytes()).isEqualTo(20);
+    assertThat(queue.drainTo(drained, 25)).isEqualTo(2);
+
+    assertThat(drained).extracting(Span::getTrace_id).containsExactly(1L, 2L, 3L, 4L);
+  }
+
+  @Test public void drainToDrainsOneSpanLargerThanMaxBytes() {
+    queue.offer(span(1L), 100);
+
+    List<Span> drained = new ArrayList<>();
+    assertThat(queue.drainTo(drained, 25)).isEqualTo(1);
+  }
+
+  @Test public void wrapsAround() {
+    List<Span> drained = new ArrayList<>();
+    for (long i = 1; i <= 10; i++) {
+      assertThat(queue.offer(span(i), 1)).isTrue();
+      queue.drainTo(drained);
+    }
+    assertThat(drained).hasSize(10);
+  }
+
+  @Test public void rejectsWhenCountFull() {
+    for (long i = 1; i <= 4; i++) assertThat(queue.offer(span(i), 1)).isTrue();
+
+    assertThat(queue.offer(span(5L), 1)).isFalse();
+    assertThat(queue.sizeInBytes()).isEqualTo(4); // rejected bytes were released
+  }
+
+  @Test public void rejectsWhenBytesFull() {
+    queue = new SpanQueue(4, 100);
+
+    assertThat(queue.offer(span(1L), 60)).isTrue();
+    assertThat(queue.offer(span(2L), 60)).isFalse();
+    assertThat(queue.offer(span(3L), 40)).isTrue();
+  }
+
+  @Test public void concurrentProducers() throws Exception {
+    queue = new SpanQueue(1 << 16, Integer.MAX_VALUE);
+    int producers = 4, spansPerProducer = 10000;
+    ExecutorService exec = Executors.newFixedThreadPool(producers);
+    CountDownLatch latch = new CountDownLatch(producers);
+    for (int p = 0; p < producers; p++) {
+      exec.execute(() -> {
+        for (int i = 0; i < spansPerProducer; i++) queue.offer(span(i), 1);
+        latch.countDown();
+      });
+    }
+    List<Span> drained = new ArrayList<>();
+    while (!latch.await(1, TimeUnit.MILLISECONDS)) queue.drainTo(drained);
+    queue.drainTo(drained);
+    exec.shutdownNow();
+
+    assertThat(drained).hasSize(producers * spansPerProducer);
+    assertThat(queue.sizeInBytes()).isZero();
+  }
+
+  @Test public void sizeInBytes_approximatesThrift() {
+    Endpoint endpoint = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+    Span span = span(1L);
+    span.setName("get");
+    span.setTimestamp(1L);
+    span.setDuration(2L);
+    span.addToAnnotations(Annotation.create(1L, "sr", endpoint));
+    span.addToAnnotations(Annotation.create(3L, "ss", endpoint));
+    span.addToBinary_annotations(BinaryAnnotation.create("http.path", "/api", endpoint));
+
+    int thrift = Codec.THRIFT.sizeInBytes(toZipkin(span));
+    assertThat(SpanQueue.sizeInBytes(span))
+        .isBetween(thrift - 20, thrift + 20);
+  }
+
+  static Span span(long traceId) {
+    return Brave.toSpan(SpanId.builder().traceId(traceId).spanId(traceId).build());
+  }
+}
@@ -0,0 +1,280 @@
+package com.github.kristofa.brave;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpilloverBufferTest {
+  static final int SEGMENT_BYTES = 1024;
+
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  BlockingQueue<String> replayed = new LinkedBlockingQueue<>();
+  SpilloverBuffer.Replayer replayer = (message, spanCount) -> replayed.add(new String(message));
+  List<SpilloverBuffer> buffers = new ArrayList<>();
+
+  @After public void close() {
+    buffers.forEach(SpilloverBuffer::close);
+  }
+
+  @Test public void replaysInOrder() throws Exception {
+    SpilloverBuffer buffer = open(SEGMENT_BYTES * 4);
+    for (int i = 0; i < 100; i++) assertThat(buffer.spill(message(i), 2)).isTrue();
+    assertThat(buffer.pendingSpans()).isEqualTo(200);
+
+    buffer.startReplay(replayer);
+
+    for (int i = 0; i < 100; i++) {
+      assertThat(replayed.poll(5, TimeUnit.SECONDS)).isEqualTo(new String(message(i)));
+    }
+    awaitPendingSpans(buffer, 0);
+    assertThat(buffer.spilledSpans()).isEqualTo(200);
+    assertThat(buffer.replayedSpans()).isEqualTo(200);
+    assertThat(buffer.droppedSpans()).isZero();
+  }
+
+  @Test public void diskUsageIsFixed() throws Exception {
+    File directory = folder.newFolder();
+    SpilloverBuffer buffer = track(SpilloverBuffer.builder(directory)
+        .segmentBytes(SEGMENT_BYTES).maxBytes(SEGMENT_BYTES * 3).build());
+
+    for (int i = 0; i < 1000; i++) buffer.spill(message(i), 1);
+
+    File[] segments = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+    assertThat(segments).hasSize(3);
+    long diskUsage = 0;
+    for (File file : segments) diskUsage += file.length();
+    assertThat(diskUsage).isEqualTo(SEGMENT_BYTES * 3);
+  }
+
+  @Test public void recyclesOldestSegmentWhenFull() throws Exception {
+    SpilloverBuffer buffer = open(SEGMENT_BYTES * 2);
+    int perSegment = recordsPerSegment();
+
+    for (int i = 0; i < perSegment * 2 + 1; i++) buffer.spill(message(i), 1);
+
+    // the first segment was recycled to hold the last message
+    assertThat(buffer.droppedSpans()).isEqualTo(perSegment);
+    assertThat(buffer.pendingSpans()).isEqualTo(perSegment + 1);
+
+    buffer.startReplay(replayer);
+    assertThat(replayed.poll(5, TimeUnit.SECONDS)).isEqualTo(new String(message(perSegment)));
+  }
+
+  @Test public void rejectsMessageLargerThanSegment() throws Exception {
+    SpilloverBuffer buffer = open(SEGMENT_BYTES * 2);
+
+    assertThat(buffer.spill(new byte[SEGMENT_BYTES], 3)).isFalse();
+    assertThat(buffer.droppedSpans()).isEqualTo(3);
+    assertThat(buffer.pendingSpans()).isZero();
+  }
+
+  @Test public void recoversAfterCrash() throws Exception {
+    File directory = folder.newFolder();
+    SpilloverBuffer crashed = build(directory);
+    int count = recordsPerSegment() + 5; // span two segments
+    for (int i = 0; i < count; i++) crashed.spill(message(i), 1);
+    // no close: a crashed process doesn't force its segments, but loses its lock
+    crashed.lock.channel().close();
+
+    SpilloverBuffer buffer = build(directory);
+    assertThat(buffer.pendingSpans()).isEqualTo(count);
+    buffer.startReplay(replayer);
+    for (int i = 0; i < count; i++) {
+      assertThat(replayed.poll(5, TimeUnit.SECONDS)).isEqualTo(new String(message(i)));
+    }
+  }
+
+  @Test public void recoversReplayPosition() throws Exception {
+    File directory = folder.newFolder();
+    SpilloverBuffer first = build(directory);
+    for (int i = 0; i < 10; i++) first.spill(message(i), 1);
+    AtomicBoolean down = new AtomicBoolean();
+    first.startReplay((message, spanCount) -> {
+      if (down.get()) throw new IOException("down");
+      replayer.replay(message, spanCount);
+    });
+    awaitPendingSpans(first, 0);
+    down.set(true); // otherwise the next message could be replayed before close
+    first.spill(message(10), 1);
+    first.close();
+
+    replayed.clear();
+    SpilloverBuffer buffer = build(directory);
+    assertThat(buffer.pendingSpans()).isEqualTo(1);
+    buffer.startReplay(replayer);
+    assertThat(replayed.poll(5, TimeUnit.SECONDS)).isEqualTo(new String(message(10)));
+  }
+
+  @Test public void ignoresTornRecord() throws Exception {
+    File directory = folder.newFolder();
+    SpilloverBuffer crashed = build(directory);
+    for (int i = 0; i < 3; i++) crashed.spill(message(i), 1);
+    crashed.close();
+
+    // corrupt the last byte of the third message
+    int recordSize = SpilloverBuffer.RECORD_OVERHEAD + message(0).length;
+    corrupt(new File(directory, "spill-0.seg"), SpilloverBuffer.HEADER_SIZE + recordSize * 3 - 1);
+
+    SpilloverBuffer buffer = build(directory);
+    assertThat(buffer.pendingSpans()).isEqualTo(2);
+    // new messages are written after the last good record
+    buffer.spill(message(3), 1);
+    buffer.startReplay(replayer);
+    assertThat(replayed.poll(5, TimeUnit.SECONDS)).isEqualTo(new String(message(0)));
+    assertThat(replayed.poll(5, TimeUnit.SECONDS)).isEqualTo(new String(message(1)));
+    assertThat(replayed.poll(5, TimeUnit.SECONDS)).isEqualTo(new String(message(3)));
+  }
+
+  @Test public void tornReplayPositionReplaysSegmentAgain() throws Exception {
+    File directory = folder.newFolder();
+    SpilloverBuffer first = build(directory);
+    for (int i = 0; i < 3; i++) first.spill(message(i), 1);
+    first.startReplay(replayer);
+    awaitPendingSpans(first, 0);
+    first.close();
+
+    corrupt(new File(directory, "spill-0.seg"), 16); // read position
+
+    replayed.clear();
+    SpilloverBuffer buffer = build(directory);
+    assertThat(buffer.pendingSpans()).isEqualTo(3);
+  }
+
+  @Test public void ignoresRecordsFromRecycledSegment() throws Exception {
+    File directory = folder.newFolder();
+    SpilloverBuffer first = build(directory);
+    int perSegment = recordsPerSegment();
+    // fill both segments, then recycle the first with a single message
+    for (int i = 0; i < perSegment * 2 + 1; i++) first.spill(message(i), 1);
+    first.close();
+
+    SpilloverBuffer buffer = build(directory);
+    assertThat(buffer.pendingSpans()).isEqualTo(perSegment + 1);
+  }
+
+  @Test public void backsOffUntilWoken() throws Exception {
+    SpilloverBuffer buffer = open(SEGMENT_BYTES * 2);
+    AtomicBoolean up = new AtomicBoolean();
+    BlockingQueue<Boolean> attempts = new LinkedBlockingQueue<>();
+    buffer.startReplay((message, spanCount) -> {
+      boolean succeeded = up.get();
+      attempts.add(succeeded);
+      if (!succeeded) throw new IOException("down");
+    });
+
+    buffer.spill(message(0), 1);
+    assertThat(attempts.poll(5, TimeUnit.SECONDS)).isFalse();
+    assertThat(attempts.poll(5, TimeUnit.SECONDS)).isFalse(); // retried after backoff
+    // the backoff has grown, but waking retries immediately
+    up.set(true);
+    buffer.wake();
+    assertThat(attempts.poll(1, TimeUnit.SECONDS)).isTrue();
+    awaitPendingSpans(buffer, 0);
+  }
+
+  @Test public void limitsReplayRate() throws Exception {
+    int recordSize = SpilloverBuffer.RECORD_OVERHEAD + message(0).length;
+    SpilloverBuffer buffer = track(SpilloverBuffer.builder(folder.newFolder())
+        .segmentBytes(SEGMENT_BYTES).maxBytes(SEGMENT_BYTES * 2)
+        .replayBytesPerSecond(recordSize * 20).build());
+    for (int i = 0; i < 10; i++) buffer.spill(message(i), 1);
+
+    long start = System.nanoTime();
+    buffer.startReplay(replayer);
+    awaitPendingSpans(buffer, 0);
+
+    // 10 records at 20 per second
+    assertThat(System.nanoTime() - start).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(400));
+  }
+
+  @Test public void directoryIsLocked() throws Exception {
+    File directory = folder.newFolder();
+    SpilloverBuffer first = build(directory);
+
+    try {
+      build(directory);
+      throw new AssertionError("expected the second buffer to fail");
+    } catch (IOException expected) {
+      assertThat(expected).hasMessageContaining("in use");
+    }
+
+    // the lock is released on close
+    first.close();
+    build(directory);
+  }
+
+  @Test public void failedOpenReleasesLock() throws Exception {
+    File directory = folder.newFolder();
+    try {
+      SpilloverBuffer.builder(directory).segmentBytes(SEGMENT_BYTES)
+          .maxBytes(SEGMENT_BYTES * (SpilloverBuffer.MAX_SEGMENTS + 1L)).build();
+      throw new AssertionError("expected too many segments to fail");
+    } catch (IllegalArgumentException expected) {
+    }
+
+    build(directory);
+  }
+
+  @Test public void spillAfterCloseIsDropped() throws Exception {
+    SpilloverBuffer buffer = open(SEGMENT_BYTES * 2);
+    buffer.close();
+
+    assertThat(buffer.spill(message(0), 1)).isFalse();
+    assertThat(buffer.droppedSpans()).isEqualTo(1);
+  }
+
+  SpilloverBuffer open(long maxBytes) throws IOException {
+    return track(SpilloverBuffer.builder(folder.newFolder())
+        .segmentBytes(SEGMENT_BYTES).maxBytes(maxBytes).build());
+  }
+
+  SpilloverBuffer build(File directory) throws IOException {
+    return track(SpilloverBuffer.builder(directory)
+        .segmentBytes(SEGMENT_BYTES).maxBytes(SEGMENT_BYTES * 2).build());
+  }
+
+  SpilloverBuffer track(SpilloverBuffer buffer) {
+    buffers.add(buffer);
+    return buffer;
+  }
+
+  static int recordsPerSegment() {
+    int recordSize = SpilloverBuffer.RECORD_OVERHEAD + message(0).length;
+    return (SEGMENT_BYTES - SpilloverBuffer.HEADER_SIZE) / recordSize;
+  }
+
+  /** Messages are the same size, so tests can calculate records per segment */
+  static byte[] message(int i) {
+    return String.format("message-%04d", i).getBytes();
+  }
+
+  static void awaitPendingSpans(SpilloverBuffer buffer, int expected) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (buffer.pendingSpans() != expected && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(buffer.pendingSpans()).isEqualTo(expected);
+  }
+
+  static void corrupt(File file, long position) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      raf.seek(position);
+      int b = raf.read();
+      raf.seek(position);
+      raf.write(b ^ 0xff);
+    }
+  }
+}
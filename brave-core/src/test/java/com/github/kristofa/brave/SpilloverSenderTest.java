@@ -0,0 +1,124 @@
+package com.github.kristofa.brave;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.Sender;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpilloverSenderTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  AtomicBoolean up = new AtomicBoolean();
+  BlockingQueue<List<String>> sent = new LinkedBlockingQueue<>();
+  Sender delegate = new Sender() {
+    @Override public Encoding encoding() {
+      return Encoding.JSON;
+    }
+
+    @Override public int messageMaxBytes() {
+      return 1024;
+    }
+
+    @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+      return Encoding.JSON.listSizeInBytes(encodedSpans);
+    }
+
+    @Override public void sendSpans(List<byte[]> encodedSpans, Callback callback) {
+      if (!up.get()) {
+        callback.onError(new IOException("down"));
+        return;
+      }
+      List<String> strings = new ArrayList<>();
+      for (byte[] encodedSpan : encodedSpans) strings.add(new String(encodedSpan));
+      sent.add(strings);
+      callback.onComplete();
+    }
+
+    @Override public CheckResult check() {
+      return CheckResult.OK;
+    }
+
+    @Override public void close() {
+    }
+  };
+
+  SpilloverBuffer spillover;
+  SpilloverSender sender;
+
+  @Before public void setup() throws IOException {
+    spillover = SpilloverBuffer.builder(folder.newFolder())
+        .segmentBytes(1024).maxBytes(1024 * 2).build();
+    sender = SpilloverSender.create(delegate, spillover);
+  }
+
+  @After public void close() throws IOException {
+    sender.close();
+  }
+
+  @Test public void passesThroughWhenUp() throws Exception {
+    up.set(true);
+    AtomicReference<Throwable> error = new AtomicReference<>();
+
+    sender.sendSpans(encoded("a", "b"), callback(error));
+
+    assertThat(sent.poll(1, TimeUnit.SECONDS)).containsExactly("a", "b");
+    assertThat(spillover.spilledSpans()).isZero();
+  }
+
+  @Test public void spillsWhenDown_replaysWhenUp() throws Exception {
+    AtomicReference<Throwable> error = new AtomicReference<>();
+
+    sender.sendSpans(encoded("a", "b"), callback(error));
+    sender.sendSpans(encoded("c"), callback(error));
+
+    assertThat(error.get()).isNull(); // spilled isn't an error
+    assertThat(spillover.pendingSpans()).isEqualTo(3);
+
+    up.set(true);
+    spillover.wake();
+
+    assertThat(sent.poll(5, TimeUnit.SECONDS)).containsExactly("a", "b");
+    assertThat(sent.poll(5, TimeUnit.SECONDS)).containsExactly("c");
+  }
+
+  @Test public void reportsErrorWhenSpillFails() throws Exception {
+    AtomicReference<Throwable> error = new AtomicReference<>();
+
+    byte[] tooLarge = new byte[1024];
+    sender.sendSpans(Arrays.asList(tooLarge), callback(error));
+
+    assertThat(error.get()).hasMessage("down");
+  }
+
+  static List<byte[]> encoded(String... spans) {
+    List<byte[]> result = new ArrayList<>();
+    for (String span : spans) result.add(span.getBytes());
+    return result;
+  }
+
+  static Callback callback(AtomicReference<Throwable> error) {
+    return new Callback() {
+      @Override public void onComplete() {
+      }
+
+      @Override public void onError(Throwable t) {
+        error.set(t);
+      }
+    };
+  }
+}
@@ -0,0 +1,92 @@
+package com.github.kristofa.brave;
+
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.Span;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import zipkin.Constants;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TraceGrouperTest {
+  TraceGrouper grouper = new TraceGrouper();
+
+  @Test public void groupsInOrderOfFirstSpan() {
+    Span a1 = child(0, 1L, 1), b1 = child(0, 2L, 1), a2 = child(0, 1L, 2), c1 = child(0, 3L, 1),
+        b2 = child(0, 2L, 2), a3 = child(0, 1L, 3);
+    List<Span> spans = new ArrayList<>(Arrays.asList(a1, b1, a2, c1, b2, a3));
+
+    grouper.group(spans);
+
+    assertThat(spans).containsExactly(a1, a2, a3, b1, b2, c1);
+  }
+
+  @Test public void keysOn128BitTraceId() {
+    Span a1 = child(1L, 1L, 1), b1 = child(2L, 1L, 1), a2 = child(1L, 1L, 2),
+        b2 = child(2L, 1L, 2);
+    List<Span> spans = new ArrayList<>(Arrays.asList(a1, b1, a2, b2));
+
+    grouper.group(spans);
+
+    assertThat(spans).containsExactly(a1, a2, b1, b2);
+  }
+
+  /** Enough traces to collide in the table, and reused across batches of different sizes. */
+  @Test public void manyTraces() {
+    for (int traces : new int[] {100, 10, 1000}) {
+      List<Span> spans = new ArrayList<>();
+      for (int span = 1; span <= 3; span++) {
+        for (long traceId = 1; traceId <= traces; traceId++) spans.add(child(0, traceId, span));
+      }
+
+      grouper.group(spans);
+
+      for (int i = 0; i < spans.size(); i++) {
+        assertThat(spans.get(i).getTrace_id()).isEqualTo(i / 3 + 1);
+        assertThat(spans.get(i).getId()).isEqualTo(i % 3 + 1);
+      }
+    }
+  }
+
+  @Test public void missingLocalRoot() {
+    List<Span> spans = new ArrayList<>(Arrays.asList(root(1L), child(0, 1L, 2), child(0, 2L, 2)));
+
+    assertThat(grouper.group(spans)).isTrue();
+  }
+
+  @Test public void rootsArePresent() {
+    List<Span> spans = new ArrayList<>(Arrays.asList(child(0, 1L, 2), root(1L), serverSpan(2L)));
+
+    assertThat(grouper.group(spans)).isFalse();
+  }
+
+  @Test public void isLocalRoot() {
+    assertThat(TraceGrouper.isLocalRoot(root(1L))).isTrue();
+    assertThat(TraceGrouper.isLocalRoot(serverSpan(1L))).isTrue();
+    assertThat(TraceGrouper.isLocalRoot(child(0, 1L, 2))).isFalse();
+  }
+
+  @Test public void emptyBatch() {
+    List<Span> spans = new ArrayList<>();
+
+    assertThat(grouper.group(spans)).isFalse();
+    assertThat(spans).isEmpty();
+  }
+
+  static Span root(long traceId) {
+    return Brave.toSpan(SpanId.builder().traceId(traceId).spanId(traceId).build());
+  }
+
+  /** A span joined from a remote parent, so a local root despite having a parent. */
+  static Span serverSpan(long traceId) {
+    return child(0, traceId, 1)
+        .addToAnnotations(Annotation.create(1L, Constants.SERVER_RECV, null));
+  }
+
+  static Span child(long traceIdHigh, long traceId, long spanId) {
+    return Brave.toSpan(SpanId.builder().traceIdHigh(traceIdHigh).traceId(traceId)
+        .parentId(spanId + 1000).spanId(spanId).build());
+  }
+}
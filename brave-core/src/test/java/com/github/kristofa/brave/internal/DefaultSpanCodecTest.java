@@ -2,13 +2,22 @@ package com.github.kristofa.brave.internal;
 
 import com.github.kristofa.brave.SpanId;
 import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.AnnotationType;
 import com.twitter.zipkin.gen.BinaryAnnotation;
 import com.twitter.zipkin.gen.Endpoint;
 import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import org.junit.Test;
+import zipkin.Codec;
 import zipkin.Constants;
 
 import static com.github.kristofa.brave.internal.DefaultSpanCodec.newSpan;
+import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.Assert.assertEquals;
 
 public class DefaultSpanCodecTest {
@@ -56,4 +65,68 @@ public class DefaultSpanCodecTest {
     byte[] encoded = DefaultSpanCodec.JSON.writeSpan(span);
     assertEquals(span, DefaultSpanCodec.JSON.readSpan(encoded));
   }
+
+  /** Writing directly should produce the same bytes as converting to a zipkin span first. */
+  @Test
+  public void writesSameBytesAsZipkin_thrift() {
+    span = allFields();
+
+    assertThat(DefaultSpanCodec.THRIFT.writeSpan(span))
+        .isEqualTo(Codec.THRIFT.writeSpan(DefaultSpanCodec.toZipkin(span)));
+    assertThat(DefaultSpanCodec.THRIFT.writeSpans(Arrays.asList(span, span)))
+        .isEqualTo(Codec.THRIFT.writeSpans(Arrays.asList(
+            DefaultSpanCodec.toZipkin(span), DefaultSpanCodec.toZipkin(span))));
+  }
+
+  @Test
+  public void writesSameBytesAsZipkin_json() {
+    span = allFields();
+
+    assertThat(new String(DefaultSpanCodec.JSON.writeSpan(span), Util.UTF_8))
+        .isEqualTo(new String(Codec.JSON.writeSpan(DefaultSpanCodec.toZipkin(span)), Util.UTF_8));
+    assertThat(DefaultSpanCodec.JSON.writeSpans(Arrays.asList(span, span)))
+        .isEqualTo(Codec.JSON.writeSpans(Arrays.asList(
+            DefaultSpanCodec.toZipkin(span), DefaultSpanCodec.toZipkin(span))));
+  }
+
+  @Test
+  public void writeSpansToStream_sameBytesAsArray() throws IOException {
+    span = allFields();
+
+    for (SpanCodec codec : Arrays.asList(DefaultSpanCodec.JSON, DefaultSpanCodec.THRIFT,
+        V2SpanCodec.JSON, V2SpanCodec.PROTO3)) {
+      for (List<Span> spans : Arrays.asList(Arrays.<Span>asList(), Arrays.asList(span, span))) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DefaultSpanCodec.writeSpans(codec, spans, out);
+
+        assertThat(out.toByteArray()).isEqualTo(codec.writeSpans(spans));
+      }
+    }
+  }
+
+  /** Annotations are in timestamp order and binary annotations in key order, as zipkin sorts. */
+  Span allFields() {
+    return newSpan(SpanId.builder().traceIdHigh(7L).traceId(-1L).parentId(1L).spanId(2L)
+        .debug(true).build())
+        .setName("GET /api")
+        .setTimestamp(1444438900939000L)
+        .setDuration(376000L)
+        .addToAnnotations(Annotation.create(1444438900939000L, Constants.SERVER_RECV, web))
+        .addToAnnotations(Annotation.create(1444438900940000L, "\"quoted\"\n\u2603", null))
+        .addToAnnotations(Annotation.create(1444438901315000L, Constants.SERVER_SEND, web))
+        .addToBinary_annotations(BinaryAnnotation.create("bool", new byte[] {1},
+            AnnotationType.BOOL, web))
+        .addToBinary_annotations(BinaryAnnotation.create("bytes", new byte[] {1, 2, 3, -1},
+            AnnotationType.BYTES, web))
+        .addToBinary_annotations(BinaryAnnotation.address(Constants.CLIENT_ADDR, browser))
+        .addToBinary_annotations(BinaryAnnotation.create("double",
+            ByteBuffer.allocate(8).putDouble(1.5).array(), AnnotationType.DOUBLE, web))
+        .addToBinary_annotations(BinaryAnnotation.create("http.path", "/api?q=\u00e9", web))
+        .addToBinary_annotations(BinaryAnnotation.create("i16", new byte[] {-1, -2},
+            AnnotationType.I16, web))
+        .addToBinary_annotations(BinaryAnnotation.create("i32",
+            ByteBuffer.allocate(4).putInt(-3).array(), AnnotationType.I32, web))
+        .addToBinary_annotations(BinaryAnnotation.create("i64",
+            ByteBuffer.allocate(8).putLong(Long.MAX_VALUE).array(), AnnotationType.I64, web));
+  }
 }
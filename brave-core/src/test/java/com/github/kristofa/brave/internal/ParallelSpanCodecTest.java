@@ -0,0 +1,129 @@
+package com.github.kristofa.brave.internal;
+
+import com.github.kristofa.brave.SpanId;
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.After;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.Constants;
+
+import static com.github.kristofa.brave.internal.DefaultSpanCodec.newSpan;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class ParallelSpanCodecTest {
+  static {
+    InternalSpan.initializeInstanceForTests();
+  }
+
+  Endpoint frontend = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+  List<ParallelSpanCodec> codecs = new ArrayList<>();
+
+  @After public void close() {
+    codecs.forEach(ParallelSpanCodec::close);
+  }
+
+  @Test public void sameBytesAsSerial_json() {
+    sameBytesAsSerial(SpanCodec.JSON);
+  }
+
+  @Test public void sameBytesAsSerial_thrift() {
+    sameBytesAsSerial(SpanCodec.THRIFT);
+  }
+
+  /** Includes a count that doesn't divide evenly into chunks, and spans of varying size. */
+  void sameBytesAsSerial(SpanCodec delegate) {
+    ParallelSpanCodec codec = track(ParallelSpanCodec.create(delegate, 3, 10));
+    for (int count : new int[] {10, 1000, 5003}) {
+      List<Span> spans = spans(count);
+      assertThat(codec.writeSpans(spans))
+          .isEqualTo(delegate.writeSpans(spans));
+    }
+  }
+
+  @Test public void thriftMessageIsReadable() {
+    ParallelSpanCodec codec = track(ParallelSpanCodec.create(SpanCodec.THRIFT, 2, 10));
+    List<Span> spans = spans(1000);
+
+    List<zipkin.Span> read = Codec.THRIFT.readSpans(codec.writeSpans(spans));
+    assertThat(read).hasSize(1000);
+    assertThat(read.get(999).id).isEqualTo(spans.get(999).getId());
+  }
+
+  @Test public void emptyList() {
+    ParallelSpanCodec codec = track(ParallelSpanCodec.create(SpanCodec.JSON, 2, 1));
+
+    assertThat(codec.writeSpans(Collections.emptyList()))
+        .isEqualTo(SpanCodec.JSON.writeSpans(Collections.emptyList()));
+  }
+
+  /** Codecs defined elsewhere can't be split, so are encoded on the calling thread. */
+  @Test public void otherCodecsAreSerial() {
+    List<Thread> threads = new ArrayList<>();
+    SpanCodec other = new SpanCodec() {
+      @Override public byte[] writeSpan(Span span) {
+        return SpanCodec.JSON.writeSpan(span);
+      }
+
+      @Override public byte[] writeSpans(List<Span> spans) {
+        threads.add(Thread.currentThread());
+        return SpanCodec.JSON.writeSpans(spans);
+      }
+
+      @Override public Span readSpan(byte[] bytes) {
+        return SpanCodec.JSON.readSpan(bytes);
+      }
+    };
+    ParallelSpanCodec codec = track(ParallelSpanCodec.create(other, 2, 10));
+
+    codec.writeSpans(spans(1000));
+    assertThat(threads).containsExactly(Thread.currentThread());
+  }
+
+  @Test public void closedIsSerial() {
+    ParallelSpanCodec codec = ParallelSpanCodec.create(SpanCodec.JSON, 2, 10);
+    codec.close();
+
+    List<Span> spans = spans(1000);
+    assertThat(codec.writeSpans(spans)).isEqualTo(SpanCodec.JSON.writeSpans(spans));
+  }
+
+  @Test public void parallelismMustBePositive() {
+    try {
+      ParallelSpanCodec.create(SpanCodec.JSON, 0);
+      failBecauseExceptionWasNotThrown(IllegalArgumentException.class);
+    } catch (IllegalArgumentException e) {
+      assertThat(e).hasMessage("parallelism <= 0");
+    }
+  }
+
+  List<Span> spans(int count) {
+    List<Span> result = new ArrayList<>(count);
+    for (long i = 1; i <= count; i++) {
+      Span span = newSpan(SpanId.builder().traceId(i).spanId(i).build())
+          .setName("get")
+          .setTimestamp(1472470996199000L + i)
+          .setDuration(i)
+          .addToAnnotations(Annotation.create(1472470996199000L + i, Constants.SERVER_RECV,
+              frontend));
+      // vary the size of spans, so chunks don't match the size hint
+      for (int j = 0; j < i % 5; j++) {
+        span.addToBinary_annotations(BinaryAnnotation.create("tag" + j, "value" + i, frontend));
+      }
+      result.add(span);
+    }
+    return result;
+  }
+
+  ParallelSpanCodec track(ParallelSpanCodec codec) {
+    codecs.add(codec);
+    return codec;
+  }
+}
@@ -0,0 +1,219 @@
+package com.github.kristofa.brave.internal;
+
+import com.github.kristofa.brave.SpanId;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import zipkin.Annotation;
+import zipkin.BinaryAnnotation;
+import zipkin.Codec;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+
+import static com.github.kristofa.brave.internal.DefaultSpanCodec.newSpan;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class V2SpanCodecTest {
+  static {
+    InternalSpan.initializeInstanceForTests();
+  }
+
+  Endpoint frontend = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+  Endpoint backend = Endpoint.builder().serviceName("backend")
+      .ipv4(192 << 24 | 168 << 16 | 99 << 8 | 101).port(9000).build();
+
+  Span clientSpan = Span.builder().traceId(1L).parentId(2L).id(3L).name("get")
+      .timestamp(1472470996199000L).duration(207000L)
+      .addAnnotation(Annotation.create(1472470996199000L, Constants.CLIENT_SEND, frontend))
+      .addAnnotation(Annotation.create(1472470996238000L, Constants.WIRE_SEND, frontend))
+      .addAnnotation(Annotation.create(1472470996403000L, Constants.WIRE_RECV, frontend))
+      .addAnnotation(Annotation.create(1472470996406000L, Constants.CLIENT_RECV, frontend))
+      .addBinaryAnnotation(BinaryAnnotation.create("http.path", "/api", frontend))
+      .addBinaryAnnotation(BinaryAnnotation.address(Constants.SERVER_ADDR, backend))
+      .build();
+
+  @Test public void json_clientSpan() {
+    assertThat(new String(V2SpanCodec.JSON.encode(clientSpan), Util.UTF_8)).isEqualTo("{"
+        + "\"traceId\":\"0000000000000001\",\"parentId\":\"0000000000000002\","
+        + "\"id\":\"0000000000000003\",\"kind\":\"CLIENT\",\"name\":\"get\","
+        + "\"timestamp\":1472470996199000,\"duration\":207000,"
+        + "\"localEndpoint\":{\"serviceName\":\"frontend\",\"ipv4\":\"127.0.0.1\",\"port\":8080},"
+        + "\"remoteEndpoint\":{\"serviceName\":\"backend\",\"ipv4\":\"192.168.99.101\","
+        + "\"port\":9000},"
+        + "\"annotations\":[{\"timestamp\":1472470996238000,\"value\":\"ws\"},"
+        + "{\"timestamp\":1472470996403000,\"value\":\"wr\"}],"
+        + "\"tags\":{\"http.path\":\"/api\"}}");
+  }
+
+  /** A server joining a client's span doesn't set its timestamp, so the span is shared. */
+  @Test public void json_sharedServerSpan() {
+    Span span = Span.builder().traceId(1L).id(3L).name("get")
+        .addAnnotation(Annotation.create(1472470996250000L, Constants.SERVER_RECV, backend))
+        .addAnnotation(Annotation.create(1472470996350000L, Constants.SERVER_SEND, backend))
+        .addBinaryAnnotation(BinaryAnnotation.address(Constants.CLIENT_ADDR, frontend))
+        .build();
+
+    assertThat(new String(V2SpanCodec.JSON.encode(span), Util.UTF_8)).isEqualTo("{"
+        + "\"traceId\":\"0000000000000001\",\"id\":\"0000000000000003\",\"kind\":\"SERVER\","
+        + "\"name\":\"get\",\"timestamp\":1472470996250000,\"duration\":100000,"
+        + "\"localEndpoint\":{\"serviceName\":\"backend\",\"ipv4\":\"192.168.99.101\","
+        + "\"port\":9000},"
+        + "\"remoteEndpoint\":{\"serviceName\":\"frontend\",\"ipv4\":\"127.0.0.1\",\"port\":8080},"
+        + "\"shared\":true}");
+  }
+
+  @Test public void json_localSpan() {
+    Span span = Span.builder().traceIdHigh(9L).traceId(1L).id(1L).name("encode")
+        .timestamp(1472470996199000L).duration(10L).debug(true)
+        .addBinaryAnnotation(BinaryAnnotation.create(Constants.LOCAL_COMPONENT, "codec", frontend))
+        .addBinaryAnnotation(BinaryAnnotation.builder().key("retries")
+            .type(BinaryAnnotation.Type.I32).value(new byte[] {0, 0, 0, 3})
+            .endpoint(frontend).build())
+        .build();
+
+    assertThat(new String(V2SpanCodec.JSON.encode(span), Util.UTF_8)).isEqualTo("{"
+        + "\"traceId\":\"00000000000000090000000000000001\",\"id\":\"0000000000000001\","
+        + "\"name\":\"encode\",\"timestamp\":1472470996199000,\"duration\":10,"
+        + "\"localEndpoint\":{\"serviceName\":\"frontend\",\"ipv4\":\"127.0.0.1\",\"port\":8080},"
+        + "\"tags\":{\"lc\":\"codec\",\"retries\":\"3\"},\"debug\":true}");
+  }
+
+  @Test public void json_escapesStrings() {
+    Span span = Span.builder().traceId(1L).id(1L).name("\"quoted\"\n")
+        .addBinaryAnnotation(BinaryAnnotation.create("error", "tab\there \u2603", frontend))
+        .build();
+
+    assertThat(new String(V2SpanCodec.JSON.encode(span), Util.UTF_8))
+        .contains("\"name\":\"\\\"quoted\\\"\\n\"")
+        .contains("\"tags\":{\"error\":\"tab\\there \u2603\"}");
+  }
+
+  @Test public void json_list() {
+    String list = new String(V2SpanCodec.JSON.encodeList(Arrays.asList(clientSpan, clientSpan)),
+        Util.UTF_8);
+    String span = new String(V2SpanCodec.JSON.encode(clientSpan), Util.UTF_8);
+
+    assertThat(list).isEqualTo("[" + span + "," + span + "]");
+  }
+
+  @Test public void json_brave3Span() {
+    com.twitter.zipkin.gen.Span span = newSpan(SpanId.builder().spanId(1L).build())
+        .setName("get")
+        .setTimestamp(1472470996199000L);
+    span.addToAnnotations(com.twitter.zipkin.gen.Annotation.create(1472470996199000L, "cs",
+        com.twitter.zipkin.gen.Endpoint.create("frontend", 127 << 24 | 1)));
+
+    assertThat(new String(V2SpanCodec.JSON.writeSpan(span), Util.UTF_8)).isEqualTo("{"
+        + "\"traceId\":\"0000000000000001\",\"id\":\"0000000000000001\",\"kind\":\"CLIENT\","
+        + "\"name\":\"get\",\"timestamp\":1472470996199000,"
+        + "\"localEndpoint\":{\"serviceName\":\"frontend\",\"ipv4\":\"127.0.0.1\"}}");
+  }
+
+  @Test public void proto3_clientSpan() {
+    byte[] encoded = V2SpanCodec.PROTO3.encode(clientSpan);
+    List<Field> fields = parse(encoded);
+
+    assertThat(fields).extracting(f -> f.number)
+        .containsExactly(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 10, 11);
+    assertThat(fields.get(0).bytes).isEqualTo(bigEndian(1L));
+    assertThat(fields.get(2).bytes).isEqualTo(bigEndian(3L));
+    assertThat(fields.get(3).value).isEqualTo(1L); // CLIENT
+    assertThat(new String(fields.get(4).bytes, Util.UTF_8)).isEqualTo("get");
+    assertThat(fields.get(5).value).isEqualTo(1472470996199000L);
+    assertThat(fields.get(6).value).isEqualTo(207000L);
+
+    List<Field> localEndpoint = parse(fields.get(7).bytes);
+    assertThat(new String(localEndpoint.get(0).bytes, Util.UTF_8)).isEqualTo("frontend");
+    assertThat(localEndpoint.get(1).bytes).containsExactly(127, 0, 0, 1);
+    assertThat(localEndpoint.get(2).value).isEqualTo(8080L);
+
+    List<Field> annotation = parse(fields.get(9).bytes);
+    assertThat(annotation.get(0).value).isEqualTo(1472470996238000L);
+    assertThat(new String(annotation.get(1).bytes, Util.UTF_8)).isEqualTo("ws");
+
+    List<Field> tag = parse(fields.get(11).bytes);
+    assertThat(new String(tag.get(0).bytes, Util.UTF_8)).isEqualTo("http.path");
+    assertThat(new String(tag.get(1).bytes, Util.UTF_8)).isEqualTo("/api");
+  }
+
+  @Test public void proto3_list() {
+    byte[] span = V2SpanCodec.PROTO3.encode(clientSpan);
+    List<Field> list = parse(V2SpanCodec.PROTO3.encodeList(Arrays.asList(clientSpan, clientSpan)));
+
+    assertThat(list).extracting(f -> f.number).containsExactly(1, 1);
+    assertThat(list.get(0).bytes).isEqualTo(span);
+    assertThat(list.get(1).bytes).isEqualTo(span);
+  }
+
+  @Test public void proto3_brave3List() {
+    com.twitter.zipkin.gen.Span span = DefaultSpanCodec.fromZipkin(clientSpan);
+    Span converted = DefaultSpanCodec.toZipkin(span);
+
+    assertThat(V2SpanCodec.PROTO3.writeSpans(Arrays.asList(span, span)))
+        .isEqualTo(V2SpanCodec.PROTO3.encodeList(Arrays.asList(converted, converted)));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void readSpan_unsupported() {
+    V2SpanCodec.JSON.readSpan(V2SpanCodec.JSON.encode(clientSpan));
+  }
+
+  @Test public void v2IsSmallerThanV1() {
+    int v1Json = Codec.JSON.writeSpan(clientSpan).length;
+    int v1Thrift = Codec.THRIFT.writeSpan(clientSpan).length;
+
+    assertThat(V2SpanCodec.JSON.encode(clientSpan).length).isLessThan(v1Json);
+    assertThat(V2SpanCodec.PROTO3.encode(clientSpan).length).isLessThan(v1Thrift);
+  }
+
+  static final class Field {
+    int number;
+    long value; // varint or fixed64
+    byte[] bytes; // length-delimited
+  }
+
+  /** Parses the fields of a proto3 message, for the wire types spans use. */
+  static List<Field> parse(byte[] message) {
+    ByteBuffer buffer = ByteBuffer.wrap(message);
+    List<Field> result = new ArrayList<>();
+    while (buffer.hasRemaining()) {
+      Field field = new Field();
+      int key = (int) readVarint(buffer);
+      field.number = key >>> 3;
+      switch (key & 7) {
+        case 0:
+          field.value = readVarint(buffer);
+          break;
+        case 1:
+          field.value = buffer.order(ByteOrder.LITTLE_ENDIAN).getLong();
+          buffer.order(ByteOrder.BIG_ENDIAN);
+          break;
+        case 2:
+          field.bytes = new byte[(int) readVarint(buffer)];
+          buffer.get(field.bytes);
+          break;
+        default:
+          throw new AssertionError("unexpected wire type " + (key & 7));
+      }
+      result.add(field);
+    }
+    return result;
+  }
+
+  static long readVarint(ByteBuffer buffer) {
+    long result = 0;
+    for (int shift = 0; ; shift += 7) {
+      byte b = buffer.get();
+      result |= (long) (b & 0x7f) << shift;
+      if (b >= 0) return result;
+    }
+  }
+
+  static byte[] bigEndian(long v) {
+    return ByteBuffer.allocate(8).putLong(v).array();
+  }
+}
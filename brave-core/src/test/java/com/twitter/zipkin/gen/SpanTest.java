@@ -1,6 +1,8 @@
 package com.twitter.zipkin.gen;
 
 import com.github.kristofa.brave.SpanId;
+import com.github.kristofa.brave.internal.InternalSpan;
+import java.util.Collections;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -58,6 +60,18 @@ public class SpanTest {
     new Span(SpanId.builder().spanId(1L).build()).getBinary_annotations().add(null);
   }
 
+  @Test
+  public void hasError_whenErrorAnnotationAdded() {
+    Span span = new Span(SpanId.builder().spanId(1L).build());
+    assertThat(InternalSpan.instance.hasError(span)).isFalse();
+
+    span.addToBinary_annotations(BinaryAnnotation.create("error", "timeout", null));
+    assertThat(InternalSpan.instance.hasError(span)).isTrue();
+
+    span.setBinaryAnnotations(Collections.emptyList());
+    assertThat(InternalSpan.instance.hasError(span)).isFalse();
+  }
+
   @Test
   public void toStringIsJson() {
     long traceId = -692101025335252320L;
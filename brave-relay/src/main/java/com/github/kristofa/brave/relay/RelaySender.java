@@ -0,0 +1,213 @@
+package com.github.kristofa.brave.relay;
+
+import com.github.kristofa.brave.SpanDictionary;
+import com.github.kristofa.brave.internal.Nullable;
+import com.google.auto.value.AutoValue;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import zipkin.reporter.BytesMessageEncoder;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.Sender;
+
+/**
+ * Sends spans to a {@link SpanRelay} on the same host, over one loopback TCP connection.
+ *
+ * <p>Each message is a list of spans, prefixed by its length as a 4-byte big-endian integer. The
+ * relay doesn't respond, so sending costs a write to the socket buffer, without the request and
+ * response headers of http. Unlike UDP, messages aren't limited to a packet, and aren't lost when
+ * the relay is momentarily busy: the write blocks until there's room instead.
+ *
+ * <p>The connection is opened on first send, and again after an error. This can be used with
+ * {@link zipkin.reporter.AsyncReporter} in Brave 4.
+ */
+public final class RelaySender implements Sender {
+  /** Default maximum size of a message: large enough to batch, small enough to not stall. */
+  static final int DEFAULT_MESSAGE_MAX_BYTES = 512 * 1024;
+  /** Thrift list header: element type, then count */
+  static final int THRIFT_LIST_HEADER = 5;
+
+  @AutoValue
+  public static abstract class Config {
+    public static Builder builder() {
+      return new AutoValue_RelaySender_Config.Builder()
+          .encoding(Encoding.THRIFT)
+          .messageMaxBytes(DEFAULT_MESSAGE_MAX_BYTES);
+    }
+
+    abstract Encoding encoding();
+
+    abstract int messageMaxBytes();
+
+    @Nullable abstract SpanDictionary compressionDictionary();
+
+    @AutoValue.Builder
+    public interface Builder {
+      /** Default {@link Encoding#THRIFT}, which is smaller and cheaper to decode than json. */
+      Builder encoding(Encoding encoding);
+
+      /**
+       * Default 512KiB. Must not exceed the relay's {@link SpanRelay.Config.Builder#messageMaxBytes
+       * limit}, or it will close the connection.
+       */
+      Builder messageMaxBytes(int messageMaxBytes);
+
+      /**
+       * Default null, which sends messages uncompressed. Otherwise, each message is deflated with
+       * this dictionary. The relay must be {@link SpanRelay.Config.Builder#compressionDictionary
+       * configured} with the same one, or it drops the message as malformed.
+       */
+      Builder compressionDictionary(@Nullable SpanDictionary compressionDictionary);
+
+      Config build();
+    }
+  }
+
+  /**
+   * @param host usually "127.0.0.1", as the relay listens on the loopback interface
+   * @param port TCP port of the relay, usually {@link SpanRelay#DEFAULT_PORT}
+   */
+  public static RelaySender create(String host, int port) {
+    return new RelaySender(new InetSocketAddress(host, port), Config.builder().build());
+  }
+
+  /**
+   * @param host usually "127.0.0.1", as the relay listens on the loopback interface
+   * @param port TCP port of the relay, usually {@link SpanRelay#DEFAULT_PORT}
+   * @param config includes encoding and message size
+   */
+  public static RelaySender create(String host, int port, Config config) {
+    return new RelaySender(new InetSocketAddress(host, port), config);
+  }
+
+  final InetSocketAddress address;
+  final Encoding encoding;
+  final BytesMessageEncoder encoder;
+  final int messageMaxBytes;
+  final SpanDictionary dictionary; // null when not compressing
+  final ByteBuffer header = ByteBuffer.allocate(4); // guarded by this
+  SocketChannel channel; // guarded by this, opened on first send
+  volatile boolean closeCalled;
+
+  RelaySender(InetSocketAddress address, Config config) {
+    if (address.isUnresolved()) {
+      throw new IllegalArgumentException("couldn't resolve " + address.getHostString());
+    }
+    if (config.messageMaxBytes() <= 0) throw new IllegalArgumentException("messageMaxBytes <= 0");
+    this.address = address;
+    this.encoding = config.encoding();
+    this.encoder = BytesMessageEncoder.forEncoding(encoding);
+    this.messageMaxBytes = config.messageMaxBytes();
+    this.dictionary = config.compressionDictionary();
+  }
+
+  @Override public Encoding encoding() {
+    return encoding;
+  }
+
+  @Override public int messageMaxBytes() {
+    return messageMaxBytes;
+  }
+
+  /**
+   * Same as {@link Encoding#listSizeInBytes}, but iterates instead of indexing the list, which is a
+   * linked list when called by {@link zipkin.reporter.AsyncReporter}.
+   */
+  @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+    int sizeInBytes = 0, count = 0;
+    for (byte[] span : encodedSpans) {
+      sizeInBytes += span.length;
+      count++;
+    }
+    if (encoding == Encoding.THRIFT) return THRIFT_LIST_HEADER + sizeInBytes;
+    return count > 1 ? 2 + sizeInBytes + count - 1 : 2 + sizeInBytes; // brackets and commas
+  }
+
+  /** Writes the message to the connection, completing the callback before returning. */
+  @Override public void sendSpans(List<byte[]> encodedSpans, Callback callback) {
+    if (closeCalled) {
+      callback.onError(new IllegalStateException("closed"));
+      return;
+    }
+    try {
+      byte[] message = encoder.encode(encodedSpans);
+      send(dictionary != null ? dictionary.compress(message) : message);
+    } catch (IOException e) {
+      callback.onError(e);
+      return;
+    } catch (RuntimeException e) {
+      callback.onError(e);
+      return;
+    }
+    callback.onComplete();
+  }
+
+  synchronized void send(byte[] message) throws IOException {
+    if (message.length > messageMaxBytes) {
+      throw new IOException("message of " + message.length + " bytes exceeds " + messageMaxBytes);
+    }
+    SocketChannel channel = channel();
+    header.clear();
+    header.putInt(message.length).flip();
+    ByteBuffer[] buffers = {header, ByteBuffer.wrap(message)};
+    try {
+      while (buffers[1].hasRemaining()) channel.write(buffers);
+    } catch (IOException e) {
+      closeChannel(); // a partial message would corrupt the stream, so reconnect next time
+      throw e;
+    }
+  }
+
+  SocketChannel channel() throws IOException {
+    if (closeCalled) throw new IllegalStateException("closed");
+    if (channel == null) {
+      SocketChannel channel = SocketChannel.open();
+      try {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.connect(address);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      this.channel = channel;
+    }
+    return channel;
+  }
+
+  void closeChannel() {
+    if (channel == null) return;
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+    }
+    channel = null;
+  }
+
+  /** Connects to the relay, if not already. */
+  @Override public CheckResult check() {
+    try {
+      synchronized (this) {
+        channel();
+      }
+      return CheckResult.OK;
+    } catch (IOException e) {
+      return CheckResult.failed(e);
+    } catch (RuntimeException e) {
+      return CheckResult.failed(e);
+    }
+  }
+
+  @Override public synchronized void close() {
+    if (closeCalled) return;
+    closeCalled = true;
+    closeChannel();
+  }
+
+  @Override public String toString() {
+    return "RelaySender(" + address + ")";
+  }
+}
@@ -0,0 +1,480 @@
+package com.github.kristofa.brave.relay;
+
+import com.github.kristofa.brave.DependencyLinks;
+import com.github.kristofa.brave.LinkReporter;
+import com.github.kristofa.brave.SenderLinkReporter;
+import com.github.kristofa.brave.SpanDictionary;
+import com.github.kristofa.brave.internal.Nullable;
+import com.github.kristofa.brave.http.NioHttpSender;
+import com.github.kristofa.brave.udp.UdpSender;
+import com.google.auto.value.AutoValue;
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.reporter.AsyncReporter;
+import zipkin.reporter.Reporter;
+
+/**
+ * Receives spans from tracers on the same host, and passes them to one reporter, which batches
+ * spans of all processes into large messages sent over one connection pool. This replaces the
+ * queue, thread and connections each process would otherwise hold to Zipkin.
+ *
+ * <p>Tracers send lists of spans, encoded as thrift or json, either in UDP packets with {@link
+ * UdpSender}, or as length-prefixed messages over a loopback TCP connection with {@link
+ * RelaySender}. The latter isn't limited to a packet, and doesn't lose messages when the relay is
+ * busy. Each message is decoded on the thread that received it, so that spans can be re-batched.
+ * Messages deflated with a {@link SpanDictionary} are inflated first, when the relay holds the
+ * same dictionary.
+ *
+ * <p>Messages can also hold dependency links, sent with a {@link SenderLinkReporter}. These are
+ * passed to the {@link LinkReporter} the relay was created with, or discarded without one.
+ *
+ * <p>A daemon thread receives packets, and another accepts connections, each of which is read by
+ * its own daemon thread. This suits the handful of processes on a host, not remote clients.
+ */
+public final class SpanRelay implements Closeable {
+  static final Logger logger = Logger.getLogger(SpanRelay.class.getName());
+
+  /** Default port of both the UDP and the TCP listener */
+  public static final int DEFAULT_PORT = 9412;
+  /** Largest payload of an IPv4 UDP packet */
+  static final int MAX_PACKET_BYTES = 65535 - 20 - 8;
+  /** How a json message of dependency links starts, as written by {@link DependencyLinks} */
+  static final byte[] LINKS_PREFIX = "[{\"parent\"".getBytes(StandardCharsets.UTF_8);
+
+  @AutoValue
+  public static abstract class Config {
+    public static Builder builder() {
+      return new AutoValue_SpanRelay_Config.Builder()
+          .address(InetAddress.getLoopbackAddress())
+          .udpPort(DEFAULT_PORT)
+          .tcpPort(DEFAULT_PORT)
+          .messageMaxBytes(RelaySender.DEFAULT_MESSAGE_MAX_BYTES);
+    }
+
+    abstract InetAddress address();
+
+    abstract int udpPort();
+
+    abstract int tcpPort();
+
+    abstract int messageMaxBytes();
+
+    @Nullable abstract SpanDictionary compressionDictionary();
+
+    @AutoValue.Builder
+    public interface Builder {
+      /**
+       * Default loopback. The relay is meant for tracers on the same host, so only listen on
+       * another interface when they run in containers without access to the host's loopback.
+       */
+      Builder address(InetAddress address);
+
+      /** Default 9412. 0 implies an ephemeral port, and -1 implies no UDP listener. */
+      Builder udpPort(int udpPort);
+
+      /** Default 9412. 0 implies an ephemeral port, and -1 implies no TCP listener. */
+      Builder tcpPort(int tcpPort);
+
+      /**
+       * Default 512KiB. Maximum size of a message received over TCP. A connection sending a larger
+       * message is closed, as it's not speaking the relay's protocol.
+       */
+      Builder messageMaxBytes(int messageMaxBytes);
+
+      /**
+       * Default null, which drops deflated messages as malformed. Otherwise, the dictionary of
+       * {@link RelaySender.Config.Builder#compressionDictionary senders that compress}. Their
+       * messages are inflated before decoding, and others are read as usual.
+       */
+      Builder compressionDictionary(@Nullable SpanDictionary compressionDictionary);
+
+      Config build();
+    }
+  }
+
+  /**
+   * Listens on the default ports of the loopback interface, and reports spans to the reporter.
+   * The caller owns the reporter, so closes it after this.
+   */
+  public static SpanRelay create(Reporter<Span> reporter) throws IOException {
+    return create(reporter, Config.builder().build());
+  }
+
+  /**
+   * @param reporter usually an {@link AsyncReporter}, whose sender has a large {@link
+   * zipkin.reporter.Sender#messageMaxBytes() message size}. The caller owns the reporter, so closes
+   * it after this.
+   * @param config includes ports to listen on
+   */
+  public static SpanRelay create(Reporter<Span> reporter, Config config) throws IOException {
+    if (reporter == null) throw new NullPointerException("reporter == null");
+    return new SpanRelay(reporter, null, config);
+  }
+
+  /**
+   * Like {@link #create(Reporter, Config)}, except dependency links received are passed to the
+   * link reporter, on the thread that received them.
+   */
+  public static SpanRelay create(Reporter<Span> reporter, LinkReporter linkReporter,
+      Config config) throws IOException {
+    if (reporter == null) throw new NullPointerException("reporter == null");
+    if (linkReporter == null) throw new NullPointerException("linkReporter == null");
+    return new SpanRelay(reporter, linkReporter, config);
+  }
+
+  final Reporter<Span> reporter;
+  final LinkReporter linkReporter; // null when links are discarded
+  final int messageMaxBytes;
+  final SpanDictionary dictionary; // null when deflated messages are malformed
+  final DatagramChannel udp; // null when disabled
+  final ServerSocket tcp; // null when disabled
+  final List<Thread> listeners = new ArrayList<Thread>(2); // only written by the constructor
+  /** Open connections and the threads reading them, which remove themselves when done */
+  final ConcurrentMap<Socket, Thread> connections = new ConcurrentHashMap<Socket, Thread>();
+  final AtomicLong messages = new AtomicLong();
+  final AtomicLong spans = new AtomicLong();
+  final AtomicLong links = new AtomicLong();
+  final AtomicLong malformedMessages = new AtomicLong();
+  final AtomicLong acceptedConnections = new AtomicLong();
+  volatile boolean closeCalled;
+
+  SpanRelay(Reporter<Span> reporter, LinkReporter linkReporter, Config config)
+      throws IOException {
+    if (config.messageMaxBytes() <= 0) throw new IllegalArgumentException("messageMaxBytes <= 0");
+    this.reporter = reporter;
+    this.linkReporter = linkReporter;
+    this.messageMaxBytes = config.messageMaxBytes();
+    this.dictionary = config.compressionDictionary();
+    DatagramChannel udp = null;
+    ServerSocket tcp = null;
+    try {
+      if (config.udpPort() >= 0) {
+        udp = DatagramChannel.open();
+        // a large buffer absorbs bursts from many processes while packets are decoded
+        udp.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+        udp.bind(new InetSocketAddress(config.address(), config.udpPort()));
+      }
+      if (config.tcpPort() >= 0) {
+        tcp = new ServerSocket();
+        tcp.setReuseAddress(true);
+        tcp.bind(new InetSocketAddress(config.address(), config.tcpPort()), 50);
+      }
+    } catch (IOException e) {
+      if (udp != null) udp.close();
+      if (tcp != null) tcp.close();
+      throw e;
+    }
+    this.udp = udp;
+    this.tcp = tcp;
+    if (udp != null) {
+      listeners.add(startThread(new Runnable() {
+        @Override public void run() {
+          receiveLoop();
+        }
+      }, "SpanRelay-udp"));
+    }
+    if (tcp != null) {
+      listeners.add(startThread(new Runnable() {
+        @Override public void run() {
+          acceptLoop();
+        }
+      }, "SpanRelay-tcp"));
+    }
+  }
+
+  /** Port receiving UDP packets, or -1 if disabled. */
+  public int udpPort() {
+    return udp != null ? udp.socket().getLocalPort() : -1;
+  }
+
+  /** Port accepting TCP connections, or -1 if disabled. */
+  public int tcpPort() {
+    return tcp != null ? tcp.getLocalPort() : -1;
+  }
+
+  /** Count of packets and TCP messages received. */
+  public long messages() {
+    return messages.get();
+  }
+
+  /** Count of spans decoded and passed to the reporter. */
+  public long spans() {
+    return spans.get();
+  }
+
+  /** Count of dependency links decoded, whether passed to a link reporter or discarded. */
+  public long links() {
+    return links.get();
+  }
+
+  /** Count of packets and TCP messages which couldn't be decoded. */
+  public long malformedMessages() {
+    return malformedMessages.get();
+  }
+
+  /** Count of TCP connections accepted since the relay started. */
+  public long acceptedConnections() {
+    return acceptedConnections.get();
+  }
+
+  /** Count of TCP connections currently open. */
+  public int openConnections() {
+    return connections.size();
+  }
+
+  void receiveLoop() {
+    ByteBuffer buffer = ByteBuffer.allocate(MAX_PACKET_BYTES);
+    while (true) {
+      buffer.clear();
+      try {
+        udp.receive(buffer);
+      } catch (ClosedChannelException e) {
+        return;
+      } catch (IOException e) {
+        logger.log(Level.FINE, "couldn't receive packet", e);
+        continue;
+      }
+      byte[] packet = new byte[buffer.position()];
+      System.arraycopy(buffer.array(), 0, packet, 0, packet.length);
+      relay(packet);
+    }
+  }
+
+  void acceptLoop() {
+    while (!closeCalled) {
+      final Socket socket;
+      try {
+        socket = tcp.accept();
+      } catch (IOException e) {
+        if (closeCalled) return;
+        logger.log(Level.FINE, "couldn't accept connection", e);
+        continue;
+      }
+      acceptedConnections.incrementAndGet();
+      Thread reader = newThread(new Runnable() {
+        @Override public void run() {
+          try {
+            readLoop(socket);
+          } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+          }
+        }
+      }, "SpanRelay-tcp-" + socket.getPort());
+      connections.put(socket, reader);
+      if (closeCalled) { // raced with close
+        connections.remove(socket);
+        closeQuietly(socket);
+        return;
+      }
+      reader.start();
+    }
+  }
+
+  /** Reads messages, each prefixed by its length as a 4-byte big-endian integer. */
+  void readLoop(Socket socket) {
+    try {
+      DataInputStream in =
+          new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+      while (true) {
+        int length;
+        try {
+          length = in.readInt();
+        } catch (EOFException e) {
+          return; // the tracer closed its connection
+        }
+        if (length <= 0 || length > messageMaxBytes) {
+          malformedMessages.incrementAndGet();
+          logger.fine("closing " + socket + ": message length " + length + " is invalid");
+          return;
+        }
+        byte[] message = new byte[length];
+        in.readFully(message);
+        relay(message);
+      }
+    } catch (IOException e) {
+      if (!closeCalled) logger.log(Level.FINE, "closing " + socket, e);
+    }
+  }
+
+  /** Decodes a list of spans, and passes each to the reporter. */
+  void relay(byte[] message) {
+    messages.incrementAndGet();
+    if (isDeflated(message)) {
+      try {
+        if (dictionary == null) throw new ZipException("no dictionary configured");
+        message = dictionary.decompress(message);
+      } catch (ZipException e) {
+        malformedMessages.incrementAndGet();
+        logger.log(Level.FINE, "couldn't inflate message", e);
+        return;
+      }
+    }
+    if (isLinks(message)) {
+      relayLinks(message);
+      return;
+    }
+    List<Span> decoded;
+    try {
+      decoded = message.length > 0 && message[0] == '['
+          ? Codec.JSON.readSpans(message)
+          : Codec.THRIFT.readSpans(message);
+    } catch (RuntimeException e) {
+      malformedMessages.incrementAndGet();
+      logger.log(Level.FINE, "couldn't decode message", e);
+      return;
+    }
+    spans.addAndGet(decoded.size());
+    for (int i = 0, length = decoded.size(); i < length; i++) {
+      reporter.report(decoded.get(i));
+    }
+  }
+
+  /** Decodes a list of dependency links, and passes them to the link reporter, if any. */
+  void relayLinks(byte[] message) {
+    List<DependencyLinks.Link> decoded;
+    try {
+      decoded = DependencyLinks.readJson(message);
+    } catch (RuntimeException e) {
+      malformedMessages.incrementAndGet();
+      logger.log(Level.FINE, "couldn't decode links", e);
+      return;
+    }
+    links.addAndGet(decoded.size());
+    if (linkReporter == null) {
+      logger.fine("discarding " + decoded.size() + " links, as there's no link reporter");
+      return;
+    }
+    try {
+      linkReporter.report(decoded);
+    } catch (RuntimeException e) {
+      logger.log(Level.FINE, "couldn't report links", e);
+    }
+  }
+
+  static boolean isLinks(byte[] message) {
+    if (message.length < LINKS_PREFIX.length) return false;
+    for (int i = 0; i < LINKS_PREFIX.length; i++) {
+      if (message[i] != LINKS_PREFIX[i]) return false;
+    }
+    return true;
+  }
+
+  /**
+   * True if the message starts with a zlib header naming a preset dictionary, as written by {@link
+   * SpanDictionary#compress}. Neither json nor thrift lists can start this way.
+   */
+  static boolean isDeflated(byte[] message) {
+    if (message.length < 2) return false;
+    int cmf = message[0] & 0xff, flg = message[1] & 0xff;
+    return (cmf & 0x0f) == 8 // deflate
+        && (flg & 0x20) != 0 // preset dictionary
+        && (cmf << 8 | flg) % 31 == 0; // header checksum
+  }
+
+  static Thread startThread(Runnable runnable, String name) {
+    Thread thread = newThread(runnable, name);
+    thread.start();
+    return thread;
+  }
+
+  static Thread newThread(Runnable runnable, String name) {
+    Thread thread = new Thread(runnable, name);
+    thread.setDaemon(true);
+    return thread;
+  }
+
+  /** Stops listening, closes connections, and waits for the relay's threads to exit. */
+  @Override public void close() throws IOException {
+    if (closeCalled) return;
+    closeCalled = true;
+    if (udp != null) udp.close();
+    if (tcp != null) tcp.close();
+    try {
+      // once the acceptor exits, no connections are added
+      for (Thread listener : listeners) listener.join();
+      List<Thread> readers = new ArrayList<Thread>(connections.values());
+      for (Socket socket : connections.keySet()) closeQuietly(socket);
+      for (Thread reader : readers) reader.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  static void closeQuietly(Socket socket) {
+    try {
+      socket.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  @Override public String toString() {
+    return "SpanRelay(udpPort=" + udpPort() + ", tcpPort=" + tcpPort() + ")";
+  }
+
+  /**
+   * Runs a relay on the default ports, forwarding spans to the Zipkin server at the given url.
+   * Spans are gzipped and sent in messages of up to 5MiB, over at most two pipelined connections.
+   * Zipkin doesn't accept dependency links, so those are logged as json instead.
+   *
+   * <p>Usage: {@code SpanRelay http://zipkin:9411/ [port]}
+   */
+  public static void main(String... args) throws IOException, InterruptedException {
+    if (args.length < 1 || args.length > 2) {
+      System.err.println("Usage: SpanRelay <zipkin base url> [port]");
+      System.exit(1);
+    }
+    int port = args.length == 2 ? Integer.parseInt(args[1]) : DEFAULT_PORT;
+    final NioHttpSender sender = NioHttpSender.create(args[0], NioHttpSender.Config.builder()
+        .compressionEnabled(true)
+        .maxConnections(2)
+        .maxRequestsPerConnection(2)
+        .build());
+    final AsyncReporter<Span> reporter = AsyncReporter.builder(sender)
+        .messageTimeout(1, TimeUnit.SECONDS)
+        .build();
+    LinkReporter linkLogger = new LinkReporter() {
+      @Override public void report(List<DependencyLinks.Link> links) {
+        logger.info(new String(DependencyLinks.writeJson(links), StandardCharsets.UTF_8));
+      }
+    };
+    final SpanRelay relay =
+        create(reporter, linkLogger, Config.builder().udpPort(port).tcpPort(port).build());
+    Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+      @Override public void run() {
+        try {
+          relay.close();
+        } catch (IOException ignored) {
+        }
+        reporter.flush(); // send what's pending before closing
+        reporter.close();
+        sender.close();
+      }
+    }, "SpanRelay-shutdown"));
+    logger.info(relay + " forwarding to " + sender);
+    Thread.currentThread().join(); // relay threads are daemons, so run until the process is killed
+  }
+}
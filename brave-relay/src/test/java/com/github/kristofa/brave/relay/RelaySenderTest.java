@@ -0,0 +1,146 @@
+package com.github.kristofa.brave.relay;
+
+import com.github.kristofa.brave.SpanDictionary;
+import java.io.DataInputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.Component.CheckResult;
+import zipkin.Span;
+import zipkin.reporter.AsyncReporter;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.internal.AwaitableCallback;
+
+import static com.github.kristofa.brave.relay.SpanRelayTest.span;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RelaySenderTest {
+  ServerSocket server;
+  RelaySender sender;
+
+  @After public void close() throws Exception {
+    if (sender != null) sender.close();
+    if (server != null) server.close();
+  }
+
+  @Test public void prefixesMessageWithLength() throws Exception {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    sender = RelaySender.create("127.0.0.1", server.getLocalPort());
+
+    SpanRelayTest.send(sender, span(1L), span(2L));
+
+    try (Socket socket = server.accept()) {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      byte[] message = new byte[in.readInt()];
+      in.readFully(message);
+      assertThat(Codec.THRIFT.readSpans(message)).containsExactly(span(1L), span(2L));
+    }
+  }
+
+  @Test public void deflatesWithDictionary() throws Exception {
+    SpanDictionary dictionary = SpanDictionary.create();
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    sender = RelaySender.create("127.0.0.1", server.getLocalPort(),
+        RelaySender.Config.builder().compressionDictionary(dictionary).build());
+
+    SpanRelayTest.send(sender, span(1L), span(2L));
+
+    try (Socket socket = server.accept()) {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      byte[] message = new byte[in.readInt()];
+      in.readFully(message);
+      assertThat(SpanRelay.isDeflated(message)).isTrue();
+      assertThat(Codec.THRIFT.readSpans(dictionary.decompress(message)))
+          .containsExactly(span(1L), span(2L));
+    }
+  }
+
+  @Test public void messageSizeInBytes() {
+    for (Encoding encoding : Encoding.values()) {
+      sender = RelaySender.create("127.0.0.1", 9,
+          RelaySender.Config.builder().encoding(encoding).build());
+      for (int count : new int[] {0, 1, 3}) {
+        List<byte[]> spans = new LinkedList<>();
+        for (int i = 0; i < count; i++) spans.add(SpanRelayTest.encode(encoding, span(1L)));
+
+        assertThat(sender.messageSizeInBytes(spans))
+            .isEqualTo(encoding.listSizeInBytes(spans));
+      }
+    }
+  }
+
+  @Test public void reconnectsAfterError() throws Exception {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    sender = RelaySender.create("127.0.0.1", server.getLocalPort());
+    assertThat(sender.check()).isEqualTo(CheckResult.OK);
+    server.accept().close(); // the relay restarted
+
+    // eventually, writes to the closed connection fail
+    for (int i = 0; i < 100 && sender.channel != null; i++) {
+      AwaitableCallback callback = new AwaitableCallback();
+      sender.sendSpans(Arrays.asList(Codec.THRIFT.writeSpan(span(1L))), callback);
+      try {
+        callback.await();
+        Thread.sleep(10);
+      } catch (RuntimeException expected) {
+      }
+    }
+    assertThat(sender.channel).isNull();
+
+    SpanRelayTest.send(sender, span(2L));
+    try (Socket socket = server.accept()) {
+      DataInputStream in = new DataInputStream(socket.getInputStream());
+      byte[] message = new byte[in.readInt()];
+      in.readFully(message);
+      assertThat(Codec.THRIFT.readSpans(message)).containsExactly(span(2L));
+    }
+  }
+
+  @Test public void check_failsWhenRelayIsntListening() throws Exception {
+    server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+    int port = server.getLocalPort();
+    server.close();
+    sender = RelaySender.create("127.0.0.1", port);
+
+    assertThat(sender.check().exception).isNotNull();
+  }
+
+  @Test public void worksWithAsyncReporter() throws Exception {
+    SpanRelayTest test = new SpanRelayTest();
+    test.relay = test.relay(SpanRelay.Config.builder());
+    try {
+      sender = RelaySender.create("127.0.0.1", test.relay.tcpPort());
+      AsyncReporter<Span> reporter = AsyncReporter.builder(sender)
+          .messageTimeout(0, TimeUnit.SECONDS)
+          .build();
+
+      reporter.report(span(1L));
+      reporter.report(span(2L));
+      reporter.flush();
+
+      assertThat(test.take(2)).containsExactly(span(1L), span(2L));
+    } finally {
+      test.close();
+    }
+  }
+
+  @Test public void sendAfterCloseFails() throws Exception {
+    sender = RelaySender.create("127.0.0.1", 9);
+    sender.close();
+
+    AwaitableCallback callback = new AwaitableCallback();
+    sender.sendSpans(Arrays.asList(Codec.THRIFT.writeSpan(span(1L))), callback);
+    try {
+      callback.await();
+      throw new AssertionError("expected failure");
+    } catch (IllegalStateException expected) {
+    }
+  }
+}
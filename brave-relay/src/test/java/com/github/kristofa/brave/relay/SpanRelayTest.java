@@ -0,0 +1,355 @@
+package com.github.kristofa.brave.relay;
+
+import com.github.kristofa.brave.Brave;
+import com.github.kristofa.brave.ClientRequestAdapter;
+import com.github.kristofa.brave.DependencyLinks;
+import com.github.kristofa.brave.KeyValueAnnotation;
+import com.github.kristofa.brave.Sampler;
+import com.github.kristofa.brave.SenderLinkReporter;
+import com.github.kristofa.brave.SpanDictionary;
+import com.github.kristofa.brave.SpanId;
+import com.github.kristofa.brave.TraceKeys;
+import com.github.kristofa.brave.udp.UdpSender;
+import com.twitter.zipkin.gen.Endpoint;
+import java.io.DataOutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.reporter.AsyncReporter;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.Sender;
+import zipkin.reporter.internal.AwaitableCallback;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SpanRelayTest {
+  BlockingQueue<Span> spans = new LinkedBlockingQueue<>();
+  SpanRelay relay;
+  List<Sender> senders = new ArrayList<>();
+
+  @After public void close() throws Exception {
+    for (Sender sender : senders) sender.close();
+    if (relay != null) relay.close();
+  }
+
+  @Test public void relaysUdpPackets() throws Exception {
+    relay = relay(SpanRelay.Config.builder());
+    UdpSender sender = add(UdpSender.create("127.0.0.1", relay.udpPort()));
+
+    send(sender, span(1L), span(2L));
+
+    assertThat(take(2)).containsExactly(span(1L), span(2L));
+    assertThat(relay.messages()).isEqualTo(1);
+  }
+
+  @Test public void relaysTcpMessages_thrift() throws Exception {
+    relaysTcpMessages(Encoding.THRIFT);
+  }
+
+  @Test public void relaysTcpMessages_json() throws Exception {
+    relaysTcpMessages(Encoding.JSON);
+  }
+
+  void relaysTcpMessages(Encoding encoding) throws Exception {
+    relay = relay(SpanRelay.Config.builder());
+    RelaySender sender = add(RelaySender.create("127.0.0.1", relay.tcpPort(),
+        RelaySender.Config.builder().encoding(encoding).build()));
+
+    send(sender, span(1L), span(2L));
+    send(sender, span(3L));
+
+    assertThat(take(3)).containsExactly(span(1L), span(2L), span(3L));
+    assertThat(relay.messages()).isEqualTo(2);
+    assertThat(relay.acceptedConnections()).isEqualTo(1);
+  }
+
+  /** The point of the relay: spans of many processes leave in one message. */
+  @Test public void batchesSpansOfAllSenders() throws Exception {
+    List<List<byte[]>> messages = new CopyOnWriteArrayList<>();
+    AsyncReporter<Span> reporter = AsyncReporter.builder(new RecordingSender(messages))
+        .messageTimeout(0, TimeUnit.SECONDS).build();
+    relay = SpanRelay.create(s -> {
+      reporter.report(s);
+      spans.add(s);
+    }, SpanRelay.Config.builder().udpPort(0).tcpPort(0).build());
+
+    for (long i = 1; i <= 5; i++) {
+      send(add(RelaySender.create("127.0.0.1", relay.tcpPort())), span(i));
+      send(add(UdpSender.create("127.0.0.1", relay.udpPort())), span(i + 10));
+    }
+    take(10);
+    reporter.flush();
+    reporter.close();
+
+    assertThat(messages).hasSize(1);
+    assertThat(messages.get(0)).hasSize(10);
+    assertThat(relay.acceptedConnections()).isEqualTo(5);
+  }
+
+  /** Links aggregated by a tracer reach the relay's link reporter over the same sender. */
+  @Test public void relaysDependencyLinks() throws Exception {
+    BlockingQueue<DependencyLinks.Link> links = new LinkedBlockingQueue<>();
+    relay = SpanRelay.create(spans::add, links::addAll,
+        SpanRelay.Config.builder().udpPort(0).tcpPort(0).build());
+    RelaySender sender = add(RelaySender.create("127.0.0.1", relay.tcpPort(),
+        RelaySender.Config.builder().encoding(Encoding.JSON).build()));
+    // interval of 0 so that the test flushes explicitly
+    DependencyLinks dependencyLinks =
+        DependencyLinks.create("frontend", SenderLinkReporter.create(sender), 0, 10);
+
+    Brave brave = new Brave.Builder("frontend")
+        .traceSampler(Sampler.NEVER_SAMPLE)
+        .dependencyLinks(dependencyLinks).build();
+
+    clientRequest(brave, "200");
+    clientRequest(brave, "500");
+    dependencyLinks.flush();
+    send(sender, span(1L)); // spans share the connection
+
+    DependencyLinks.Link link = links.poll(5, TimeUnit.SECONDS);
+    assertThat(link).isNotNull();
+    assertThat(link.parent).isEqualTo("frontend");
+    assertThat(link.child).isEqualTo("backend");
+    assertThat(link.callCount).isEqualTo(2);
+    assertThat(link.errorCount).isEqualTo(1);
+    assertThat(take(1)).containsExactly(span(1L));
+    assertThat(relay.links()).isEqualTo(1);
+    assertThat(relay.spans()).isEqualTo(1);
+  }
+
+  static void clientRequest(Brave brave, String statusCode) {
+    brave.clientRequestInterceptor().handle(new ClientRequestAdapter() {
+      @Override public String getSpanName() {
+        return "get";
+      }
+
+      @Override public void addSpanIdToRequest(SpanId spanId) {
+      }
+
+      @Override public Collection<KeyValueAnnotation> requestAnnotations() {
+        return Collections.emptyList();
+      }
+
+      @Override public Endpoint serverAddress() {
+        return Endpoint.create("backend", 127 << 24 | 1);
+      }
+    });
+    brave.clientResponseInterceptor().handle(() -> Collections.singletonList(
+        KeyValueAnnotation.create(TraceKeys.HTTP_STATUS_CODE, statusCode)));
+  }
+
+  @Test public void discardsLinksWithoutLinkReporter() throws Exception {
+    relay = relay(SpanRelay.Config.builder());
+    RelaySender sender = add(RelaySender.create("127.0.0.1", relay.tcpPort(),
+        RelaySender.Config.builder().encoding(Encoding.JSON).build()));
+
+    SenderLinkReporter.create(sender).report(Arrays.asList(
+        new DependencyLinks.Link("frontend", "backend", 1, 0, 1472470996199000L, 60000000L)));
+    send(sender, span(1L));
+
+    assertThat(take(1)).containsExactly(span(1L));
+    assertThat(relay.links()).isEqualTo(1);
+    assertThat(relay.malformedMessages()).isZero();
+  }
+
+  @Test public void countsMalformedMessages() throws Exception {
+    relay = relay(SpanRelay.Config.builder());
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), relay.tcpPort())) {
+      DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+      out.writeInt(3);
+      out.write(new byte[] {'[', 'n', 'o'});
+      out.writeInt(Codec.THRIFT.writeSpans(Arrays.asList(span(1L))).length);
+      out.write(Codec.THRIFT.writeSpans(Arrays.asList(span(1L))));
+      out.flush();
+
+      // the connection survives a message that can't be decoded
+      assertThat(take(1)).containsExactly(span(1L));
+      assertThat(relay.malformedMessages()).isEqualTo(1);
+    }
+  }
+
+  @Test public void relaysDeflatedMessages() throws Exception {
+    SpanDictionary dictionary = SpanDictionary.create();
+    relay = relay(SpanRelay.Config.builder().compressionDictionary(dictionary));
+    RelaySender deflating = add(RelaySender.create("127.0.0.1", relay.tcpPort(),
+        RelaySender.Config.builder().compressionDictionary(dictionary).build()));
+    RelaySender plain = add(RelaySender.create("127.0.0.1", relay.tcpPort()));
+
+    send(deflating, span(1L), span(2L));
+    send(plain, span(3L));
+
+    assertThat(take(3)).containsOnly(span(1L), span(2L), span(3L));
+    assertThat(relay.malformedMessages()).isZero();
+  }
+
+  @Test public void countsDeflatedMessagesOfUnknownDictionaryAsMalformed() throws Exception {
+    relay = relay(SpanRelay.Config.builder().compressionDictionary(SpanDictionary.create()));
+    SpanDictionary other = SpanDictionary.fromByteArray("\"get\"".getBytes(UTF_8));
+    RelaySender sender = add(RelaySender.create("127.0.0.1", relay.tcpPort(),
+        RelaySender.Config.builder().compressionDictionary(other).build()));
+
+    send(sender, span(1L));
+    send(add(RelaySender.create("127.0.0.1", relay.tcpPort())), span(2L));
+
+    assertThat(take(1)).containsExactly(span(2L));
+    awaitMalformedMessages(1);
+  }
+
+  @Test public void countsDeflatedMessagesWithoutDictionaryAsMalformed() throws Exception {
+    relay = relay(SpanRelay.Config.builder());
+    RelaySender deflating = add(RelaySender.create("127.0.0.1", relay.tcpPort(),
+        RelaySender.Config.builder().compressionDictionary(SpanDictionary.create()).build()));
+
+    send(deflating, span(1L));
+    send(deflating, span(2L)); // the connection survives
+
+    awaitMalformedMessages(2);
+    assertThat(relay.spans()).isZero();
+  }
+
+  @Test public void isDeflated() {
+    byte[] json = Codec.JSON.writeSpans(Arrays.asList(span(1L)));
+    byte[] thrift = Codec.THRIFT.writeSpans(Arrays.asList(span(1L)));
+
+    assertThat(SpanRelay.isDeflated(SpanDictionary.create().compress(json))).isTrue();
+    assertThat(SpanRelay.isDeflated(json)).isFalse();
+    assertThat(SpanRelay.isDeflated(thrift)).isFalse();
+    assertThat(SpanRelay.isDeflated(new byte[0])).isFalse();
+  }
+
+  @Test public void closesConnectionSendingInvalidLength() throws Exception {
+    relay = relay(SpanRelay.Config.builder().messageMaxBytes(1024));
+    try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), relay.tcpPort())) {
+      new DataOutputStream(socket.getOutputStream()).writeInt(1025);
+
+      assertThat(socket.getInputStream().read()).isEqualTo(-1);
+      assertThat(relay.malformedMessages()).isEqualTo(1);
+    }
+  }
+
+  @Test public void close_closesConnections() throws Exception {
+    relay = relay(SpanRelay.Config.builder());
+    RelaySender sender = add(RelaySender.create("127.0.0.1", relay.tcpPort()));
+    send(sender, span(1L));
+    take(1);
+    assertThat(relay.openConnections()).isEqualTo(1);
+
+    relay.close();
+
+    assertThat(relay.openConnections()).isZero();
+  }
+
+  @Test public void releasesReaderWhenConnectionCloses() throws Exception {
+    relay = relay(SpanRelay.Config.builder());
+    for (int i = 0; i < 3; i++) {
+      try (RelaySender sender = RelaySender.create("127.0.0.1", relay.tcpPort())) {
+        send(sender, span(i + 1L));
+        take(1);
+      }
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (relay.openConnections() > 0 && System.nanoTime() < deadline) Thread.sleep(10);
+    assertThat(relay.connections).isEmpty(); // no reference to the reader threads remains
+    assertThat(relay.listeners).hasSize(2);
+    assertThat(relay.acceptedConnections()).isEqualTo(3);
+  }
+
+  @Test public void disabledListeners() throws Exception {
+    relay = relay(SpanRelay.Config.builder().udpPort(-1).tcpPort(-1));
+
+    assertThat(relay.udpPort()).isEqualTo(-1);
+    assertThat(relay.tcpPort()).isEqualTo(-1);
+  }
+
+  SpanRelay relay(SpanRelay.Config.Builder config) throws Exception {
+    // ephemeral ports, unless disabled by the test
+    SpanRelay.Config defaults = config.build();
+    if (defaults.udpPort() == SpanRelay.DEFAULT_PORT) config.udpPort(0);
+    if (defaults.tcpPort() == SpanRelay.DEFAULT_PORT) config.tcpPort(0);
+    return SpanRelay.create(spans::add, config.build());
+  }
+
+  void awaitMalformedMessages(long count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (relay.malformedMessages() < count && System.nanoTime() < deadline) Thread.sleep(10);
+    assertThat(relay.malformedMessages()).isEqualTo(count);
+  }
+
+  <S extends Sender> S add(S sender) {
+    senders.add(sender);
+    return sender;
+  }
+
+  List<Span> take(int count) throws InterruptedException {
+    List<Span> result = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      Span span = spans.poll(5, TimeUnit.SECONDS);
+      assertThat(span).withFailMessage("timed out waiting for span " + (i + 1)).isNotNull();
+      result.add(span);
+    }
+    return result;
+  }
+
+  static void send(Sender sender, Span... spans) {
+    List<byte[]> encoded = new ArrayList<>();
+    for (Span span : spans) encoded.add(encode(sender.encoding(), span));
+    AwaitableCallback callback = new AwaitableCallback();
+    sender.sendSpans(encoded, callback);
+    callback.await();
+  }
+
+  static byte[] encode(Encoding encoding, Span span) {
+    return encoding == Encoding.JSON ? Codec.JSON.writeSpan(span) : Codec.THRIFT.writeSpan(span);
+  }
+
+  static Span span(long traceId) {
+    return Span.builder().traceId(traceId).id(traceId).name("get").build();
+  }
+
+  static final class RecordingSender implements Sender {
+    final List<List<byte[]>> messages;
+
+    RecordingSender(List<List<byte[]>> messages) {
+      this.messages = messages;
+    }
+
+    @Override public Encoding encoding() {
+      return Encoding.THRIFT;
+    }
+
+    @Override public int messageMaxBytes() {
+      return 5 * 1024 * 1024;
+    }
+
+    @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+      return Encoding.THRIFT.listSizeInBytes(encodedSpans);
+    }
+
+    @Override public void sendSpans(List<byte[]> encodedSpans, Callback callback) {
+      messages.add(encodedSpans);
+      callback.onComplete();
+    }
+
+    @Override public CheckResult check() {
+      return CheckResult.OK;
+    }
+
+    @Override public void close() {
+    }
+  }
+}
@@ -0,0 +1,275 @@
+package com.github.kristofa.brave.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin.reporter.Encoder;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.Reporter;
+import zipkin.reporter.ReporterMetrics;
+
+import static com.github.kristofa.brave.internal.Util.checkNotBlank;
+import static com.github.kristofa.brave.internal.Util.checkNotNull;
+
+/**
+ * Appends spans to local files, for hosts where an agent ships files instead of the application
+ * connecting to Zipkin.
+ *
+ * <p>Spans are encoded on the calling thread and queued to a single writer thread, which copies
+ * them into a large direct buffer and writes it to a {@link java.nio.channels.FileChannel}. When
+ * the queue is full, spans are dropped, so a slow disk never blocks the application.
+ *
+ * <p>Files are written in one of two formats:
+ * <ul>
+ *   <li>{@link Encoding#JSON}: newline-delimited json, one span per line, in "spans.ndjson"</li>
+ *   <li>{@link Encoding#THRIFT}: each TBinaryProtocol span prefixed by its length as a 4-byte big
+ *   endian integer, in "spans.thrift"</li>
+ * </ul>
+ *
+ * <p>The active file is rotated when it would exceed its size limit, or when it has been open for
+ * the rotate interval. Rotated files are named like "spans-20161118T103000.123.ndjson", and can be
+ * gzipped in the background. Rotated files are never deleted: that's up to the shipping agent.
+ */
+public final class FileReporter implements Reporter<zipkin.Span>, Flushable, Closeable {
+  static final Logger logger = Logger.getLogger(FileReporter.class.getName());
+
+  /** Queued by {@link #flush()} and {@link #close()} to wake the writer. */
+  static final byte[] FLUSH = new byte[0];
+  static final long MAX_WAIT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  public static Builder builder(File directory) {
+    return new Builder(directory);
+  }
+
+  public static final class Builder {
+    final File directory;
+    Encoding encoding = Encoding.JSON;
+    String fileName = "spans";
+    long maxFileBytes = 100 * 1024 * 1024;
+    long rotateIntervalNanos = TimeUnit.HOURS.toNanos(1);
+    boolean compressRotated = false;
+    int queuedMaxSpans = 10000;
+    int bufferBytes = 1024 * 1024;
+    ReporterMetrics metrics = ReporterMetrics.NOOP_METRICS;
+
+    Builder(File directory) {
+      this.directory = checkNotNull(directory, "Null directory");
+    }
+
+    /** Default {@link Encoding#JSON}. */
+    public Builder encoding(Encoding encoding) {
+      this.encoding = checkNotNull(encoding, "Null encoding");
+      return this;
+    }
+
+    /** Default "spans". Name of the active file, before its extension. */
+    public Builder fileName(String fileName) {
+      this.fileName = checkNotBlank(fileName, "Null or blank fileName");
+      return this;
+    }
+
+    /** Default 100MiB. The active file is rotated before a span would push it over this size. */
+    public Builder maxFileBytes(long maxFileBytes) {
+      if (maxFileBytes <= 0) throw new IllegalArgumentException("maxFileBytes <= 0");
+      this.maxFileBytes = maxFileBytes;
+      return this;
+    }
+
+    /** Default 1 hour. Maximum time the active file is open before rotation. 0 disables this. */
+    public Builder rotateInterval(long interval, TimeUnit unit) {
+      if (interval < 0) throw new IllegalArgumentException("interval < 0");
+      this.rotateIntervalNanos = unit.toNanos(interval);
+      return this;
+    }
+
+    /** Default false. True gzips rotated files in the background, appending ".gz" to their name. */
+    public Builder compressRotated(boolean compressRotated) {
+      this.compressRotated = compressRotated;
+      return this;
+    }
+
+    /** Default 10000. Spans waiting for the writer, after which spans are dropped. */
+    public Builder queuedMaxSpans(int queuedMaxSpans) {
+      if (queuedMaxSpans <= 0) throw new IllegalArgumentException("queuedMaxSpans <= 0");
+      this.queuedMaxSpans = queuedMaxSpans;
+      return this;
+    }
+
+    /** Default 1MiB. Size of the direct buffer spans are copied into before each write. */
+    public Builder bufferBytes(int bufferBytes) {
+      if (bufferBytes < 1024) throw new IllegalArgumentException("bufferBytes < 1024");
+      this.bufferBytes = bufferBytes;
+      return this;
+    }
+
+    /** Default no-op. Messages count writes to the file. */
+    public Builder metrics(ReporterMetrics metrics) {
+      this.metrics = checkNotNull(metrics, "Null metrics");
+      return this;
+    }
+
+    /** Opens the active file, appending if it exists, and starts the writer thread. */
+    public FileReporter build() throws IOException {
+      return new FileReporter(this);
+    }
+  }
+
+  final Encoder<zipkin.Span> encoder;
+  final ReporterMetrics metrics;
+  final BlockingQueue<byte[]> queue;
+  final RotatingFileWriter writer;
+  final ExecutorService compressor; // null when rotated files aren't compressed
+  final Thread thread;
+  long flushesRequested, flushesCompleted; // guarded by this
+  volatile boolean closed;
+
+  FileReporter(Builder builder) throws IOException {
+    encoder = builder.encoding == Encoding.JSON ? Encoder.JSON : Encoder.THRIFT;
+    metrics = builder.metrics;
+    queue = new ArrayBlockingQueue<byte[]>(builder.queuedMaxSpans);
+    compressor = builder.compressRotated
+        ? Executors.newSingleThreadExecutor(new ThreadFactory() {
+          @Override public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "FileReporter-compressor");
+            thread.setDaemon(true);
+            return thread;
+          }
+        })
+        : null;
+    writer = new RotatingFileWriter(builder.directory, builder.fileName, builder.encoding,
+        builder.maxFileBytes, builder.rotateIntervalNanos, compressor, builder.bufferBytes);
+    thread = new Thread(new Runnable() {
+      @Override public void run() {
+        writeLoop();
+      }
+    }, "FileReporter");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Encodes the span and queues it for the writer, or drops it if the queue is full. */
+  @Override public void report(zipkin.Span span) {
+    checkNotNull(span, "Null span");
+    metrics.incrementSpans(1);
+    if (closed) {
+      metrics.incrementSpansDropped(1);
+      return;
+    }
+    byte[] encoded = encoder.encode(span);
+    metrics.incrementSpanBytes(encoded.length);
+    if (!queue.offer(encoded)) metrics.incrementSpansDropped(1);
+  }
+
+  /** Blocks until spans reported before this call are written to the active file. */
+  @Override public void flush() {
+    long flush;
+    synchronized (this) {
+      flush = ++flushesRequested;
+    }
+    try {
+      queue.put(FLUSH);
+      synchronized (this) {
+        while (flushesCompleted < flush && thread.isAlive()) wait(100);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  void writeLoop() {
+    try {
+      while (!closed || !queue.isEmpty()) {
+        byte[] next;
+        try {
+          // close wakes the writer, but a full queue would have kept it awake anyway
+          long waitNanos = Math.min(writer.nanosUntilRotate(System.nanoTime()), MAX_WAIT_NANOS);
+          next = queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+          break;
+        }
+        int flushes = 0;
+        // copy everything queued into the buffer, then write it in as few calls as possible
+        for (; next != null; next = queue.poll()) {
+          if (next == FLUSH) {
+            flushes++;
+            continue;
+          }
+          try {
+            writer.append(next);
+          } catch (IOException e) {
+            dropped(e, writer.takeLostSpans() + 1);
+          }
+        }
+        metrics.updateQueuedSpans(queue.size());
+        write();
+        if (writer.rotateDue(System.nanoTime())) {
+          try {
+            writer.rotate();
+          } catch (IOException e) {
+            logger.log(Level.WARNING, "couldn't rotate " + writer.activeFile, e);
+          }
+        }
+        if (flushes > 0) {
+          synchronized (this) {
+            flushesCompleted += flushes;
+            notifyAll();
+          }
+        }
+      }
+    } finally {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "couldn't close " + writer.activeFile, e);
+      }
+    }
+  }
+
+  void write() {
+    if (writer.bufferedSpans == 0) return;
+    try {
+      writer.flush();
+      metrics.incrementMessages();
+    } catch (IOException e) {
+      dropped(e, writer.takeLostSpans());
+    }
+  }
+
+  void dropped(IOException e, int spans) {
+    metrics.incrementMessagesDropped(e);
+    metrics.incrementSpansDropped(spans);
+    logger.log(Level.WARNING, "couldn't write spans to " + writer.activeFile, e);
+  }
+
+  /**
+   * Writes queued spans, then closes the active file. Rotated files being compressed are given a
+   * few seconds to complete. Spans reported after this are dropped.
+   */
+  @Override public void close() {
+    if (closed) return;
+    closed = true;
+    queue.offer(FLUSH); // wake the writer, unless it's busy anyway
+    try {
+      thread.join();
+      if (compressor != null) {
+        compressor.shutdown();
+        compressor.awaitTermination(5, TimeUnit.SECONDS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override public String toString() {
+    return "FileReporter(" + writer.activeFile + ")";
+  }
+}
@@ -0,0 +1,217 @@
+package com.github.kristofa.brave.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+import zipkin.reporter.Encoding;
+
+/**
+ * Appends framed spans to the active file through a direct buffer, rotating it by size or age.
+ * This is only used by the {@link FileReporter reporter's} writer thread.
+ *
+ * <p>Rotated files are renamed with the time they were rotated, and optionally gzipped on the
+ * given executor, so that compression doesn't stall writes.
+ */
+final class RotatingFileWriter implements Closeable {
+  static final Logger logger = Logger.getLogger(RotatingFileWriter.class.getName());
+
+  final File directory;
+  final String fileName;
+  final String extension;
+  final Encoding encoding;
+  final long maxFileBytes;
+  final long rotateIntervalNanos;
+  final Executor compressor; // null when rotated files aren't compressed
+  final ByteBuffer buffer;
+  final SimpleDateFormat rotatedSuffix = new SimpleDateFormat("yyyyMMdd'T'HHmmss.SSS");
+
+  File activeFile;
+  FileChannel channel;
+  long fileBytes; // written to the channel
+  long rotateDeadline;
+  int bufferedSpans;
+  int lostSpans; // buffered when a write failed
+
+  RotatingFileWriter(File directory, String fileName, Encoding encoding, long maxFileBytes,
+      long rotateIntervalNanos, Executor compressor, int bufferBytes) throws IOException {
+    this.directory = directory;
+    this.fileName = fileName;
+    this.extension = encoding == Encoding.JSON ? ".ndjson" : ".thrift";
+    this.encoding = encoding;
+    this.maxFileBytes = maxFileBytes;
+    this.rotateIntervalNanos = rotateIntervalNanos;
+    this.compressor = compressor;
+    this.buffer = ByteBuffer.allocateDirect(bufferBytes);
+    this.rotatedSuffix.setTimeZone(TimeZone.getTimeZone("UTC"));
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("couldn't create " + directory);
+    }
+    open();
+  }
+
+  /** Appends to an existing active file, as the process may have restarted. */
+  void open() throws IOException {
+    activeFile = new File(directory, fileName + extension);
+    channel = new FileOutputStream(activeFile, true).getChannel();
+    fileBytes = channel.size();
+    rotateDeadline = System.nanoTime() + rotateIntervalNanos;
+  }
+
+  /** Size of the span once framed: json lines end in a newline, thrift is length-prefixed. */
+  int frameSize(byte[] span) {
+    return encoding == Encoding.JSON ? span.length + 1 : span.length + 4;
+  }
+
+  /**
+   * Buffers the span, first writing the buffer if it is full and rotating if the span would push
+   * the file over its limit.
+   */
+  void append(byte[] span) throws IOException {
+    int frameSize = frameSize(span);
+    long pendingBytes = fileBytes + buffer.position();
+    if (pendingBytes > 0 && pendingBytes + frameSize > maxFileBytes) {
+      flush();
+      rotate();
+    }
+    if (frameSize > buffer.remaining()) flush();
+    if (frameSize > buffer.capacity()) { // larger than the buffer: write it directly
+      ByteBuffer frame = ByteBuffer.allocate(frameSize);
+      frame(frame, span);
+      frame.flip();
+      write(frame);
+      return;
+    }
+    frame(buffer, span);
+    bufferedSpans++;
+  }
+
+  void frame(ByteBuffer buffer, byte[] span) {
+    if (encoding == Encoding.JSON) {
+      buffer.put(span).put((byte) '\n');
+    } else {
+      buffer.putInt(span.length).put(span);
+    }
+  }
+
+  /**
+   * Writes buffered spans to the file. On failure, they are discarded and counted as {@link
+   * #takeLostSpans() lost}, as a partial write would misalign a retry.
+   */
+  void flush() throws IOException {
+    if (buffer.position() == 0) return;
+    buffer.flip();
+    try {
+      write(buffer);
+    } catch (IOException e) {
+      lostSpans += bufferedSpans;
+      throw e;
+    } finally {
+      buffer.clear();
+      bufferedSpans = 0;
+    }
+  }
+
+  /** Returns and resets the count of spans discarded by failed writes. */
+  int takeLostSpans() {
+    int result = lostSpans;
+    lostSpans = 0;
+    return result;
+  }
+
+  void write(ByteBuffer bytes) throws IOException {
+    while (bytes.hasRemaining()) {
+      fileBytes += channel.write(bytes);
+    }
+  }
+
+  /** Returns true when the rotate interval elapsed. */
+  boolean rotateDue(long now) {
+    return rotateIntervalNanos > 0 && now - rotateDeadline >= 0;
+  }
+
+  /** Nanoseconds until {@link #rotateDue(long)}, or {@code Long.MAX_VALUE} if never. */
+  long nanosUntilRotate(long now) {
+    return rotateIntervalNanos > 0 ? Math.max(0, rotateDeadline - now) : Long.MAX_VALUE;
+  }
+
+  /**
+   * Renames the active file with a timestamp, then opens a new one. Empty files aren't rotated.
+   * Call after {@link #flush()}.
+   */
+  void rotate() throws IOException {
+    if (fileBytes == 0) { // nothing to ship
+      rotateDeadline = System.nanoTime() + rotateIntervalNanos;
+      return;
+    }
+    channel.close();
+    String prefix = fileName + "-" + rotatedSuffix.format(new Date());
+    File rotated = new File(directory, prefix + extension);
+    for (int i = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); i++) {
+      rotated = new File(directory, prefix + "-" + i + extension);
+    }
+    if (!activeFile.renameTo(rotated)) {
+      logger.warning("couldn't rename " + activeFile + " to " + rotated + "; appending to it");
+      open();
+      return;
+    }
+    open();
+    if (compressor != null) compressor.execute(new Gzip(rotated));
+  }
+
+  @Override public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      channel.close();
+    }
+  }
+
+  /** Gzips a rotated file, replacing it once the compressed file is complete. */
+  static final class Gzip implements Runnable {
+    final File file;
+
+    Gzip(File file) {
+      this.file = file;
+    }
+
+    @Override public void run() {
+      File temp = new File(file.getPath() + ".gz.tmp");
+      try {
+        InputStream in = new FileInputStream(file);
+        try {
+          OutputStream out = new GZIPOutputStream(new FileOutputStream(temp), 64 * 1024);
+          try {
+            byte[] buffer = new byte[64 * 1024];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+              out.write(buffer, 0, read);
+            }
+          } finally {
+            out.close();
+          }
+        } finally {
+          in.close();
+        }
+        if (!temp.renameTo(new File(file.getPath() + ".gz"))) {
+          throw new IOException("couldn't rename " + temp);
+        }
+        if (!file.delete()) logger.warning("couldn't delete " + file + " after compressing it");
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "couldn't compress " + file + "; leaving it uncompressed", e);
+        temp.delete();
+      }
+    }
+  }
+}
@@ -0,0 +1,220 @@
+package com.github.kristofa.brave.file;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin.Annotation;
+import zipkin.Codec;
+import zipkin.Constants;
+import zipkin.Endpoint;
+import zipkin.Span;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.InMemoryReporterMetrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileReporterTest {
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  InMemoryReporterMetrics metrics = new InMemoryReporterMetrics();
+  FileReporter reporter;
+
+  @After public void close() {
+    if (reporter != null) reporter.close();
+  }
+
+  @Test public void writesNewlineDelimitedJson() throws IOException {
+    File directory = folder.newFolder();
+    reporter = FileReporter.builder(directory).metrics(metrics).build();
+
+    reporter.report(span(1L));
+    reporter.report(span(2L));
+    reporter.flush();
+
+    assertThat(readJson(new File(directory, "spans.ndjson")))
+        .containsExactly(span(1L), span(2L));
+    assertThat(metrics.spans()).isEqualTo(2);
+    assertThat(metrics.spansDropped()).isZero();
+  }
+
+  @Test public void writesLengthPrefixedThrift() throws IOException {
+    File directory = folder.newFolder();
+    reporter = FileReporter.builder(directory).encoding(Encoding.THRIFT).build();
+
+    reporter.report(span(1L));
+    reporter.report(span(2L));
+    reporter.flush();
+
+    assertThat(readThrift(Files.readAllBytes(new File(directory, "spans.thrift").toPath())))
+        .containsExactly(span(1L), span(2L));
+  }
+
+  @Test public void closeWritesQueuedSpans() throws IOException {
+    File directory = folder.newFolder();
+    reporter = FileReporter.builder(directory).build();
+
+    for (long i = 1; i <= 100; i++) reporter.report(span(i));
+    reporter.close();
+
+    assertThat(readJson(new File(directory, "spans.ndjson"))).hasSize(100);
+  }
+
+  @Test public void appendsAfterRestart() throws IOException {
+    File directory = folder.newFolder();
+    reporter = FileReporter.builder(directory).build();
+    reporter.report(span(1L));
+    reporter.close();
+
+    reporter = FileReporter.builder(directory).build();
+    reporter.report(span(2L));
+    reporter.flush();
+
+    assertThat(readJson(new File(directory, "spans.ndjson")))
+        .containsExactly(span(1L), span(2L));
+  }
+
+  @Test public void rotatesBySize() throws IOException {
+    File directory = folder.newFolder();
+    int lineLength = Codec.JSON.writeSpan(span(1L)).length + 1;
+    reporter = FileReporter.builder(directory).maxFileBytes(lineLength * 3).build();
+
+    for (long i = 1; i <= 10; i++) reporter.report(span(i));
+    reporter.flush();
+
+    List<File> files = sortedFiles(directory);
+    assertThat(files).hasSize(4); // 3 rotated, and the active file
+    List<Span> spans = new ArrayList<>();
+    for (File file : files) {
+      assertThat(file.length()).isLessThanOrEqualTo(lineLength * 3);
+      spans.addAll(readJson(file));
+    }
+    assertThat(spans).hasSize(10);
+    assertThat(files.get(files.size() - 1).getName()).isEqualTo("spans.ndjson");
+    assertThat(files.get(0).getName()).matches("spans-\\d{8}T\\d{6}\\.\\d{3}(-\\d+)?\\.ndjson");
+  }
+
+  @Test public void rotatesByTime() throws Exception {
+    File directory = folder.newFolder();
+    reporter = FileReporter.builder(directory)
+        .rotateInterval(100, TimeUnit.MILLISECONDS).build();
+
+    reporter.report(span(1L));
+    reporter.flush();
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (new File(directory, "spans.ndjson").length() > 0 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    List<File> files = sortedFiles(directory);
+    assertThat(files).hasSize(2);
+    assertThat(readJson(files.get(0))).containsExactly(span(1L));
+    assertThat(files.get(1).length()).isZero();
+  }
+
+  @Test public void compressesRotatedFiles() throws Exception {
+    File directory = folder.newFolder();
+    int lineLength = Codec.JSON.writeSpan(span(1L)).length + 1;
+    reporter = FileReporter.builder(directory)
+        .maxFileBytes(lineLength * 5)
+        .compressRotated(true).build();
+
+    for (long i = 1; i <= 10; i++) reporter.report(span(i));
+    reporter.close(); // waits for compression
+
+    List<Span> spans = new ArrayList<>();
+    for (File file : sortedFiles(directory)) {
+      if (file.getName().equals("spans.ndjson")) continue;
+      assertThat(file.getName()).endsWith(".ndjson.gz");
+      try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+        spans.addAll(parseJson(readAll(in)));
+      }
+    }
+    assertThat(spans).hasSize(5);
+  }
+
+  @Test public void writesSpansLargerThanBuffer() throws IOException {
+    File directory = folder.newFolder();
+    reporter = FileReporter.builder(directory).bufferBytes(1024).build();
+
+    char[] large = new char[2048];
+    Arrays.fill(large, 'a');
+    Span span = span(1L).toBuilder()
+        .addBinaryAnnotation(zipkin.BinaryAnnotation.create("large", new String(large), null))
+        .build();
+    reporter.report(span(2L));
+    reporter.report(span);
+    reporter.report(span(3L));
+    reporter.flush();
+
+    assertThat(readJson(new File(directory, "spans.ndjson")))
+        .containsExactly(span(2L), span, span(3L));
+  }
+
+  @Test public void dropsAfterClose() throws IOException {
+    reporter = FileReporter.builder(folder.newFolder()).metrics(metrics).build();
+    reporter.close();
+
+    reporter.report(span(1L));
+
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+  }
+
+  static Span span(long traceId) {
+    Endpoint endpoint = Endpoint.create("app", 172 << 24 | 17 << 16 | 3);
+    return Span.builder().traceId(traceId).id(traceId).name("get")
+        .timestamp(1472470996199000L).duration(207000L)
+        .addAnnotation(Annotation.create(1472470996199000L, Constants.SERVER_RECV, endpoint))
+        .addAnnotation(Annotation.create(1472470996406000L, Constants.SERVER_SEND, endpoint))
+        .build();
+  }
+
+  static List<File> sortedFiles(File directory) {
+    List<File> files = new ArrayList<>(Arrays.asList(directory.listFiles()));
+    files.sort((left, right) -> left.getName().compareTo(right.getName()));
+    return files;
+  }
+
+  static List<Span> readJson(File file) throws IOException {
+    return parseJson(Files.readAllBytes(file.toPath()));
+  }
+
+  static List<Span> parseJson(byte[] bytes) {
+    List<Span> result = new ArrayList<>();
+    for (String line : new String(bytes, StandardCharsets.UTF_8).split("\n")) {
+      if (!line.isEmpty()) result.add(Codec.JSON.readSpan(line.getBytes(StandardCharsets.UTF_8)));
+    }
+    return result;
+  }
+
+  static List<Span> readThrift(byte[] bytes) {
+    List<Span> result = new ArrayList<>();
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    while (buffer.hasRemaining()) {
+      byte[] span = new byte[buffer.getInt()];
+      buffer.get(span);
+      result.add(Codec.THRIFT.readSpan(span));
+    }
+    return result;
+  }
+
+  static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    for (int read; (read = in.read(buffer)) != -1; ) out.write(buffer, 0, read);
+    return out.toByteArray();
+  }
+}
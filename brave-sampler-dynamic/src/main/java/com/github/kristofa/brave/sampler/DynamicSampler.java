@@ -0,0 +1,118 @@
+package com.github.kristofa.brave.sampler;
+
+import com.github.kristofa.brave.Sampler;
+import com.github.kristofa.brave.internal.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.github.kristofa.brave.internal.Util.UTF_8;
+import static com.github.kristofa.brave.internal.Util.checkNotNull;
+import static java.lang.String.format;
+
+/**
+ * Sampler whose rate can be changed at runtime by a {@link SampleRateSource}.
+ *
+ * <p>The source notifies this sampler on its own thread, where the new rate is parsed and a
+ * sampler is built. That sampler is then swapped in, so the request path only ever reads a volatile
+ * field. Until the source first supplies a rate, or when its configuration is absent, the default
+ * rate applies.
+ *
+ * <p>The configuration is the sample rate as a float, for example {@code 0.25} for 25% of traces.
+ *
+ * @see FileSampleRateSource
+ * @see HttpSampleRateSource
+ */
+public final class DynamicSampler extends Sampler implements SampleRateSource.Listener, Closeable {
+
+  private final static Logger LOGGER = Logger.getLogger(DynamicSampler.class.getName());
+  private final static float DEFAULT_SAMPLE_RATE = 0.0f;
+
+  /**
+   * Creates a sampler which samples nothing until the source supplies a rate.
+   *
+   * @throws IOException if the source couldn't be started.
+   */
+  public static DynamicSampler create(SampleRateSource source) throws IOException {
+    return create(source, DEFAULT_SAMPLE_RATE);
+  }
+
+  /**
+   * @param defaultRate applies until the source supplies a rate, or when its configuration is
+   * absent.
+   * @throws IOException if the source couldn't be started.
+   */
+  public static DynamicSampler create(SampleRateSource source, float defaultRate)
+      throws IOException {
+    DynamicSampler result = new DynamicSampler(source, defaultRate);
+    source.start(result);
+    return result;
+  }
+
+  private final SampleRateSource source;
+  private final float defaultRate;
+  private final Sampler defaultSampler;
+
+  private volatile float rate;
+  private volatile Sampler delegate;
+
+  DynamicSampler(SampleRateSource source, float defaultRate) {
+    this.source = checkNotNull(source, "Null source");
+    this.defaultRate = defaultRate;
+    this.defaultSampler = Sampler.create(defaultRate);
+    this.rate = defaultRate;
+    this.delegate = defaultSampler;
+  }
+
+  @Override
+  public boolean isSampled(long traceId) {
+    return delegate.isSampled(traceId);
+  }
+
+  /** Returns the rate currently in use. */
+  public float sampleRate() {
+    return rate;
+  }
+
+  /**
+   * Parses the configuration and swaps in a new sampler. Invalid configuration is logged and
+   * ignored, so that the last good rate continues to apply.
+   */
+  @Override
+  public synchronized void onChange(@Nullable byte[] config) {
+    if (config == null) {
+      update(defaultRate, defaultSampler);
+      return;
+    }
+    String value = new String(config, UTF_8).trim();
+    float newRate;
+    Sampler newSampler;
+    try {
+      newRate = Float.parseFloat(value);
+      if (newRate == rate) return; // don't reset the state of the current sampler
+      newSampler = Sampler.create(newRate);
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, format("Ignoring invalid sample rate [%s]", value), e);
+      return;
+    }
+    update(newRate, newSampler);
+  }
+
+  void update(float newRate, Sampler newSampler) {
+    delegate = newSampler;
+    rate = newRate;
+    LOGGER.info(format("Sample rate changed. New value: %s", newRate));
+  }
+
+  /** Closes the underlying source. The last rate continues to apply. */
+  @Override
+  public void close() {
+    source.close();
+  }
+
+  @Override
+  public String toString() {
+    return "DynamicSampler(" + rate + ")";
+  }
+}
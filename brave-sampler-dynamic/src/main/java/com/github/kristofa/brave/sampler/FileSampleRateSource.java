@@ -0,0 +1,115 @@
+package com.github.kristofa.brave.sampler;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.github.kristofa.brave.internal.Util.checkNotNull;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * Reads sample rate configuration from a local file, re-reading it when the file changes.
+ *
+ * <p>The parent directory is watched with a {@link WatchService} on a daemon thread. Replacing
+ * the file atomically (ex. write to a temporary file then rename) is supported, as is deleting it,
+ * which reverts to the default rate.
+ */
+public final class FileSampleRateSource implements SampleRateSource, Runnable {
+  private final static Logger LOGGER = Logger.getLogger(FileSampleRateSource.class.getName());
+
+  public static FileSampleRateSource create(Path file) {
+    return new FileSampleRateSource(file);
+  }
+
+  private final Path file;
+  private WatchService watchService; // guarded by this
+  private Listener listener; // only written before the watch thread starts
+  private byte[] lastConfig; // only accessed by the watch thread after start
+
+  FileSampleRateSource(Path file) {
+    this.file = checkNotNull(file, "Null file").toAbsolutePath();
+  }
+
+  @Override
+  public synchronized void start(Listener listener) throws IOException {
+    if (watchService != null) throw new IllegalStateException("already started");
+    this.listener = checkNotNull(listener, "Null listener");
+    // register before reading, so that we don't miss a change between the two
+    watchService = file.getFileSystem().newWatchService();
+    file.getParent().register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+    read();
+    Thread thread = new Thread(this, "FileSampleRateSource(" + file.getFileName() + ")");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  @Override
+  public void run() {
+    WatchService watchService;
+    synchronized (this) {
+      watchService = this.watchService;
+    }
+    try {
+      while (true) {
+        WatchKey key = watchService.take();
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+          // an overflow means we might have missed our file, so always re-read
+          if (event.context() == null || file.getFileName().equals(event.context())) {
+            changed = true;
+          }
+        }
+        if (changed) read();
+        if (!key.reset()) {
+          LOGGER.warning("No longer watching " + file + " as its directory is inaccessible");
+          return;
+        }
+      }
+    } catch (ClosedWatchServiceException e) {
+      // closed
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Notifies the listener when the contents differ from the last read. */
+  void read() {
+    byte[] config;
+    try {
+      config = Files.readAllBytes(file);
+    } catch (NoSuchFileException e) {
+      config = null;
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Couldn't read " + file, e);
+      return;
+    }
+    if (Arrays.equals(config, lastConfig)) return;
+    lastConfig = config;
+    listener.onChange(config);
+  }
+
+  @Override
+  public synchronized void close() {
+    if (watchService == null) return;
+    try {
+      watchService.close();
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "error closing watch service", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "FileSampleRateSource(" + file + ")";
+  }
+}
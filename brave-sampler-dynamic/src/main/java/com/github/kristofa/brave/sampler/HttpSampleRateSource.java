@@ -0,0 +1,135 @@
+package com.github.kristofa.brave.sampler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static com.github.kristofa.brave.internal.Util.checkNotBlank;
+import static com.github.kristofa.brave.internal.Util.checkNotNull;
+
+/**
+ * Polls an http endpoint for sample rate configuration.
+ *
+ * <p>Each poll is a conditional {@code GET}: the last {@code ETag} is sent as {@code
+ * If-None-Match}, so an unchanged configuration costs a {@code 304 Not Modified} with no body. A
+ * {@code 404} reverts to the default rate. Other failures are logged, and the last known rate
+ * continues to apply.
+ */
+public final class HttpSampleRateSource implements SampleRateSource, Runnable {
+  private final static Logger LOGGER = Logger.getLogger(HttpSampleRateSource.class.getName());
+
+  /**
+   * @param url location of the configuration, for example a file served by nginx.
+   * @param pollInterval how often to check for changes.
+   */
+  public static HttpSampleRateSource create(String url, long pollInterval, TimeUnit unit) {
+    return new HttpSampleRateSource(url, pollInterval, unit);
+  }
+
+  private final URL url;
+  private final long pollIntervalMillis;
+  private final int timeoutMillis;
+  private ScheduledExecutorService scheduler; // guarded by this
+  private Listener listener; // only written before polling starts
+  private String etag; // only accessed by the polling thread
+
+  HttpSampleRateSource(String url, long pollInterval, TimeUnit unit) {
+    try {
+      this.url = new URL(checkNotBlank(url, "Null or blank url"));
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Invalid url: " + url, e);
+    }
+    checkNotNull(unit, "Null unit");
+    if (pollInterval <= 0) throw new IllegalArgumentException("pollInterval must be positive");
+    this.pollIntervalMillis = unit.toMillis(pollInterval);
+    // a poll should never take longer than the interval between them
+    this.timeoutMillis = (int) Math.min(pollIntervalMillis, 10 * 1000);
+  }
+
+  @Override
+  public synchronized void start(Listener listener) {
+    if (scheduler != null) throw new IllegalStateException("already started");
+    this.listener = checkNotNull(listener, "Null listener");
+    scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      @Override public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "HttpSampleRateSource(" + url + ")");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    scheduler.scheduleWithFixedDelay(this, 0, pollIntervalMillis, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void run() {
+    try {
+      poll();
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Couldn't poll " + url, e);
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Unexpected error polling " + url, e);
+    }
+  }
+
+  void poll() throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    connection.setConnectTimeout(timeoutMillis);
+    connection.setReadTimeout(timeoutMillis);
+    connection.setUseCaches(false);
+    if (etag != null) connection.setRequestProperty("If-None-Match", etag);
+
+    int code = connection.getResponseCode();
+    if (code == HttpURLConnection.HTTP_NOT_MODIFIED) {
+      drain(connection.getInputStream());
+      return;
+    } else if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+      drain(connection.getErrorStream());
+      etag = null;
+      listener.onChange(null);
+      return;
+    } else if (code != HttpURLConnection.HTTP_OK) {
+      drain(connection.getErrorStream());
+      throw new IOException("Unexpected response code " + code);
+    }
+
+    byte[] config;
+    try (InputStream in = connection.getInputStream()) {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buffer = new byte[256];
+      for (int read; (read = in.read(buffer)) != -1; ) {
+        body.write(buffer, 0, read);
+      }
+      config = body.toByteArray();
+    }
+    etag = connection.getHeaderField("ETag");
+    listener.onChange(config);
+  }
+
+  /** Reads any response body so that the connection can be kept alive. */
+  static void drain(InputStream in) throws IOException {
+    if (in == null) return;
+    try {
+      while (in.read() != -1) ; // skip
+    } finally {
+      in.close();
+    }
+  }
+
+  @Override
+  public synchronized void close() {
+    if (scheduler != null) scheduler.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return "HttpSampleRateSource(" + url + ")";
+  }
+}
@@ -0,0 +1,34 @@
+package com.github.kristofa.brave.sampler;
+
+import com.github.kristofa.brave.internal.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Supplies sample rate configuration to a {@link DynamicSampler}, for example from a file or an
+ * http endpoint.
+ *
+ * <p>Implementations watch or poll on their own thread, so that reading configuration never
+ * happens on the request path.
+ */
+public interface SampleRateSource extends Closeable {
+
+  /** Receives the raw configuration each time it changes. */
+  interface Listener {
+    /**
+     * @param config the new configuration, or <code>null</code> if it was removed.
+     */
+    void onChange(@Nullable byte[] config);
+  }
+
+  /**
+   * Begins watching for changes. Implementations should notify the listener of the current
+   * configuration as soon as it can be read, and not block on remote resources.
+   *
+   * @throws IOException if the source cannot be watched at all, for example a bad path.
+   */
+  void start(Listener listener) throws IOException;
+
+  /** Stops watching for changes, releasing any threads or file handles. */
+  @Override void close();
+}
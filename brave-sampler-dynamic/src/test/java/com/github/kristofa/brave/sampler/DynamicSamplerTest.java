@@ -0,0 +1,59 @@
+package com.github.kristofa.brave.sampler;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DynamicSamplerTest {
+  AtomicReference<SampleRateSource.Listener> listener = new AtomicReference<>();
+  SampleRateSource source = new SampleRateSource() {
+    @Override public void start(Listener listener) {
+      DynamicSamplerTest.this.listener.set(listener);
+    }
+
+    @Override public void close() {
+    }
+  };
+
+  @Test
+  public void defaultRateAppliesUntilSourceSupplies() throws IOException {
+    DynamicSampler sampler = DynamicSampler.create(source, 1.0f);
+
+    assertThat(sampler.isSampled(1L)).isTrue();
+
+    listener.get().onChange("0.0".getBytes());
+
+    assertThat(sampler.isSampled(1L)).isFalse();
+  }
+
+  @Test
+  public void neverSamplesByDefault() throws IOException {
+    DynamicSampler sampler = DynamicSampler.create(source);
+
+    assertThat(sampler.sampleRate()).isZero();
+    assertThat(sampler.isSampled(1L)).isFalse();
+  }
+
+  @Test
+  public void absentConfigRevertsToDefault() throws IOException {
+    DynamicSampler sampler = DynamicSampler.create(source, 0.5f);
+    listener.get().onChange("1.0".getBytes());
+
+    listener.get().onChange(null);
+
+    assertThat(sampler.sampleRate()).isEqualTo(0.5f);
+  }
+
+  @Test
+  public void ignoresInvalidConfig() throws IOException {
+    DynamicSampler sampler = DynamicSampler.create(source);
+    listener.get().onChange(" 1.0\n".getBytes());
+
+    listener.get().onChange("foo".getBytes());
+    listener.get().onChange("2.0".getBytes());
+
+    assertThat(sampler.sampleRate()).isEqualTo(1.0f);
+  }
+}
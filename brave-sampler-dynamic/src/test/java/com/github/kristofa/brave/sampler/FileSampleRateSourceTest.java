@@ -0,0 +1,78 @@
+package com.github.kristofa.brave.sampler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FileSampleRateSourceTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  DynamicSampler sampler;
+
+  @After
+  public void close() {
+    if (sampler != null) sampler.close();
+  }
+
+  @Test
+  public void readsExistingFileOnStart() throws Exception {
+    Path file = folder.newFile("samplerate").toPath();
+    Files.write(file, "1.0".getBytes());
+
+    sampler = DynamicSampler.create(FileSampleRateSource.create(file));
+
+    assertThat(sampler.isSampled(1L)).isTrue();
+  }
+
+  @Test
+  public void absentFileUsesDefaultRate() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("samplerate");
+
+    sampler = DynamicSampler.create(FileSampleRateSource.create(file), 1.0f);
+
+    assertThat(sampler.sampleRate()).isEqualTo(1.0f);
+  }
+
+  @Test
+  public void updatesWhenFileIsCreatedModifiedAndDeleted() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("samplerate");
+    sampler = DynamicSampler.create(FileSampleRateSource.create(file));
+
+    Files.write(file, "1.0".getBytes());
+    awaitRate(1.0f);
+
+    Files.write(file, "0.5".getBytes());
+    awaitRate(0.5f);
+
+    Files.delete(file);
+    awaitRate(0.0f);
+  }
+
+  @Test
+  public void updatesWhenFileIsReplaced() throws Exception {
+    Path file = folder.getRoot().toPath().resolve("samplerate");
+    Files.write(file, "1.0".getBytes());
+    sampler = DynamicSampler.create(FileSampleRateSource.create(file));
+
+    Path temp = folder.newFile("samplerate.tmp").toPath();
+    Files.write(temp, "0.5".getBytes());
+    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    awaitRate(0.5f);
+  }
+
+  /** Watch events are delivered asynchronously, and can be slow on some platforms. */
+  void awaitRate(float rate) throws InterruptedException {
+    for (int i = 0; i < 300 && sampler.sampleRate() != rate; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(sampler.sampleRate()).isEqualTo(rate);
+  }
+}
@@ -0,0 +1,122 @@
+package com.github.kristofa.brave.sampler;
+
+import com.sun.net.httpserver.HttpServer;
+import java.net.InetSocketAddress;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpSampleRateSourceTest {
+  HttpServer server;
+  String url;
+  AtomicReference<String> config = new AtomicReference<>();
+  AtomicInteger version = new AtomicInteger();
+  List<Integer> responseCodes = new CopyOnWriteArrayList<>();
+  DynamicSampler sampler;
+
+  /** Serves the config with an ETag derived from its version, honoring If-None-Match. */
+  @Before
+  public void startServer() throws Exception {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/samplerate", exchange -> {
+      String body = config.get();
+      String etag = "\"" + version.get() + "\"";
+      int code;
+      if (body == null) {
+        code = 404;
+        exchange.sendResponseHeaders(code, -1);
+      } else if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+        code = 304;
+        exchange.sendResponseHeaders(code, -1);
+      } else {
+        code = 200;
+        exchange.getResponseHeaders().set("ETag", etag);
+        exchange.sendResponseHeaders(code, body.length());
+        exchange.getResponseBody().write(body.getBytes());
+      }
+      responseCodes.add(code);
+      exchange.close();
+    });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort() + "/samplerate";
+  }
+
+  @After
+  public void close() {
+    if (sampler != null) sampler.close();
+    server.stop(0);
+  }
+
+  @Test
+  public void readsConfig() throws Exception {
+    setConfig("1.0");
+
+    sampler = DynamicSampler.create(HttpSampleRateSource.create(url, 50, TimeUnit.MILLISECONDS));
+
+    awaitRate(1.0f);
+  }
+
+  @Test
+  public void unchangedConfigIsNotModified() throws Exception {
+    setConfig("1.0");
+
+    sampler = DynamicSampler.create(HttpSampleRateSource.create(url, 50, TimeUnit.MILLISECONDS));
+    awaitRate(1.0f);
+    awaitResponses(3);
+
+    assertThat(responseCodes.get(0)).isEqualTo(200);
+    assertThat(responseCodes.get(1)).isEqualTo(304);
+    assertThat(responseCodes.get(2)).isEqualTo(304);
+  }
+
+  @Test
+  public void updatesWhenConfigChanges() throws Exception {
+    setConfig("1.0");
+    sampler = DynamicSampler.create(HttpSampleRateSource.create(url, 50, TimeUnit.MILLISECONDS));
+    awaitRate(1.0f);
+
+    setConfig("0.5");
+    awaitRate(0.5f);
+
+    setConfig(null);
+    awaitRate(0.0f);
+  }
+
+  @Test
+  public void keepsLastRateWhenServerIsDown() throws Exception {
+    setConfig("1.0");
+    sampler = DynamicSampler.create(HttpSampleRateSource.create(url, 50, TimeUnit.MILLISECONDS));
+    awaitRate(1.0f);
+
+    server.stop(0);
+    Thread.sleep(200);
+
+    assertThat(sampler.sampleRate()).isEqualTo(1.0f);
+  }
+
+  void setConfig(String value) {
+    config.set(value);
+    version.incrementAndGet();
+  }
+
+  void awaitRate(float rate) throws InterruptedException {
+    for (int i = 0; i < 100 && sampler.sampleRate() != rate; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(sampler.sampleRate()).isEqualTo(rate);
+  }
+
+  void awaitResponses(int count) throws InterruptedException {
+    for (int i = 0; i < 100 && responseCodes.size() < count; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(responseCodes.size()).isGreaterThanOrEqualTo(count);
+  }
+}
@@ -1,52 +1,90 @@
 package com.github.kristofa.brave.sampler;
 
 import com.github.kristofa.brave.Sampler;
+import com.github.kristofa.brave.internal.Nullable;
 import java.io.Closeable;
-import java.io.IOException;
-import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.TimeUnit;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.curator.RetryPolicy;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
-import org.apache.curator.framework.state.ConnectionState;
-import org.apache.curator.framework.state.ConnectionStateListener;
+import org.apache.curator.framework.recipes.cache.ChildData;
+import org.apache.curator.framework.recipes.cache.TreeCache;
+import org.apache.curator.framework.recipes.cache.TreeCacheEvent;
+import org.apache.curator.framework.recipes.cache.TreeCacheListener;
 import org.apache.curator.retry.ExponentialBackoffRetry;
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
-import org.apache.zookeeper.data.Stat;
 
 import static com.github.kristofa.brave.internal.Util.UTF_8;
 import static com.github.kristofa.brave.internal.Util.checkNotBlank;
 import static java.lang.String.format;
 
-public final class ZooKeeperSampler extends Sampler implements Watcher, Closeable {
+/**
+ * Sampler which reads its sample rates from a ZooKeeper subtree, updating them at runtime.
+ *
+ * <p>The sample rate znode holds the global rate. Its children are service names which can
+ * override that rate, and their children are url-encoded routes which can override the service
+ * rate. For example:
+ * <pre>
+ * /brave/samplerate                        0.01
+ * /brave/samplerate/users                  0.1
+ * /brave/samplerate/users/%2Fapi%2Fv1%2Flogin   1.0
+ * </pre>
+ *
+ * <p>Startup is asynchronous: until the subtree is first read, nothing is sampled. Afterwards, the
+ * last rates read are kept while ZooKeeper is unreachable. A missing or invalid global rate samples
+ * nothing, while an invalid service or route rate is ignored, with a warning logged once per value.
+ *
+ * <p>The whole subtree is watched with a single {@link TreeCache}. Each change is compiled into
+ * immutable lookup tables, which are swapped in atomically. This keeps ZooKeeper access off the
+ * request path.
+ */
+public final class ZooKeeperSampler extends Sampler implements Closeable {
 
   private final static Logger LOGGER = Logger.getLogger(ZooKeeperSampler.class.getName());
   private final static float DEFAULT_SAMPLE_RATE = 0.0f;
 
   private final CuratorFramework zkCurator;
-  private final CountDownLatch connectionEstablished = new CountDownLatch(1);
+  private final TreeCache cache;
   private final String sampleRateZNode;
 
-  private volatile Sampler delegate;
+  private volatile Rates delegate = Rates.DEFAULT;
+  /**
+   * Invalid values by znode path, as of the last refresh, so that each is only logged once.
+   * Visible for testing.
+   */
+  volatile Map<String, String> invalidRates = Collections.emptyMap();
 
   @Override
   public boolean isSampled(long traceId) {
-    return delegate.isSampled(traceId);
+    return delegate.global.sampler.isSampled(traceId);
+  }
+
+  /**
+   * Like {@link #isSampled(long)}, except the most specific rate configured for the route or
+   * service is used. This is intended for parameterized sampling at the entry-point of a trace.
+   *
+   * @param serviceName name of the local service, matched against children of the sample rate
+   * znode.
+   * @param route the operation or http path, matched against url-decoded children of the service
+   * znode. Can be <code>null</code>.
+   */
+  public boolean isSampled(String serviceName, @Nullable String route, long traceId) {
+    return delegate.lookup(serviceName, route).sampler.isSampled(traceId);
   }
 
   /**
-   * Creates a new instance. If the initial connection with ZooKeeper can't be established within 2
-   * seconds an unchecked exception will be thrown as this will probably indicate wrong
-   * configuration.
+   * Creates a new instance. This doesn't wait for a connection with ZooKeeper. Until the sample
+   * rate subtree has been read, no traces are sampled.
    *
    * @param connectionString ZooKeeper connection string. Should not be <code>null</code> or empty.
    * @param sampleRateZNode The znode that contains sample rate. Should not be <code>null</code> or
    * empty.
-   * @throws IOException In case we can't connect with ZooKeeper.
-   * @throws InterruptedException In case we can't connect with ZooKeeper.
+   * @throws InterruptedException never. Retained for source compatibility.
    */
   public ZooKeeperSampler(final String connectionString, final String sampleRateZNode)
       throws InterruptedException {
@@ -55,31 +93,14 @@ public final class ZooKeeperSampler extends Sampler implements Watcher, Closeabl
 
     final RetryPolicy retryPolicy = new ExponentialBackoffRetry(1000, 3);
     zkCurator = CuratorFrameworkFactory.newClient(connectionString, retryPolicy);
-    final ConnectionStateListener initialConnectionState = new InitialConnectionStateListener();
-    zkCurator.getConnectionStateListenable().addListener(initialConnectionState);
+    cache = TreeCache.newBuilder(zkCurator, sampleRateZNode).setMaxDepth(2).build();
+    cache.getListenable().addListener(new RateTreeListener());
     zkCurator.start();
-
-    if (connectionEstablished.await(2, TimeUnit.SECONDS) == false) {
+    try {
+      cache.start();
+    } catch (Exception e) {
       zkCurator.close();
-      throw new IllegalStateException("Connection with ZooKeeper failed.");
-    }
-    zkCurator.getConnectionStateListenable().removeListener(initialConnectionState);
-    delegate = Sampler.create(getSampleRate());
-  }
-
-  @Override
-  public void process(final WatchedEvent event) {
-
-    if (event.getType().equals(Event.EventType.NodeDataChanged) || event.getType().equals(Event.EventType.NodeCreated)
-        || event.getType().equals(Event.EventType.NodeDeleted)) {
-
-      final String path = event.getPath();
-
-      if (sampleRateZNode.equals(path)) {
-        float newRate = getSampleRate();
-        delegate = Sampler.create(newRate);
-        LOGGER.info(format("SampleRate znode [%s] changed. New value: %s", sampleRateZNode, newRate));
-      }
+      throw new IllegalStateException("Couldn't watch sample rate znode " + sampleRateZNode, e);
     }
   }
 
@@ -88,6 +109,7 @@ public final class ZooKeeperSampler extends Sampler implements Watcher, Closeabl
    */
   @Override
   public void close() {
+    cache.close();
     zkCurator.close();
   }
 
@@ -100,35 +122,166 @@ public final class ZooKeeperSampler extends Sampler implements Watcher, Closeabl
     return zkCurator;
   }
 
-  private float getSampleRate() {
-    final byte[] data = getData(sampleRateZNode);
-    if (data == null) {
-      return DEFAULT_SAMPLE_RATE;
+  /** Returns the effective rate for the inputs. Visible for testing. */
+  float sampleRate(@Nullable String serviceName, @Nullable String route) {
+    return delegate.lookup(serviceName, route).value;
+  }
+
+  /** Recompiles the rate tables from the cache, reusing samplers whose rate didn't change. */
+  void refresh() {
+    Rates previous = delegate;
+    Map<String, String> invalid = new LinkedHashMap<String, String>();
+    Rate global =
+        previous.global.update(parseRate(cache.getCurrentData(sampleRateZNode), invalid));
+    if (global == null) global = Rates.DEFAULT.global;
+
+    Map<String, ChildData> services = cache.getCurrentChildren(sampleRateZNode);
+    Map<String, ServiceRates> compiled = new LinkedHashMap<String, ServiceRates>();
+    if (services != null) {
+      for (Map.Entry<String, ChildData> service : services.entrySet()) {
+        String servicePath = service.getValue().getPath();
+        ServiceRates previousService = previous.services.get(service.getKey());
+        Rate serviceRate = previousService != null
+            ? previousService.rate.update(parseRate(service.getValue(), invalid))
+            : Rate.create(parseRate(service.getValue(), invalid));
+        if (serviceRate == null) serviceRate = global;
+
+        Map<String, ChildData> routes = cache.getCurrentChildren(servicePath);
+        Map<String, Rate> compiledRoutes = new LinkedHashMap<String, Rate>();
+        if (routes != null) {
+          for (Map.Entry<String, ChildData> route : routes.entrySet()) {
+            String routeName = decodeRoute(route.getKey());
+            Rate previousRoute = previousService != null
+                ? previousService.routes.get(routeName) : null;
+            Rate routeRate = previousRoute != null
+                ? previousRoute.update(parseRate(route.getValue(), invalid))
+                : Rate.create(parseRate(route.getValue(), invalid));
+            if (routeRate != null) compiledRoutes.put(routeName, routeRate);
+          }
+        }
+        compiled.put(service.getKey(), new ServiceRates(serviceRate, compiledRoutes));
+      }
     }
-    return Float.valueOf(new String(data, UTF_8));
+    delegate = new Rates(global, compiled);
+    invalidRates = invalid;
+    LOGGER.info(format("SampleRate znode [%s] changed. New value: %s", sampleRateZNode, delegate));
   }
 
-  private byte[] getData(final String znode) {
+  /**
+   * Returns the rate held by the node, or null if absent or invalid. Invalid values are added to
+   * the input, and logged unless they were already invalid at the last refresh.
+   */
+  @Nullable Float parseRate(@Nullable ChildData node, Map<String, String> invalid) {
+    if (node == null || node.getData() == null || node.getData().length == 0) return null;
+    String value = new String(node.getData(), UTF_8).trim();
     try {
-      final Stat stat = zkCurator.checkExists().usingWatcher(this).forPath(znode);
-      if (stat != null) {
-        return zkCurator.getData().usingWatcher(this).forPath(znode);
+      float rate = Float.parseFloat(value);
+      Sampler.create(rate); // validates the rate
+      return rate;
+    } catch (RuntimeException e) {
+      invalid.put(node.getPath(), value);
+      if (!value.equals(invalidRates.get(node.getPath()))) {
+        LOGGER.log(Level.WARNING, format("Ignoring invalid sample rate [%s] at %s",
+            value, node.getPath()), e);
       }
-    } catch (final Exception e) {
-      LOGGER.log(Level.WARNING, "Zookeeper exception.", e);
+      return null;
+    }
+  }
+
+  static String decodeRoute(String znodeName) {
+    try {
+      return URLDecoder.decode(znodeName, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
     }
-    return null;
   }
 
-  private class InitialConnectionStateListener implements ConnectionStateListener {
+  final class RateTreeListener implements TreeCacheListener {
+    boolean initialized; // guarded by the cache's single event thread
 
-    @Override
-    public void stateChanged(final CuratorFramework client, final ConnectionState newState) {
-      if (ConnectionState.CONNECTED.equals(newState) || ConnectionState.RECONNECTED.equals(newState)) {
-        LOGGER.info("Connected with ZooKeeper.");
-        connectionEstablished.countDown();
+    @Override public void childEvent(CuratorFramework client, TreeCacheEvent event) {
+      switch (event.getType()) {
+        case INITIALIZED:
+          LOGGER.info("Read sample rates from ZooKeeper.");
+          initialized = true;
+          refresh();
+          break;
+        case NODE_ADDED:
+        case NODE_UPDATED:
+        case NODE_REMOVED:
+          // avoid recompiling once per node while the tree is first loaded
+          if (initialized) refresh();
+          break;
+        default:
+          // keep the last known rates while the connection is lost
       }
     }
   }
 
+  /** A sample rate and the sampler built from it. */
+  static final class Rate {
+    final float value;
+    final Sampler sampler;
+
+    @Nullable static Rate create(@Nullable Float value) {
+      return value != null ? new Rate(value, Sampler.create(value)) : null;
+    }
+
+    Rate(float value, Sampler sampler) {
+      this.value = value;
+      this.sampler = sampler;
+    }
+
+    /** Returns this instance when unchanged, so that sampler state isn't reset. */
+    @Nullable Rate update(@Nullable Float value) {
+      if (value == null) return null;
+      return value == this.value ? this : create(value);
+    }
+
+    @Override public String toString() {
+      return String.valueOf(value);
+    }
+  }
+
+  static final class ServiceRates {
+    final Rate rate;
+    final Map<String, Rate> routes;
+
+    ServiceRates(Rate rate, Map<String, Rate> routes) {
+      this.rate = rate;
+      this.routes = routes;
+    }
+
+    @Override public String toString() {
+      return routes.isEmpty() ? rate.toString() : rate + " " + routes;
+    }
+  }
+
+  /** Immutable lookup tables compiled from the sample rate subtree. */
+  static final class Rates {
+    static final Rates DEFAULT = new Rates(
+        new Rate(DEFAULT_SAMPLE_RATE, Sampler.create(DEFAULT_SAMPLE_RATE)),
+        Collections.<String, ServiceRates>emptyMap());
+
+    final Rate global;
+    final Map<String, ServiceRates> services;
+
+    Rates(Rate global, Map<String, ServiceRates> services) {
+      this.global = global;
+      this.services = services;
+    }
+
+    Rate lookup(@Nullable String serviceName, @Nullable String route) {
+      if (serviceName == null) return global;
+      ServiceRates service = services.get(serviceName);
+      if (service == null) return global;
+      if (route == null) return service.rate;
+      Rate result = service.routes.get(route);
+      return result != null ? result : service.rate;
+    }
+
+    @Override public String toString() {
+      return services.isEmpty() ? global.toString() : global + " " + services;
+    }
+  }
 }
@@ -1,6 +1,7 @@
 package com.github.kristofa.brave.sampler;
 
 import java.io.IOException;
+import java.net.URLEncoder;
 import java.util.Random;
 import java.util.stream.LongStream;
 import org.apache.curator.test.TestingServer;
@@ -9,6 +10,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.assertj.core.data.Percentage.withPercentage;
 
 public class ZooKeeperSamplerTest {
@@ -68,9 +70,118 @@ public class ZooKeeperSamplerTest {
         .containsExactly(traceIds);
   }
 
+  @Test
+  public void updatesRate() throws Exception {
+    setRate(1.0f);
+
+    sampler.getZkCurator().setData().forPath(SAMPLE_RATE_NODE, "0.0".getBytes());
+    awaitRate(null, null, 0.0f);
+
+    assertThat(LongStream.of(traceIds).filter(sampler::isSampled).findAny())
+        .isEmpty();
+  }
+
+  @Test
+  public void constructorDoesntBlockWhenZooKeeperIsDown() throws Exception {
+    zooKeeperTestServer.stop();
+
+    long start = System.currentTimeMillis();
+    try (ZooKeeperSampler sampler =
+             new ZooKeeperSampler(zooKeeperTestServer.getConnectString(), SAMPLE_RATE_NODE)) {
+      assertThat(System.currentTimeMillis() - start).isLessThan(1000L);
+      assertThat(sampler.isSampled(1L)).isFalse();
+    }
+  }
+
+  @Test
+  public void serviceOverridesGlobalRate() throws Exception {
+    setRate(0.0f);
+    create(SAMPLE_RATE_NODE + "/users", "1.0");
+    awaitRate("users", null, 1.0f);
+
+    assertThat(sampler.isSampled("users", null, 1L)).isTrue();
+    assertThat(sampler.isSampled("users", "/api", 1L)).isTrue();
+    assertThat(sampler.isSampled("accounts", null, 1L)).isFalse();
+    assertThat(sampler.isSampled(1L)).isFalse();
+  }
+
+  @Test
+  public void routeOverridesServiceRate() throws Exception {
+    setRate(1.0f);
+    create(SAMPLE_RATE_NODE + "/users", "0.0");
+    awaitRate("users", null, 0.0f);
+    create(SAMPLE_RATE_NODE + "/users/" + URLEncoder.encode("/api/login", "UTF-8"), "1.0");
+    awaitRate("users", "/api/login", 1.0f);
+
+    assertThat(sampler.isSampled("users", "/api/login", 1L)).isTrue();
+    assertThat(sampler.isSampled("users", "/api/logout", 1L)).isFalse();
+    assertThat(sampler.isSampled(1L)).isTrue();
+  }
+
+  @Test
+  public void serviceWithoutDataInheritsGlobalRate() throws Exception {
+    setRate(1.0f);
+    create(SAMPLE_RATE_NODE + "/users", "");
+    create(SAMPLE_RATE_NODE + "/users/login", "0.0");
+    awaitRate("users", "login", 0.0f);
+
+    assertThat(sampler.sampleRate("users", null)).isEqualTo(1.0f);
+  }
+
+  @Test
+  public void ignoresInvalidRate() throws Exception {
+    setRate(1.0f);
+    create(SAMPLE_RATE_NODE + "/users", "2.0");
+    create(SAMPLE_RATE_NODE + "/accounts", "0.0");
+    awaitRate("accounts", null, 0.0f);
+
+    assertThat(sampler.sampleRate("users", null)).isEqualTo(1.0f);
+  }
+
+  @Test
+  public void tracksInvalidRatesToLogEachValueOnce() throws Exception {
+    String users = SAMPLE_RATE_NODE + "/users";
+    setRate(1.0f);
+    create(users, "2.0");
+    create(SAMPLE_RATE_NODE + "/accounts", "0.0"); // refreshes while users is still invalid
+    awaitRate("accounts", null, 0.0f);
+    assertThat(sampler.invalidRates).containsOnly(entry(users, "2.0"));
+
+    sampler.getZkCurator().setData().forPath(users, "3.0".getBytes());
+    create(SAMPLE_RATE_NODE + "/orders", "0.5");
+    awaitRate("orders", null, 0.5f);
+    assertThat(sampler.invalidRates).containsOnly(entry(users, "3.0"));
+
+    sampler.getZkCurator().setData().forPath(users, "0.5".getBytes());
+    awaitRate("users", null, 0.5f);
+    assertThat(sampler.invalidRates).isEmpty();
+  }
+
+  @Test
+  public void removingRouteRevertsToServiceRate() throws Exception {
+    setRate(0.0f);
+    String route = SAMPLE_RATE_NODE + "/users/login";
+    create(route, "1.0");
+    awaitRate("users", "login", 1.0f);
+
+    sampler.getZkCurator().delete().forPath(route);
+    awaitRate("users", "login", 0.0f);
+  }
+
   private void setRate(float rate) throws Exception {
-    sampler.getZkCurator().create().creatingParentsIfNeeded()
-        .forPath(SAMPLE_RATE_NODE, String.valueOf(rate).getBytes());
-    Thread.sleep(100);
+    create(SAMPLE_RATE_NODE, String.valueOf(rate));
+    awaitRate(null, null, rate);
+  }
+
+  private void create(String path, String value) throws Exception {
+    sampler.getZkCurator().create().creatingParentsIfNeeded().forPath(path, value.getBytes());
+  }
+
+  /** Sample rates are compiled asynchronously, so we have to wait for them to apply. */
+  private void awaitRate(String serviceName, String route, float rate) throws Exception {
+    for (int i = 0; i < 100 && sampler.sampleRate(serviceName, route) != rate; i++) {
+      Thread.sleep(50);
+    }
+    assertThat(sampler.sampleRate(serviceName, route)).isEqualTo(rate);
   }
 }
@@ -0,0 +1,104 @@
+package com.github.kristofa.brave.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzips into another stream, reusing its deflater and buffer across messages. Unlike {@link
+ * java.util.zip.GZIPOutputStream}, this allocates nothing per message, so instances are borrowed
+ * from a {@link Pool} owned by the sender.
+ *
+ * <p>Call {@link #open} before writing a message and {@link #finish} after. Neither closes the
+ * underlying stream.
+ */
+final class GzipStream extends OutputStream {
+  static final byte[] HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0};
+
+  final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true); // raw, as we frame
+  final CRC32 crc = new CRC32();
+  final byte[] buffer = new byte[8192];
+  final byte[] oneByte = new byte[1];
+  OutputStream out;
+
+  /** Starts a new gzip member, written to the input. */
+  GzipStream open(OutputStream out) throws IOException {
+    deflater.reset();
+    crc.reset();
+    this.out = out;
+    out.write(HEADER);
+    return this;
+  }
+
+  @Override public void write(int b) throws IOException {
+    oneByte[0] = (byte) b;
+    write(oneByte, 0, 1);
+  }
+
+  @Override public void write(byte[] b, int off, int len) throws IOException {
+    if (len == 0) return;
+    crc.update(b, off, len);
+    deflater.setInput(b, off, len);
+    while (!deflater.needsInput()) deflate();
+  }
+
+  /** Flushes compressed data and writes the gzip trailer, but doesn't close the output. */
+  void finish() throws IOException {
+    deflater.finish();
+    while (!deflater.finished()) deflate();
+    writeIntLE((int) crc.getValue());
+    writeIntLE((int) deflater.getBytesRead());
+    out = null;
+  }
+
+  void deflate() throws IOException {
+    int length = deflater.deflate(buffer, 0, buffer.length);
+    if (length > 0) out.write(buffer, 0, length);
+  }
+
+  void writeIntLE(int i) throws IOException {
+    buffer[0] = (byte) i;
+    buffer[1] = (byte) (i >>> 8);
+    buffer[2] = (byte) (i >>> 16);
+    buffer[3] = (byte) (i >>> 24);
+    out.write(buffer, 0, 4);
+  }
+
+  /** Releases the deflater's native memory. This can't be used afterwards. */
+  void end() {
+    deflater.end();
+  }
+
+  /**
+   * Streams not in use, which grow to the count of concurrent messages. A deflater holds native
+   * memory until ended, so the pool is closed with its sender, instead of being left to threads
+   * that may exit without ending theirs.
+   */
+  static final class Pool implements Closeable {
+    final ConcurrentLinkedQueue<GzipStream> idle = new ConcurrentLinkedQueue<GzipStream>();
+    volatile boolean closed;
+
+    GzipStream acquire() {
+      GzipStream result = idle.poll();
+      return result != null ? result : new GzipStream();
+    }
+
+    /** Returns the stream for reuse, or ends it if the pool was closed. */
+    void release(GzipStream stream) {
+      if (!closed) {
+        idle.offer(stream);
+        if (!closed || !idle.remove(stream)) return; // else raced with close
+      }
+      stream.end();
+    }
+
+    /** Ends idle streams. Those in use are ended when released. */
+    @Override public void close() {
+      closed = true;
+      for (GzipStream stream; (stream = idle.poll()) != null; ) stream.end();
+    }
+  }
+}
@@ -2,18 +2,28 @@ package com.github.kristofa.brave.http;
 
 import com.github.kristofa.brave.AbstractSpanCollector;
 import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
+import com.github.kristofa.brave.LoadShedding;
 import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.SpanCollectorOptions;
+import com.github.kristofa.brave.SpanEncoding;
+import com.github.kristofa.brave.SpilloverBuffer;
+import com.github.kristofa.brave.TraceGrouping;
+import com.github.kristofa.brave.internal.DefaultSpanCodec;
+import com.github.kristofa.brave.internal.Nullable;
 import com.google.auto.value.AutoValue;
-import com.twitter.zipkin.gen.SpanCodec;
-import java.io.ByteArrayOutputStream;
+import com.twitter.zipkin.gen.Span;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.zip.GZIPOutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * SpanCollector which submits spans to Zipkin, using its {@code POST /spans} endpoint.
+ * SpanCollector which submits spans to Zipkin, using its {@code POST /api/v1/spans} endpoint, or
+ * {@code POST /api/v2/spans} when a v2 {@link Config.Builder#encoding encoding} is configured.
  *
  * @deprecated replaced by {@link zipkin.reporter.AsyncReporter} and {@code URLConnectionSender}
  *             located in the "io.zipkin.reporter:zipkin-sender-urlconnection" dependency.
@@ -28,41 +38,143 @@ public final class HttpSpanCollector extends AbstractSpanCollector {
           .connectTimeout(10 * 1000)
           .readTimeout(60 * 1000)
           .compressionEnabled(false)
-          .flushInterval(1);
+          .encoding(SpanEncoding.V1_JSON)
+          .maxInFlightRequests(1)
+          .messageTimeout(1, TimeUnit.SECONDS)
+          .messageMaxBytes(DEFAULT_MESSAGE_MAX_BYTES)
+          .loadSheddingThreshold(1.0f)
+          .queuedMaxSpans(DEFAULT_QUEUED_MAX_SPANS)
+          .queuedMaxBytes(DEFAULT_QUEUED_MAX_BYTES)
+          .priorityQueuedMaxSpans(DEFAULT_PRIORITY_QUEUED_MAX_SPANS)
+          .traceGrouping(TraceGrouping.NONE);
     }
 
     abstract int connectTimeout();
 
     abstract int readTimeout();
 
-    abstract int flushInterval();
+    abstract long messageTimeoutMillis();
+
+    abstract int messageMaxBytes();
+
+    abstract float loadSheddingThreshold();
+
+    abstract int queuedMaxSpans();
+
+    abstract int queuedMaxBytes();
+
+    abstract int priorityQueuedMaxSpans();
 
     abstract boolean compressionEnabled();
 
+    abstract SpanEncoding encoding();
+
+    abstract int maxInFlightRequests();
+
+    @Nullable abstract SpilloverBuffer spillover();
+
+    abstract TraceGrouping traceGrouping();
+
     @AutoValue.Builder
-    public interface Builder {
+    public static abstract class Builder {
       /** Default 10 * 1000 milliseconds. 0 implies no timeout. */
-      Builder connectTimeout(int connectTimeout);
+      public abstract Builder connectTimeout(int connectTimeout);
 
       /** Default 60 * 1000 milliseconds. 0 implies no timeout. */
-      Builder readTimeout(int readTimeout);
+      public abstract Builder readTimeout(int readTimeout);
 
-      /** Default 1 second. 0 implies spans are {@link #flush() flushed} externally. */
-      Builder flushInterval(int flushInterval);
+      /**
+       * Default 1 second. 0 implies spans are {@link #flush() flushed} externally.
+       *
+       * @see #messageTimeout(long, TimeUnit)
+       */
+      public final Builder flushInterval(int flushInterval) {
+        return messageTimeout(flushInterval, TimeUnit.SECONDS);
+      }
+
+      /**
+       * Default 1 second. Maximum time a span waits before it is sent. This has millisecond
+       * granularity. 0 implies spans are {@link #flush() flushed} externally.
+       */
+      public final Builder messageTimeout(long timeout, TimeUnit unit) {
+        return messageTimeoutMillis(unit.toMillis(timeout));
+      }
+
+      abstract Builder messageTimeoutMillis(long messageTimeoutMillis);
+
+      /**
+       * Default 5MiB. Spans are sent as soon as their estimated encoded size reaches this, or the
+       * message timeout, whichever comes first.
+       */
+      public abstract Builder messageMaxBytes(int messageMaxBytes);
+
+      /**
+       * Default 1.0, which drops spans only when the queue is full. Otherwise, the fraction of the
+       * queue in use before whole traces are shed. See {@link LoadShedding}.
+       */
+      public abstract Builder loadSheddingThreshold(float loadSheddingThreshold);
+
+      /** Default 1000. Maximum pending spans. */
+      public abstract Builder queuedMaxSpans(int queuedMaxSpans);
+
+      /**
+       * Default 1% of the heap. Maximum estimated encoded size of pending spans. This protects
+       * against a few large spans exhausting memory.
+       */
+      public abstract Builder queuedMaxBytes(int queuedMaxBytes);
+
+      /**
+       * Default 100. Maximum pending debug or error spans, which are queued apart from others, so
+       * that they aren't dropped when others fill the queue, and are sent first. 0 queues them
+       * with others.
+       */
+      public abstract Builder priorityQueuedMaxSpans(int priorityQueuedMaxSpans);
 
       /**
        * Default false. true implies that spans will be gzipped before transport.
        *
        * <p>Note: This feature requires zipkin-scala 1.34+ or zipkin-java 0.6+
        */
-      Builder compressionEnabled(boolean compressSpans);
+      public abstract Builder compressionEnabled(boolean compressSpans);
+
+      /**
+       * Default {@link SpanEncoding#V1_JSON}. Otherwise, spans are sent in a v2 format, to {@code
+       * POST /api/v2/spans}, which needs zipkin 2+ for json, or a server accepting proto3.
+       *
+       * <p>{@link NioHttpSpanCollector} doesn't support {@link SpanEncoding#PROTO3}.
+       */
+      public abstract Builder encoding(SpanEncoding encoding);
+
+      /**
+       * Default 1, which sends one message at a time on the flushing thread. Otherwise, the number
+       * of messages that can be sent concurrently, so that a slow request doesn't delay the rest.
+       * When all are in flight, flushing waits and spans remain queued.
+       */
+      public abstract Builder maxInFlightRequests(int maxInFlightRequests);
 
-      Config build();
+      /**
+       * Default null, which drops spans when requests fail, the queue is full or on close.
+       * Otherwise, spans are spilled to this buffer, and replayed from it once requests succeed.
+       * The buffer is closed with the collector.
+       */
+      public abstract Builder spillover(@Nullable SpilloverBuffer spillover);
+
+      /**
+       * Default {@link TraceGrouping#NONE}, which sends spans in the order they finished.
+       * Otherwise, spans of the same trace are adjacent in messages, which storage that clusters
+       * by trace ID writes more efficiently.
+       */
+      public abstract Builder traceGrouping(TraceGrouping traceGrouping);
+
+      public abstract Config build();
     }
   }
 
-  private final String url;
+  static final int CHUNK_LENGTH = 8192;
+
+  private final URL url;
   private final Config config;
+  private final GzipStream.Pool gzipStreams = new GzipStream.Pool();
 
   /**
    * Create a new instance with default configuration.
@@ -88,31 +200,98 @@ public final class HttpSpanCollector extends AbstractSpanCollector {
 
   // Visible for testing. Ex when tests need to explicitly control flushing, set interval to 0.
   HttpSpanCollector(String baseUrl, Config config, SpanCollectorMetricsHandler metrics) {
-    super(SpanCodec.JSON, metrics,  config.flushInterval());
-    this.url = baseUrl + (baseUrl.endsWith("/") ? "" : "/") + "api/v1/spans";
+    super(config.encoding().codec(), metrics, SpanCollectorOptions.builder()
+        .loadShedding(LoadShedding.create(config.loadSheddingThreshold()))
+        .queuedMaxSpans(config.queuedMaxSpans())
+        .queuedMaxBytes(config.queuedMaxBytes())
+        .priorityQueuedMaxSpans(config.priorityQueuedMaxSpans())
+        .messageMaxBytes(config.messageMaxBytes())
+        .messageTimeout(config.messageTimeoutMillis(), TimeUnit.MILLISECONDS)
+        .traceGrouping(config.traceGrouping())
+        .maxInFlightSends(config.maxInFlightRequests())
+        .spillover(config.spillover()).build());
+    this.url = url(baseUrl, config.encoding());
     this.config = config;
   }
 
+  /** The endpoint accepting messages of the encoding. */
+  static URL url(String baseUrl, SpanEncoding encoding) {
+    String path = encoding == SpanEncoding.V1_JSON ? "api/v1/spans" : "api/v2/spans";
+    try {
+      return new URL(baseUrl + (baseUrl.endsWith("/") ? "" : "/") + path);
+    } catch (MalformedURLException e) {
+      throw new IllegalArgumentException(e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Encodes each span directly into the request body, which is sent with chunked encoding. When
+   * compression is enabled, the body is gzipped as it is written, with a deflater reused across
+   * messages. This avoids materializing the encoded, then compressed message, or any span.
+   */
+  @Override
+  protected void sendSpans(List<Span> spans) throws IOException {
+    HttpURLConnection connection = openConnection();
+    connection.setChunkedStreamingMode(CHUNK_LENGTH);
+    OutputStream out = connection.getOutputStream();
+    if (config.compressionEnabled()) {
+      GzipStream gzip = gzipStreams.acquire();
+      try {
+        DefaultSpanCodec.writeSpans(codec(), spans, gzip.open(out));
+        gzip.finish();
+      } finally {
+        gzipStreams.release(gzip);
+      }
+    } else {
+      DefaultSpanCodec.writeSpans(codec(), spans, out);
+    }
+    out.close();
+    readResponse(connection);
+  }
+
   @Override
   protected void sendSpans(byte[] json) throws IOException {
+    HttpURLConnection connection = openConnection();
+    if (config.compressionEnabled()) {
+      connection.setChunkedStreamingMode(CHUNK_LENGTH);
+      OutputStream out = connection.getOutputStream();
+      GzipStream gzip = gzipStreams.acquire();
+      try {
+        gzip.open(out).write(json);
+        gzip.finish();
+      } finally {
+        gzipStreams.release(gzip);
+      }
+      out.close();
+    } else {
+      connection.setFixedLengthStreamingMode(json.length);
+      connection.getOutputStream().write(json);
+    }
+    readResponse(connection);
+  }
+
+  /** Also ends the deflaters of compressed messages, once any in flight are sent. */
+  @Override
+  public void close() {
+    super.close();
+    gzipStreams.close();
+  }
+
+  HttpURLConnection openConnection() throws IOException {
     // intentionally not closing the connection, so as to use keep-alives
-    HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
     connection.setConnectTimeout(config.connectTimeout());
     connection.setReadTimeout(config.readTimeout());
     connection.setRequestMethod("POST");
-    connection.addRequestProperty("Content-Type", "application/json");
+    connection.addRequestProperty("Content-Type", config.encoding().mediaType());
     if (config.compressionEnabled()) {
       connection.addRequestProperty("Content-Encoding", "gzip");
-      ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
-      try (GZIPOutputStream compressor = new GZIPOutputStream(gzipped)) {
-        compressor.write(json);
-      }
-      json = gzipped.toByteArray();
     }
     connection.setDoOutput(true);
-    connection.setFixedLengthStreamingMode(json.length);
-    connection.getOutputStream().write(json);
+    return connection;
+  }
 
+  static void readResponse(HttpURLConnection connection) throws IOException {
     try (InputStream in = connection.getInputStream()) {
       while (in.read() != -1) ; // skip
     } catch (IOException e) {
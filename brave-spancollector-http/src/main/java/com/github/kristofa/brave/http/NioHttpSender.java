@@ -0,0 +1,737 @@
+package com.github.kristofa.brave.http;
+
+import com.github.kristofa.brave.SpanEncoding;
+import com.google.auto.value.AutoValue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin.reporter.BytesMessageEncoder;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.Sender;
+
+/**
+ * Sends json messages to Zipkin's {@code POST /api/v1/spans} endpoint, without blocking the caller.
+ * Messages of v2 spans, such as those encoded by {@link com.github.kristofa.brave.V2SpanEncoder},
+ * are sent to {@code POST /api/v2/spans} instead, when {@link Config.Builder#encoding configured}.
+ *
+ * <p>A single thread owns a selector and a small number of persistent HTTP/1.1 connections.
+ * Requests are written to the first connection with room, and several may be pipelined on one
+ * connection, in which case responses are matched to requests in order. Callbacks run on the
+ * selector thread, so must not block.
+ *
+ * <p>The host is resolved on the thread sending spans, so that a slow DNS lookup never stalls the
+ * selector thread. The address is reused until a connection to it fails, then resolved again.
+ *
+ * <p>This can be used with {@link zipkin.reporter.AsyncReporter} in Brave 4, or via {@link
+ * NioHttpSpanCollector} in Brave 3. Only plain-text http is supported.
+ */
+public final class NioHttpSender implements Sender {
+  static final Logger logger = Logger.getLogger(NioHttpSender.class.getName());
+  static final Charset ASCII = Charset.forName("US-ASCII");
+
+  @AutoValue
+  public static abstract class Config {
+    public static Builder builder() {
+      return new AutoValue_NioHttpSender_Config.Builder()
+          .connectTimeout(10 * 1000)
+          .readTimeout(60 * 1000)
+          .compressionEnabled(false)
+          .encoding(SpanEncoding.V1_JSON)
+          .messageMaxBytes(5 * 1024 * 1024)
+          .maxConnections(1)
+          .maxRequestsPerConnection(1);
+    }
+
+    abstract int connectTimeout();
+
+    abstract int readTimeout();
+
+    abstract boolean compressionEnabled();
+
+    abstract SpanEncoding encoding();
+
+    abstract int messageMaxBytes();
+
+    abstract int maxConnections();
+
+    abstract int maxRequestsPerConnection();
+
+    @AutoValue.Builder
+    public interface Builder {
+      /** Default 10 * 1000 milliseconds. 0 implies no timeout. */
+      Builder connectTimeout(int connectTimeout);
+
+      /**
+       * Default 60 * 1000 milliseconds. Maximum time waiting for a response to arrive, or make
+       * progress. 0 implies no timeout.
+       */
+      Builder readTimeout(int readTimeout);
+
+      /** Default false. true implies that messages will be gzipped before transport. */
+      Builder compressionEnabled(boolean compressionEnabled);
+
+      /**
+       * Default {@link SpanEncoding#V1_JSON}. {@link SpanEncoding#V2_JSON} sends messages to {@code
+       * POST /api/v2/spans}. {@link SpanEncoding#PROTO3} is unsupported, as {@link Encoding} can't
+       * describe how proto3 spans are combined into a message.
+       */
+      Builder encoding(SpanEncoding encoding);
+
+      /** Default 5MiB. Maximum size of a message, which is advisory to the caller. */
+      Builder messageMaxBytes(int messageMaxBytes);
+
+      /** Default 1. Maximum persistent connections to Zipkin. */
+      Builder maxConnections(int maxConnections);
+
+      /**
+       * Default 1. Requests written to a connection before its first response is read. Values
+       * above one pipeline requests, which the server must support.
+       */
+      Builder maxRequestsPerConnection(int maxRequestsPerConnection);
+
+      Config build();
+    }
+  }
+
+  /** @param baseUrl URL of the zipkin query server instance. Like: http://localhost:9411/ */
+  public static NioHttpSender create(String baseUrl) {
+    return new NioHttpSender(baseUrl, Config.builder().build());
+  }
+
+  /**
+   * @param baseUrl URL of the zipkin query server instance. Like: http://localhost:9411/
+   * @param config includes connection limits and timeouts
+   */
+  public static NioHttpSender create(String baseUrl, Config config) {
+    return new NioHttpSender(baseUrl, config);
+  }
+
+  final Config config;
+  final InetSocketAddress address; // unresolved
+  volatile InetSocketAddress resolved; // null until resolved by a caller of sendSpans
+  final byte[] requestHeaders; // all but content-length
+  final Queue<Request> submitted = new ConcurrentLinkedQueue<Request>();
+  final AtomicReference<IoLoop> loop = new AtomicReference<IoLoop>();
+  final GzipStream.Pool gzipStreams = new GzipStream.Pool();
+  volatile boolean closeCalled;
+
+  NioHttpSender(String baseUrl, Config config) {
+    if (config.maxConnections() <= 0) throw new IllegalArgumentException("maxConnections <= 0");
+    if (config.maxRequestsPerConnection() <= 0) {
+      throw new IllegalArgumentException("maxRequestsPerConnection <= 0");
+    }
+    if (config.encoding() == SpanEncoding.PROTO3) {
+      throw new IllegalArgumentException("PROTO3 is unsupported: use V1_JSON or V2_JSON");
+    }
+    URL url = HttpSpanCollector.url(baseUrl, config.encoding());
+    if (!"http".equals(url.getProtocol())) {
+      throw new IllegalArgumentException("only http is supported: " + baseUrl);
+    }
+    int port = url.getPort() != -1 ? url.getPort() : 80;
+    this.config = config;
+    this.address = InetSocketAddress.createUnresolved(url.getHost(), port);
+    StringBuilder headers = new StringBuilder()
+        .append("POST ").append(url.getPath()).append(" HTTP/1.1\r\n")
+        .append("Host: ").append(url.getHost()).append(':').append(port).append("\r\n")
+        .append("Content-Type: ").append(config.encoding().mediaType()).append("\r\n");
+    if (config.compressionEnabled()) headers.append("Content-Encoding: gzip\r\n");
+    this.requestHeaders = headers.toString().getBytes(ASCII);
+  }
+
+  @Override public Encoding encoding() {
+    return Encoding.JSON;
+  }
+
+  @Override public int messageMaxBytes() {
+    return config.messageMaxBytes();
+  }
+
+  /**
+   * Same as {@link Encoding#listSizeInBytes}, but iterates instead of indexing the list. {@link
+   * zipkin.reporter.AsyncReporter} sizes its linked list of pending spans after adding each, so
+   * indexing made bundling a large message cubic in its span count.
+   */
+  @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+    return jsonListSizeInBytes(encodedSpans);
+  }
+
+  /** Size of a json list of the spans: brackets, and a comma between each span. */
+  static int jsonListSizeInBytes(List<byte[]> encodedSpans) {
+    int sizeInBytes = 2, count = 0;
+    for (byte[] span : encodedSpans) {
+      sizeInBytes += span.length;
+      count++;
+    }
+    return count > 1 ? sizeInBytes + count - 1 : sizeInBytes;
+  }
+
+  /**
+   * Encodes the message on the calling thread, then queues it for the selector thread. The
+   * callback is invoked once the response is read, or the request failed.
+   */
+  @Override public void sendSpans(List<byte[]> encodedSpans, Callback callback) {
+    if (closeCalled) {
+      callback.onError(new IllegalStateException("closed"));
+      return;
+    }
+    if (resolved == null && (resolved = resolve(address)) == null) {
+      callback.onError(new IOException("unresolved address: " + address));
+      return;
+    }
+    byte[] body = BytesMessageEncoder.JSON.encode(encodedSpans);
+    try {
+      if (config.compressionEnabled()) body = gzip(body);
+    } catch (IOException e) {
+      callback.onError(e);
+      return;
+    }
+    byte[] contentLength = ("Content-Length: " + body.length + "\r\n\r\n").getBytes(ASCII);
+    submitted.add(new Request(new ByteBuffer[] {
+        ByteBuffer.wrap(requestHeaders), ByteBuffer.wrap(contentLength), ByteBuffer.wrap(body)
+    }, callback));
+    IoLoop loop = this.loop.get();
+    if (loop == null) {
+      IoLoop newLoop;
+      try {
+        newLoop = new IoLoop(this);
+      } catch (IOException e) {
+        failSubmitted(e);
+        return;
+      }
+      if (this.loop.compareAndSet(null, newLoop)) {
+        newLoop.thread.start();
+        loop = newLoop;
+      } else {
+        newLoop.closeSelector();
+        loop = this.loop.get();
+      }
+    }
+    if (loop != null) loop.selector.wakeup();
+    if (closeCalled) failSubmitted(new IllegalStateException("closed")); // raced with close
+  }
+
+  /** Sends an empty message, waiting for it to complete. */
+  @Override public CheckResult check() {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    sendSpans(Collections.<byte[]>emptyList(), new Callback() {
+      @Override public void onComplete() {
+        latch.countDown();
+      }
+
+      @Override public void onError(Throwable t) {
+        error.set(t);
+        latch.countDown();
+      }
+    });
+    try {
+      long timeout = config.connectTimeout() + config.readTimeout();
+      if (timeout == 0) {
+        latch.await();
+      } else if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+        return CheckResult.failed(new IOException("timed out after " + timeout + "ms"));
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return CheckResult.failed(e);
+    }
+    Throwable t = error.get();
+    if (t == null) return CheckResult.OK;
+    return CheckResult.failed(t instanceof Exception ? (Exception) t : new RuntimeException(t));
+  }
+
+  /** Fails queued and in-flight requests, and closes connections. Does not block. */
+  @Override public void close() {
+    if (closeCalled) return;
+    closeCalled = true;
+    gzipStreams.close();
+    IoLoop loop = this.loop.get();
+    if (loop != null) {
+      loop.selector.wakeup();
+    } else {
+      failSubmitted(new IllegalStateException("closed"));
+    }
+  }
+
+  /** Looks up the host, returning null if it couldn't be resolved. */
+  static InetSocketAddress resolve(InetSocketAddress address) {
+    InetSocketAddress result = new InetSocketAddress(address.getHostString(), address.getPort());
+    return result.isUnresolved() ? null : result;
+  }
+
+  void failSubmitted(Throwable cause) {
+    for (Request request; (request = submitted.poll()) != null; ) {
+      request.fail(cause);
+    }
+  }
+
+  byte[] gzip(byte[] body) throws IOException {
+    ByteArrayOutputStream gzipped = new ByteArrayOutputStream(body.length / 4 + 32);
+    GzipStream gzip = gzipStreams.acquire();
+    try {
+      gzip.open(gzipped).write(body);
+      gzip.finish();
+    } finally {
+      gzipStreams.release(gzip);
+    }
+    return gzipped.toByteArray();
+  }
+
+  @Override public String toString() {
+    return "NioHttpSender(" + address + ")";
+  }
+
+  static final class Request {
+    final ByteBuffer[] buffers;
+    final Callback callback;
+
+    Request(ByteBuffer[] buffers, Callback callback) {
+      this.buffers = buffers;
+      this.callback = callback;
+    }
+
+    boolean written() {
+      return !buffers[buffers.length - 1].hasRemaining();
+    }
+
+    void complete() {
+      try {
+        callback.onComplete();
+      } catch (RuntimeException e) {
+        logger.log(Level.FINE, "error completing callback", e);
+      }
+    }
+
+    void fail(Throwable cause) {
+      try {
+        callback.onError(cause);
+      } catch (RuntimeException e) {
+        logger.log(Level.FINE, "error failing callback", e);
+      }
+    }
+  }
+
+  /** Owns all connections, and is the only thread that reads or writes them. */
+  static final class IoLoop implements Runnable {
+    final NioHttpSender sender;
+    final Selector selector;
+    final Thread thread;
+    final ArrayDeque<Request> waiting = new ArrayDeque<Request>();
+    final List<Connection> connections = new ArrayList<Connection>();
+
+    IoLoop(NioHttpSender sender) throws IOException {
+      this.sender = sender;
+      this.selector = Selector.open();
+      this.thread = new Thread(this, sender.toString());
+      this.thread.setDaemon(true);
+    }
+
+    @Override public void run() {
+      try {
+        while (!sender.closeCalled) {
+          selector.select(selectTimeout());
+          for (Request request; (request = sender.submitted.poll()) != null; ) {
+            waiting.add(request);
+          }
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection connection = (Connection) key.attachment();
+            try {
+              if (key.isConnectable()) connection.finishConnect();
+              if (key.isValid() && key.isWritable()) connection.write();
+              if (key.isValid() && key.isReadable()) connection.read();
+            } catch (IOException e) {
+              close(connection, e);
+            }
+          }
+          expireTimeouts();
+          dispatch();
+        }
+      } catch (IOException e) {
+        logger.log(Level.WARNING, "selector failed", e);
+      } catch (RuntimeException e) {
+        logger.log(Level.WARNING, "unexpected error sending spans", e);
+      } finally {
+        // unless closed, the next message starts a new loop. Clear this one first, so that a
+        // message submitted while shutting down either starts a new loop, or is failed below.
+        sender.loop.compareAndSet(this, null);
+        shutdown();
+      }
+    }
+
+    /** Assigns waiting requests to connections with room, opening connections as needed. */
+    void dispatch() {
+      while (!waiting.isEmpty()) {
+        Connection connection = null;
+        for (int i = 0, length = connections.size(); i < length; i++) {
+          Connection next = connections.get(i);
+          if (next.hasRoom() && (connection == null || next.inFlight.size() < connection.inFlight
+              .size())) {
+            connection = next;
+          }
+        }
+        if (connection == null) {
+          if (connections.size() >= sender.config.maxConnections()) return;
+          try {
+            connection = new Connection(this);
+          } catch (IOException e) {
+            failWaiting(e);
+            return;
+          }
+          connections.add(connection);
+        }
+        connection.add(waiting.poll());
+      }
+    }
+
+    long selectTimeout() {
+      long now = System.nanoTime(), timeout = 0;
+      for (int i = 0, length = connections.size(); i < length; i++) {
+        long deadline = connections.get(i).deadline;
+        if (deadline == 0) continue;
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - now));
+        timeout = timeout == 0 ? millis : Math.min(timeout, millis);
+      }
+      return timeout;
+    }
+
+    void expireTimeouts() {
+      long now = System.nanoTime();
+      for (int i = connections.size() - 1; i >= 0; i--) {
+        Connection connection = connections.get(i);
+        if (connection.deadline != 0 && now - connection.deadline >= 0) {
+          String phase = connection.connected ? "read" : "connect";
+          close(connection, new IOException(phase + " timed out: " + sender.address));
+        }
+      }
+    }
+
+    void close(Connection connection, Throwable cause) {
+      // resolve again on the next message, in case the host moved
+      if (!connection.connected) sender.resolved = null;
+      connections.remove(connection);
+      connection.close(cause);
+    }
+
+    void failWaiting(Throwable cause) {
+      for (Request request; (request = waiting.poll()) != null; ) {
+        request.fail(cause);
+      }
+    }
+
+    void shutdown() {
+      IllegalStateException closed = new IllegalStateException("closed");
+      if (!sender.closeCalled) closed = new IllegalStateException("sender thread stopped");
+      for (int i = connections.size() - 1; i >= 0; i--) {
+        close(connections.get(i), closed);
+      }
+      failWaiting(closed);
+      // a new loop owns messages submitted after this one was cleared
+      if (sender.closeCalled || sender.loop.get() == null) sender.failSubmitted(closed);
+      closeSelector();
+    }
+
+    void closeSelector() {
+      try {
+        selector.close();
+      } catch (IOException ignored) {
+      }
+    }
+  }
+
+  /** A persistent connection, with requests in the order written. */
+  static final class Connection {
+    final IoLoop loop;
+    final Config config;
+    final SocketChannel channel;
+    final SelectionKey key;
+    final ArrayDeque<Request> inFlight = new ArrayDeque<Request>(); // awaiting a response
+    final ArrayDeque<Request> unwritten = new ArrayDeque<Request>(); // subset of in-flight
+    final ResponseParser parser = new ResponseParser();
+    final ByteBuffer readBuffer = ByteBuffer.allocate(8192);
+    boolean connected, closing;
+    long deadline; // System.nanoTime of the connect or read timeout, or 0 if none
+
+    Connection(IoLoop loop) throws IOException {
+      this.loop = loop;
+      this.config = loop.sender.config;
+      this.channel = SocketChannel.open();
+      try {
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        InetSocketAddress resolved = loop.sender.resolved;
+        if (resolved == null) throw new IOException("unresolved address: " + loop.sender.address);
+        connected = channel.connect(resolved);
+        key = channel.register(loop.selector, connected ? 0 : SelectionKey.OP_CONNECT, this);
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      if (!connected && config.connectTimeout() > 0) {
+        deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.connectTimeout());
+      }
+    }
+
+    boolean hasRoom() {
+      return !closing && inFlight.size() < config.maxRequestsPerConnection();
+    }
+
+    void add(Request request) {
+      inFlight.add(request);
+      unwritten.add(request);
+      if (connected) {
+        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        touch();
+      }
+    }
+
+    void finishConnect() throws IOException {
+      if (!channel.finishConnect()) return;
+      connected = true;
+      deadline = 0;
+      key.interestOps(SelectionKey.OP_READ | (unwritten.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+      if (!inFlight.isEmpty()) touch();
+    }
+
+    void write() throws IOException {
+      while (!unwritten.isEmpty()) {
+        Request request = unwritten.peek();
+        channel.write(request.buffers);
+        if (!request.written()) break; // socket buffer is full
+        unwritten.poll();
+      }
+      if (unwritten.isEmpty()) key.interestOps(SelectionKey.OP_READ);
+      touch();
+    }
+
+    void read() throws IOException {
+      int read = channel.read(readBuffer);
+      if (read == -1) {
+        if (parser.readsUntilClose()) {
+          completeResponse();
+        } else if (!inFlight.isEmpty()) {
+          throw new IOException("connection closed before response");
+        }
+        loop.close(this, new IOException("connection closed by server"));
+        return;
+      }
+      readBuffer.flip();
+      while (readBuffer.hasRemaining()) {
+        if (!parser.parse(readBuffer)) break;
+        completeResponse();
+        if (closing) break;
+      }
+      readBuffer.compact();
+      if (closing) {
+        loop.close(this, new IOException("connection closed by server"));
+      } else {
+        touch();
+      }
+    }
+
+    void completeResponse() throws IOException {
+      Request request = inFlight.poll();
+      if (request == null) throw new IOException("response without a request");
+      int status = parser.status;
+      closing = parser.connectionClose;
+      parser.reset();
+      if (status / 100 == 2) {
+        request.complete();
+      } else {
+        request.fail(new IOException("response for POST " + loop.sender.address + ": " + status));
+      }
+    }
+
+    /** Resets the read timeout when waiting on a response. */
+    void touch() {
+      deadline = inFlight.isEmpty() || config.readTimeout() == 0
+          ? 0
+          : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(config.readTimeout());
+    }
+
+    /** Requests that were pipelined aren't retried, as the server may have processed them. */
+    void close(Throwable cause) {
+      try {
+        channel.close();
+      } catch (IOException ignored) {
+      }
+      for (Request request; (request = inFlight.poll()) != null; ) {
+        request.fail(cause);
+      }
+      unwritten.clear();
+    }
+  }
+
+  /**
+   * Incrementally parses HTTP/1.1 responses, skipping their bodies. Informational (1xx) responses
+   * are skipped, as they precede the final response to a request.
+   */
+  static final class ResponseParser {
+    static final int STATUS = 0, HEADERS = 1, BODY = 2, CHUNK_SIZE = 3, CHUNK_DATA = 4,
+        CHUNK_END = 5, TRAILERS = 6, UNTIL_CLOSE = 7;
+
+    final StringBuilder line = new StringBuilder();
+    int state = STATUS;
+    int status;
+    long remaining = -1; // content length, or remaining bytes of the current chunk
+    boolean chunked, connectionClose;
+
+    /** Consumes bytes, returning true when a final response is complete. */
+    boolean parse(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        switch (state) {
+          case STATUS:
+          case HEADERS:
+          case CHUNK_SIZE:
+          case CHUNK_END:
+          case TRAILERS:
+            if (!readLine(buffer)) return false;
+            if (onLine()) return true;
+            break;
+          case BODY:
+          case CHUNK_DATA:
+            int skip = (int) Math.min(remaining, buffer.remaining());
+            buffer.position(buffer.position() + skip);
+            remaining -= skip;
+            if (remaining == 0) {
+              if (state == BODY) return true;
+              state = CHUNK_END;
+            }
+            break;
+          case UNTIL_CLOSE:
+            buffer.position(buffer.limit());
+            return false;
+          default:
+            throw new AssertionError();
+        }
+      }
+      return false;
+    }
+
+    boolean readsUntilClose() {
+      return state == UNTIL_CLOSE;
+    }
+
+    /** Returns true when a final response is complete. */
+    boolean onLine() throws IOException {
+      String value = line.toString();
+      line.setLength(0);
+      switch (state) {
+        case STATUS:
+          if (!value.startsWith("HTTP/1.") || value.length() < 12) {
+            throw new IOException("malformed status line: " + value);
+          }
+          try {
+            status = Integer.parseInt(value.substring(9, 12));
+          } catch (NumberFormatException e) {
+            throw new IOException("malformed status line: " + value);
+          }
+          if (value.startsWith("HTTP/1.0")) connectionClose = true;
+          state = HEADERS;
+          return false;
+        case HEADERS:
+          if (!value.isEmpty()) {
+            onHeader(value);
+            return false;
+          }
+          if (status / 100 == 1) { // informational: a final response follows
+            reset();
+            return false;
+          }
+          if (status == 204 || status == 304) return true;
+          if (chunked) {
+            state = CHUNK_SIZE;
+          } else if (remaining > 0) {
+            state = BODY;
+          } else if (remaining == 0) {
+            return true;
+          } else {
+            connectionClose = true;
+            state = UNTIL_CLOSE;
+          }
+          return false;
+        case CHUNK_SIZE:
+          int semicolon = value.indexOf(';');
+          String size = (semicolon != -1 ? value.substring(0, semicolon) : value).trim();
+          try {
+            remaining = Long.parseLong(size, 16);
+          } catch (NumberFormatException e) {
+            throw new IOException("malformed chunk size: " + value);
+          }
+          state = remaining == 0 ? TRAILERS : CHUNK_DATA;
+          return false;
+        case CHUNK_END:
+          state = CHUNK_SIZE;
+          return false;
+        case TRAILERS:
+          return value.isEmpty();
+        default:
+          throw new AssertionError();
+      }
+    }
+
+    void onHeader(String header) throws IOException {
+      int colon = header.indexOf(':');
+      if (colon == -1) throw new IOException("malformed header: " + header);
+      String name = header.substring(0, colon).trim();
+      String value = header.substring(colon + 1).trim();
+      if (name.equalsIgnoreCase("Content-Length")) {
+        try {
+          remaining = Long.parseLong(value);
+        } catch (NumberFormatException e) {
+          throw new IOException("malformed header: " + header);
+        }
+      } else if (name.equalsIgnoreCase("Transfer-Encoding")) {
+        chunked = value.toLowerCase().contains("chunked");
+      } else if (name.equalsIgnoreCase("Connection")) {
+        connectionClose = value.equalsIgnoreCase("close");
+      }
+    }
+
+    /** Returns true when a line ending in CRLF was read, excluding the line ending. */
+    boolean readLine(ByteBuffer buffer) throws IOException {
+      while (buffer.hasRemaining()) {
+        char c = (char) (buffer.get() & 0xff);
+        if (c == '\n') {
+          int length = line.length();
+          if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+          return true;
+        }
+        if (line.length() >= 8192) throw new IOException("line too long");
+        line.append(c);
+      }
+      return false;
+    }
+
+    void reset() {
+      state = STATUS;
+      status = 0;
+      remaining = -1;
+      chunked = false;
+      connectionClose = false;
+      line.setLength(0);
+    }
+  }
+}
@@ -0,0 +1,119 @@
+package com.github.kristofa.brave.http;
+
+import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
+import com.github.kristofa.brave.FlushingSpanCollector;
+import com.github.kristofa.brave.LoadShedding;
+import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.SpanCollectorOptions;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import zipkin.reporter.Callback;
+
+/**
+ * SpanCollector which submits spans to Zipkin with a {@link NioHttpSender}, so that flushing
+ * doesn't wait for responses.
+ *
+ * <p>This accepts the same configuration as {@link HttpSpanCollector}. Messages are sent on one
+ * persistent connection, where {@link HttpSpanCollector.Config.Builder#maxInFlightRequests} are
+ * pipelined. When that many are awaiting responses, flushing waits and spans remain queued.
+ *
+ * @deprecated replaced by {@link zipkin.reporter.AsyncReporter} and {@link NioHttpSender}.
+ */
+@Deprecated
+public final class NioHttpSpanCollector extends FlushingSpanCollector {
+
+  /**
+   * Create a new instance with default configuration.
+   *
+   * @param baseUrl URL of the zipkin query server instance. Like: http://localhost:9411/
+   * @param metrics Gets notified when spans are accepted or dropped. If you are not interested in
+   *                these events you can use {@linkplain EmptySpanCollectorMetricsHandler}
+   */
+  public static NioHttpSpanCollector create(String baseUrl, SpanCollectorMetricsHandler metrics) {
+    return new NioHttpSpanCollector(baseUrl, HttpSpanCollector.Config.builder().build(), metrics);
+  }
+
+  /**
+   * @param baseUrl URL of the zipkin query server instance. Like: http://localhost:9411/
+   * @param config includes flush interval and timeouts
+   * @param metrics Gets notified when spans are accepted or dropped. If you are not interested in
+   *                these events you can use {@linkplain EmptySpanCollectorMetricsHandler}
+   */
+  public static NioHttpSpanCollector create(String baseUrl, HttpSpanCollector.Config config,
+      SpanCollectorMetricsHandler metrics) {
+    return new NioHttpSpanCollector(baseUrl, config, metrics);
+  }
+
+  private final NioHttpSender sender;
+  private final SpanCodec codec;
+  private final SpanCollectorMetricsHandler metrics;
+  private final Semaphore inFlight;
+
+  // Visible for testing. Ex when tests need to explicitly control flushing, set interval to 0.
+  NioHttpSpanCollector(String baseUrl, HttpSpanCollector.Config config,
+      SpanCollectorMetricsHandler metrics) {
+    super(metrics, SpanCollectorOptions.builder()
+        .loadShedding(LoadShedding.create(config.loadSheddingThreshold()))
+        .queuedMaxSpans(config.queuedMaxSpans())
+        .queuedMaxBytes(config.queuedMaxBytes())
+        .messageMaxBytes(config.messageMaxBytes())
+        .messageTimeout(config.messageTimeoutMillis(), TimeUnit.MILLISECONDS).build());
+    this.sender = NioHttpSender.create(baseUrl, NioHttpSender.Config.builder()
+        .connectTimeout(config.connectTimeout())
+        .readTimeout(config.readTimeout())
+        .compressionEnabled(config.compressionEnabled())
+        .encoding(config.encoding())
+        .messageMaxBytes(config.messageMaxBytes())
+        .maxRequestsPerConnection(config.maxInFlightRequests())
+        .build());
+    this.codec = config.encoding().codec();
+    this.metrics = metrics;
+    this.inFlight = new Semaphore(config.maxInFlightRequests());
+  }
+
+  /** Blocks only while the maximum requests are awaiting responses. */
+  @Override
+  protected void reportSpans(List<Span> drained) {
+    final int spanCount = drained.size();
+    long start = System.nanoTime();
+    List<byte[]> encoded = new ArrayList<byte[]>(spanCount);
+    int bytes = 2; // brackets
+    for (int i = 0; i < spanCount; i++) {
+      byte[] span = codec.writeSpan(drained.get(i));
+      encoded.add(span);
+      bytes += span.length + (i > 0 ? 1 : 0);
+    }
+    detailedMetrics().recordEncodeNanos(System.nanoTime() - start, bytes);
+    try {
+      inFlight.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      metrics.incrementDroppedSpans(spanCount);
+      return;
+    }
+    final long sendStart = System.nanoTime();
+    sender.sendSpans(encoded, new Callback() {
+      @Override public void onComplete() {
+        detailedMetrics().recordSendNanos(System.nanoTime() - sendStart);
+        inFlight.release();
+      }
+
+      @Override public void onError(Throwable t) {
+        detailedMetrics().incrementFailedMessages(t);
+        metrics.incrementDroppedSpans(spanCount);
+        inFlight.release();
+      }
+    });
+  }
+
+  /** Drops pending spans and fails requests awaiting responses. */
+  @Override
+  public void close() {
+    super.close();
+    sender.close();
+  }
+}
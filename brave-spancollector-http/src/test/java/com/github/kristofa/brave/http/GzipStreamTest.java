@@ -0,0 +1,63 @@
+package com.github.kristofa.brave.http;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.GZIPInputStream;
+import okio.Buffer;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.failBecauseExceptionWasNotThrown;
+
+public class GzipStreamTest {
+  GzipStream.Pool pool = new GzipStream.Pool();
+
+  @Test public void gzipsEachMessage() throws Exception {
+    GzipStream gzip = pool.acquire();
+    for (String message : new String[] {"[]", "[{}]"}) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      gzip.open(out).write(message.getBytes("UTF-8"));
+      gzip.finish();
+
+      try (GZIPInputStream gunzip =
+               new GZIPInputStream(new Buffer().write(out.toByteArray()).inputStream())) {
+        assertThat(new Buffer().readFrom(gunzip).readUtf8()).isEqualTo(message);
+      }
+    }
+  }
+
+  @Test public void pool_reusesReleasedStreams() {
+    GzipStream gzip = pool.acquire();
+    pool.release(gzip);
+
+    assertThat(pool.acquire()).isSameAs(gzip);
+    assertThat(pool.acquire()).isNotSameAs(gzip);
+  }
+
+  @Test public void pool_close_endsIdleStreams() throws Exception {
+    GzipStream gzip = pool.acquire();
+    pool.release(gzip);
+
+    pool.close();
+
+    assertThat(pool.idle).isEmpty();
+    assertEnded(gzip);
+  }
+
+  @Test public void pool_close_endsStreamsInUseOnRelease() throws Exception {
+    GzipStream gzip = pool.acquire();
+
+    pool.close();
+    pool.release(gzip);
+
+    assertThat(pool.idle).isEmpty();
+    assertEnded(gzip);
+  }
+
+  static void assertEnded(GzipStream gzip) throws Exception {
+    try {
+      gzip.open(new ByteArrayOutputStream());
+      failBecauseExceptionWasNotThrown(NullPointerException.class);
+    } catch (NullPointerException expected) { // the deflater was ended
+    }
+  }
+}
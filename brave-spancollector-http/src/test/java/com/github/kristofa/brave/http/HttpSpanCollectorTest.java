@@ -1,17 +1,40 @@
 package com.github.kristofa.brave.http;
 
-import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
+import com.github.kristofa.brave.HistogramSpanCollectorMetricsHandler;
+import com.github.kristofa.brave.SpanEncoding;
 import com.github.kristofa.brave.SpanId;
+import com.github.kristofa.brave.SpilloverBuffer;
 import com.github.kristofa.brave.internal.InternalSpan;
 import com.twitter.zipkin.gen.Annotation;
 import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import zipkin.Codec;
 import zipkin.junit.HttpFailure;
 import zipkin.junit.ZipkinRule;
 
@@ -25,6 +48,8 @@ public class HttpSpanCollectorTest {
 
   @Rule
   public final ZipkinRule zipkinRule = new ZipkinRule();
+  @Rule
+  public final TemporaryFolder folder = new TemporaryFolder();
 
   TestMetricsHandler metrics = new TestMetricsHandler();
   // set flush interval to 0 so that tests can drive flushing explicitly
@@ -107,6 +132,78 @@ public class HttpSpanCollectorTest {
     }
   }
 
+  @Test
+  public void postsV2Encodings() throws Exception {
+    for (SpanEncoding encoding : asList(SpanEncoding.V2_JSON, SpanEncoding.PROTO3)) {
+      MockWebServer zipkin = new MockWebServer();
+      try {
+        zipkin.start(0);
+        zipkin.enqueue(new MockResponse());
+
+        HttpSpanCollector.Config config = HttpSpanCollector.Config.builder()
+            .flushInterval(0).encoding(encoding).build();
+        HttpSpanCollector collector =
+            new HttpSpanCollector(zipkin.url("/").toString(), config, metrics);
+        collector.collect(span(1L));
+        collector.flush(); // manually flush the span
+
+        RecordedRequest request = zipkin.takeRequest();
+        assertThat(request.getPath()).isEqualTo("/api/v2/spans");
+        assertThat(request.getHeader("Content-Type")).isEqualTo(encoding.mediaType());
+        assertThat(request.getBody().readByteArray())
+            .isEqualTo(encoding.codec().writeSpans(asList(span(1L))));
+        collector.close();
+      } finally {
+        zipkin.shutdown();
+      }
+    }
+  }
+
+  @Test
+  public void compressedMessagesReuseDeflater() throws Exception {
+    MockWebServer zipkin = new MockWebServer();
+    try {
+      zipkin.start(0);
+      zipkin.enqueue(new MockResponse());
+      zipkin.enqueue(new MockResponse());
+
+      HttpSpanCollector.Config config = HttpSpanCollector.Config.builder()
+          .flushInterval(0).compressionEnabled(true).build();
+      HttpSpanCollector collector = new HttpSpanCollector(zipkin.url("/").toString(), config, metrics);
+
+      for (long traceId = 1L; traceId <= 2L; traceId++) {
+        collector.collect(span(traceId));
+        collector.flush(); // manually flush the span
+
+        RecordedRequest request = zipkin.takeRequest();
+        assertThat(request.getHeader("Transfer-Encoding")).isEqualTo("chunked");
+        try (GZIPInputStream gunzip = new GZIPInputStream(request.getBody().inputStream())) {
+          assertThat(Codec.JSON.readSpans(new Buffer().readFrom(gunzip).readByteArray()))
+              .containsExactly(zipkinSpan(traceId));
+        }
+      }
+    } finally {
+      zipkin.shutdown();
+    }
+  }
+
+  @Test
+  public void recordsSendTimeAndFailures() throws Exception {
+    HistogramSpanCollectorMetricsHandler metrics = new HistogramSpanCollectorMetricsHandler();
+    collector.close();
+    collector = new HttpSpanCollector(zipkinRule.httpUrl(), config, metrics);
+    zipkinRule.enqueueFailure(HttpFailure.sendErrorResponse(500, "Server Error!"));
+
+    collector.collect(span(1L));
+    collector.flush(); // fails
+    collector.collect(span(2L));
+    collector.flush(); // succeeds
+
+    assertThat(metrics.messages()).isEqualTo(2);
+    assertThat(metrics.sendNanos().count()).isEqualTo(1);
+    assertThat(metrics.failedMessages()).containsOnlyKeys(IOException.class);
+  }
+
   @Test
   public void incrementsDroppedSpansWhenServerErrors() throws Exception {
     zipkinRule.enqueueFailure(HttpFailure.sendErrorResponse(500, "Server Error!"));
@@ -131,7 +228,206 @@ public class HttpSpanCollectorTest {
     assertThat(metrics.droppedSpans.get()).isEqualTo(2);
   }
 
-  static class TestMetricsHandler implements SpanCollectorMetricsHandler {
+  @Test
+  public void replaysSpilledSpansWhenServerRecovers() throws Exception {
+    collector.close();
+    collector = new HttpSpanCollector(zipkinRule.httpUrl(), HttpSpanCollector.Config.builder()
+        .flushInterval(0).spillover(SpilloverBuffer.builder(folder.newFolder())
+            .segmentBytes(64 * 1024).maxBytes(128 * 1024).build()).build(),
+        metrics);
+    zipkinRule.enqueueFailure(HttpFailure.sendErrorResponse(500, "Server Error!"));
+
+    collector.collect(span(1L));
+    collector.collect(span(2L));
+    collector.flush(); // fails, so spills
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (zipkinRule.collectorMetrics().spans() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(zipkinRule.collectorMetrics().spans()).isEqualTo(2);
+    assertThat(metrics.droppedSpans.get()).isZero();
+  }
+
+  /** Replay sends through the subclass, so mustn't start before its constructor ran. */
+  @Test
+  public void replaysSpansRecoveredOnOpen() throws Exception {
+    File directory = folder.newFolder();
+    try (SpilloverBuffer previous = SpilloverBuffer.builder(directory)
+        .segmentBytes(64 * 1024).maxBytes(128 * 1024).build()) {
+      previous.spill(SpanCodec.JSON.writeSpans(asList(span(1L), span(2L))), 2);
+    }
+    collector.close();
+    collector = new HttpSpanCollector(zipkinRule.httpUrl(), HttpSpanCollector.Config.builder()
+        .flushInterval(0).spillover(SpilloverBuffer.builder(directory)
+            .segmentBytes(64 * 1024).maxBytes(128 * 1024).build()).build(),
+        metrics);
+
+    collector.flush(); // nothing queued, but starts replay
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (zipkinRule.collectorMetrics().spans() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(zipkinRule.collectorMetrics().spans()).isEqualTo(2);
+  }
+
+  @Test
+  public void spillsPendingSpansOnClose() throws Exception {
+    File directory = folder.newFolder();
+    collector.close();
+    // otherwise the spilled spans could be replayed before the buffer closes
+    String unreachable;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      unreachable = "http://localhost:" + socket.getLocalPort();
+    }
+    collector = new HttpSpanCollector(unreachable, HttpSpanCollector.Config.builder()
+        .flushInterval(0).spillover(SpilloverBuffer.builder(directory)
+            .segmentBytes(64 * 1024).maxBytes(128 * 1024).build()).build(), metrics);
+
+    collector.collect(span(1L));
+    collector.collect(span(2L));
+    collector.close();
+
+    assertThat(metrics.droppedSpans.get()).isZero();
+    try (SpilloverBuffer reopened = SpilloverBuffer.builder(directory)
+        .segmentBytes(64 * 1024).maxBytes(128 * 1024).build()) {
+      assertThat(reopened.pendingSpans()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void sendsConcurrently() throws Exception {
+    CountDownLatch received = new CountDownLatch(2), release = new CountDownLatch(1);
+    HttpServer server = slowServer(exchange -> {
+      received.countDown();
+      await(release);
+      respond(exchange, 202);
+    });
+    try {
+      HttpSpanCollector collector = new HttpSpanCollector(url(server), HttpSpanCollector.Config
+          .builder().flushInterval(0).messageMaxBytes(1).maxInFlightRequests(2).build(), metrics);
+
+      collector.collect(span(1L));
+      collector.collect(span(2L));
+      collector.flush(); // one message per span, as each exceeds the message size
+
+      // both requests are in flight, even though neither completed
+      assertThat(received.await(5, TimeUnit.SECONDS)).isTrue();
+      release.countDown();
+      collector.close();
+    } finally {
+      release.countDown();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void flushWaitsWhenAllRequestsAreInFlight() throws Exception {
+    AtomicInteger requests = new AtomicInteger();
+    CountDownLatch release = new CountDownLatch(1);
+    HttpServer server = slowServer(exchange -> {
+      requests.incrementAndGet();
+      await(release);
+      respond(exchange, 202);
+    });
+    try {
+      HttpSpanCollector collector = new HttpSpanCollector(url(server), HttpSpanCollector.Config
+          .builder().flushInterval(0).messageMaxBytes(1).maxInFlightRequests(2).build(), metrics);
+
+      for (long i = 1; i <= 3; i++) collector.collect(span(i));
+      Thread flusher = new Thread(collector::flush);
+      flusher.start();
+
+      flusher.join(500);
+      assertThat(flusher.isAlive()).isTrue(); // blocked on the third message
+      assertThat(requests.get()).isEqualTo(2);
+
+      release.countDown();
+      flusher.join(5000);
+      assertThat(flusher.isAlive()).isFalse();
+      collector.close();
+      assertThat(metrics.droppedSpans.get()).isZero();
+    } finally {
+      release.countDown();
+      server.stop(0);
+    }
+  }
+
+  @Test
+  public void accountsForDroppedSpansInMessageOrder() throws Exception {
+    char[] annotation2K = new char[2048];
+    Arrays.fill(annotation2K, 'a');
+    CountDownLatch secondFailed = new CountDownLatch(1);
+    HttpServer server = slowServer(exchange -> {
+      boolean first = readBody(exchange) > 1000;
+      if (first) await(secondFailed); // make the first message complete last
+      respond(exchange, 500);
+      if (!first) secondFailed.countDown();
+    });
+    List<Integer> drops = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch accounted = new CountDownLatch(2);
+    try {
+      HttpSpanCollector collector = new HttpSpanCollector(url(server), HttpSpanCollector.Config
+          .builder().flushInterval(0).messageMaxBytes(1000).maxInFlightRequests(2).build(),
+          new EmptySpanCollectorMetricsHandler() {
+            @Override public void incrementDroppedSpans(int quantity) {
+              drops.add(quantity);
+              accounted.countDown();
+            }
+          });
+
+      // the large span is sent alone, then the next two together
+      collector.collect(span(1L)
+          .addToAnnotations(Annotation.create(1111L, new String(annotation2K), null)));
+      collector.collect(span(2L));
+      collector.collect(span(3L));
+      collector.flush();
+
+      assertThat(accounted.await(5, TimeUnit.SECONDS)).isTrue();
+      assertThat(drops).containsExactly(1, 2);
+      collector.close();
+    } finally {
+      secondFailed.countDown();
+      server.stop(0);
+    }
+  }
+
+  static HttpServer slowServer(HttpHandler handler) throws IOException {
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/api/v1/spans", handler);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+    return server;
+  }
+
+  static String url(HttpServer server) {
+    return "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  /** Reads the remaining request body, leaving the stream open until the exchange is closed. */
+  static int readBody(HttpExchange exchange) throws IOException {
+    int length = 0;
+    InputStream in = exchange.getRequestBody();
+    while (in.read() != -1) length++;
+    return length;
+  }
+
+  static void respond(HttpExchange exchange, int status) throws IOException {
+    readBody(exchange);
+    exchange.sendResponseHeaders(status, -1);
+    exchange.close();
+  }
+
+  static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  static class TestMetricsHandler extends EmptySpanCollectorMetricsHandler {
 
     final AtomicInteger acceptedSpans = new AtomicInteger();
     final AtomicInteger droppedSpans = new AtomicInteger();
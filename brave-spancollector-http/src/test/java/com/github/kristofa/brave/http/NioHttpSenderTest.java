@@ -0,0 +1,236 @@
+package com.github.kristofa.brave.http;
+
+import com.github.kristofa.brave.SpanEncoding;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+import okio.Buffer;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.junit.HttpFailure;
+import zipkin.junit.ZipkinRule;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NioHttpSenderTest {
+  static final List<Span> TRACE = asList(
+      Span.builder().traceId(1L).id(1L).name("get").timestamp(1472470996199000L).duration(207000L)
+          .build()
+  );
+
+  @Rule
+  public final ZipkinRule zipkinRule = new ZipkinRule();
+  @Rule
+  public final MockWebServer server = new MockWebServer();
+
+  NioHttpSender sender = NioHttpSender.create(zipkinRule.httpUrl());
+
+  @After
+  public void closeSender() {
+    sender.close();
+  }
+
+  @Test
+  public void sendsSpans() throws Exception {
+    send(TRACE).await();
+
+    assertThat(zipkinRule.getTraces()).containsExactly(TRACE);
+  }
+
+  @Test
+  public void messageSizeInBytes() {
+    for (int count : new int[] {0, 1, 3}) {
+      List<byte[]> spans = new LinkedList<>();
+      for (int i = 0; i < count; i++) spans.add(Codec.JSON.writeSpan(TRACE.get(0)));
+
+      assertThat(sender.messageSizeInBytes(spans))
+          .isEqualTo(Encoding.JSON.listSizeInBytes(spans));
+    }
+  }
+
+  @Test
+  public void check_ok() {
+    assertThat(sender.check().ok).isTrue();
+  }
+
+  @Test
+  public void check_failsWhenServerErrors() {
+    zipkinRule.enqueueFailure(HttpFailure.sendErrorResponse(500, "Server Error!"));
+
+    assertThat(sender.check().ok).isFalse();
+  }
+
+  @Test
+  public void reusesConnection() throws Exception {
+    sender = NioHttpSender.create(server.url("/").toString());
+    for (int i = 0; i < 3; i++) server.enqueue(new MockResponse());
+
+    for (int i = 0; i < 3; i++) send(TRACE).await();
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(server.takeRequest().getSequenceNumber()).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void pipelinesRequests() throws Exception {
+    sender = NioHttpSender.create(server.url("/").toString(),
+        NioHttpSender.Config.builder().maxRequestsPerConnection(3).build());
+    for (int i = 0; i < 3; i++) server.enqueue(new MockResponse().setBody("{}"));
+
+    List<Result> results = new ArrayList<>();
+    for (int i = 0; i < 3; i++) results.add(send(TRACE)); // doesn't wait
+    for (Result result : results) result.await();
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(server.takeRequest().getSequenceNumber()).isEqualTo(i);
+    }
+  }
+
+  @Test
+  public void readsChunkedResponses() throws Exception {
+    sender = NioHttpSender.create(server.url("/").toString());
+    server.enqueue(new MockResponse().setChunkedBody("hello world", 3));
+    server.enqueue(new MockResponse());
+
+    send(TRACE).await();
+    send(TRACE).await();
+
+    server.takeRequest();
+    assertThat(server.takeRequest().getSequenceNumber()).isEqualTo(1);
+  }
+
+  @Test
+  public void compressesMessages() throws Exception {
+    sender = NioHttpSender.create(server.url("/").toString(),
+        NioHttpSender.Config.builder().compressionEnabled(true).build());
+    server.enqueue(new MockResponse());
+
+    send(TRACE).await();
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("Content-Encoding")).isEqualTo("gzip");
+    try (GZIPInputStream gunzip = new GZIPInputStream(request.getBody().inputStream())) {
+      assertThat(Codec.JSON.readSpans(new Buffer().readFrom(gunzip).readByteArray()))
+          .isEqualTo(TRACE);
+    }
+  }
+
+  @Test
+  public void postsV2Json() throws Exception {
+    sender = NioHttpSender.create(server.url("/").toString(),
+        NioHttpSender.Config.builder().encoding(SpanEncoding.V2_JSON).build());
+    server.enqueue(new MockResponse());
+
+    send(TRACE).await();
+
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getPath()).isEqualTo("/api/v2/spans");
+    assertThat(request.getHeader("Content-Type")).isEqualTo("application/json");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void proto3Unsupported() {
+    NioHttpSender.create(server.url("/").toString(),
+        NioHttpSender.Config.builder().encoding(SpanEncoding.PROTO3).build());
+  }
+
+  @Test
+  public void failsOnServerError() throws Exception {
+    zipkinRule.enqueueFailure(HttpFailure.sendErrorResponse(500, "Server Error!"));
+
+    assertThat(send(TRACE).error()).isInstanceOf(IOException.class);
+  }
+
+  @Test
+  public void failsOnDisconnect() throws Exception {
+    zipkinRule.enqueueFailure(HttpFailure.disconnectDuringBody());
+
+    assertThat(send(TRACE).error()).isInstanceOf(IOException.class);
+  }
+
+  @Test
+  public void failsOnReadTimeout() throws Exception {
+    sender = NioHttpSender.create(server.url("/").toString(),
+        NioHttpSender.Config.builder().readTimeout(100).build());
+    server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+    assertThat(send(TRACE).error())
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("read timed out");
+  }
+
+  @Test
+  public void failsUnresolvedHostOnCallingThread() throws Exception {
+    sender = NioHttpSender.create("http://zipkin.invalid:9411/");
+
+    assertThat(send(TRACE).error())
+        .isInstanceOf(IOException.class)
+        .hasMessageContaining("unresolved address");
+    assertThat(sender.loop.get()).isNull(); // the selector thread never started
+  }
+
+  @Test
+  public void resolvesAgainAfterConnectFailure() throws Exception {
+    int port = server.getPort();
+    server.shutdown();
+    sender = NioHttpSender.create("http://localhost:" + port + "/");
+
+    assertThat(send(TRACE).error()).isInstanceOf(IOException.class);
+    assertThat(sender.resolved).isNull();
+  }
+
+  @Test
+  public void failsAfterClose() throws Exception {
+    sender.close();
+
+    assertThat(send(TRACE).error()).isInstanceOf(IllegalStateException.class);
+  }
+
+  Result send(List<Span> spans) {
+    List<byte[]> encoded = new ArrayList<>();
+    for (Span span : spans) encoded.add(Codec.JSON.writeSpan(span));
+    Result result = new Result();
+    sender.sendSpans(encoded, result);
+    return result;
+  }
+
+  static final class Result implements Callback {
+    final CountDownLatch latch = new CountDownLatch(1);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+
+    @Override public void onComplete() {
+      latch.countDown();
+    }
+
+    @Override public void onError(Throwable t) {
+      error.set(t);
+      latch.countDown();
+    }
+
+    void await() throws Exception {
+      Throwable t = error();
+      if (t != null) throw new AssertionError(t);
+    }
+
+    Throwable error() throws InterruptedException {
+      assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+      return error.get();
+    }
+  }
+}
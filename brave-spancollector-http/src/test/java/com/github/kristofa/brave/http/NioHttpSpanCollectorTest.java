@@ -0,0 +1,89 @@
+package com.github.kristofa.brave.http;
+
+import com.github.kristofa.brave.http.HttpSpanCollectorTest.TestMetricsHandler;
+import com.github.kristofa.brave.internal.InternalSpan;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import zipkin.junit.HttpFailure;
+import zipkin.junit.ZipkinRule;
+
+import static com.github.kristofa.brave.http.HttpSpanCollectorTest.span;
+import static com.github.kristofa.brave.http.HttpSpanCollectorTest.zipkinSpan;
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class NioHttpSpanCollectorTest {
+  static {
+    InternalSpan.initializeInstanceForTests();
+  }
+
+  @Rule
+  public final ZipkinRule zipkinRule = new ZipkinRule();
+
+  TestMetricsHandler metrics = new TestMetricsHandler();
+  // set flush interval to 0 so that tests can drive flushing explicitly
+  HttpSpanCollector.Config config = HttpSpanCollector.Config.builder().flushInterval(0).build();
+  NioHttpSpanCollector collector = new NioHttpSpanCollector(zipkinRule.httpUrl(), config, metrics);
+
+  @After
+  public void closeCollector() {
+    collector.close();
+  }
+
+  @Test
+  public void postsSpans() throws Exception {
+    collector.collect(span(1L));
+    collector.collect(span(2L));
+
+    collector.flush(); // manually flush the spans
+    awaitRequests(1);
+
+    assertThat(zipkinRule.getTraces()).containsExactly(
+        asList(zipkinSpan(1L)),
+        asList(zipkinSpan(2L))
+    );
+  }
+
+  @Test
+  public void incrementsDroppedSpansWhenServerErrors() throws Exception {
+    zipkinRule.enqueueFailure(HttpFailure.sendErrorResponse(500, "Server Error!"));
+
+    collector.collect(span(1L));
+    collector.collect(span(2L));
+
+    collector.flush(); // manually flush the spans
+    awaitDropped(2);
+  }
+
+  @Test
+  public void flushDoesntWaitForResponses() throws Exception {
+    config = HttpSpanCollector.Config.builder().flushInterval(0).maxInFlightRequests(2).build();
+    collector = new NioHttpSpanCollector(zipkinRule.httpUrl(), config, metrics);
+
+    collector.collect(span(1L));
+    collector.flush();
+    collector.collect(span(2L));
+    collector.flush();
+    awaitRequests(2);
+
+    assertThat(metrics.droppedSpans.get()).isZero();
+  }
+
+  void awaitRequests(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (zipkinRule.httpRequestCount() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(zipkinRule.httpRequestCount()).isEqualTo(count);
+  }
+
+  void awaitDropped(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (metrics.droppedSpans.get() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertThat(metrics.droppedSpans.get()).isEqualTo(count);
+  }
+}
@@ -2,18 +2,33 @@ package com.github.kristofa.brave.kafka;
 
 import com.github.kristofa.brave.AbstractSpanCollector;
 import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
+import com.github.kristofa.brave.LoadShedding;
 import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.SpanCollectorOptions;
+import com.github.kristofa.brave.TraceGrouping;
+import com.github.kristofa.brave.internal.ParallelSpanCodec;
 import com.google.auto.value.AutoValue;
+import com.twitter.zipkin.gen.Span;
 import com.twitter.zipkin.gen.SpanCodec;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.kafka.clients.producer.Callback;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
 
 /**
  * SpanCollector which sends a thrift-encoded list of spans to a Kafka topic (default: "zipkin")
  *
+ * <p>Spans are counted as dropped when the producer reports a failed send. Messages larger than
+ * the producer's {@code max.request.size} are split, so that they aren't rejected.
+ *
  * <p><b>Important</b> If using zipkin-collector-service (or zipkin-receiver-kafka), you must run v1.35+
  *
  * @deprecated replaced by {@link zipkin.reporter.AsyncReporter} and {@code KafkaSender}
@@ -27,25 +42,56 @@ public final class KafkaSpanCollector extends AbstractSpanCollector {
     public static Builder builder() {
       return new AutoValue_KafkaSpanCollector_Config.Builder()
           .topic("zipkin")
-          .flushInterval(1);
+          .partitionByTraceId(false)
+          .encodingThreads(1)
+          .messageTimeout(1, TimeUnit.SECONDS)
+          .messageMaxBytes(1000000)
+          .loadSheddingThreshold(1.0f)
+          .queuedMaxSpans(DEFAULT_QUEUED_MAX_SPANS)
+          .queuedMaxBytes(DEFAULT_QUEUED_MAX_BYTES)
+          .priorityQueuedMaxSpans(DEFAULT_PRIORITY_QUEUED_MAX_SPANS)
+          .traceGrouping(TraceGrouping.NONE);
     }
 
+    /**
+     * Includes producer settings suited to span messages: thrift lists of spans are repetitive, so
+     * are compressed with snappy, which costs little CPU. As messages are already batched by this
+     * collector, the producer lingers only briefly to combine messages bound for the same broker.
+     */
     public static Builder builder(String bootstrapServers) {
       Properties props = new Properties();
       props.put("bootstrap.servers", bootstrapServers);
       props.put("key.serializer", "org.apache.kafka.common.serialization.ByteArraySerializer");
       props.put("value.serializer", "org.apache.kafka.common.serialization.ByteArraySerializer");
+      props.put("compression.type", "snappy");
+      props.put("linger.ms", "5");
       return builder().kafkaProperties(props);
     }
 
     abstract Properties kafkaProperties();
 
-    abstract int flushInterval();
+    abstract long messageTimeoutMillis();
+
+    abstract int messageMaxBytes();
+
+    abstract float loadSheddingThreshold();
+
+    abstract int queuedMaxSpans();
+
+    abstract int queuedMaxBytes();
+
+    abstract int priorityQueuedMaxSpans();
 
     abstract String topic();
 
+    abstract boolean partitionByTraceId();
+
+    abstract int encodingThreads();
+
+    abstract TraceGrouping traceGrouping();
+
     @AutoValue.Builder
-    public interface Builder {
+    public static abstract class Builder {
       /**
        * Configuration for Kafka producer. Essential configuration properties are:
        * bootstrap.servers, key.serializer, value.serializer. For a full list of config options, see
@@ -53,21 +99,103 @@ public final class KafkaSpanCollector extends AbstractSpanCollector {
        *
        * <p>Must include the following mappings:
        */
-      Builder kafkaProperties(Properties kafkaProperties);
+      public abstract Builder kafkaProperties(Properties kafkaProperties);
+
+      /**
+       * Default 1 second. 0 implies spans are {@link #flush() flushed} externally.
+       *
+       * @see #messageTimeout(long, TimeUnit)
+       */
+      public final Builder flushInterval(int flushInterval) {
+        return messageTimeout(flushInterval, TimeUnit.SECONDS);
+      }
+
+      /**
+       * Default 1 second. Maximum time a span waits before it is sent. This has millisecond
+       * granularity. 0 implies spans are {@link #flush() flushed} externally.
+       */
+      public final Builder messageTimeout(long timeout, TimeUnit unit) {
+        return messageTimeoutMillis(unit.toMillis(timeout));
+      }
+
+      abstract Builder messageTimeoutMillis(long messageTimeoutMillis);
+
+      /**
+       * Default 1000000 bytes, the default {@code max.request.size}. Spans are sent as soon as their
+       * estimated encoded size reaches this, or the message timeout, whichever comes first.
+       */
+      public abstract Builder messageMaxBytes(int messageMaxBytes);
 
-      /** Default 1 second. 0 implies spans are {@link #flush() flushed} externally. */
-      Builder flushInterval(int flushInterval);
+      /**
+       * Default 1.0, which drops spans only when the queue is full. Otherwise, the fraction of the
+       * queue in use before whole traces are shed. See {@link LoadShedding}.
+       */
+      public abstract Builder loadSheddingThreshold(float loadSheddingThreshold);
+
+      /** Default 1000. Maximum pending spans. */
+      public abstract Builder queuedMaxSpans(int queuedMaxSpans);
+
+      /**
+       * Default 1% of the heap. Maximum estimated encoded size of pending spans. This protects
+       * against a few large spans exhausting memory.
+       */
+      public abstract Builder queuedMaxBytes(int queuedMaxBytes);
+
+      /**
+       * Default 100. Maximum pending debug or error spans, which are queued apart from others, so
+       * that they aren't dropped when others fill the queue, and are sent first. 0 queues them
+       * with others.
+       */
+      public abstract Builder priorityQueuedMaxSpans(int priorityQueuedMaxSpans);
 
       /** Sets kafka-topic for zipkin to report to. Default topic zipkin. **/
-      Builder topic(String topic);
+      public abstract Builder topic(String topic);
+
+      /**
+       * Default false, which leaves partitioning to the producer. true sends each span to the
+       * partition chosen by its trace ID, so that all spans of a trace are consumed in order by the
+       * same consumer. Messages are split by partition to do this.
+       *
+       * <p>The topic's partition count is cached for the producer's {@code metadata.max.age.ms},
+       * and looked up again sooner after a failed send.
+       */
+      public abstract Builder partitionByTraceId(boolean partitionByTraceId);
+
+      /**
+       * Default 1, which encodes messages on the thread that sends them. Otherwise, messages of
+       * at least {@link ParallelSpanCodec#DEFAULT_MIN_PARALLEL_SPANS} spans are encoded in chunks
+       * on this many threads.
+       */
+      public abstract Builder encodingThreads(int encodingThreads);
+
+      /**
+       * Default {@link TraceGrouping#NONE}, which sends spans in the order they finished.
+       * Otherwise, spans of the same trace are adjacent in messages, which storage that clusters
+       * by trace ID writes more efficiently.
+       */
+      public abstract Builder traceGrouping(TraceGrouping traceGrouping);
 
-      Config build();
+      public abstract Config build();
     }
   }
 
-  private final Producer<byte[], byte[]> producer;
+  static final Logger logger = Logger.getLogger(KafkaSpanCollector.class.getName());
+  /** Default value of the producer's {@code max.request.size} */
+  static final int DEFAULT_MAX_REQUEST_SIZE = 1048576;
+  /** Bytes a record adds to its value, with room to spare. */
+  static final int RECORD_OVERHEAD = 64;
+  /** Default value of the producer's {@code metadata.max.age.ms} */
+  static final long DEFAULT_METADATA_MAX_AGE_MS = 300000;
 
+  private final Producer<byte[], byte[]> producer;
+  private final SpanCollectorMetricsHandler metrics;
   private final String topic;
+  private final boolean partitionByTraceId;
+  private final int maxValueSize;
+  private final long partitionCountMaxAgeNanos;
+  /** Partition count of the topic, or zero when it needs to be looked up. */
+  private volatile int partitionCount;
+  private volatile long partitionCountExpiresNanos;
 
   /**
    * Create a new instance with default configuration.
@@ -92,9 +220,103 @@ public final class KafkaSpanCollector extends AbstractSpanCollector {
 
   // Visible for testing. Ex when tests need to explicitly control flushing, set interval to 0.
   KafkaSpanCollector(Config config, SpanCollectorMetricsHandler metrics) {
-    super(SpanCodec.THRIFT, metrics, config.flushInterval());
-    this.producer = new KafkaProducer<>(config.kafkaProperties());
+    this(config, metrics, new KafkaProducer<byte[], byte[]>(config.kafkaProperties()));
+  }
+
+  // Visible for testing. Ex to use a mock producer
+  KafkaSpanCollector(Config config, SpanCollectorMetricsHandler metrics,
+      Producer<byte[], byte[]> producer) {
+    super(SpanCodec.THRIFT, metrics, SpanCollectorOptions.builder()
+        .loadShedding(LoadShedding.create(config.loadSheddingThreshold()))
+        .queuedMaxSpans(config.queuedMaxSpans())
+        .queuedMaxBytes(config.queuedMaxBytes())
+        .priorityQueuedMaxSpans(config.priorityQueuedMaxSpans())
+        .messageMaxBytes(config.messageMaxBytes())
+        .messageTimeout(config.messageTimeoutMillis(), TimeUnit.MILLISECONDS)
+        .traceGrouping(config.traceGrouping())
+        .encodingThreads(config.encodingThreads()).build());
+    this.producer = producer;
+    this.metrics = metrics;
     this.topic = config.topic();
+    this.partitionByTraceId = config.partitionByTraceId();
+    String maxRequestSize = config.kafkaProperties().getProperty("max.request.size");
+    this.maxValueSize = (maxRequestSize != null
+        ? Integer.parseInt(maxRequestSize.trim())
+        : DEFAULT_MAX_REQUEST_SIZE) - RECORD_OVERHEAD;
+    String metadataMaxAge = config.kafkaProperties().getProperty("metadata.max.age.ms");
+    this.partitionCountMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(metadataMaxAge != null
+        ? Long.parseLong(metadataMaxAge.trim())
+        : DEFAULT_METADATA_MAX_AGE_MS);
+  }
+
+  /**
+   * Sends spans without waiting for acknowledgement. The producer's callback increments drop
+   * metrics when a send fails.
+   */
+  @Override
+  protected void sendSpans(List<Span> spans) {
+    int partitionCount = partitionByTraceId ? partitionCount() : 0;
+    if (partitionCount <= 1) {
+      send(null, spans);
+      return;
+    }
+    List<List<Span>> partitions = new ArrayList<List<Span>>(partitionCount);
+    for (int i = 0; i < partitionCount; i++) partitions.add(null);
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      Span span = spans.get(i);
+      int partition = (int) ((span.getTrace_id() & Long.MAX_VALUE) % partitionCount);
+      List<Span> partitionSpans = partitions.get(partition);
+      if (partitionSpans == null) partitions.set(partition, partitionSpans = new ArrayList<Span>());
+      partitionSpans.add(span);
+    }
+    for (int i = 0; i < partitionCount; i++) {
+      if (partitions.get(i) != null) send(i, partitions.get(i));
+    }
+  }
+
+  /**
+   * Returns the cached partition count of the topic, looking it up when unknown or older than the
+   * producer's metadata.
+   */
+  int partitionCount() {
+    int result = partitionCount;
+    long now = System.nanoTime();
+    if (result == 0 || now - partitionCountExpiresNanos >= 0) {
+      result = producer.partitionsFor(topic).size();
+      partitionCountExpiresNanos = now + partitionCountMaxAgeNanos;
+      partitionCount = result;
+    }
+    return result;
+  }
+
+  /** Looks up the partition count on the next send, as partitions may have changed. */
+  void invalidatePartitionCount() {
+    partitionCount = 0;
+  }
+
+  /** Splits the spans in half until each message fits in a request. */
+  void send(Integer partition, List<Span> spans) {
+    byte[] thrift = encode(spans);
+    if (thrift.length > maxValueSize) {
+      int spanCount = spans.size();
+      if (spanCount == 1) {
+        logger.fine("dropping span larger than max.request.size: " + thrift.length + " bytes");
+        metrics.incrementDroppedSpans(1);
+        return;
+      }
+      send(partition, spans.subList(0, spanCount / 2));
+      send(partition, spans.subList(spanCount / 2, spanCount));
+      return;
+    }
+    try {
+      producer.send(new ProducerRecord<byte[], byte[]>(topic, partition, null, thrift),
+          new DropOnError(this, spans.size()));
+    } catch (RuntimeException e) {
+      logger.log(Level.FINE, "error sending spans", e);
+      invalidatePartitionCount();
+      detailedMetrics().incrementFailedMessages(e);
+      metrics.incrementDroppedSpans(spans.size());
+    }
   }
 
   @Override
@@ -107,4 +329,22 @@ public final class KafkaSpanCollector extends AbstractSpanCollector {
     producer.close();
     super.close();
   }
+
+  static final class DropOnError implements Callback {
+    final KafkaSpanCollector collector;
+    final int spanCount;
+
+    DropOnError(KafkaSpanCollector collector, int spanCount) {
+      this.collector = collector;
+      this.spanCount = spanCount;
+    }
+
+    @Override public void onCompletion(RecordMetadata metadata, Exception exception) {
+      if (exception == null) return;
+      logger.log(Level.FINE, "error sending spans", exception);
+      collector.invalidatePartitionCount();
+      collector.detailedMetrics().incrementFailedMessages(exception);
+      collector.metrics.incrementDroppedSpans(spanCount);
+    }
+  }
 }
@@ -1,12 +1,14 @@
 package com.github.kristofa.brave.kafka;
 
 import com.github.charithe.kafka.KafkaJunitRule;
-import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
 import com.github.kristofa.brave.SpanId;
 import com.github.kristofa.brave.internal.InternalSpan;
 import com.github.kristofa.brave.kafka.KafkaSpanCollector.Config;
 import com.twitter.zipkin.gen.Span;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Properties;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -15,12 +17,18 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import kafka.serializer.DefaultDecoder;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
 import org.junit.After;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import zipkin.Codec;
 
+import static java.util.Arrays.asList;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class KafkaSpanCollectorTest {
@@ -130,7 +138,111 @@ public class KafkaSpanCollectorTest {
     assertThat(messages).hasSize(1);
   }
 
-  class TestMetricsHander implements SpanCollectorMetricsHandler {
+  @Test
+  public void incrementsDroppedSpansWhenSendFails() throws Exception {
+    MockProducer producer = new MockProducer(false);
+    KafkaSpanCollector collector = new KafkaSpanCollector(config, metrics, producer);
+
+    collector.collect(span(1L));
+    collector.collect(span(2L));
+    collector.flush(); // manually flush the spans
+
+    assertThat(metrics.droppedSpans.get()).isZero(); // not yet acknowledged
+    producer.errorNext(new RuntimeException("broker unavailable"));
+    assertThat(metrics.droppedSpans.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void partitionsByTraceId() throws Exception {
+    MockProducer producer = new MockProducer(cluster("zipkin", 3), true);
+    KafkaSpanCollector collector = new KafkaSpanCollector(
+        Config.builder("localhost:9092").flushInterval(0).partitionByTraceId(true).build(),
+        metrics, producer);
+
+    for (long traceId = 1; traceId <= 9; traceId++) collector.collect(span(traceId));
+    collector.flush(); // manually flush the spans
+
+    assertThat(producer.history()).hasSize(3);
+    for (ProducerRecord<byte[], byte[]> record : producer.history()) {
+      assertThat(Codec.THRIFT.readSpans(record.value()))
+          .hasSize(3)
+          .allMatch(s -> s.traceId % 3 == record.partition());
+    }
+  }
+
+  @Test
+  public void cachesPartitionCountUntilSendFails() throws Exception {
+    AtomicInteger lookups = new AtomicInteger();
+    MockProducer producer = new MockProducer(cluster("zipkin", 3), false) {
+      @Override public synchronized List<PartitionInfo> partitionsFor(String topic) {
+        lookups.incrementAndGet();
+        return super.partitionsFor(topic);
+      }
+    };
+    KafkaSpanCollector collector = new KafkaSpanCollector(
+        Config.builder("localhost:9092").flushInterval(0).partitionByTraceId(true).build(),
+        metrics, producer);
+
+    for (long traceId = 1; traceId <= 2; traceId++) {
+      collector.collect(span(traceId));
+      collector.flush(); // manually flush the spans
+    }
+    assertThat(lookups.get()).isEqualTo(1);
+
+    producer.errorNext(new RuntimeException("not leader for partition"));
+    collector.collect(span(3L));
+    collector.flush();
+    assertThat(lookups.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void splitsMessagesLargerThanMaxRequestSize() throws Exception {
+    int spanSize = Codec.THRIFT.writeSpan(zipkinSpan(1L)).length;
+    Properties props = Config.builder("localhost:9092").build().kafkaProperties();
+    props.put("max.request.size", String.valueOf(KafkaSpanCollector.RECORD_OVERHEAD + spanSize * 3));
+    MockProducer producer = new MockProducer(true);
+    KafkaSpanCollector collector = new KafkaSpanCollector(
+        Config.builder().kafkaProperties(props).flushInterval(0).build(), metrics, producer);
+
+    for (long traceId = 1; traceId <= 10; traceId++) collector.collect(span(traceId));
+    collector.flush(); // manually flush the spans
+
+    List<zipkin.Span> sent = new ArrayList<>();
+    for (ProducerRecord<byte[], byte[]> record : producer.history()) {
+      List<zipkin.Span> spans = Codec.THRIFT.readSpans(record.value());
+      assertThat(spans.size()).isLessThanOrEqualTo(3);
+      sent.addAll(spans);
+    }
+    assertThat(sent).extracting(s -> s.traceId)
+        .containsExactly(1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L, 10L);
+    assertThat(metrics.droppedSpans.get()).isZero();
+  }
+
+  @Test
+  public void dropsSpanLargerThanMaxRequestSize() throws Exception {
+    Properties props = Config.builder("localhost:9092").build().kafkaProperties();
+    props.put("max.request.size", String.valueOf(KafkaSpanCollector.RECORD_OVERHEAD + 10));
+    MockProducer producer = new MockProducer(true);
+    KafkaSpanCollector collector = new KafkaSpanCollector(
+        Config.builder().kafkaProperties(props).flushInterval(0).build(), metrics, producer);
+
+    collector.collect(span(1L));
+    collector.flush(); // manually flush the spans
+
+    assertThat(producer.history()).isEmpty();
+    assertThat(metrics.droppedSpans.get()).isEqualTo(1);
+  }
+
+  static Cluster cluster(String topic, int partitionCount) {
+    Node node = new Node(0, "localhost", 9092);
+    List<PartitionInfo> partitions = new ArrayList<>();
+    for (int i = 0; i < partitionCount; i++) {
+      partitions.add(new PartitionInfo(topic, i, node, new Node[] {node}, new Node[] {node}));
+    }
+    return new Cluster(asList(node), partitions);
+  }
+
+  class TestMetricsHander extends EmptySpanCollectorMetricsHandler {
 
     final AtomicInteger acceptedSpans = new AtomicInteger();
     final AtomicInteger droppedSpans = new AtomicInteger();
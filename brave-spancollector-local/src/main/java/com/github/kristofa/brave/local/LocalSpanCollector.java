@@ -2,12 +2,15 @@ package com.github.kristofa.brave.local;
 
 import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
 import com.github.kristofa.brave.FlushingSpanCollector;
+import com.github.kristofa.brave.LoadShedding;
 import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.SpanCollectorOptions;
 import com.google.auto.value.AutoValue;
 import com.twitter.zipkin.gen.Span;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import zipkin.storage.AsyncSpanConsumer;
 import zipkin.storage.Callback;
 import zipkin.storage.StorageComponent;
@@ -27,17 +30,66 @@ public final class LocalSpanCollector extends FlushingSpanCollector {
   public static abstract class Config {
     public static Builder builder() {
       return new AutoValue_LocalSpanCollector_Config.Builder()
-          .flushInterval(1);
+          .messageTimeout(1, TimeUnit.SECONDS)
+          .messageMaxBytes(DEFAULT_MESSAGE_MAX_BYTES)
+          .loadSheddingThreshold(1.0f)
+          .queuedMaxSpans(DEFAULT_QUEUED_MAX_SPANS)
+          .queuedMaxBytes(DEFAULT_QUEUED_MAX_BYTES);
     }
 
-    abstract int flushInterval();
+    abstract long messageTimeoutMillis();
+
+    abstract int messageMaxBytes();
+
+    abstract float loadSheddingThreshold();
+
+    abstract int queuedMaxSpans();
+
+    abstract int queuedMaxBytes();
 
     @AutoValue.Builder
-    public interface Builder {
-      /** Default 1 second. 0 implies spans are {@link #flush() flushed} externally. */
-      Builder flushInterval(int flushInterval);
+    public static abstract class Builder {
+      /**
+       * Default 1 second. 0 implies spans are {@link #flush() flushed} externally.
+       *
+       * @see #messageTimeout(long, TimeUnit)
+       */
+      public final Builder flushInterval(int flushInterval) {
+        return messageTimeout(flushInterval, TimeUnit.SECONDS);
+      }
+
+      /**
+       * Default 1 second. Maximum time a span waits before it is sent. This has millisecond
+       * granularity. 0 implies spans are {@link #flush() flushed} externally.
+       */
+      public final Builder messageTimeout(long timeout, TimeUnit unit) {
+        return messageTimeoutMillis(unit.toMillis(timeout));
+      }
+
+      abstract Builder messageTimeoutMillis(long messageTimeoutMillis);
+
+      /**
+       * Default 5MiB. Spans are sent as soon as their estimated encoded size reaches this, or the
+       * message timeout, whichever comes first.
+       */
+      public abstract Builder messageMaxBytes(int messageMaxBytes);
+
+      /**
+       * Default 1.0, which drops spans only when the queue is full. Otherwise, the fraction of the
+       * queue in use before whole traces are shed. See {@link LoadShedding}.
+       */
+      public abstract Builder loadSheddingThreshold(float loadSheddingThreshold);
+
+      /** Default 1000. Maximum pending spans. */
+      public abstract Builder queuedMaxSpans(int queuedMaxSpans);
+
+      /**
+       * Default 1% of the heap. Maximum estimated encoded size of pending spans. This protects
+       * against a few large spans exhausting memory.
+       */
+      public abstract Builder queuedMaxBytes(int queuedMaxBytes);
 
-      Config build();
+      public abstract Config build();
     }
   }
 
@@ -70,7 +122,12 @@ public final class LocalSpanCollector extends FlushingSpanCollector {
   // Visible for testing. Ex when tests need to explicitly control flushing, set interval to 0.
   LocalSpanCollector(StorageComponent storageComponent, Config config,
       SpanCollectorMetricsHandler metrics) {
-    super(metrics, config.flushInterval());
+    super(metrics, SpanCollectorOptions.builder()
+        .loadShedding(LoadShedding.create(config.loadSheddingThreshold()))
+        .queuedMaxSpans(config.queuedMaxSpans())
+        .queuedMaxBytes(config.queuedMaxBytes())
+        .messageMaxBytes(config.messageMaxBytes())
+        .messageTimeout(config.messageTimeoutMillis(), TimeUnit.MILLISECONDS).build());
     this.storageComponent = storageComponent;
     this.metrics = metrics;
   }
@@ -1,6 +1,6 @@
 package com.github.kristofa.brave.local;
 
-import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
 import com.github.kristofa.brave.SpanId;
 import com.github.kristofa.brave.internal.InternalSpan;
 import com.twitter.zipkin.gen.Span;
@@ -106,7 +106,7 @@ public class LocalSpanCollectorTest {
     assertThat(metrics.droppedSpans.get()).isEqualTo(2);
   }
 
-  class TestMetricsHander implements SpanCollectorMetricsHandler {
+  class TestMetricsHander extends EmptySpanCollectorMetricsHandler {
 
     final AtomicInteger acceptedSpans = new AtomicInteger();
     final AtomicInteger droppedSpans = new AtomicInteger();
@@ -0,0 +1,183 @@
+package com.github.kristofa.brave.scribe;
+
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.LogEntry;
+import com.twitter.zipkin.gen.Span;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Encodes a span as a scribe {@link LogEntry}, whose message is the base64 of the span's
+ * TBinaryProtocol encoding.
+ *
+ * <p>Spans are written directly to thrift, as opposed to converting to a zipkin span first, and the
+ * base64 is written from the same buffer. Both buffers are reused, so each span allocates only its
+ * message string. Instances are not thread-safe: use one per {@link SpanProcessingThread}.
+ */
+final class LogEntryEncoder {
+  static final Charset ASCII = Charset.forName("US-ASCII");
+  static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  // TType values
+  static final byte BOOL = 2, I16 = 6, I32 = 8, I64 = 10, STRING = 11, STRUCT = 12, LIST = 15;
+
+  byte[] thrift = new byte[1024];
+  byte[] base64 = new byte[Base64.encodedLength(thrift.length)];
+  int pos;
+
+  LogEntry encode(Span span) {
+    pos = 0;
+    writeSpan(span);
+    int base64Length = Base64.encodedLength(pos);
+    if (base64.length < base64Length) base64 = new byte[Math.max(base64Length, base64.length * 2)];
+    int length = Base64.encode(thrift, pos, base64);
+    return new LogEntry("zipkin", new String(base64, 0, length, ASCII));
+  }
+
+  /** Field order matches that of zipkin's thrift codec */
+  void writeSpan(Span span) {
+    writeFieldBegin(I64, 1);
+    writeI64(span.getTrace_id());
+    writeFieldBegin(STRING, 3);
+    writeString(span.getName() != null ? span.getName() : "");
+    writeFieldBegin(I64, 4);
+    writeI64(span.getId());
+    if (span.getParent_id() != null) {
+      writeFieldBegin(I64, 5);
+      writeI64(span.getParent_id());
+    }
+
+    List<Annotation> annotations = span.getAnnotations();
+    writeFieldBegin(LIST, 6);
+    writeListBegin(STRUCT, annotations.size());
+    for (int i = 0, length = annotations.size(); i < length; i++) {
+      Annotation a = annotations.get(i);
+      writeFieldBegin(I64, 1);
+      writeI64(a.timestamp);
+      writeFieldBegin(STRING, 2);
+      writeString(a.value);
+      if (a.host != null) {
+        writeFieldBegin(STRUCT, 3);
+        writeEndpoint(a.host);
+      }
+      writeByte(0); // stop
+    }
+
+    List<BinaryAnnotation> binaryAnnotations = span.getBinary_annotations();
+    writeFieldBegin(LIST, 8);
+    writeListBegin(STRUCT, binaryAnnotations.size());
+    for (int i = 0, length = binaryAnnotations.size(); i < length; i++) {
+      BinaryAnnotation b = binaryAnnotations.get(i);
+      writeFieldBegin(STRING, 1);
+      writeString(b.key);
+      writeFieldBegin(STRING, 2);
+      writeBinary(b.value);
+      writeFieldBegin(I32, 3);
+      writeI32(b.type.getValue());
+      if (b.host != null) {
+        writeFieldBegin(STRUCT, 4);
+        writeEndpoint(b.host);
+      }
+      writeByte(0); // stop
+    }
+
+    if (span.isDebug() != null) {
+      writeFieldBegin(BOOL, 9);
+      writeByte(span.isDebug() ? 1 : 0);
+    }
+    if (span.getTimestamp() != null) {
+      writeFieldBegin(I64, 10);
+      writeI64(span.getTimestamp());
+    }
+    if (span.getDuration() != null) {
+      writeFieldBegin(I64, 11);
+      writeI64(span.getDuration());
+    }
+    if (span.getTrace_id_high() != 0) {
+      writeFieldBegin(I64, 12);
+      writeI64(span.getTrace_id_high());
+    }
+    writeByte(0); // stop
+  }
+
+  void writeEndpoint(Endpoint endpoint) {
+    writeFieldBegin(I32, 1);
+    writeI32(endpoint.ipv4);
+    writeFieldBegin(I16, 2);
+    int port = endpoint.port != null ? endpoint.port : 0;
+    ensureCapacity(2);
+    thrift[pos++] = (byte) (port >>> 8);
+    thrift[pos++] = (byte) port;
+    writeFieldBegin(STRING, 3);
+    writeString(endpoint.service_name != null ? endpoint.service_name : "");
+    if (endpoint.ipv6 != null) {
+      writeFieldBegin(STRING, 4);
+      writeBinary(endpoint.ipv6);
+    }
+    writeByte(0); // stop
+  }
+
+  void writeFieldBegin(byte type, int id) {
+    ensureCapacity(3);
+    thrift[pos++] = type;
+    thrift[pos++] = (byte) (id >>> 8);
+    thrift[pos++] = (byte) id;
+  }
+
+  void writeListBegin(byte elementType, int size) {
+    writeByte(elementType);
+    writeI32(size);
+  }
+
+  /** Writes ascii directly, falling back to a UTF-8 encoding pass otherwise. */
+  void writeString(String string) {
+    int length = string.length();
+    for (int i = 0; i < length; i++) {
+      if (string.charAt(i) >= 0x80) {
+        writeBinary(string.getBytes(UTF_8));
+        return;
+      }
+    }
+    writeI32(length);
+    ensureCapacity(length);
+    for (int i = 0; i < length; i++) {
+      thrift[pos++] = (byte) string.charAt(i);
+    }
+  }
+
+  void writeBinary(byte[] bytes) {
+    writeI32(bytes.length);
+    ensureCapacity(bytes.length);
+    System.arraycopy(bytes, 0, thrift, pos, bytes.length);
+    pos += bytes.length;
+  }
+
+  void writeByte(int b) {
+    ensureCapacity(1);
+    thrift[pos++] = (byte) b;
+  }
+
+  void writeI32(int i) {
+    ensureCapacity(4);
+    thrift[pos++] = (byte) (i >>> 24);
+    thrift[pos++] = (byte) (i >>> 16);
+    thrift[pos++] = (byte) (i >>> 8);
+    thrift[pos++] = (byte) i;
+  }
+
+  void writeI64(long l) {
+    ensureCapacity(8);
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      thrift[pos++] = (byte) (l >>> shift);
+    }
+  }
+
+  void ensureCapacity(int bytes) {
+    if (pos + bytes <= thrift.length) return;
+    byte[] grown = new byte[Math.max(pos + bytes, thrift.length * 2)];
+    System.arraycopy(thrift, 0, grown, 0, pos);
+    thrift = grown;
+  }
+}
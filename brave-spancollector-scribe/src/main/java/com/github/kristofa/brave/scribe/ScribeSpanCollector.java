@@ -31,6 +31,10 @@ import static com.github.kristofa.brave.internal.Util.checkNotNull;
  * This SpanCollector is implemented so it puts spans on a queue which are processed by a separate thread. In this way we are
  * submitting spans asynchronously and we should have minimal overhead on application performance.
  * </p>
+ * <p>
+ * Each processing thread has its own queue, and producers pick one by their thread id. This way, concurrent producers and
+ * processing threads don't all contend on the same lock. The configured queue size is split across these queues.
+ * </p>
  *
  * @author kristof
  *
@@ -43,7 +47,7 @@ public class ScribeSpanCollector implements SpanCollector, Closeable {
     private static final String UTF_8 = "UTF-8";
     private static final Logger LOGGER = Logger.getLogger(ScribeSpanCollector.class.getName());
 
-    private final BlockingQueue<Span> spanQueue;
+    private final List<BlockingQueue<Span>> spanQueues = new ArrayList<>();
     private final ExecutorService executorService;
     private final List<SpanProcessingThread> spanProcessingThreads = new ArrayList<>();
     private final List<ScribeClientProvider> clientProviders = new ArrayList<>();
@@ -75,16 +79,20 @@ public class ScribeSpanCollector implements SpanCollector, Closeable {
         checkNotNull(params, "Null params");
 
         metricsHandler = params.getMetricsHandler();
-        spanQueue = new ArrayBlockingQueue<Span>(params.getQueueSize());
-        executorService = Executors.newFixedThreadPool(params.getNrOfThreads());
+        final int nrOfThreads = params.getNrOfThreads();
+        final int stripeSize = Math.max(1, (params.getQueueSize() + nrOfThreads - 1) / nrOfThreads);
+        executorService = Executors.newFixedThreadPool(nrOfThreads);
 
-        for (int i = 1; i <= params.getNrOfThreads(); i++) {
+        for (int i = 1; i <= nrOfThreads; i++) {
+
+            final BlockingQueue<Span> spanQueue = new ArrayBlockingQueue<Span>(stripeSize);
 
             // Creating a client provider for every spanProcessingThread.
             ScribeClientProvider clientProvider = createZipkinCollectorClientProvider(host,
                     port, params);
             final SpanProcessingThread spanProcessingThread = new SpanProcessingThread(spanQueue, clientProvider,
-                    params.getBatchSize(), metricsHandler);
+                    params.getBatchSize(), params.getMessageMaxBytes(), params.getMessageTimeout(), metricsHandler);
+            spanQueues.add(spanQueue);
             spanProcessingThreads.add(spanProcessingThread);
             clientProviders.add(clientProvider);
             futures.add(executorService.submit(spanProcessingThread));
@@ -122,7 +130,8 @@ public class ScribeSpanCollector implements SpanCollector, Closeable {
             }
         }
 
-        final boolean offer = spanQueue.offer(span);
+        final int stripe = (int) (Thread.currentThread().getId() % spanQueues.size());
+        final boolean offer = spanQueues.get(stripe).offer(span);
         if (!offer) {
             LOGGER.warning("Queue rejected Span, span not submitted: "+ span);
             metricsHandler.incrementDroppedSpans(1);
@@ -164,7 +173,9 @@ public class ScribeSpanCollector implements SpanCollector, Closeable {
             clientProvider.close();
         }
         executorService.shutdown();
-        metricsHandler.incrementDroppedSpans(spanQueue.size());
+        for (final BlockingQueue<Span> spanQueue : spanQueues) {
+            metricsHandler.incrementDroppedSpans(spanQueue.size());
+        }
         LOGGER.info("ScribeSpanCollector closed.");
     }
 
@@ -11,8 +11,10 @@ import static com.github.kristofa.brave.internal.Util.checkNotNull;
  * If not specified we will use the default values. We support following parameters:
  * <ul>
  * <li>queue size: Size of the queue that is used as buffer between producers of spans and the thread(s) that submit the
- * spans to collector.</li>
+ * spans to collector. It is split evenly across the threads, which each have their own queue.</li>
  * <li>batch size: The maximum number of spans that is submitted at once to collector of spans.</li>
+ * <li>message max bytes: The maximum encoded size of spans that is submitted at once to collector of spans.</li>
+ * <li>message time out: The maximum time in milliseconds a span waits before it is submitted.</li>
  * <li>number of threads: The number of parallel threads for submitting spans to collector.</li>
  * <li>socket time out: Time in milliseconds after which our socket connections will time out. When it times out an exception
  * will be thrown.</li>
@@ -29,11 +31,15 @@ public class ScribeSpanCollectorParams {
     public int DEFAULT_BATCH_SIZE = 10;
     public int DEFAULT_NR_OF_THREADS = 1;
     public int DEFAULT_SOCKET_TIMEOUT = 5000;
+    public int DEFAULT_MESSAGE_MAX_BYTES = 1024 * 1024;
+    public long DEFAULT_MESSAGE_TIMEOUT = 10000;
 
     private int queueSize;
     private int batchSize;
     private int nrOfThreads;
     private int socketTimeout;
+    private int messageMaxBytes;
+    private long messageTimeout;
     private boolean failOnSetup = true;
     private SpanCollectorMetricsHandler metricsHandler = new EmptySpanCollectorMetricsHandler();
 
@@ -45,6 +51,8 @@ public class ScribeSpanCollectorParams {
         batchSize = DEFAULT_BATCH_SIZE;
         nrOfThreads = DEFAULT_NR_OF_THREADS;
         socketTimeout = DEFAULT_SOCKET_TIMEOUT;
+        messageMaxBytes = DEFAULT_MESSAGE_MAX_BYTES;
+        messageTimeout = DEFAULT_MESSAGE_TIMEOUT;
     }
 
     /**
@@ -124,6 +132,46 @@ public class ScribeSpanCollectorParams {
         this.socketTimeout = socketTimeout;
     }
 
+    /**
+     * Gets the maximum size of a batch, in encoded bytes.
+     *
+     * @return Maximum size of a batch, in bytes.
+     */
+    public int getMessageMaxBytes() {
+        return messageMaxBytes;
+    }
+
+    /**
+     * Sets the maximum size of a batch. A batch is submitted as soon as its encoded spans reach this size, even if it
+     * has less than {@link #getBatchSize() batch size} spans.
+     *
+     * @param messageMaxBytes Maximum size of a batch, in bytes.
+     */
+    public void setMessageMaxBytes(final int messageMaxBytes) {
+        if (messageMaxBytes <= 0) throw new IllegalArgumentException("messageMaxBytes must be positive");
+        this.messageMaxBytes = messageMaxBytes;
+    }
+
+    /**
+     * Gets the message time out.
+     *
+     * @return Maximum time in milliseconds a span waits in a batch before it is submitted.
+     */
+    public long getMessageTimeout() {
+        return messageTimeout;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a span waits in a batch before it is submitted, even if the batch is not
+     * full. This has millisecond granularity.
+     *
+     * @param messageTimeout Message time out in milliseconds.
+     */
+    public void setMessageTimeout(final long messageTimeout) {
+        if (messageTimeout <= 0) throw new IllegalArgumentException("messageTimeout must be positive");
+        this.messageTimeout = messageTimeout;
+    }
+
     /**
      * Sets fail on setup value.
      * 
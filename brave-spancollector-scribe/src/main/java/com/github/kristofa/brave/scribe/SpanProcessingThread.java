@@ -1,6 +1,5 @@
 package com.github.kristofa.brave.scribe;
 
-import com.twitter.zipkin.gen.SpanCodec;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.BlockingQueue;
@@ -11,8 +10,6 @@ import java.util.logging.Logger;
 
 import com.github.kristofa.brave.SpanCollectorMetricsHandler;
 import org.apache.thrift.TException;
-import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.protocol.TProtocolFactory;
 
 import com.twitter.zipkin.gen.LogEntry;
 import com.twitter.zipkin.gen.Span;
@@ -26,8 +23,11 @@ import static java.lang.String.format;
  * spans from a queue. The spans are produced by {@link ScribeSpanCollector} put on a queue and consumed and processed by
  * this thread.
  * <p/>
- * We will try to buffer spans and send them in batches to minimize communication overhead. However if the batch size is not
- * reached within 2 polls (max 10 seconds) the available spans will be sent over anyway.
+ * We will try to buffer spans and send them in batches to minimize communication overhead. A batch is sent as soon as it
+ * reaches the maximum count or encoded size, or when its first span has waited the message time out, whichever comes
+ * first. While there is no batch, the thread blocks until a span arrives or it is stopped.
+ * <p/>
+ * Each thread has its own queue and {@link LogEntryEncoder}, so threads don't contend with each other.
  * 
  * @see ScribeSpanCollector
  * @author kristof
@@ -35,16 +35,20 @@ import static java.lang.String.format;
 class SpanProcessingThread implements Callable<Integer> {
 
     private static final Logger LOGGER = Logger.getLogger(SpanProcessingThread.class.getName());
-    private static final int MAX_SUBSEQUENT_EMPTY_BATCHES = 2;
 
     private final BlockingQueue<Span> queue;
     private final ScribeClientProvider clientProvider;
-    private final TProtocolFactory protocolFactory;
+    private final LogEntryEncoder encoder = new LogEntryEncoder();
     private final SpanCollectorMetricsHandler metricsHandler;
     private volatile boolean stop = false;
+    private volatile Thread runner;
     private int processedSpans = 0;
     private final List<LogEntry> logEntries;
     private final int maxBatchSize;
+    private final int messageMaxBytes;
+    private final long messageTimeoutNanos;
+    private int batchBytes = 0;
+    private long batchDeadline = 0;
 
     /**
      * Creates a new instance.
@@ -56,11 +60,30 @@ class SpanProcessingThread implements Callable<Integer> {
      */
     public SpanProcessingThread(final BlockingQueue<Span> queue, final ScribeClientProvider clientProvider,
         final int maxBatchSize, SpanCollectorMetricsHandler metricsHandler) {
+        this(queue, clientProvider, maxBatchSize, Integer.MAX_VALUE, 10000, metricsHandler);
+    }
+
+    /**
+     * Creates a new instance.
+     *
+     * @param queue BlockingQueue that will provide spans.
+     * @param clientProvider {@link ThriftClientProvider} that provides client used to submit spans to zipkin span collector.
+     * @param maxBatchSize Max batch size. Indicates how many spans we submit to collector in 1 go.
+     * @param messageMaxBytes Max encoded size of a batch. A batch is submitted as soon as it reaches this size.
+     * @param messageTimeout Max milliseconds the first span in a batch waits before the batch is submitted.
+     * @param metricsHandler Handler to be notified of span logging events.
+     */
+    public SpanProcessingThread(final BlockingQueue<Span> queue, final ScribeClientProvider clientProvider,
+        final int maxBatchSize, final int messageMaxBytes, final long messageTimeout,
+        SpanCollectorMetricsHandler metricsHandler) {
         if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize must be positive");
+        if (messageMaxBytes <= 0) throw new IllegalArgumentException("messageMaxBytes must be positive");
+        if (messageTimeout <= 0) throw new IllegalArgumentException("messageTimeout must be positive");
+        this.messageMaxBytes = messageMaxBytes;
+        this.messageTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(messageTimeout);
         this.queue = checkNotNull(queue, "Null queue");
         this.clientProvider = checkNotNull(clientProvider, "Null clientProvider");
         this.metricsHandler = checkNotNull(metricsHandler, "Null metricsHandler");
-        protocolFactory = new TBinaryProtocol.Factory();
         this.maxBatchSize = maxBatchSize;
         logEntries = new ArrayList<LogEntry>(maxBatchSize);
     }
@@ -70,6 +93,8 @@ class SpanProcessingThread implements Callable<Integer> {
      */
     public void stop() {
         stop = true;
+        final Thread runner = this.runner;
+        if (runner != null) runner.interrupt(); // stop waiting for spans
     }
 
     /**
@@ -77,33 +102,63 @@ class SpanProcessingThread implements Callable<Integer> {
      */
     @Override
     public Integer call() {
-
-        int subsequentEmptyBatches = 0;
-        do {
-
-            try {
-                final Span span = queue.poll(5, TimeUnit.SECONDS);
-                if (span == null) {
-                    subsequentEmptyBatches++;
-
-                } else {
-                    logEntries.add(create(span));
+        runner = Thread.currentThread();
+        try {
+            while (!stop) {
+                try {
+                    final Span span = logEntries.isEmpty()
+                        ? queue.take()
+                        : queue.poll(batchDeadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (span != null) add(span);
+                } catch (final InterruptedException e) {
+                    // stop was requested
                 }
 
-                if ((subsequentEmptyBatches >= MAX_SUBSEQUENT_EMPTY_BATCHES && !logEntries.isEmpty())
-                    || logEntries.size() >= maxBatchSize || (!logEntries.isEmpty() && stop)) {
-                    log(logEntries);
-                    logEntries.clear();
-                    subsequentEmptyBatches = 0;
+                if (!logEntries.isEmpty() && (logEntries.size() >= maxBatchSize || batchBytes >= messageMaxBytes
+                    || System.nanoTime() - batchDeadline >= 0)) {
+                    flush();
                 }
-            } catch (final Exception e) {
-                LOGGER.log(Level.WARNING, "Unexpected exception flushing spans", e);
             }
-
-        } while (stop == false);
+            // The queue is only ours, so submit what producers left on it before stopping.
+            final List<Span> remaining = new ArrayList<Span>();
+            queue.drainTo(remaining);
+            for (final Span span : remaining) {
+                add(span);
+                if (logEntries.size() >= maxBatchSize || batchBytes >= messageMaxBytes) flush();
+            }
+            if (!logEntries.isEmpty()) flush();
+        } finally {
+            runner = null;
+            Thread.interrupted(); // don't leak a stop request to the executor's thread
+        }
         return processedSpans;
     }
 
+    private void add(final Span span) {
+        final LogEntry logEntry;
+        try {
+            logEntry = encoder.encode(span);
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unexpected exception encoding span", e);
+            metricsHandler.incrementDroppedSpans(1);
+            return;
+        }
+        if (logEntries.isEmpty()) batchDeadline = System.nanoTime() + messageTimeoutNanos;
+        logEntries.add(logEntry);
+        batchBytes += logEntry.getMessage().length();
+    }
+
+    private void flush() {
+        try {
+            log(logEntries);
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unexpected exception flushing spans", e);
+            metricsHandler.incrementDroppedSpans(logEntries.size());
+        }
+        logEntries.clear();
+        batchBytes = 0;
+    }
+
     private void log(final List<LogEntry> logEntries) {
         final long start = System.currentTimeMillis();
         final boolean success = log(clientProvider.getClient(), logEntries);
@@ -137,8 +192,4 @@ class SpanProcessingThread implements Callable<Integer> {
         return false;
     }
 
-    private LogEntry create(final Span span) throws TException {
-        final String spanAsString = Base64.encode(SpanCodec.THRIFT.writeSpan(span));
-        return new LogEntry("zipkin", spanAsString);
-    }
 }
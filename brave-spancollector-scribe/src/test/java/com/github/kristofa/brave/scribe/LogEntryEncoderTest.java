@@ -0,0 +1,107 @@
+package com.github.kristofa.brave.scribe;
+
+import com.github.kristofa.brave.SpanId;
+import com.github.kristofa.brave.internal.InternalSpan;
+import com.twitter.zipkin.gen.Annotation;
+import com.twitter.zipkin.gen.AnnotationType;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Endpoint;
+import com.twitter.zipkin.gen.LogEntry;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.util.Arrays;
+import org.junit.Test;
+import zipkin.Codec;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LogEntryEncoderTest {
+  static {
+    InternalSpan.initializeInstanceForTests();
+  }
+
+  Endpoint frontend = Endpoint.create("frontend", 127 << 24 | 1, 8080);
+  Endpoint backend = Endpoint.builder()
+      .serviceName("backend")
+      .ipv4(192 << 24 | 168 << 16 | 1)
+      .ipv6(new byte[] {0x20, 0x01, 0x0d, (byte) 0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1})
+      .build();
+
+  LogEntryEncoder encoder = new LogEntryEncoder();
+
+  @Test public void encodesMinimalSpan() {
+    Span span = span(1L, 2L).setName("");
+
+    assertSameAsSpanCodec(span);
+  }
+
+  @Test public void encodesAllFields() {
+    Span span = InternalSpan.instance.toSpan(SpanId.builder()
+        .traceIdHigh(-1L)
+        .traceId(Long.MIN_VALUE)
+        .parentId(3L)
+        .spanId(4L)
+        .debug(true).build())
+        .setName("get")
+        .setTimestamp(1472470996199000L)
+        .setDuration(207000L)
+        .addToAnnotations(Annotation.create(1472470996199000L, "cs", frontend))
+        .addToAnnotations(Annotation.create(1472470996238000L, "sr", backend))
+        .addToAnnotations(Annotation.create(1472470996250000L, "custom", null))
+        .addToBinary_annotations(BinaryAnnotation.create("http.path", "/api", frontend))
+        .addToBinary_annotations(BinaryAnnotation.address("sa", backend))
+        .addToBinary_annotations(
+            BinaryAnnotation.create("retries", new byte[] {0, 0, 0, 2}, AnnotationType.I32, null));
+
+    assertSameAsSpanCodec(span);
+  }
+
+  @Test public void encodesNonAsciiStrings() {
+    Span span = span(1L, 2L).setName("über")
+        .addToAnnotations(Annotation.create(1L, "💩", Endpoint.create("srv", 1)))
+        .addToBinary_annotations(BinaryAnnotation.create("bläh", "𝐀", null));
+
+    assertSameAsSpanCodec(span);
+  }
+
+  @Test public void growsBuffers() {
+    char[] large = new char[encoder.thrift.length * 3];
+    Arrays.fill(large, 'a');
+    Span span = span(1L, 2L).setName("get")
+        .addToBinary_annotations(BinaryAnnotation.create("large", new String(large), null));
+
+    assertSameAsSpanCodec(span);
+  }
+
+  @Test public void reusesBuffers() {
+    Span large = span(1L, 2L).setName("get")
+        .addToAnnotations(Annotation.create(1L, "cs", frontend))
+        .addToAnnotations(Annotation.create(2L, "cr", frontend));
+    Span small = span(3L, 4L).setName("get");
+
+    encoder.encode(large);
+    byte[] thrift = encoder.thrift, base64 = encoder.base64;
+
+    // a smaller span after a larger one mustn't carry over trailing bytes
+    assertSameAsSpanCodec(small);
+    assertThat(encoder.thrift).isSameAs(thrift);
+    assertThat(encoder.base64).isSameAs(base64);
+  }
+
+  @Test public void usesZipkinCategory() {
+    assertThat(encoder.encode(span(1L, 2L).setName("")).getCategory())
+        .isEqualTo("zipkin");
+  }
+
+  static Span span(long traceId, long spanId) {
+    return InternalSpan.instance.toSpan(SpanId.builder().traceId(traceId).spanId(spanId).build());
+  }
+
+  void assertSameAsSpanCodec(Span span) {
+    LogEntry entry = encoder.encode(span);
+    byte[] encoded = java.util.Base64.getDecoder().decode(entry.getMessage());
+
+    assertThat(Codec.THRIFT.readSpan(encoded))
+        .isEqualTo(Codec.THRIFT.readSpan(SpanCodec.THRIFT.writeSpan(span)));
+  }
+}
@@ -1,6 +1,6 @@
 package com.github.kristofa.brave.scribe;
 
-import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
 import com.github.kristofa.brave.SpanId;
 import com.github.kristofa.brave.internal.InternalSpan;
 import com.twitter.zipkin.gen.Span;
@@ -27,7 +27,7 @@ public class ScribeSpanCollectorMetricsTest {
     private static ScribeServer scribeServer;
     private EventsHandler eventsHandler;
 
-    private static class EventsHandler implements SpanCollectorMetricsHandler {
+    private static class EventsHandler extends EmptySpanCollectorMetricsHandler {
 
         public int acceptedSpans = 0;
         public int droppedSpans = 0;
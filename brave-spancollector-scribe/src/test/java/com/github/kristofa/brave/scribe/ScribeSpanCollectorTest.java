@@ -4,7 +4,10 @@ import static org.junit.Assert.assertEquals;
 
 import com.github.kristofa.brave.SpanId;
 import com.github.kristofa.brave.internal.InternalSpan;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.thrift.transport.TTransportException;
 import org.junit.AfterClass;
@@ -89,4 +92,38 @@ public class ScribeSpanCollectorTest {
 
     }
 
+    /** Each processing thread has its own queue: spans from any producer must still arrive. */
+    @Test
+    public void testCollectFromManyThreads() throws InterruptedException {
+
+        final ScribeSpanCollectorParams params = new ScribeSpanCollectorParams();
+        params.setNrOfThreads(3);
+        params.setQueueSize(1000);
+        final ScribeSpanCollector scribeSpanCollector = new ScribeSpanCollector("localhost", PORT, params);
+        final List<Thread> producers = new ArrayList<>();
+        try {
+            for (int t = 0; t < 5; t++) {
+                final long traceId = t + 1;
+                final Thread producer = new Thread(() -> {
+                    for (long id = 1; id <= 100; id++) {
+                        scribeSpanCollector.collect(
+                            InternalSpan.instance.toSpan(SpanId.builder().traceId(traceId).spanId(id).build()));
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            for (final Thread producer : producers) {
+                producer.join();
+            }
+        } finally {
+            scribeSpanCollector.close();
+        }
+        final Set<String> received = new HashSet<>();
+        for (final Span span : scribeServer.getReceivedSpans()) {
+            received.add(span.getTrace_id() + "/" + span.getId());
+        }
+        assertEquals(500, received.size());
+    }
+
 }
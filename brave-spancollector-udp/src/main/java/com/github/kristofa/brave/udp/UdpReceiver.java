@@ -0,0 +1,135 @@
+package com.github.kristofa.brave.udp;
+
+import com.github.kristofa.brave.internal.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin.Codec;
+import zipkin.Span;
+
+/**
+ * Receives packets sent by {@link UdpSender} on the loopback interface, in process. This is
+ * intended for tests and benchmarks, not as an agent: it doesn't forward spans anywhere.
+ *
+ * <p>A daemon thread receives each packet, and when a listener is present, decodes the packet and
+ * passes its spans to the listener. Without a listener, only packets are counted.
+ */
+public final class UdpReceiver implements Closeable {
+  static final Logger logger = Logger.getLogger(UdpReceiver.class.getName());
+
+  public interface Listener {
+    /** Invoked on the receiving thread with the spans of each packet. */
+    void accept(List<Span> spans);
+  }
+
+  /** Listens on an ephemeral port of 127.0.0.1, counting packets without decoding them. */
+  public static UdpReceiver create() throws IOException {
+    return new UdpReceiver(null);
+  }
+
+  /** Listens on an ephemeral port of 127.0.0.1, passing decoded spans to the listener. */
+  public static UdpReceiver create(Listener listener) throws IOException {
+    if (listener == null) throw new NullPointerException("listener == null");
+    return new UdpReceiver(listener);
+  }
+
+  final DatagramChannel channel;
+  @Nullable final Listener listener;
+  final AtomicLong packets = new AtomicLong();
+  final AtomicLong spans = new AtomicLong();
+  final AtomicLong malformedPackets = new AtomicLong();
+  final Thread thread;
+
+  UdpReceiver(@Nullable Listener listener) throws IOException {
+    this.listener = listener;
+    this.channel = DatagramChannel.open();
+    try {
+      // a large buffer absorbs bursts while the receiving thread decodes
+      channel.setOption(StandardSocketOptions.SO_RCVBUF, 4 * 1024 * 1024);
+      channel.bind(new InetSocketAddress("127.0.0.1", 0));
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    this.thread = new Thread(new Runnable() {
+      @Override public void run() {
+        receiveLoop();
+      }
+    }, "UdpReceiver");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Port to send packets to, on 127.0.0.1. */
+  public int port() {
+    return ((InetSocketAddress) channel.socket().getLocalSocketAddress()).getPort();
+  }
+
+  /** Count of packets received. */
+  public long packets() {
+    return packets.get();
+  }
+
+  /** Count of spans decoded, which is zero without a listener. */
+  public long spans() {
+    return spans.get();
+  }
+
+  /** Count of packets which couldn't be decoded. */
+  public long malformedPackets() {
+    return malformedPackets.get();
+  }
+
+  void receiveLoop() {
+    ByteBuffer buffer = ByteBuffer.allocate(UdpSender.MAX_PACKET_BYTES);
+    while (true) {
+      buffer.clear();
+      try {
+        channel.receive(buffer);
+      } catch (ClosedChannelException e) {
+        return;
+      } catch (IOException e) {
+        logger.log(Level.FINE, "couldn't receive packet", e);
+        continue;
+      }
+      packets.incrementAndGet();
+      if (listener == null) continue;
+      byte[] packet = new byte[buffer.position()];
+      System.arraycopy(buffer.array(), 0, packet, 0, packet.length);
+      List<Span> decoded;
+      try {
+        decoded = packet.length > 0 && packet[0] == '['
+            ? Codec.JSON.readSpans(packet)
+            : Codec.THRIFT.readSpans(packet);
+      } catch (RuntimeException e) {
+        malformedPackets.incrementAndGet();
+        logger.log(Level.FINE, "couldn't decode packet", e);
+        continue;
+      }
+      spans.addAndGet(decoded.size());
+      listener.accept(decoded);
+    }
+  }
+
+  /** Stops receiving, and waits for the receiving thread to exit. */
+  @Override public void close() throws IOException {
+    channel.close();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override public String toString() {
+    return "UdpReceiver(127.0.0.1:" + port() + ")";
+  }
+}
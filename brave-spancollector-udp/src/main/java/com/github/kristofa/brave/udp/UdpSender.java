@@ -0,0 +1,264 @@
+package com.github.kristofa.brave.udp;
+
+import com.google.auto.value.AutoValue;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.PortUnreachableException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import zipkin.reporter.Callback;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.Sender;
+
+/**
+ * Sends spans to a local agent in UDP packets, without blocking or holding connection state.
+ *
+ * <p>Spans are packed into packets no larger than {@link Config.Builder#maxPacketBytes}. Each
+ * packet is a complete list of spans, in the same format Zipkin accepts over http or Kafka, so a
+ * receiver decodes each packet on its own. A span too large for a packet is dropped, as is a
+ * packet the socket has no room for: see {@link #oversizeSpans()} and {@link #droppedSpans()}.
+ *
+ * <p>Delivery is fire-and-forget: callbacks complete once packets are handed to the socket.
+ * Packets lost in transit, or sent while nothing is listening, aren't reported.
+ *
+ * <p>This can be used with {@link zipkin.reporter.AsyncReporter} in Brave 4, or via {@link
+ * UdpSpanCollector} in Brave 3.
+ */
+public final class UdpSender implements Sender {
+  /** Largest payload of a packet that fits a 1500 byte ethernet frame: less IPv4 and UDP headers */
+  static final int ETHERNET_MAX_PACKET_BYTES = 1500 - 20 - 8;
+  /** Largest payload of an IPv4 UDP packet */
+  static final int MAX_PACKET_BYTES = 65535 - 20 - 8;
+  /** Thrift list header: element type, then count */
+  static final int THRIFT_LIST_HEADER = 5;
+  static final byte TYPE_STRUCT = 12;
+
+  @AutoValue
+  public static abstract class Config {
+    public static Builder builder() {
+      return new AutoValue_UdpSender_Config.Builder()
+          .encoding(Encoding.THRIFT)
+          .maxPacketBytes(ETHERNET_MAX_PACKET_BYTES);
+    }
+
+    abstract Encoding encoding();
+
+    abstract int maxPacketBytes();
+
+    @AutoValue.Builder
+    public interface Builder {
+      /** Default {@link Encoding#THRIFT}, which fits more spans per packet than json. */
+      Builder encoding(Encoding encoding);
+
+      /**
+       * Default 1472 bytes, so that packets aren't fragmented on an ethernet network. Loopback
+       * interfaces accept larger packets, up to 65507 bytes.
+       */
+      Builder maxPacketBytes(int maxPacketBytes);
+
+      Config build();
+    }
+  }
+
+  /**
+   * @param host usually "127.0.0.1", as packets are best sent to an agent on the same host
+   * @param port port the agent listens on
+   */
+  public static UdpSender create(String host, int port) {
+    return new UdpSender(new InetSocketAddress(host, port), Config.builder().build());
+  }
+
+  /**
+   * @param host usually "127.0.0.1", as packets are best sent to an agent on the same host
+   * @param port port the agent listens on
+   * @param config includes encoding and packet size
+   */
+  public static UdpSender create(String host, int port, Config config) {
+    return new UdpSender(new InetSocketAddress(host, port), config);
+  }
+
+  final InetSocketAddress address;
+  final Encoding encoding;
+  final int maxPacketBytes;
+  final int maxSpanBytes;
+  final AtomicLong oversizeSpans = new AtomicLong();
+  final AtomicLong droppedSpans = new AtomicLong();
+  final ByteBuffer packet; // guarded by this
+  DatagramChannel channel; // guarded by this, opened on first send
+  volatile boolean closeCalled;
+
+  UdpSender(InetSocketAddress address, Config config) {
+    if (address.isUnresolved()) {
+      throw new IllegalArgumentException("couldn't resolve " + address.getHostString());
+    }
+    if (config.maxPacketBytes() < 64 || config.maxPacketBytes() > MAX_PACKET_BYTES) {
+      throw new IllegalArgumentException(
+          "maxPacketBytes must be between 64 and " + MAX_PACKET_BYTES);
+    }
+    this.address = address;
+    this.encoding = config.encoding();
+    this.maxPacketBytes = config.maxPacketBytes();
+    this.maxSpanBytes = maxPacketBytes - (encoding == Encoding.JSON ? 2 : THRIFT_LIST_HEADER);
+    this.packet = ByteBuffer.allocateDirect(maxPacketBytes);
+  }
+
+  @Override public Encoding encoding() {
+    return encoding;
+  }
+
+  /** Messages larger than a packet are split, but bundling up to a packet saves the work. */
+  @Override public int messageMaxBytes() {
+    return maxPacketBytes;
+  }
+
+  @Override public int messageSizeInBytes(List<byte[]> encodedSpans) {
+    return encoding.listSizeInBytes(encodedSpans);
+  }
+
+  /**
+   * Packs the spans into as few packets as possible and sends them, completing the callback
+   * before returning. Spans dropped by this sender don't fail the callback, as the rest were sent.
+   */
+  @Override public void sendSpans(List<byte[]> encodedSpans, Callback callback) {
+    if (closeCalled) {
+      callback.onError(new IllegalStateException("closed"));
+      return;
+    }
+    try {
+      send(encodedSpans);
+    } catch (IOException e) {
+      callback.onError(e);
+      return;
+    } catch (RuntimeException e) {
+      callback.onError(e);
+      return;
+    }
+    callback.onComplete();
+  }
+
+  /**
+   * Sends encoded spans, splitting them on packet boundaries. Returns the count of spans dropped
+   * because they were larger than a packet, or the socket had no room for their packet.
+   */
+  synchronized int send(List<byte[]> encodedSpans) throws IOException {
+    DatagramChannel channel = channel();
+    int oversize = 0, dropped = 0, packed = 0;
+    for (int i = 0, length = encodedSpans.size(); i < length; i++) {
+      byte[] span = encodedSpans.get(i);
+      if (span.length > maxSpanBytes) {
+        oversize++;
+        continue;
+      }
+      // json needs a comma before, and a bracket after, this span
+      int needed = encoding == Encoding.JSON ? span.length + 2 : span.length;
+      if (packed > 0 && needed > packet.remaining()) {
+        if (!writePacket(channel, packed)) dropped += packed;
+        packed = 0;
+      }
+      if (packed == 0) startPacket();
+      if (encoding == Encoding.JSON && packed > 0) packet.put((byte) ',');
+      packet.put(span);
+      packed++;
+    }
+    if (packed > 0 && !writePacket(channel, packed)) dropped += packed;
+    if (oversize > 0) oversizeSpans.addAndGet(oversize);
+    if (dropped > 0) droppedSpans.addAndGet(dropped);
+    return oversize + dropped;
+  }
+
+  /** Sends an already encoded list of spans as one packet, returning false if it was dropped. */
+  synchronized boolean sendMessage(byte[] message) throws IOException {
+    if (message.length > maxPacketBytes) {
+      throw new IOException("message of " + message.length + " bytes exceeds " + maxPacketBytes);
+    }
+    DatagramChannel channel = channel();
+    packet.clear();
+    packet.put(message);
+    packet.flip();
+    return write(channel);
+  }
+
+  void startPacket() {
+    packet.clear();
+    if (encoding == Encoding.JSON) {
+      packet.put((byte) '[');
+    } else {
+      packet.put(TYPE_STRUCT).putInt(0); // count is set when the packet is complete
+    }
+  }
+
+  boolean writePacket(DatagramChannel channel, int spanCount) throws IOException {
+    if (encoding == Encoding.JSON) {
+      packet.put((byte) ']');
+    } else {
+      packet.putInt(1, spanCount);
+    }
+    packet.flip();
+    return write(channel);
+  }
+
+  /** Returns false when the socket buffer is full, as waiting for room would block the caller. */
+  boolean write(DatagramChannel channel) throws IOException {
+    try {
+      return channel.write(packet) != 0;
+    } catch (PortUnreachableException e) {
+      return false; // a previous packet was refused, as the agent isn't listening (yet)
+    }
+  }
+
+  DatagramChannel channel() throws IOException {
+    if (closeCalled) throw new IllegalStateException("closed");
+    if (channel == null) {
+      DatagramChannel channel = DatagramChannel.open();
+      try {
+        channel.configureBlocking(false);
+        channel.connect(address); // avoids security checks and address lookups per packet
+      } catch (IOException e) {
+        channel.close();
+        throw e;
+      }
+      this.channel = channel;
+    }
+    return channel;
+  }
+
+  /** Count of spans dropped because they were larger than {@link #messageMaxBytes()}. */
+  public long oversizeSpans() {
+    return oversizeSpans.get();
+  }
+
+  /** Count of spans dropped because the socket couldn't accept their packet. */
+  public long droppedSpans() {
+    return droppedSpans.get();
+  }
+
+  /** Opens the socket, if not already. This doesn't verify that an agent is listening. */
+  @Override public CheckResult check() {
+    try {
+      synchronized (this) {
+        channel();
+      }
+      return CheckResult.OK;
+    } catch (IOException e) {
+      return CheckResult.failed(e);
+    } catch (RuntimeException e) {
+      return CheckResult.failed(e);
+    }
+  }
+
+  @Override public synchronized void close() {
+    if (closeCalled) return;
+    closeCalled = true;
+    if (channel == null) return;
+    try {
+      channel.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  @Override public String toString() {
+    return "UdpSender(" + address + ")";
+  }
+}
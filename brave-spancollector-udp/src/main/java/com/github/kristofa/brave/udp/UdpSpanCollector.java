@@ -0,0 +1,173 @@
+package com.github.kristofa.brave.udp;
+
+import com.github.kristofa.brave.AbstractSpanCollector;
+import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
+import com.github.kristofa.brave.LoadShedding;
+import com.github.kristofa.brave.SpanCollectorMetricsHandler;
+import com.github.kristofa.brave.SpanCollectorOptions;
+import com.google.auto.value.AutoValue;
+import com.twitter.zipkin.gen.Span;
+import com.twitter.zipkin.gen.SpanCodec;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import zipkin.reporter.Encoding;
+
+/**
+ * SpanCollector which sends thrift-encoded spans to a local agent in UDP packets, using a {@link
+ * UdpSender}. Flushing never waits on the agent: packets are handed to the socket, or dropped.
+ *
+ * <p>Spans dropped because they are larger than a packet, or because the socket buffer is full,
+ * are reported to the metrics handler. Packets lost after leaving the socket are not.
+ *
+ * @deprecated replaced by {@link zipkin.reporter.AsyncReporter} and {@link UdpSender}.
+ */
+@Deprecated
+public final class UdpSpanCollector extends AbstractSpanCollector {
+
+  @AutoValue
+  public static abstract class Config {
+    public static Builder builder() {
+      return new AutoValue_UdpSpanCollector_Config.Builder()
+          .messageTimeout(1, TimeUnit.SECONDS)
+          .maxPacketBytes(UdpSender.ETHERNET_MAX_PACKET_BYTES)
+          .loadSheddingThreshold(1.0f)
+          .queuedMaxSpans(DEFAULT_QUEUED_MAX_SPANS)
+          .queuedMaxBytes(DEFAULT_QUEUED_MAX_BYTES);
+    }
+
+    abstract long messageTimeoutMillis();
+
+    abstract int maxPacketBytes();
+
+    abstract float loadSheddingThreshold();
+
+    abstract int queuedMaxSpans();
+
+    abstract int queuedMaxBytes();
+
+    @AutoValue.Builder
+    public static abstract class Builder {
+      /**
+       * Default 1 second. 0 implies spans are {@link #flush() flushed} externally.
+       *
+       * @see #messageTimeout(long, TimeUnit)
+       */
+      public final Builder flushInterval(int flushInterval) {
+        return messageTimeout(flushInterval, TimeUnit.SECONDS);
+      }
+
+      /**
+       * Default 1 second. Maximum time a span waits before it is sent. This has millisecond
+       * granularity. 0 implies spans are {@link #flush() flushed} externally.
+       */
+      public final Builder messageTimeout(long timeout, TimeUnit unit) {
+        return messageTimeoutMillis(unit.toMillis(timeout));
+      }
+
+      abstract Builder messageTimeoutMillis(long messageTimeoutMillis);
+
+      /**
+       * Default 1472 bytes, so that packets aren't fragmented on an ethernet network. Spans larger
+       * than this are dropped.
+       */
+      public abstract Builder maxPacketBytes(int maxPacketBytes);
+
+      /**
+       * Default 1.0, which drops spans only when the queue is full. Otherwise, the fraction of the
+       * queue in use before whole traces are shed. See {@link LoadShedding}.
+       */
+      public abstract Builder loadSheddingThreshold(float loadSheddingThreshold);
+
+      /** Default 1000. Maximum pending spans. */
+      public abstract Builder queuedMaxSpans(int queuedMaxSpans);
+
+      /**
+       * Default 1% of the heap. Maximum estimated encoded size of pending spans. This protects
+       * against a few large spans exhausting memory.
+       */
+      public abstract Builder queuedMaxBytes(int queuedMaxBytes);
+
+      public abstract Config build();
+    }
+  }
+
+  /**
+   * Spans are flushed in messages of up to this many bytes, which are split into packets. This
+   * bounds bursts to what a default socket send buffer holds, so packets aren't dropped locally.
+   */
+  static final int MESSAGE_MAX_BYTES = 64 * 1024;
+
+  private final UdpSender sender;
+  private final SpanCollectorMetricsHandler metrics;
+
+  /**
+   * Create a new instance with default configuration.
+   *
+   * @param host usually "127.0.0.1", as packets are best sent to an agent on the same host
+   * @param port port the agent listens on
+   * @param metrics Gets notified when spans are accepted or dropped. If you are not interested in
+   *                these events you can use {@linkplain EmptySpanCollectorMetricsHandler}
+   */
+  public static UdpSpanCollector create(String host, int port,
+      SpanCollectorMetricsHandler metrics) {
+    return new UdpSpanCollector(host, port, Config.builder().build(), metrics);
+  }
+
+  /**
+   * @param host usually "127.0.0.1", as packets are best sent to an agent on the same host
+   * @param port port the agent listens on
+   * @param config includes flush interval and packet size
+   * @param metrics Gets notified when spans are accepted or dropped. If you are not interested in
+   *                these events you can use {@linkplain EmptySpanCollectorMetricsHandler}
+   */
+  public static UdpSpanCollector create(String host, int port, Config config,
+      SpanCollectorMetricsHandler metrics) {
+    return new UdpSpanCollector(host, port, config, metrics);
+  }
+
+  // Visible for testing. Ex when tests need to explicitly control flushing, set interval to 0.
+  UdpSpanCollector(String host, int port, Config config, SpanCollectorMetricsHandler metrics) {
+    super(SpanCodec.THRIFT, metrics, SpanCollectorOptions.builder()
+        .loadShedding(LoadShedding.create(config.loadSheddingThreshold()))
+        .queuedMaxSpans(config.queuedMaxSpans())
+        .queuedMaxBytes(config.queuedMaxBytes())
+        .messageMaxBytes(Math.max(MESSAGE_MAX_BYTES, config.maxPacketBytes()))
+        .messageTimeout(config.messageTimeoutMillis(), TimeUnit.MILLISECONDS).build());
+    this.sender = new UdpSender(new InetSocketAddress(host, port), UdpSender.Config.builder()
+        .encoding(Encoding.THRIFT)
+        .maxPacketBytes(config.maxPacketBytes())
+        .build());
+    this.metrics = metrics;
+  }
+
+  /** Encodes each span, so that the sender can split them into packets. */
+  @Override
+  protected void sendSpans(List<Span> spans) throws IOException {
+    List<byte[]> encoded = new ArrayList<byte[]>(spans.size());
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      encoded.add(SpanCodec.THRIFT.writeSpan(spans.get(i)));
+    }
+    int dropped = sender.send(encoded);
+    if (dropped > 0) metrics.incrementDroppedSpans(dropped);
+  }
+
+  /**
+   * Sends the message in one packet.
+   *
+   * @throws IOException if the message is larger than a packet
+   */
+  @Override
+  protected void sendSpans(byte[] thrift) throws IOException {
+    if (!sender.sendMessage(thrift)) throw new IOException("socket buffer full");
+  }
+
+  /** Drops any pending spans, and closes the socket. */
+  @Override
+  public void close() {
+    super.close();
+    sender.close();
+  }
+}
@@ -0,0 +1,148 @@
+package com.github.kristofa.brave.udp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import zipkin.Codec;
+import zipkin.Span;
+import zipkin.reporter.AsyncReporter;
+import zipkin.reporter.Encoding;
+import zipkin.reporter.internal.AwaitableCallback;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UdpSenderTest {
+  BlockingQueue<List<Span>> packets = new LinkedBlockingQueue<>();
+  UdpReceiver receiver;
+  UdpSender sender;
+
+  @After public void close() throws Exception {
+    if (sender != null) sender.close();
+    if (receiver != null) receiver.close();
+  }
+
+  @Test public void sendsThriftPacket() throws Exception {
+    sender = sender(UdpSender.Config.builder().build());
+
+    send(span(1L), span(2L));
+
+    assertThat(packets.poll(5, TimeUnit.SECONDS)).containsExactly(span(1L), span(2L));
+  }
+
+  @Test public void sendsJsonPacket() throws Exception {
+    sender = sender(UdpSender.Config.builder().encoding(Encoding.JSON).build());
+
+    send(span(1L), span(2L));
+
+    assertThat(packets.poll(5, TimeUnit.SECONDS)).containsExactly(span(1L), span(2L));
+  }
+
+  @Test public void splitsOnPacketBoundaries_thrift() throws Exception {
+    splitsOnPacketBoundaries(Encoding.THRIFT);
+  }
+
+  @Test public void splitsOnPacketBoundaries_json() throws Exception {
+    splitsOnPacketBoundaries(Encoding.JSON);
+  }
+
+  void splitsOnPacketBoundaries(Encoding encoding) throws Exception {
+    int spanBytes = encode(encoding, span(1L)).length;
+    // room for three spans, but not four
+    int maxPacketBytes = encoding.listSizeInBytes(Arrays.asList(
+        encode(encoding, span(1L)), encode(encoding, span(2L)), encode(encoding, span(3L))))
+        + spanBytes / 2;
+    sender = sender(UdpSender.Config.builder()
+        .encoding(encoding).maxPacketBytes(maxPacketBytes).build());
+
+    Span[] spans = new Span[10];
+    for (int i = 0; i < spans.length; i++) spans[i] = span(i + 1L);
+    send(spans);
+
+    List<Span> received = new ArrayList<>();
+    for (int expected : new int[] {3, 3, 3, 1}) {
+      List<Span> packet = packets.poll(5, TimeUnit.SECONDS);
+      assertThat(packet).hasSize(expected);
+      received.addAll(packet);
+    }
+    assertThat(received).containsExactly(spans);
+    assertThat(sender.droppedSpans()).isZero();
+  }
+
+  @Test public void dropsSpansLargerThanPacket() throws Exception {
+    sender = sender(UdpSender.Config.builder().maxPacketBytes(200).build());
+    char[] tag = new char[200];
+    Arrays.fill(tag, 'a');
+    Span large = span(2L).toBuilder()
+        .addBinaryAnnotation(zipkin.BinaryAnnotation.create("large", new String(tag), null))
+        .build();
+
+    assertThat(sender.send(Arrays.asList(encode(Encoding.THRIFT, span(1L)),
+        encode(Encoding.THRIFT, large), encode(Encoding.THRIFT, span(3L))))).isEqualTo(1);
+
+    assertThat(packets.poll(5, TimeUnit.SECONDS)).containsExactly(span(1L), span(3L));
+    assertThat(sender.oversizeSpans()).isEqualTo(1);
+  }
+
+  @Test public void noAgentListening() throws Exception {
+    receiver = UdpReceiver.create();
+    int port = receiver.port();
+    receiver.close();
+    receiver = null;
+    sender = UdpSender.create("127.0.0.1", port);
+
+    // neither send blocks or fails the callback, even though the second may see the port refused
+    send(span(1L));
+    send(span(2L));
+  }
+
+  @Test public void worksWithAsyncReporter() throws Exception {
+    sender = sender(UdpSender.Config.builder().build());
+    AsyncReporter<Span> reporter = AsyncReporter.builder(sender).messageTimeout(0, TimeUnit.SECONDS)
+        .build();
+
+    reporter.report(span(1L));
+    reporter.report(span(2L));
+    reporter.flush();
+
+    assertThat(packets.poll(5, TimeUnit.SECONDS)).containsExactly(span(1L), span(2L));
+  }
+
+  @Test public void sendAfterCloseFails() throws Exception {
+    sender = sender(UdpSender.Config.builder().build());
+    sender.close();
+
+    AwaitableCallback callback = new AwaitableCallback();
+    sender.sendSpans(Arrays.asList(encode(Encoding.THRIFT, span(1L))), callback);
+    try {
+      callback.await();
+      throw new AssertionError("expected failure");
+    } catch (IllegalStateException expected) {
+    }
+  }
+
+  UdpSender sender(UdpSender.Config config) throws Exception {
+    receiver = UdpReceiver.create(packets::add);
+    return UdpSender.create("127.0.0.1", receiver.port(), config);
+  }
+
+  void send(Span... spans) {
+    List<byte[]> encoded = new ArrayList<>();
+    for (Span span : spans) encoded.add(encode(sender.encoding(), span));
+    AwaitableCallback callback = new AwaitableCallback();
+    sender.sendSpans(encoded, callback);
+    callback.await();
+  }
+
+  static byte[] encode(Encoding encoding, Span span) {
+    return encoding == Encoding.JSON ? Codec.JSON.writeSpan(span) : Codec.THRIFT.writeSpan(span);
+  }
+
+  static Span span(long traceId) {
+    return Span.builder().traceId(traceId).id(traceId).name("get").build();
+  }
+}
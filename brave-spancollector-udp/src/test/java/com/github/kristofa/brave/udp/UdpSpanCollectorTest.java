@@ -0,0 +1,121 @@
+package com.github.kristofa.brave.udp;
+
+import com.github.kristofa.brave.EmptySpanCollectorMetricsHandler;
+import com.github.kristofa.brave.SpanId;
+import com.github.kristofa.brave.internal.InternalSpan;
+import com.github.kristofa.brave.udp.UdpSpanCollector.Config;
+import com.twitter.zipkin.gen.BinaryAnnotation;
+import com.twitter.zipkin.gen.Span;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class UdpSpanCollectorTest {
+  static {
+    InternalSpan.initializeInstanceForTests();
+  }
+
+  TestMetricsHander metrics = new TestMetricsHander();
+  BlockingQueue<List<zipkin.Span>> packets = new LinkedBlockingQueue<>();
+  UdpReceiver receiver;
+  UdpSpanCollector collector;
+
+  @After
+  public void close() throws Exception {
+    if (collector != null) collector.close();
+    if (receiver != null) receiver.close();
+  }
+
+  @Test
+  public void collectDoesntDoIO() throws Exception {
+    collector = collector(Config.builder().flushInterval(0).build());
+
+    collector.collect(span(1L));
+
+    assertThat(packets.poll(100, TimeUnit.MILLISECONDS)).isNull();
+    assertThat(metrics.acceptedSpans.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void flushSendsPackets() throws Exception {
+    collector = collector(Config.builder().flushInterval(0).build());
+
+    collector.collect(span(1L));
+    collector.collect(span(2L));
+    collector.flush();
+
+    assertThat(packets.poll(5, TimeUnit.SECONDS)).extracting(s -> s.traceId)
+        .containsExactly(1L, 2L);
+    assertThat(metrics.droppedSpans.get()).isZero();
+  }
+
+  @Test
+  public void splitsIntoPackets() throws Exception {
+    collector = collector(Config.builder().flushInterval(0).maxPacketBytes(256).build());
+
+    for (long i = 1; i <= 100; i++) collector.collect(span(i));
+    collector.flush();
+
+    List<Long> traceIds = new ArrayList<>();
+    while (traceIds.size() < 100) {
+      List<zipkin.Span> packet = packets.poll(5, TimeUnit.SECONDS);
+      assertThat(packet).isNotNull();
+      for (zipkin.Span span : packet) traceIds.add(span.traceId);
+    }
+    assertThat(receiver.packets()).isGreaterThan(1);
+    assertThat(traceIds).hasSize(100);
+  }
+
+  @Test
+  public void oversizeSpansIncrementDroppedMetrics() throws Exception {
+    collector = collector(Config.builder().flushInterval(0).maxPacketBytes(256).build());
+    char[] tag = new char[256];
+    Arrays.fill(tag, 'a');
+    Span large = span(2L);
+    large.addToBinary_annotations(BinaryAnnotation.create("large", new String(tag), null));
+
+    collector.collect(span(1L));
+    collector.collect(large);
+    collector.flush();
+
+    assertThat(packets.poll(5, TimeUnit.SECONDS)).extracting(s -> s.traceId)
+        .containsExactly(1L);
+    assertThat(metrics.droppedSpans.get()).isEqualTo(1);
+  }
+
+  UdpSpanCollector collector(Config config) throws Exception {
+    receiver = UdpReceiver.create(packets::add);
+    return new UdpSpanCollector("127.0.0.1", receiver.port(), config, metrics);
+  }
+
+  class TestMetricsHander extends EmptySpanCollectorMetricsHandler {
+
+    final AtomicInteger acceptedSpans = new AtomicInteger();
+    final AtomicInteger droppedSpans = new AtomicInteger();
+
+    @Override
+    public void incrementAcceptedSpans(int quantity) {
+      acceptedSpans.addAndGet(quantity);
+    }
+
+    @Override
+    public void incrementDroppedSpans(int quantity) {
+      droppedSpans.addAndGet(quantity);
+    }
+  }
+
+  static Span span(long traceId) {
+    Span span = InternalSpan.instance.toSpan(
+        SpanId.builder().traceId(traceId).spanId(traceId).build());
+    span.setName("get");
+    return span;
+  }
+}
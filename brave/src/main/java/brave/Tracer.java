@@ -8,6 +8,7 @@ import brave.propagation.Propagation;
 import brave.propagation.SamplingFlags;
 import brave.propagation.TraceContext;
 import brave.propagation.TraceContextOrSamplingFlags;
+import brave.sampler.DeferredSampler;
 import brave.sampler.Sampler;
 import zipkin.Endpoint;
 import zipkin.reporter.AsyncReporter;
@@ -53,6 +54,7 @@ public final class Tracer {
     Reporter<zipkin.Span> reporter;
     Clock clock;
     Sampler sampler = Sampler.ALWAYS_SAMPLE;
+    DeferredSampler deferredSampler;
     boolean traceId128Bit = false;
 
     /**
@@ -116,6 +118,17 @@ public final class Tracer {
       return this;
     }
 
+    /**
+     * Decides whether to report traces started with {@link Tracer#newDeferredTrace()}, once their
+     * local root finishes. Defaults to keeping traces with an error tag, and otherwise using the
+     * {@link #sampler(Sampler) sampler}.
+     */
+    public Builder deferredSampler(DeferredSampler deferredSampler) {
+      if (deferredSampler == null) throw new NullPointerException("deferredSampler == null");
+      this.deferredSampler = deferredSampler;
+      return this;
+    }
+
     /** When true, new root spans will have 128-bit trace IDs. Defaults to false (64-bit) */
     public Builder traceId128Bit(boolean traceId128Bit) {
       this.traceId128Bit = traceId128Bit;
@@ -131,6 +144,7 @@ public final class Tracer {
         }
       }
       if (reporter == null) reporter = Platform.get();
+      if (deferredSampler == null) deferredSampler = DeferredSampler.create(sampler);
       return new Tracer(this);
     }
   }
@@ -140,6 +154,10 @@ public final class Tracer {
       @Override public Long timestamp(Tracer tracer, TraceContext context) {
         return tracer.recorder.timestamp(context);
       }
+
+      @Override public TraceContext nextSampledContext(Tracer tracer) {
+        return tracer.nextSampledContext();
+      }
     };
   }
 
@@ -152,7 +170,7 @@ public final class Tracer {
   Tracer(Builder builder) {
     this.clock = builder.clock;
     this.localEndpoint = builder.localEndpoint;
-    this.recorder = new Recorder(localEndpoint, clock, builder.reporter);
+    this.recorder = new Recorder(localEndpoint, clock, builder.reporter, builder.deferredSampler);
     this.sampler = builder.sampler;
     this.traceId128Bit = builder.traceId128Bit;
   }
@@ -170,6 +188,22 @@ public final class Tracer {
     return ensureSampled(nextContext(null, SamplingFlags.EMPTY));
   }
 
+  /**
+   * Like {@link #newTrace()}, except the sampling decision is made by the {@link
+   * Builder#deferredSampler(DeferredSampler) deferred sampler} when this span finishes. Until then,
+   * spans in this trace are recorded and buffered, so that the decision can consider what happened,
+   * for example keeping all traces that failed.
+   *
+   * <p>The decision is local: as no sampled flag is propagated, remote services decide for
+   * themselves. Children finished after this span are dropped, so use this for work that completes
+   * within the root span, such as a batch job or a request handler.
+   */
+  public Span newDeferredTrace() {
+    TraceContext context = nextContext(null, SamplingFlags.EMPTY);
+    recorder.beginDeferred(context);
+    return new RealSpan(context, clock, recorder);
+  }
+
   /**
    * Joining is re-using the same trace and span ids extracted from an incoming request. Here, we
    * ensure a sampling decision has been made. If the span passed sampling, we assume this is a
@@ -220,7 +254,8 @@ public final class Tracer {
   /** Converts the context as-is to a Span object */
   public Span toSpan(TraceContext context) {
     if (context == null) throw new NullPointerException("context == null");
-    if (context.sampled()) {
+    Boolean sampled = context.sampled();
+    if (sampled != null ? sampled : recorder.isDeferred(context)) {
       return new RealSpan(context, clock, recorder);
     }
     return new NoopSpan(context);
@@ -235,6 +270,9 @@ public final class Tracer {
     if (Boolean.FALSE.equals(parent.sampled())) {
       return new NoopSpan(parent);
     }
+    if (recorder.isDeferred(parent)) { // leave the decision to the local root
+      return new RealSpan(nextContext(parent, parent), clock, recorder);
+    }
     return ensureSampled(nextContext(parent, parent));
   }
 
@@ -249,6 +287,17 @@ public final class Tracer {
     return toSpan(context);
   }
 
+  /** Like {@link #newTrace()}, except decides on the trace ID before allocating a context. */
+  @Nullable TraceContext nextSampledContext() {
+    long nextId = Platform.get().randomLong();
+    if (!sampler.isSampled(nextId)) return null;
+    return TraceContext.newBuilder()
+        .sampled(true)
+        .traceIdHigh(traceId128Bit ? Platform.get().randomLong() : 0L)
+        .traceId(nextId)
+        .spanId(nextId).build();
+  }
+
   TraceContext nextContext(@Nullable TraceContext parent, SamplingFlags samplingFlags) {
     long nextId = Platform.get().randomLong();
     if (parent != null) {
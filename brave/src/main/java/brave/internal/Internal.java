@@ -15,5 +15,11 @@ public abstract class Internal {
   // Used by Brave 3 apis
   public abstract @Nullable Long timestamp(Tracer tracer, TraceContext context);
 
+  /**
+   * Returns the context of a new trace, or null if the sampler drops its trace ID. Unlike {@link
+   * Tracer#newTrace()}, nothing is allocated for unsampled traces. Used by Brave 3 apis.
+   */
+  public abstract @Nullable TraceContext nextSampledContext(Tracer tracer);
+
   public static Internal instance;
 }
@@ -0,0 +1,206 @@
+package brave.internal.recorder;
+
+import brave.Clock;
+import brave.propagation.TraceContext;
+import brave.sampler.DeferredSampler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import zipkin.reporter.Reporter;
+
+/**
+ * Buffers finished spans of traces whose sampling decision is deferred until their local root
+ * finishes. At that point, the buffered spans are reported or dropped together.
+ *
+ * <p>Spans finished after their local root are dropped, as the decision was already acted on. To
+ * bound memory, at most {@link #MAX_SPANS_PER_TRACE} spans are buffered per trace, and at most
+ * {@link #MAX_PENDING_TRACES} traces are pending. When a trace begins, the oldest are decided early
+ * with the spans buffered so far, if there are too many, or if their root hasn't finished within
+ * {@link #TIMEOUT_MICROS}, for example as it was abandoned.
+ */
+final class DeferredSpans {
+  static final Logger logger = Logger.getLogger(DeferredSpans.class.getName());
+  static final int MAX_SPANS_PER_TRACE = 1000;
+  static final int MAX_PENDING_TRACES = 1000;
+  static final long TIMEOUT_MICROS = 5 * 60 * 1000 * 1000L; // 5 minutes
+
+  /** Reused per thread, so that checking whether a context is pending doesn't allocate. */
+  static final ThreadLocal<LookupKey> LOOKUP_KEY = new ThreadLocal<LookupKey>() {
+    @Override protected LookupKey initialValue() {
+      return new LookupKey();
+    }
+  };
+
+  // Eventhough we only put by TraceKey, we allow get by LookupKey
+  final ConcurrentMap<Object, PendingTrace> pending = new ConcurrentHashMap<>(64);
+  /** Pending traces in the order they began, including ones decided since, until polled. */
+  final ConcurrentLinkedQueue<PendingTrace> order = new ConcurrentLinkedQueue<>();
+  final AtomicInteger orderSize = new AtomicInteger();
+  final DeferredSampler sampler;
+  final Reporter<zipkin.Span> reporter;
+  final Clock clock;
+
+  DeferredSpans(DeferredSampler sampler, Reporter<zipkin.Span> reporter, Clock clock) {
+    this.sampler = sampler;
+    this.reporter = reporter;
+    this.clock = clock;
+  }
+
+  /** Starts buffering for a new local root, whose context must not have a sampling decision. */
+  void begin(TraceContext root) {
+    long now = clock.currentTimeMicroseconds();
+    PendingTrace trace =
+        new PendingTrace(new TraceKey(root.traceIdHigh(), root.traceId()), root.spanId(), now);
+    pending.put(trace.key, trace);
+    order.add(trace);
+    orderSize.incrementAndGet();
+    decideOldest(now);
+  }
+
+  /**
+   * Removes traces already decided from the head of the queue, and decides the oldest pending ones
+   * while there are too many or they've expired.
+   */
+  void decideOldest(long now) {
+    PendingTrace oldest;
+    while ((oldest = order.peek()) != null) {
+      boolean decided = pending.get(oldest.key) != oldest;
+      if (!decided
+          && orderSize.get() <= MAX_PENDING_TRACES
+          && now - oldest.beginMicros < TIMEOUT_MICROS) {
+        return;
+      }
+      if (!order.remove(oldest)) continue; // another thread polled it
+      orderSize.decrementAndGet();
+      if (!decided) decide(oldest);
+    }
+  }
+
+  /** Returns true if the context belongs to a trace whose local root hasn't yet finished. */
+  boolean isPending(TraceContext context) {
+    return get(context.traceIdHigh(), context.traceId()) != null;
+  }
+
+  /** Buffers the finished span, deciding the trace when it is the local root. */
+  void finished(zipkin.Span span) {
+    PendingTrace trace = get(span.traceIdHigh, span.traceId);
+    if (trace == null) return; // dropped: the local root already finished
+    finished(trace, span);
+  }
+
+  /**
+   * Buffers the span unless the trace was decided since it was looked up, in which case the span
+   * is dropped like any other finishing after its local root.
+   */
+  void finished(PendingTrace trace, zipkin.Span span) {
+    synchronized (trace) {
+      if (trace.decided) return;
+      if (trace.spans.size() < MAX_SPANS_PER_TRACE) trace.spans.add(span);
+    }
+    if (span.id == trace.rootSpanId) decide(trace);
+  }
+
+  /** Decides the trace when the input is a local root which finished without recording data. */
+  void finishedEmpty(TraceContext context) {
+    PendingTrace trace = get(context.traceIdHigh(), context.traceId());
+    if (trace != null && context.spanId() == trace.rootSpanId) decide(trace);
+  }
+
+  PendingTrace get(long traceIdHigh, long traceId) {
+    LookupKey key = LOOKUP_KEY.get();
+    key.set(traceIdHigh, traceId);
+    return pending.get(key);
+  }
+
+  void decide(PendingTrace trace) {
+    if (!pending.remove(trace.key, trace)) return; // another thread decided
+
+    List<zipkin.Span> spans;
+    synchronized (trace) { // copy, as the sampler and reporter run without the lock
+      trace.decided = true;
+      spans = new ArrayList<>(trace.spans);
+    }
+    boolean sampled;
+    try {
+      sampled = sampler.isSampled(trace.key.traceId, spans);
+    } catch (RuntimeException e) {
+      logger.log(Level.FINE, "error sampling deferred trace", e);
+      return;
+    }
+    if (!sampled) return;
+    for (int i = 0, length = spans.size(); i < length; i++) {
+      reporter.report(spans.get(i));
+    }
+  }
+
+  static final class PendingTrace {
+    final TraceKey key;
+    final long rootSpanId;
+    final long beginMicros;
+    final List<zipkin.Span> spans = new ArrayList<>(); // guarded by this
+    boolean decided; // guarded by this
+
+    PendingTrace(TraceKey key, long rootSpanId, long beginMicros) {
+      this.key = key;
+      this.rootSpanId = rootSpanId;
+      this.beginMicros = beginMicros;
+    }
+  }
+
+  static final class TraceKey {
+    final long traceIdHigh, traceId;
+
+    TraceKey(long traceIdHigh, long traceId) {
+      this.traceIdHigh = traceIdHigh;
+      this.traceId = traceId;
+    }
+
+    @Override public boolean equals(Object o) {
+      if (o == this) return true;
+      if (!(o instanceof TraceKey)) return false;
+      TraceKey that = (TraceKey) o;
+      return traceIdHigh == that.traceIdHigh && traceId == that.traceId;
+    }
+
+    @Override public int hashCode() {
+      return hashCode(traceIdHigh, traceId);
+    }
+
+    static int hashCode(long traceIdHigh, long traceId) {
+      int h = 1;
+      h *= 1000003;
+      h ^= (traceIdHigh >>> 32) ^ traceIdHigh;
+      h *= 1000003;
+      h ^= (traceId >>> 32) ^ traceId;
+      return h;
+    }
+  }
+
+  /**
+   * Mutable key, only used to look up trace keys. It's never put into the map, so mutating it
+   * doesn't corrupt the map.
+   */
+  static final class LookupKey {
+    long traceIdHigh, traceId;
+
+    void set(long traceIdHigh, long traceId) {
+      this.traceIdHigh = traceIdHigh;
+      this.traceId = traceId;
+    }
+
+    @Override public int hashCode() {
+      return TraceKey.hashCode(traceIdHigh, traceId);
+    }
+
+    /** Resolves hash code collisions */
+    @Override public boolean equals(Object other) {
+      TraceKey that = (TraceKey) other;
+      return traceIdHigh == that.traceIdHigh && traceId == that.traceId;
+    }
+  }
+}
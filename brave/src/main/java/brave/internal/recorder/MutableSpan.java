@@ -13,6 +13,8 @@ import static zipkin.Constants.LOCAL_COMPONENT;
 final class MutableSpan {
   final Endpoint localEndpoint;
   final zipkin.Span.Builder span;
+  /** True when the sampling decision is deferred until the local root finishes */
+  final boolean deferred;
   boolean shared;
   // fields which are added late
   long startTimestamp;
@@ -41,6 +43,7 @@ final class MutableSpan {
         .id(context.spanId())
         .debug(context.debug())
         .name(""); // avoid a NPE
+    deferred = context.sampled() == null;
     shared = context.shared();
     startTimestamp = 0;
     remoteEndpoint = null;
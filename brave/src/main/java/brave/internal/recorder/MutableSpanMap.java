@@ -32,11 +32,18 @@ final class MutableSpanMap extends ReferenceQueue<TraceContext> {
   final Endpoint localEndpoint;
   final Clock clock;
   final Reporter<zipkin.Span> reporter;
+  @Nullable final DeferredSpans deferredSpans;
 
   MutableSpanMap(Endpoint localEndpoint, Clock clock, Reporter<zipkin.Span> reporter) {
+    this(localEndpoint, clock, reporter, null);
+  }
+
+  MutableSpanMap(Endpoint localEndpoint, Clock clock, Reporter<zipkin.Span> reporter,
+      @Nullable DeferredSpans deferredSpans) {
     this.localEndpoint = localEndpoint;
     this.clock = clock;
     this.reporter = reporter;
+    this.deferredSpans = deferredSpans;
   }
 
   @Nullable MutableSpan get(TraceContext context) {
@@ -71,7 +78,7 @@ final class MutableSpanMap extends ReferenceQueue<TraceContext> {
       if (value == null) continue;
       try {
         value.annotate(clock.currentTimeMicroseconds(), "brave.flush");
-        reporter.report(value.toSpan());
+        report(value);
       } catch (RuntimeException e) {
         // don't crash the caller if there was a problem reporting an unrelated span.
         if (context != null && logger.isLoggable(Level.FINE)) {
@@ -81,6 +88,15 @@ final class MutableSpanMap extends ReferenceQueue<TraceContext> {
     }
   }
 
+  /** Reports the span, or buffers it when its trace's sampling decision is deferred. */
+  void report(MutableSpan span) {
+    if (span.deferred && deferredSpans != null) {
+      deferredSpans.finished(span.toSpan());
+    } else {
+      reporter.report(span.toSpan());
+    }
+  }
+
   /**
    * Real keys contain a reference to the real context associated with a span. This is a weak
    * reference, so that we get notified on GC pressure.
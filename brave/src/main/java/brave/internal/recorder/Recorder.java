@@ -4,6 +4,8 @@ import brave.Clock;
 import brave.Span;
 import brave.internal.Nullable;
 import brave.propagation.TraceContext;
+import brave.sampler.DeferredSampler;
+import brave.sampler.Sampler;
 import zipkin.Endpoint;
 import zipkin.reporter.Reporter;
 
@@ -11,11 +13,35 @@ import zipkin.reporter.Reporter;
 public final class Recorder {
 
   final MutableSpanMap spanMap;
-  final Reporter<zipkin.Span> reporter;
+  final DeferredSpans deferredSpans;
 
   public Recorder(Endpoint localEndpoint, Clock clock, Reporter<zipkin.Span> reporter) {
-    this.spanMap = new MutableSpanMap(localEndpoint, clock, reporter);
-    this.reporter = reporter;
+    this(localEndpoint, clock, reporter, DeferredSampler.create(Sampler.ALWAYS_SAMPLE));
+  }
+
+  public Recorder(Endpoint localEndpoint, Clock clock, Reporter<zipkin.Span> reporter,
+      DeferredSampler deferredSampler) {
+    this.deferredSpans = new DeferredSpans(deferredSampler, reporter, clock);
+    this.spanMap = new MutableSpanMap(localEndpoint, clock, reporter, deferredSpans);
+  }
+
+  /**
+   * Starts buffering spans in the trace of the input, a new local root whose sampling decision is
+   * deferred until it finishes.
+   *
+   * @see brave.Tracer#newDeferredTrace()
+   */
+  public void beginDeferred(TraceContext root) {
+    if (root.sampled() != null) throw new IllegalArgumentException(root + " is already sampled");
+    deferredSpans.begin(root);
+  }
+
+  /**
+   * Returns true if the input is part of a trace whose local root hasn't finished, and so hasn't
+   * yet been sampled.
+   */
+  public boolean isDeferred(TraceContext context) {
+    return context.sampled() == null && deferredSpans.isPending(context);
   }
 
   /**
@@ -69,20 +95,26 @@ public final class Recorder {
   /** @see Span#finish() */
   public void finish(TraceContext context, long finishTimestamp) {
     MutableSpan span = spanMap.remove(context);
-    if (span == null) return;
+    if (span == null) {
+      if (context.sampled() == null) deferredSpans.finishedEmpty(context);
+      return;
+    }
     synchronized (span) {
       span.finish(finishTimestamp);
-      reporter.report(span.toSpan());
+      spanMap.report(span);
     }
   }
 
   /** @see Span#flush() */
   public void flush(TraceContext context) {
     MutableSpan span = spanMap.remove(context);
-    if (span == null) return;
+    if (span == null) {
+      if (context.sampled() == null) deferredSpans.finishedEmpty(context);
+      return;
+    }
     synchronized (span) {
       span.finish(null);
-      reporter.report(span.toSpan());
+      spanMap.report(span);
     }
   }
 }
@@ -0,0 +1,50 @@
+package brave.sampler;
+
+import java.util.List;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+
+/**
+ * Decides whether to report a locally rooted trace after its root span finished. This is used by
+ * {@link brave.Tracer#newDeferredTrace()}, for work where it is only known at the end whether it
+ * was interesting, such as a cache miss or a retry storm.
+ *
+ * <p>Unlike {@link Sampler}, the input is the spans recorded in this process for the trace. As
+ * these are buffered until the decision, deferred sampling trades memory for better capture
+ * quality at the same reporting volume.
+ */
+// abstract for factory-method support on Java language level 7
+public abstract class DeferredSampler {
+
+  /**
+   * Returns a sampler which keeps traces that include an {@link Constants#ERROR error} tag,
+   * otherwise delegating to the input.
+   */
+  public static DeferredSampler create(final Sampler sampler) {
+    if (sampler == null) throw new NullPointerException("sampler == null");
+    return new DeferredSampler() {
+      @Override public boolean isSampled(long traceId, List<zipkin.Span> localSpans) {
+        for (int i = 0, length = localSpans.size(); i < length; i++) {
+          List<BinaryAnnotation> tags = localSpans.get(i).binaryAnnotations;
+          for (int j = 0, tagCount = tags.size(); j < tagCount; j++) {
+            if (tags.get(j).key.equals(Constants.ERROR)) return true;
+          }
+        }
+        return sampler.isSampled(traceId);
+      }
+
+      @Override public String toString() {
+        return "KeepErrorsOr(" + sampler + ")";
+      }
+    };
+  }
+
+  /**
+   * Returns true if the spans should be reported.
+   *
+   * @param traceId the lower 64-bits of the trace ID
+   * @param localSpans spans of this trace finished in this process, in order of completion. The
+   * local root is last.
+   */
+  public abstract boolean isSampled(long traceId, List<zipkin.Span> localSpans);
+}
@@ -0,0 +1,63 @@
+package brave.sampler;
+
+import static zipkin.internal.Util.checkArgument;
+
+/**
+ * Drops whole traces when a reporting queue is under pressure, as opposed to whichever spans
+ * happen to arrive when it is full. Partial traces are of little use, yet cost as much to store.
+ *
+ * <h3>Implementation</h3>
+ *
+ * <p>Trace IDs are divided into 10000 bands. Once the queue is more than {@code threshold} full,
+ * the highest bands are shed first, widening linearly until all spans are shed at capacity. As the
+ * decision only depends on the trace ID and pressure, every instance sheds the same traces first:
+ * traces in low bands stay complete across hosts unless all of them are near capacity.
+ *
+ * <p>Unlike {@link BoundarySampler}, there is no salt, as consistency across hosts is the point.
+ */
+public final class LoadShedding {
+  static final int BANDS = 10000;
+
+  /** Never sheds, so spans are only dropped when the queue is full. */
+  public static final LoadShedding NONE = new LoadShedding(1.0f);
+
+  /**
+   * @param threshold fraction of queue capacity in use before traces are shed. 1.0 means never.
+   */
+  public static LoadShedding create(float threshold) {
+    if (threshold == 1.0f) return NONE;
+    checkArgument(threshold >= 0 && threshold < 1,
+        "threshold should be between 0 and 1: was %s", threshold);
+    return new LoadShedding(threshold);
+  }
+
+  final float threshold;
+
+  LoadShedding(float threshold) {
+    this.threshold = threshold;
+  }
+
+  /**
+   * Returns true if spans of this trace should be dropped.
+   *
+   * @param used current depth of the queue, in spans or bytes
+   * @param capacity maximum depth of the queue, in the same unit as {@code used}
+   */
+  public boolean isShed(long traceId, long used, long capacity) {
+    if (threshold == 1.0f) return false;
+    float pressure = (float) used / capacity;
+    if (pressure <= threshold) return false;
+    float shedFraction = (pressure - threshold) / (1.0f - threshold);
+    return band(traceId) >= (1.0f - shedFraction) * BANDS;
+  }
+
+  /** Returns a value in [0, 10000) which is consistent for the same trace ID. */
+  static int band(long traceId) {
+    return (int) ((traceId & Long.MAX_VALUE) % BANDS);
+  }
+
+  @Override
+  public String toString() {
+    return "LoadShedding(" + threshold + ")";
+  }
+}
@@ -0,0 +1,172 @@
+package brave.sampler;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import zipkin.reporter.AsyncReporter;
+import zipkin.reporter.Reporter;
+import zipkin.reporter.ReporterMetrics;
+
+/**
+ * Wraps an {@link AsyncReporter}, {@link LoadShedding shedding} whole traces as its queue fills.
+ *
+ * <p>Queue depth is learned from the {@link #queueMetrics() metrics} of the async reporter, so the
+ * two must be wired together, with the same limits:
+ *
+ * <pre>{@code
+ * LoadSheddingReporter.Builder shedding = LoadSheddingReporter.builder()
+ *     .queuedMaxSpans(10000)
+ *     .queuedMaxBytes(5 * 1024 * 1024)
+ *     .threshold(0.5f);
+ * reporter = shedding.build(AsyncReporter.builder(sender)
+ *     .queuedMaxSpans(10000)
+ *     .queuedMaxBytes(5 * 1024 * 1024)
+ *     .metrics(shedding.queueMetrics())
+ *     .build());
+ * }</pre>
+ */
+public final class LoadSheddingReporter implements Reporter<zipkin.Span> {
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  public static final class Builder {
+    LoadShedding shedding = LoadShedding.create(0.5f);
+    int queuedMaxSpans = 10000;
+    int queuedMaxBytes = (int) (Runtime.getRuntime().totalMemory() * 0.01);
+    ReporterMetrics metrics = ReporterMetrics.NOOP_METRICS;
+    QueueMetrics queueMetrics;
+
+    /** Fraction of either queue limit in use before traces are shed. Defaults to 0.5 */
+    public Builder threshold(float threshold) {
+      this.shedding = LoadShedding.create(threshold);
+      return this;
+    }
+
+    /** Must match {@link AsyncReporter.Builder#queuedMaxSpans(int)}. Defaults to 10000. */
+    public Builder queuedMaxSpans(int queuedMaxSpans) {
+      this.queuedMaxSpans = queuedMaxSpans;
+      return this;
+    }
+
+    /** Must match {@link AsyncReporter.Builder#queuedMaxBytes(int)}. Defaults to 1% of heap. */
+    public Builder queuedMaxBytes(int queuedMaxBytes) {
+      this.queuedMaxBytes = queuedMaxBytes;
+      return this;
+    }
+
+    /** Receives metrics of the async reporter, and spans shed by this. Defaults to no-op. */
+    public Builder metrics(ReporterMetrics metrics) {
+      if (metrics == null) throw new NullPointerException("metrics == null");
+      this.metrics = metrics;
+      return this;
+    }
+
+    /** Pass this to {@link AsyncReporter.Builder#metrics(ReporterMetrics)}. */
+    public ReporterMetrics queueMetrics() {
+      if (queueMetrics == null) queueMetrics = new QueueMetrics(metrics);
+      return queueMetrics;
+    }
+
+    public LoadSheddingReporter build(Reporter<zipkin.Span> delegate) {
+      if (delegate == null) throw new NullPointerException("delegate == null");
+      if (queueMetrics == null) {
+        throw new IllegalStateException("queueMetrics() must be passed to the async reporter");
+      }
+      return new LoadSheddingReporter(this, delegate);
+    }
+
+    Builder() {
+    }
+  }
+
+  final LoadShedding shedding;
+  final int queuedMaxSpans, queuedMaxBytes;
+  final QueueMetrics queueMetrics;
+  final Reporter<zipkin.Span> delegate;
+
+  LoadSheddingReporter(Builder builder, Reporter<zipkin.Span> delegate) {
+    this.shedding = builder.shedding;
+    this.queuedMaxSpans = builder.queuedMaxSpans;
+    this.queuedMaxBytes = builder.queuedMaxBytes;
+    this.queueMetrics = builder.queueMetrics;
+    this.delegate = delegate;
+  }
+
+  @Override public void report(zipkin.Span span) {
+    if (shedding.isShed(span.traceId, queueMetrics.queuedSpans(), queuedMaxSpans)
+        || shedding.isShed(span.traceId, queueMetrics.queuedBytes(), queuedMaxBytes)) {
+      queueMetrics.delegate.incrementSpans(1); // bypass queue accounting
+      queueMetrics.delegate.incrementSpansDropped(1);
+      return;
+    }
+    delegate.report(span);
+  }
+
+  @Override public String toString() {
+    return "LoadSheddingReporter(" + delegate + ")";
+  }
+
+  /**
+   * Estimates queue depth, forwarding all metrics to the delegate.
+   *
+   * <p>The async reporter only updates queue depth after draining it, so spans reported since are
+   * added to the estimate. This over-counts spans dropped when the queue was full, which is fine as
+   * the queue would be at capacity regardless.
+   */
+  static final class QueueMetrics implements ReporterMetrics {
+    final ReporterMetrics delegate;
+    final AtomicInteger spansSinceUpdate = new AtomicInteger();
+    final AtomicInteger bytesSinceUpdate = new AtomicInteger();
+    volatile int queuedSpans, queuedBytes;
+
+    QueueMetrics(ReporterMetrics delegate) {
+      this.delegate = delegate;
+    }
+
+    int queuedSpans() {
+      return queuedSpans + spansSinceUpdate.get();
+    }
+
+    int queuedBytes() {
+      return queuedBytes + bytesSinceUpdate.get();
+    }
+
+    @Override public void updateQueuedSpans(int update) {
+      spansSinceUpdate.set(0);
+      queuedSpans = update;
+      delegate.updateQueuedSpans(update);
+    }
+
+    @Override public void updateQueuedBytes(int update) {
+      bytesSinceUpdate.set(0);
+      queuedBytes = update;
+      delegate.updateQueuedBytes(update);
+    }
+
+    @Override public void incrementMessages() {
+      delegate.incrementMessages();
+    }
+
+    @Override public void incrementMessagesDropped(Throwable cause) {
+      delegate.incrementMessagesDropped(cause);
+    }
+
+    @Override public void incrementSpans(int quantity) {
+      spansSinceUpdate.addAndGet(quantity);
+      delegate.incrementSpans(quantity);
+    }
+
+    @Override public void incrementSpanBytes(int quantity) {
+      bytesSinceUpdate.addAndGet(quantity);
+      delegate.incrementSpanBytes(quantity);
+    }
+
+    @Override public void incrementMessageBytes(int quantity) {
+      delegate.incrementMessageBytes(quantity);
+    }
+
+    @Override public void incrementSpansDropped(int quantity) {
+      delegate.incrementSpansDropped(quantity);
+    }
+  }
+}
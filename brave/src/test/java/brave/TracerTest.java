@@ -2,6 +2,7 @@ package brave;
 
 import brave.propagation.SamplingFlags;
 import brave.propagation.TraceContext;
+import brave.sampler.DeferredSampler;
 import brave.sampler.Sampler;
 import java.util.ArrayList;
 import java.util.List;
@@ -147,4 +148,80 @@ public class TracerTest {
     assertThat(tracer.newChild(unsampled))
         .isInstanceOf(NoopSpan.class);
   }
+
+  @Test public void newDeferredTrace_reportsWhenDeferredSamplerKeeps() {
+    List<zipkin.Span> spans = new ArrayList<>();
+    tracer = Tracer.newBuilder().reporter(spans::add).sampler(Sampler.NEVER_SAMPLE).build();
+
+    Span root = tracer.newDeferredTrace().name("root").start();
+    assertThat(root.context().sampled()).isNull();
+
+    Span child = tracer.newChild(root.context()).name("child").start();
+    assertThat(child).isInstanceOf(RealSpan.class);
+    child.tag("error", "timeout");
+    child.finish();
+    assertThat(spans).isEmpty(); // buffered until the root finishes
+
+    root.finish();
+    assertThat(spans).extracting(s -> s.name)
+        .containsExactly("child", "root");
+  }
+
+  @Test public void newDeferredTrace_dropsWhenDeferredSamplerDrops() {
+    List<zipkin.Span> spans = new ArrayList<>();
+    tracer = Tracer.newBuilder().reporter(spans::add).sampler(Sampler.NEVER_SAMPLE).build();
+
+    Span root = tracer.newDeferredTrace().name("root").start();
+    tracer.newChild(root.context()).name("child").start().finish();
+    root.finish();
+
+    assertThat(spans).isEmpty();
+  }
+
+  @Test public void newDeferredTrace_dropsChildrenFinishedAfterRoot() {
+    List<zipkin.Span> spans = new ArrayList<>();
+    tracer = Tracer.newBuilder().reporter(spans::add).build();
+
+    Span root = tracer.newDeferredTrace().name("root").start();
+    Span child = tracer.newChild(root.context()).name("child").start();
+    root.finish();
+    child.finish();
+
+    assertThat(spans).extracting(s -> s.name)
+        .containsExactly("root");
+  }
+
+  @Test public void newDeferredTrace_toSpanIsRealUntilRootFinishes() {
+    tracer = Tracer.newBuilder().reporter(s -> {
+    }).build();
+
+    Span root = tracer.newDeferredTrace().start();
+    assertThat(tracer.toSpan(root.context()))
+        .isInstanceOf(RealSpan.class);
+
+    root.finish();
+    assertThat(tracer.toSpan(root.context()))
+        .isInstanceOf(NoopSpan.class);
+    assertThat(tracer.newChild(root.context()).context().sampled())
+        .isNotNull(); // a normal sampling decision
+  }
+
+  @Test public void newDeferredTrace_customDeferredSampler() {
+    List<zipkin.Span> spans = new ArrayList<>();
+    tracer = Tracer.newBuilder().reporter(spans::add)
+        .deferredSampler(new DeferredSampler() {
+          @Override public boolean isSampled(long traceId, List<zipkin.Span> localSpans) {
+            return localSpans.size() > 1;
+          }
+        }).build();
+
+    Span root = tracer.newDeferredTrace().name("root").start();
+    root.finish();
+    assertThat(spans).isEmpty();
+
+    root = tracer.newDeferredTrace().name("root").start();
+    tracer.newChild(root.context()).name("child").start().finish();
+    root.finish();
+    assertThat(spans).hasSize(2);
+  }
 }
@@ -0,0 +1,114 @@
+package brave.internal.recorder;
+
+import brave.propagation.TraceContext;
+import brave.sampler.DeferredSampler;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+import static java.util.Arrays.asList;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeferredSpansTest {
+  List<zipkin.Span> spans = new ArrayList<>();
+  List<Long> decided = new ArrayList<>();
+  long now = 1L;
+  DeferredSpans deferredSpans = new DeferredSpans(new DeferredSampler() {
+    @Override public boolean isSampled(long traceId, List<zipkin.Span> localSpans) {
+      decided.add(traceId);
+      return true;
+    }
+  }, spans::add, () -> now);
+
+  @Test public void isPending_untilRootFinishes() {
+    TraceContext root = root(1L);
+    deferredSpans.begin(root);
+    assertThat(deferredSpans.isPending(root)).isTrue();
+
+    deferredSpans.finishedEmpty(root);
+    assertThat(deferredSpans.isPending(root)).isFalse();
+    assertThat(decided).containsExactly(1L);
+  }
+
+  @Test public void isPending_comparesTraceIdHigh() {
+    deferredSpans.begin(root(1L));
+
+    assertThat(deferredSpans.isPending(root(1L).toBuilder().traceIdHigh(2L).build())).isFalse();
+  }
+
+  @Test public void decidesOldestWhenTooManyPending() {
+    for (long i = 1; i <= DeferredSpans.MAX_PENDING_TRACES + 1; i++) deferredSpans.begin(root(i));
+
+    assertThat(decided).containsExactly(1L);
+    assertThat(deferredSpans.isPending(root(1L))).isFalse();
+    assertThat(deferredSpans.pending).hasSize(DeferredSpans.MAX_PENDING_TRACES);
+  }
+
+  @Test public void decidesWithSpansBufferedSoFar() {
+    deferredSpans.begin(root(1L));
+    deferredSpans.finished(zipkin.Span.builder().traceId(1L).id(2L).name("child").build());
+
+    now += DeferredSpans.TIMEOUT_MICROS;
+    deferredSpans.begin(root(2L));
+
+    assertThat(decided).containsExactly(1L);
+    assertThat(spans).extracting(s -> s.name).containsExactly("child");
+    // the root finishing later is dropped, like children finishing after the root
+    deferredSpans.finished(zipkin.Span.builder().traceId(1L).id(1L).name("root").build());
+    assertThat(spans).hasSize(1);
+  }
+
+  @Test public void expiresAbandonedTraces() {
+    deferredSpans.begin(root(1L));
+    now += DeferredSpans.TIMEOUT_MICROS - 1;
+    deferredSpans.begin(root(2L));
+    assertThat(decided).isEmpty();
+
+    now += 1;
+    deferredSpans.begin(root(3L));
+    assertThat(decided).containsExactly(1L);
+    assertThat(deferredSpans.isPending(root(2L))).isTrue();
+  }
+
+  @Test public void removesDecidedTracesFromQueue() {
+    for (long i = 1; i <= 3; i++) {
+      deferredSpans.begin(root(i));
+      deferredSpans.finishedEmpty(root(i));
+    }
+
+    assertThat(deferredSpans.order).hasSize(1); // the last, until another trace begins
+    assertThat(deferredSpans.orderSize.get()).isEqualTo(1);
+  }
+
+  @Test public void dropsChildFinishingWhileRootDecides() throws Exception {
+    List<List<zipkin.Span>> sampled = new ArrayList<>();
+    zipkin.Span root = zipkin.Span.builder().traceId(1L).id(1L).name("root").build();
+    zipkin.Span child = zipkin.Span.builder().traceId(1L).id(2L).name("child").build();
+    DeferredSpans.PendingTrace[] trace = new DeferredSpans.PendingTrace[1];
+    deferredSpans = new DeferredSpans(new DeferredSampler() {
+      @Override public boolean isSampled(long traceId, List<zipkin.Span> localSpans) {
+        // the child's thread looked up the trace before it was decided, and finishes now
+        Thread thread = new Thread(() -> deferredSpans.finished(trace[0], child));
+        thread.start();
+        try {
+          thread.join();
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+        sampled.add(new ArrayList<>(localSpans));
+        return true;
+      }
+    }, spans::add, () -> now);
+
+    deferredSpans.begin(root(1L));
+    trace[0] = deferredSpans.get(0L, 1L);
+    deferredSpans.finished(root);
+
+    assertThat(sampled).containsExactly(asList(root));
+    assertThat(spans).containsExactly(root);
+  }
+
+  static TraceContext root(long traceId) {
+    return TraceContext.newBuilder().traceId(traceId).spanId(traceId).build();
+  }
+}
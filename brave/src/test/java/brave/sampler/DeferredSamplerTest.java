@@ -0,0 +1,30 @@
+package brave.sampler;
+
+import java.util.Arrays;
+import org.junit.Test;
+import zipkin.BinaryAnnotation;
+import zipkin.Constants;
+import zipkin.Span;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class DeferredSamplerTest {
+  Span span = Span.builder().traceId(1L).id(1L).name("get").build();
+
+  @Test public void create_keepsErrors() {
+    DeferredSampler sampler = DeferredSampler.create(Sampler.NEVER_SAMPLE);
+    Span error = span.toBuilder().id(2L)
+        .addBinaryAnnotation(BinaryAnnotation.create(Constants.ERROR, "timeout", null))
+        .build();
+
+    assertThat(sampler.isSampled(1L, Arrays.asList(error, span)))
+        .isTrue();
+  }
+
+  @Test public void create_otherwiseDelegates() {
+    assertThat(DeferredSampler.create(Sampler.NEVER_SAMPLE).isSampled(1L, Arrays.asList(span)))
+        .isFalse();
+    assertThat(DeferredSampler.create(Sampler.ALWAYS_SAMPLE).isSampled(1L, Arrays.asList(span)))
+        .isTrue();
+  }
+}
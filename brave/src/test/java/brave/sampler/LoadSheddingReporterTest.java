@@ -0,0 +1,70 @@
+package brave.sampler;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import zipkin.Span;
+import zipkin.reporter.InMemoryReporterMetrics;
+import zipkin.reporter.ReporterMetrics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class LoadSheddingReporterTest {
+  InMemoryReporterMetrics metrics = new InMemoryReporterMetrics();
+  List<Span> spans = new ArrayList<>();
+  LoadSheddingReporter.Builder builder = LoadSheddingReporter.builder()
+      .queuedMaxSpans(10)
+      .queuedMaxBytes(Integer.MAX_VALUE)
+      .threshold(0.5f)
+      .metrics(metrics);
+
+  @Test public void passesThroughUnderThreshold() {
+    ReporterMetrics queueMetrics = builder.queueMetrics();
+    LoadSheddingReporter reporter = builder.build(spans::add);
+
+    queueMetrics.updateQueuedSpans(5);
+    reporter.report(span(Long.MAX_VALUE));
+
+    assertThat(spans).hasSize(1);
+    assertThat(metrics.spansDropped()).isZero();
+  }
+
+  @Test public void shedsAtCapacity() {
+    ReporterMetrics queueMetrics = builder.queueMetrics();
+    LoadSheddingReporter reporter = builder.build(spans::add);
+
+    queueMetrics.updateQueuedSpans(10);
+    reporter.report(span(1L));
+
+    assertThat(spans).isEmpty();
+    assertThat(metrics.spans()).isEqualTo(1);
+    assertThat(metrics.spansDropped()).isEqualTo(1);
+  }
+
+  @Test public void estimatesQueueDepthBetweenUpdates() {
+    ReporterMetrics queueMetrics = builder.queueMetrics();
+    LoadSheddingReporter reporter = builder.build(span -> {
+      queueMetrics.incrementSpans(1); // like AsyncReporter
+      spans.add(span);
+    });
+
+    for (int i = 0; i < 20; i++) reporter.report(span(i));
+
+    // these trace IDs are in the lowest bands, so are only shed when the queue is full
+    assertThat(spans).extracting(s -> s.traceId)
+        .containsExactly(0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L);
+
+    queueMetrics.updateQueuedSpans(0); // drained
+    reporter.report(span(19L));
+    assertThat(spans).extracting(s -> s.traceId).contains(19L);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void build_requiresQueueMetrics() {
+    builder.build(spans::add);
+  }
+
+  static Span span(long traceId) {
+    return Span.builder().traceId(traceId).id(1L).name("get").build();
+  }
+}
@@ -0,0 +1,69 @@
+package brave.sampler;
+
+import java.util.Random;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.data.Offset.offset;
+
+public class LoadSheddingTest {
+  LoadShedding shedding = LoadShedding.create(0.5f);
+  long[] traceIds = new Random(1L).longs(10000).toArray();
+
+  @Test public void none_neverSheds() {
+    for (long traceId : traceIds) {
+      assertThat(LoadShedding.NONE.isShed(traceId, 1000, 1000)).isFalse();
+    }
+  }
+
+  @Test public void noSheddingUnderThreshold() {
+    for (long traceId : traceIds) {
+      assertThat(shedding.isShed(traceId, 500, 1000)).isFalse();
+    }
+  }
+
+  @Test public void shedsEverythingAtCapacity() {
+    for (long traceId : traceIds) {
+      assertThat(shedding.isShed(traceId, 1000, 1000)).isTrue();
+    }
+  }
+
+  @Test public void shedFractionGrowsWithPressure() {
+    assertThat(shedFraction(600)).isCloseTo(0.2f, offset(0.02f));
+    assertThat(shedFraction(750)).isCloseTo(0.5f, offset(0.02f));
+    assertThat(shedFraction(900)).isCloseTo(0.8f, offset(0.02f));
+  }
+
+  /** Traces shed at low pressure are also shed at higher pressure */
+  @Test public void shedTracesAreStableAsPressureIncreases() {
+    for (long traceId : traceIds) {
+      boolean shed = false;
+      for (int used = 500; used <= 1000; used += 10) {
+        boolean next = shedding.isShed(traceId, used, 1000);
+        assertThat(!shed || next).isTrue();
+        shed = next;
+      }
+    }
+  }
+
+  @Test public void consistentAcrossInstances() {
+    LoadShedding other = LoadShedding.create(0.5f);
+    for (long traceId : traceIds) {
+      assertThat(other.isShed(traceId, 800, 1000))
+          .isEqualTo(shedding.isShed(traceId, 800, 1000));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void create_invalidThreshold() {
+    LoadShedding.create(1.5f);
+  }
+
+  float shedFraction(int used) {
+    int shed = 0;
+    for (long traceId : traceIds) {
+      if (shedding.isShed(traceId, used, 1000)) shed++;
+    }
+    return shed / (float) traceIds.length;
+  }
+}